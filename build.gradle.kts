@@ -35,9 +35,12 @@ val spockVersion: String by project
 val shadowVersion: String by project
 val shadowForkVersion: String by project
 val jacocoVersion: String by project
+val commonsCompressVersion: String by project
 
 dependencies {
     implementation("org.openjdk.jmh:jmh-core:$jmhVersion")
+    compileOnly("org.openjdk.jmh:jmh-generator-bytecode:$jmhVersion")
+    implementation("org.apache.commons:commons-compress:$commonsCompressVersion")
 
     testImplementation("org.spockframework:spock-core:$spockVersion") {
         exclude(mapOf("group" to "org.codehaus.groovy"))
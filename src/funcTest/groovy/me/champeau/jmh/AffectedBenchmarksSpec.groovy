@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Unroll
+
+import static org.gradle.testkit.runner.TaskOutcome.SKIPPED
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class AffectedBenchmarksSpec extends AbstractFuncSpec {
+
+    def setup() {
+        usingSample("java-project")
+    }
+
+    def "only selects the benchmarks affected by a change"() {
+        given:
+        build("jmhAffectedBenchmarks")
+        def affected = file("build/jmh-affected/benchmarks.txt")
+
+        expect:
+        affected.readLines() == ['me.champeau.jmh.mixlang.JavaBenchmark.sqrtBenchmark']
+
+        when:
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+            }
+        """
+        def result = build("jmhAffectedBenchmarks")
+
+        then:
+        result.task(":jmhAffectedBenchmarks").outcome == SUCCESS
+        affected.readLines() == ['me.champeau.jmh.mixlang.OtherBenchmark.cbrtBenchmark']
+    }
+
+    def "only selects the affected benchmarks matching the includes"() {
+        given:
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+
+                @Benchmark
+                public double expBenchmark() {
+                    return Math.exp(3.0);
+                }
+            }
+        """
+        buildFile << """
+            jmh {
+                includes = ['cbrt']
+            }
+        """
+
+        when:
+        def result = build("jmhAffectedBenchmarks")
+
+        then:
+        result.task(":jmhAffectedBenchmarks").outcome == SUCCESS
+        file("build/jmh-affected/benchmarks.txt").readLines() == ['me.champeau.jmh.mixlang.OtherBenchmark.cbrtBenchmark']
+    }
+
+    def "skips benchmarks when nothing is affected"() {
+        given:
+        build("jmhAffectedBenchmarks")
+
+        when:
+        file("src/main/java/me/champeau/jmh/Unused.java") << """
+            package me.champeau.jmh;
+
+            public class Unused {
+            }
+        """
+        def result = build("jmhAffected")
+
+        then:
+        result.task(":jmhAffected").outcome == SKIPPED
+        file("build/jmh-affected/benchmarks.txt").readLines().empty
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import spock.lang.Unroll
+
+import static org.gradle.testkit.runner.TaskOutcome.FAILED
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class CompareSpec extends AbstractFuncSpec {
+
+    def setup() {
+        usingSample("java-project")
+        buildFile << """
+            jmh {
+                resultFormat = 'JSON'
+                resultsFile = file('build/reports/benchmarks.json')
+                benchmarkMode = ['thrpt']
+                iterations = 3
+                timeOnIteration = '1s'
+            }
+        """
+    }
+
+    def "fails when a benchmark regressed"() {
+        given:
+        build("jmh")
+        def results = new JsonSlurper().parse(file("build/reports/benchmarks.json"))
+        // a baseline 10 times faster than the current results
+        results.each { result ->
+            result.primaryMetric.score *= 10
+            result.primaryMetric.rawData = result.primaryMetric.rawData.collect { fork -> fork.collect { it * 10 } }
+        }
+        file("baseline.json").text = JsonOutput.toJson(results)
+
+        when:
+        def result = buildAndFail("jmhCompare", "-Pjmh.baseline=baseline.json")
+
+        then:
+        result.task(":jmhCompare").outcome == FAILED
+        result.output.contains("1 benchmark(s) regressed by more than 5.0%")
+        file("build/reports/jmh/compare.txt").text.startsWith("REGRESSED me.champeau.jmh.mixlang.JavaBenchmark.sqrtBenchmark thrpt {a=a}")
+    }
+
+    def "succeeds when comparing results with themselves"() {
+        given:
+        build("jmh")
+        file("baseline.json").text = file("build/reports/benchmarks.json").text
+
+        when:
+        def result = build("jmhCompare", "-Pjmh.baseline=baseline.json")
+
+        then:
+        result.task(":jmhCompare").outcome == SUCCESS
+        file("build/reports/jmh/compare.txt").text.startsWith("UNCHANGED me.champeau.jmh.mixlang.JavaBenchmark.sqrtBenchmark thrpt {a=a}")
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Unroll
+
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class IncrementalGenerationSpec extends AbstractFuncSpec {
+
+    def setup() {
+        usingSample("java-project")
+    }
+
+    def "only regenerates benchmarks which changed"() {
+        given:
+        build("jmhCompileGeneratedClasses")
+        def generatedSource = file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/JavaBenchmark_sqrtBenchmark_jmhTest.java")
+        def lastModified = generatedSource.lastModified()
+
+        when:
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+            }
+        """
+        def result = build("jmhCompileGeneratedClasses")
+
+        then:
+        result.task(":jmhRunBytecodeGenerator").outcome == SUCCESS
+        generatedSource.lastModified() == lastModified
+        file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/OtherBenchmark_cbrtBenchmark_jmhTest.java").exists()
+        def benchmarkList = file("build/jmh-generated-resources/META-INF/BenchmarkList").text
+        benchmarkList.contains('JavaBenchmark')
+        benchmarkList.contains('OtherBenchmark')
+
+        when:
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java").delete()
+        build("jmhCompileGeneratedClasses")
+
+        then:
+        !file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/OtherBenchmark_cbrtBenchmark_jmhTest.java").exists()
+        !file("build/jmh-generated-resources/META-INF/BenchmarkList").text.contains('OtherBenchmark')
+        file("build/jmh-generated-resources/META-INF/BenchmarkList").text.contains('JavaBenchmark')
+    }
+
+    def "regenerates all benchmarks when the incremental state is gone"() {
+        given:
+        build("jmhCompileGeneratedClasses")
+
+        when:
+        file("build/jmh-generator-state").deleteDir()
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+            }
+        """
+        def result = build("jmhCompileGeneratedClasses")
+
+        then:
+        result.task(":jmhRunBytecodeGenerator").outcome == SUCCESS
+        file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/JavaBenchmark_sqrtBenchmark_jmhTest.java").exists()
+        file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/OtherBenchmark_cbrtBenchmark_jmhTest.java").exists()
+        def benchmarkList = file("build/jmh-generated-resources/META-INF/BenchmarkList").text
+        benchmarkList.contains('JavaBenchmark')
+        benchmarkList.contains('OtherBenchmark')
+    }
+
+    def "the asm generator resolves state classes declared outside of the benchmark class"() {
+        given:
+        buildFile << """
+            jmh {
+                generatorType = 'asm'
+            }
+        """
+        file("src/jmh/java/me/champeau/jmh/mixlang/ExternalState.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Thread)
+            public class ExternalState {
+                public double value = 27.0;
+            }
+        """
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark(ExternalState state) {
+                    return Math.cbrt(state.value);
+                }
+            }
+        """
+
+        when:
+        def result = build("jmhCompileGeneratedClasses")
+
+        then:
+        result.task(":jmhRunBytecodeGenerator").outcome == SUCCESS
+        file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/OtherBenchmark_cbrtBenchmark_jmhTest.java").exists()
+        file("build/jmh-generated-sources/me/champeau/jmh/mixlang/jmh_generated/ExternalState_jmhType.java").exists()
+        file("build/jmh-generated-resources/META-INF/BenchmarkList").readLines().count { it.contains('cbrtBenchmark') } == 1
+    }
+}
@@ -57,4 +57,29 @@ class MultiLanguageSpec extends AbstractFuncSpec {
         benchmarksCsv.text.contains('JavaBenchmark.sqrtBenchmark')
         benchmarksCsv.text.contains('GroovyBenchmark.sqrtBenchmark')
     }
+
+    def "Merges the generated resources of multiple languages deterministically"() {
+
+        given:
+        usingSample("mixed-language-project")
+
+        when:
+        def result = build("jmhRunBytecodeGenerator")
+        def benchmarkList = file("build/jmh-generated-resources/META-INF/BenchmarkList").text
+        def compilerHints = file("build/jmh-generated-resources/META-INF/CompilerHints").text
+
+        then:
+        result.task(":jmhRunBytecodeGenerator").outcome == SUCCESS
+        benchmarkList.contains('JavaBenchmark')
+        benchmarkList.contains('GroovyBenchmark')
+        benchmarkList.readLines() == benchmarkList.readLines().sort(false)
+        compilerHints.readLines() == compilerHints.readLines().sort(false)
+
+        when:
+        build("clean", "jmhRunBytecodeGenerator")
+
+        then:
+        file("build/jmh-generated-resources/META-INF/BenchmarkList").text == benchmarkList
+        file("build/jmh-generated-resources/META-INF/CompilerHints").text == compilerHints
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Unroll
+
+import java.security.MessageDigest
+
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class ReproducibleJarSpec extends AbstractFuncSpec {
+
+    def setup() {
+        usingSample("java-project")
+    }
+
+    def "builds the same JMH jar after a clean with #compression compression"() {
+        given:
+        buildFile << """
+            jmh {
+                jarCompression = '$compression'
+            }
+        """
+
+        when:
+        build("jmhJar")
+        def jarHash = hashOf(jmhJar())
+        def classesHashes = hashesOf(file("build/jmh-generated-classes"))
+
+        and:
+        def result = build("clean", "jmhJar")
+
+        then:
+        result.task(":jmhJar").outcome == SUCCESS
+        !classesHashes.isEmpty()
+        hashesOf(file("build/jmh-generated-classes")) == classesHashes
+        hashOf(jmhJar()) == jarHash
+
+        where:
+        compression << ['deflated', 'stored', 'parallel']
+    }
+
+    private File jmhJar() {
+        file("build/libs").listFiles().find { it.name.endsWith('-jmh.jar') }
+    }
+
+    private static Map<String, String> hashesOf(File dir) {
+        Map<String, String> hashes = new TreeMap<>()
+        dir.eachFileRecurse(groovy.io.FileType.FILES) {
+            hashes[dir.toPath().relativize(it.toPath()).toString()] = hashOf(it)
+        }
+        hashes
+    }
+
+    private static String hashOf(File file) {
+        MessageDigest.getInstance("SHA-256").digest(file.bytes).encodeHex().toString()
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Unroll
+
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class ResultsCacheSpec extends AbstractFuncSpec {
+
+    def setup() {
+        usingSample("java-project")
+        buildFile << """
+            jmh {
+                cacheResults = true
+            }
+        """
+    }
+
+    def "only executes benchmarks which changed"() {
+        given:
+        build("jmh")
+
+        when:
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            @Fork(1)
+            @Warmup(iterations = 0)
+            @Measurement(iterations = 1)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+            }
+        """
+        def result = build("jmh")
+
+        then:
+        result.task(":jmh").outcome == SUCCESS
+        result.output.contains("Reusing cached results of me.champeau.jmh.mixlang.JavaBenchmark.sqrtBenchmark")
+        !result.output.contains("Reusing cached results of me.champeau.jmh.mixlang.OtherBenchmark.cbrtBenchmark")
+        benchmarksCsv.text.contains('JavaBenchmark.sqrtBenchmark')
+        benchmarksCsv.text.contains('OtherBenchmark.cbrtBenchmark')
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import groovy.json.JsonSlurper
+import spock.lang.Unroll
+
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class RunInWorkerSpec extends AbstractFuncSpec {
+
+    def setup() {
+        usingSample("java-project")
+        buildFile << """
+            jmh {
+                runInWorker = true
+                benchmarkMode = ['thrpt']
+                warmupIterations = 1
+                iterations = 2
+                timeOnIteration = '1s'
+            }
+        """
+    }
+
+    def "runs benchmarks in a worker and reports the progress of each iteration"() {
+        when:
+        def result = build("jmh")
+
+        then:
+        result.task(":jmh").outcome == SUCCESS
+        benchmarksCsv.text.contains("JavaBenchmark.sqrtBenchmark")
+        def events = file("build/reports/benchmarks.progress.jsonl").readLines().collect { new JsonSlurper().parseText(it) }
+        events.first().event == 'startRun'
+        events.last().event == 'endRun'
+        def iterations = events.findAll { it.event == 'iteration' && it.benchmark.endsWith('JavaBenchmark.sqrtBenchmark') }
+        iterations*.phase == ['warmup', 'measurement', 'measurement']
+        iterations.every { it.params == [a: 'a'] && it.unit == 'ops/s' }
+        events.find { it.event == 'endBenchmark' && it.benchmark.endsWith('JavaBenchmark.sqrtBenchmark') }.score > 0
+    }
+}
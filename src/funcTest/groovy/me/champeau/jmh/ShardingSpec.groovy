@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Unroll
+
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+@Unroll
+class ShardingSpec extends AbstractFuncSpec {
+
+    def "runs shards separately and merges their results"() {
+        given:
+        usingSample("java-project")
+        buildFile << """
+            jmh {
+                shards = 2
+            }
+        """
+        file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java") << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            @Fork(1)
+            @Warmup(iterations = 0)
+            @Measurement(iterations = 1)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+            }
+        """
+
+        when:
+        def result = build("jmh")
+
+        then:
+        result.task(":jmhShardPlan").outcome == SUCCESS
+        result.task(":jmhShard1").outcome == SUCCESS
+        result.task(":jmhShard2").outcome == SUCCESS
+        result.task(":jmh").outcome == SUCCESS
+        file("build/jmh-shards/plan/shard-1.txt").readLines().size() == 1
+        file("build/jmh-shards/plan/shard-2.txt").readLines().size() == 1
+        benchmarksCsv.text.contains('JavaBenchmark.sqrtBenchmark')
+        benchmarksCsv.text.contains('OtherBenchmark.cbrtBenchmark')
+    }
+
+    def "doesn't merge the results of shards which became empty"() {
+        given:
+        usingSample("java-project")
+        buildFile << """
+            jmh {
+                shards = 2
+            }
+        """
+        def otherBenchmark = file("src/jmh/java/me/champeau/jmh/mixlang/OtherBenchmark.java")
+        otherBenchmark << """
+            package me.champeau.jmh.mixlang;
+
+            import org.openjdk.jmh.annotations.*;
+
+            @State(Scope.Benchmark)
+            @Fork(1)
+            @Warmup(iterations = 0)
+            @Measurement(iterations = 1)
+            public class OtherBenchmark {
+                @Benchmark
+                public double cbrtBenchmark() {
+                    return Math.cbrt(27.0);
+                }
+            }
+        """
+        build("jmh")
+
+        when:
+        otherBenchmark.delete()
+        def result = build("jmh")
+
+        then:
+        result.task(":jmh").outcome == SUCCESS
+        file("build/jmh-shards/plan/shard-2.txt").readLines().empty
+        !file("build/jmh-shards/results/shard-2.results").exists()
+        benchmarksCsv.text.contains('JavaBenchmark.sqrtBenchmark')
+        !benchmarksCsv.text.contains('OtherBenchmark.cbrtBenchmark')
+    }
+}
@@ -16,6 +16,7 @@
 package me.champeau.jmh
 
 import groovy.transform.CompileStatic
+import org.gradle.api.InvalidUserDataException
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.artifacts.Configuration
@@ -27,8 +28,11 @@ import org.gradle.api.file.FileCopyDetails
 import org.gradle.api.plugins.JavaPlugin
 import org.gradle.api.plugins.JavaPluginExtension
 import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.ClasspathNormalizer
+import org.gradle.api.tasks.StopExecutionException
 import org.gradle.api.tasks.TaskProvider
 import org.gradle.api.tasks.bundling.Jar
+import org.gradle.api.tasks.bundling.ZipEntryCompression
 import org.gradle.api.tasks.compile.JavaCompile
 import org.gradle.jvm.toolchain.JavaToolchainService
 import org.gradle.plugins.ide.eclipse.EclipsePlugin
@@ -51,6 +55,17 @@ class JMHPlugin implements Plugin<Project> {
     static final String JMH_NAME = 'jmh'
     static final String JMH_JAR_TASK_NAME = 'jmhJar'
     static final String JMH_TASK_COMPILE_GENERATED_CLASSES_NAME = 'jmhCompileGeneratedClasses'
+    static final String JMH_AFFECTED_BENCHMARKS_TASK_NAME = 'jmhAffectedBenchmarks'
+    static final String JMH_AFFECTED_TASK_NAME = 'jmhAffected'
+    static final String JMH_SHARD_PLAN_TASK_NAME = 'jmhShardPlan'
+    static final String MAX_PARALLEL_TASKS_PROPERTY = 'jmh.maxParallelTasks'
+    static final String JMH_COMPARE_TASK_NAME = 'jmhCompare'
+    static final String JMH_BASELINE_JAR_TASK_NAME = 'jmhBaselineJar'
+    static final String JMH_INTERLEAVED_TASK_NAME = 'jmhInterleaved'
+    static final String JMH_BISECT_TASK_NAME = 'jmhBisect'
+    static final String JMH_TREND_TASK_NAME = 'jmhTrend'
+    static final String JMH_JFR_REPORT_TASK_NAME = 'jmhJfrReport'
+    static final String JMH_INLINING_REPORT_TASK_NAME = 'jmhInliningReport'
     static final String JHM_RUNTIME_CLASSPATH_CONFIGURATION = 'jmhRuntimeClasspath'
 
     void apply(Project project) {
@@ -91,23 +106,270 @@ class JMHPlugin implements Plugin<Project> {
 
         project.tasks.withType(JMHTask).configureEach {
             DefaultsConfigurer.configureConvention(extension, it)
-            usesService(ConcurrentExecutionControlBuildService.restrict(JMHTask, project.gradle))
+            def executionControl = ConcurrentExecutionControlBuildService.restrict(JMHTask, project.gradle, maxParallelTasks(project))
+            usesService(executionControl)
+            it.executionControl.set(executionControl)
         }
 
-        project.tasks.register(JMH_NAME, JMHTask) {
+        def configureJmhTask = { JMHTask it ->
             it.group JMH_GROUP
             it.jmhClasspath.from(configuration)
             it.testRuntimeClasspath.from(runtimeConfiguration)
-            it.jarArchive.set(jmhJar.flatMap { it.archiveFile })
+            if (extension.explodedClasspath.get()) {
+                // run directly from the class directories and dependency jars, without building the jar
+                it.benchmarkClasspath.from(project.sourceSets.jmh.output)
+                it.benchmarkClasspath.from(project.sourceSets.main.output)
+                if (extension.includeTests.get()) {
+                    it.benchmarkClasspath.from(project.sourceSets.test.output)
+                }
+                it.benchmarkClasspath.from(jmhCompileGenerated.flatMap { it.destinationDirectory })
+                it.benchmarkClasspath.from(runtimeBytecodeGeneratorTask.flatMap { it.generatedResourcesDir })
+            } else {
+                it.jarArchive.set(jmhJar.flatMap { it.archiveFile })
+            }
+            it.benchmarkList.set(runtimeBytecodeGeneratorTask.flatMap { it.generatedResourcesDir.file('META-INF/BenchmarkList') })
+            it.resultsCacheClasspath.from(project.sourceSets.jmh.output)
+            it.resultsCacheClasspath.from(project.sourceSets.main.output)
+            if (extension.includeTests.get()) {
+                it.resultsCacheClasspath.from(project.sourceSets.test.output)
+            }
+            it.resultsCacheClasspath.from(runtimeConfiguration)
             it.resultsFile.convention(extension.resultsFile)
             it.humanOutputFile.convention(extension.humanOutputFile)
+            it.repositoryDir.set(project.layout.projectDirectory)
+            it.metadataFile.convention(project.layout.file(it.resultsFile.map {
+                new File(it.asFile.parentFile, "${it.asFile.name.replaceFirst(/\.[^.]*$/, '')}.metadata.properties")
+            }))
+            it.progressFile.convention(project.layout.file(it.resultsFile.map {
+                new File(it.asFile.parentFile, "${it.asFile.name.replaceFirst(/\.[^.]*$/, '')}.progress.jsonl")
+            }))
+            it.allocationsFile.convention(project.layout.file(it.resultsFile.map {
+                new File(it.asFile.parentFile, "${it.asFile.name.replaceFirst(/\.[^.]*$/, '')}.allocations.json")
+            }))
+            it.jfrRecordingsDir.convention(project.layout.dir(it.resultsFile.map { new File(it.asFile.parentFile, 'jfr') }))
+            it.compilationLogsDir.convention(project.layout.dir(it.resultsFile.map { new File(it.asFile.parentFile, 'compilation') }))
             it.javaLauncher.convention(toolchainService.launcherFor(java.toolchain))
         }
 
+        project.tasks.register(JMH_NAME, JMHTask) {
+            configureJmhTask(it)
+        }
+
+        project.afterEvaluate {
+            int shardCount = extension.shards.get()
+            if (shardCount > 1) {
+                configureShards(project, shardCount, extension, configuration, runtimeBytecodeGeneratorTask, configureJmhTask)
+            }
+        }
+
+        def affectedBenchmarks = project.tasks.register(JMH_AFFECTED_BENCHMARKS_TASK_NAME, JmhAffectedBenchmarksTask) {
+            it.group = JMH_GROUP
+            it.description = 'Computes the benchmark classes affected by the changes'
+            it.classesDirs.from(project.sourceSets.jmh.output.classesDirs)
+            it.classesDirs.from(project.sourceSets.main.output.classesDirs)
+            if (extension.includeTests.get()) {
+                it.classesDirs.from(project.sourceSets.test.output.classesDirs)
+            }
+            it.classesDirs.from(jmhCompileGenerated.flatMap { it.destinationDirectory })
+            it.changedSince.convention(project.providers.gradleProperty('jmh.changedSince'))
+            it.repositoryDir.set(project.layout.projectDirectory)
+            it.jmhClasspath.from(configuration)
+            it.benchmarkList.set(runtimeBytecodeGeneratorTask.flatMap { it.generatedResourcesDir.file('META-INF/BenchmarkList') })
+            it.includes.convention(extension.includes)
+            it.excludes.convention(extension.excludes)
+            it.affectedBenchmarksFile.set(project.layout.buildDirectory.file('jmh-affected/benchmarks.txt'))
+        }
+
+        project.tasks.register(JMH_AFFECTED_TASK_NAME, JMHTask) {
+            configureJmhTask(it)
+            it.description = 'Runs the benchmarks affected by the changes'
+            // the affected benchmarks are already restricted to the includes and excludes of the configuration
+            it.includes.set(affectedBenchmarks.flatMap { it.affectedBenchmarksFile }.map { JmhAffectedBenchmarksTask.includesOf(it.asFile) })
+            it.resultsFile.convention(DefaultsConfigurer.defaultResultsFile(project, it.resultFormat, JMH_AFFECTED_TASK_NAME))
+            // without includes, JMH would run all benchmarks
+            it.onlyIf { JMHTask task -> !task.includes.get().empty }
+        }
+
+        project.tasks.register(JMH_COMPARE_TASK_NAME, JmhCompareTask) {
+            it.group = JMH_GROUP
+            it.description = 'Compares the results of the benchmarks with a baseline'
+            it.resultsFile.convention(project.tasks.named(JMH_NAME, JMHTask).flatMap { it.resultsFile })
+            it.baselineFile.convention(project.layout.file(project.providers.gradleProperty('jmh.baseline').map { project.file(it) }))
+            it.regressionThreshold.convention(5d)
+            it.significanceLevel.convention(0.05d)
+            it.failOnRegression.convention(true)
+            it.resultsMetadataFile.convention(project.tasks.named(JMH_NAME, JMHTask).flatMap { it.metadataFile })
+            // a baseline committed in the repository may not come with its metadata
+            it.baselineMetadataFile.convention(project.layout.file(it.baselineFile.map {
+                File metadata = new File(it.asFile.parentFile, "${it.asFile.name.replaceFirst(/\.[^.]*$/, '')}.metadata.properties")
+                metadata.isFile() ? metadata : null
+            }))
+            it.reportFile.convention(project.layout.buildDirectory.file('reports/jmh/compare.txt'))
+        }
+
+        def baselineJar = project.tasks.register(JMH_BASELINE_JAR_TASK_NAME, JmhBaselineJarTask) {
+            it.group = JMH_GROUP
+            it.description = 'Builds the JMH jar as of the baseline revision'
+            it.baselineRevision.convention(project.providers.gradleProperty('jmh.baselineRevision'))
+            it.rootProjectDir.set(project.rootProject.layout.projectDirectory)
+            it.projectPath.set(project.path)
+            it.worktreeDir.set(project.layout.buildDirectory.dir('jmh-baseline/worktree'))
+            it.baselineJar.set(project.layout.buildDirectory.file('jmh-baseline/baseline-jmh.jar'))
+        }
+
+        project.tasks.register(JMH_INTERLEAVED_TASK_NAME, JmhInterleavedTask) {
+            it.group = JMH_GROUP
+            it.description = 'Runs the benchmarks of the current and the baseline revisions in interleaved rounds'
+            it.jmhArguments.convention(jmhArguments(project, extension, true))
+            it.environment.convention(extension.environment)
+            it.jarArchive.set(jmhJar.flatMap { it.archiveFile })
+            it.baselineJarArchive.set(baselineJar.flatMap { it.baselineJar })
+            it.rounds.convention(extension.fork.orElse(5))
+            it.confidenceLevel.convention(0.95d)
+            it.reportFile.convention(project.layout.buildDirectory.file('reports/jmh/interleaved.txt'))
+            it.javaLauncher.convention(toolchainService.launcherFor(java.toolchain))
+        }
+
+        project.tasks.register(JMH_BISECT_TASK_NAME, JmhBisectTask) {
+            it.group = JMH_GROUP
+            it.description = 'Finds the commit which introduced a performance regression of a benchmark'
+            it.jmhArguments.convention(jmhArguments(project, extension, false))
+            it.environment.convention(extension.environment)
+            // each step only needs to tell whether the benchmark regressed, so fewer iterations are executed
+            it.fork.convention(1)
+            it.warmupIterations.convention(2)
+            it.iterations.convention(3)
+            it.goodRevision.convention(project.providers.gradleProperty('jmh.good'))
+            it.badRevision.convention(project.providers.gradleProperty('jmh.bad').orElse('HEAD'))
+            it.benchmark.convention(project.providers.gradleProperty('jmh.benchmark'))
+            it.regressionThreshold.convention(5d)
+            it.significanceLevel.convention(0.05d)
+            it.rootProjectDir.set(project.rootProject.layout.projectDirectory)
+            it.projectPath.set(project.path)
+            it.worktreeDir.set(project.layout.buildDirectory.dir('jmh-bisect/worktree'))
+            it.reportFile.convention(project.layout.buildDirectory.file('reports/jmh/bisect.txt'))
+            it.javaLauncher.convention(toolchainService.launcherFor(java.toolchain))
+        }
+
+        project.tasks.register(JMH_TREND_TASK_NAME, JmhTrendTask) {
+            it.group = JMH_GROUP
+            it.description = 'Renders the history of the benchmark scores and flags step changes'
+            it.historyDir.convention(extension.historyDir)
+            it.benchmarks.convention(project.providers.gradleProperty('jmh.benchmarks'))
+            it.maxRuns.convention(50)
+            it.currentHostOnly.convention(true)
+            it.stepWindow.convention(5)
+            it.stepThreshold.convention(5d)
+            it.significanceLevel.convention(0.05d)
+            it.reportFile.convention(project.layout.buildDirectory.file('reports/jmh/trend.txt'))
+        }
+
+        project.tasks.register(JMH_JFR_REPORT_TASK_NAME, JmhJfrReportTask) {
+            it.group = JMH_GROUP
+            it.description = 'Renders the JFR recordings of the benchmarks as flame graphs'
+            it.recordings.from(project.tasks.named(JMH_NAME, JMHTask).flatMap { it.jfrRecordingsDir })
+            it.topMethods.convention(20)
+            it.reportDir.convention(project.layout.buildDirectory.dir('reports/jmh/jfr'))
+            // the recordings are read by the JVM which produced them
+            it.javaLauncher.convention(project.tasks.named(JMH_NAME, JMHTask).flatMap { it.javaLauncher })
+        }
+
+        project.tasks.register(JMH_INLINING_REPORT_TASK_NAME, JmhInliningReportTask) {
+            it.group = JMH_GROUP
+            it.description = 'Renders the inlining decisions of the JIT under each benchmark method'
+            it.compilationLogs.from(project.tasks.named(JMH_NAME, JMHTask).flatMap { it.compilationLogsDir })
+            it.reportDir.convention(project.layout.buildDirectory.dir('reports/jmh/inlining'))
+        }
+
         configureKotlin(project)
         configureIDESupport(project)
     }
 
+    private static void configureShards(Project project,
+                                        int shardCount,
+                                        JmhParameters extension,
+                                        Configuration configuration,
+                                        TaskProvider<JmhBytecodeGeneratorTask> runtimeBytecodeGeneratorTask,
+                                        Closure<?> configureJmhTask) {
+        def shardPlan = project.tasks.register(JMH_SHARD_PLAN_TASK_NAME, JmhShardPlanTask) {
+            it.group = JMH_GROUP
+            it.description = 'Splits the benchmarks into shards of similar estimated duration'
+            it.jmhArguments.convention(jmhArguments(project, extension, true))
+            it.shards.convention(extension.shards)
+            it.jmhClasspath.from(configuration)
+            it.benchmarkList.set(runtimeBytecodeGeneratorTask.flatMap { it.generatedResourcesDir.file('META-INF/BenchmarkList') })
+            it.shardsDir.set(project.layout.buildDirectory.dir('jmh-shards/plan'))
+        }
+        def shardResults = (1..shardCount).collect { int shard ->
+            String name = "${JMH_NAME}Shard${shard}"
+            def shardTask = project.tasks.register(name, JMHTask) {
+                configureJmhTask(it)
+                it.description = "Runs the benchmarks of shard ${shard}"
+                it.includes.set(shardPlan.flatMap { it.shardsDir }.map { JmhShardPlanTask.includesOf(JmhShardPlanTask.shardFile(it.asFile, shard)) })
+                it.resultsFile.convention(DefaultsConfigurer.defaultResultsFile(project, it.resultFormat, name))
+                it.humanOutputFile.fileProvider(extension.humanOutputFile.map { new File(it.asFile.parentFile, "shard-${shard}-${it.asFile.name}") })
+                it.rawResultsFile.set(project.layout.buildDirectory.file("jmh-shards/results/shard-${shard}.results"))
+                // the shards which don't run concurrently run one after the other, within the budget of the jmh task
+                it.timeBudget.set(extension.timeBudget.zip(maxParallelTasks(project)) { String budget, Integer concurrentShards ->
+                    TimeBudget.shareOf(budget, shardCount, concurrentShards)
+                })
+                // the merged results are recorded by the jmh task
+                it.recordHistory.set(false)
+                // without includes, JMH would run all benchmarks, so an empty shard only deletes the outputs
+                // of a previous plan, which would otherwise be merged into the results of the jmh task
+                it.doFirst { JMHTask task ->
+                    if (task.includes.get().empty) {
+                        task.deleteOutputs()
+                        throw new StopExecutionException("Shard ${shard} has no benchmarks to run")
+                    }
+                }
+            }
+            project.tasks.named(JMH_JFR_REPORT_TASK_NAME, JmhJfrReportTask) {
+                it.recordings.from(shardTask.flatMap { it.jfrRecordingsDir })
+            }
+            project.tasks.named(JMH_INLINING_REPORT_TASK_NAME, JmhInliningReportTask) {
+                it.compilationLogs.from(shardTask.flatMap { it.compilationLogsDir })
+            }
+            shardTask.flatMap { it.rawResultsFile }
+        }
+        // the jmh task merges the results of the shards instead of running benchmarks
+        project.tasks.named(JMH_NAME, JMHTask) {
+            it.shardResults.from(shardResults)
+        }
+    }
+
+    /**
+     * The JMH arguments of the configuration, for tasks which run JMH, or one of its tools, without being
+     * JMH tasks. The arguments which tell where to write results are left out.
+     *
+     * @param selection whether the arguments select the benchmarks to run
+     */
+    private static Provider<List<String>> jmhArguments(Project project, JmhParameters extension, boolean selection) {
+        project.provider {
+            List<String> args = []
+            if (selection) {
+                ParameterConverter.collectSelectionAndExecutionParameters(extension, args)
+            } else {
+                ParameterConverter.collectExecutionParameters(extension, args)
+            }
+            args
+        }
+    }
+
+    /**
+     * The service which limits the number of concurrent JMH tasks is shared by all projects of the build, so
+     * its limit is read from the build, with the {@code jmh.maxParallelTasks} Gradle property, or from the
+     * root project, instead of from the project which happens to register the service first.
+     */
+    private static Provider<Integer> maxParallelTasks(Project project) {
+        Project rootProject = project.rootProject
+        project.providers.gradleProperty(MAX_PARALLEL_TASKS_PROPERTY).map { Integer.valueOf(it) }
+                .orElse(project.provider {
+                    JmhParameters rootExtension = rootProject.extensions.findByType(JmhParameters)
+                    rootExtension != null ? rootExtension.maxParallelShards.get() : 1
+                })
+    }
+
     private static void assertMinimalGradleVersion() {
         if (!IS_GRADLE_MIN) {
             throw new RuntimeException("This version of the JMH Gradle plugin requires ${GRADLE_MIN.version}+, you are using ${GradleVersion.current().version}. Please upgrade Gradle or use an older version of the JMH Gradle plugin.")
@@ -186,12 +448,17 @@ class JMHPlugin implements Plugin<Project> {
             it.generatorType.convention('default')
             it.generatedResourcesDir.set(jmhGeneratedResourcesDir)
             it.generatedSourcesDir.set(jmhGeneratedSourcesDir)
-            it.runtimeClasspath.from(project.sourceSets.jmh.runtimeClasspath)
-            it.classesDirsToProcess.from(project.sourceSets.jmh.output.classesDirs)
+            it.incrementalStateDir.set(project.layout.buildDirectory.dir("jmh-generator-state"))
+            def classesDirsToProcess = project.files(project.sourceSets.jmh.output.classesDirs)
+            def runtimeClasspath = project.files(project.sourceSets.jmh.runtimeClasspath)
             if (extension.includeTests.get()) {
-                it.runtimeClasspath.from(project.sourceSets.test.runtimeClasspath)
-                it.classesDirsToProcess.from(project.sourceSets.test.output.classesDirs)
+                runtimeClasspath.from(project.sourceSets.test.runtimeClasspath)
+                classesDirsToProcess.from(project.sourceSets.test.output.classesDirs)
             }
+            it.classesDirsToProcess.from(classesDirsToProcess)
+            // the classes to process are tracked separately, so that a change in a benchmark doesn't
+            // look like a change of the classpath, which would prevent incremental generation
+            it.runtimeClasspath.from(runtimeClasspath.minus(classesDirsToProcess))
             it.javaLauncher.convention(toolchainService.launcherFor(java.toolchain))
         }
     }
@@ -258,6 +525,8 @@ class JMHPlugin implements Plugin<Project> {
             it.exclude(metaInfExcludes)
             it.configurations = []
             it.zip64 = extension.zip64.get()
+            configureCompression(it, extension)
+            configureReproducibleArchive(it)
         } as TaskProvider<Jar>
     }
 
@@ -271,11 +540,11 @@ class JMHPlugin implements Plugin<Project> {
             def archives = project.objects.newInstance(ServiceInjection).archiveOperations
             it.group = JMH_GROUP
             it.dependsOn JMH_TASK_COMPILE_GENERATED_CLASSES_NAME
-            it.inputs.files project.sourceSets.jmh.output
-            it.inputs.files project.sourceSets.main.output
+            it.inputs.files(project.sourceSets.jmh.output).withPropertyName('jmhOutput').withNormalizer(ClasspathNormalizer)
+            it.inputs.files(project.sourceSets.main.output).withPropertyName('mainOutput').withNormalizer(ClasspathNormalizer)
             it.duplicatesStrategy = extension.duplicateClassesStrategy.get()
             if (extension.includeTests.get()) {
-                it.inputs.files project.sourceSets.test.output
+                it.inputs.files(project.sourceSets.test.output).withPropertyName('testOutput').withNormalizer(ClasspathNormalizer)
             }
             it.from(runtimeConfiguration.elements.map {
                 it.collect { it.asFile }
@@ -302,6 +571,35 @@ class JMHPlugin implements Plugin<Project> {
 
             it.archiveClassifier = JMH_NAME
             it.zip64 = extension.zip64.get()
+            configureCompression(it, extension)
+            configureReproducibleArchive(it)
+        }
+    }
+
+    private static void configureReproducibleArchive(Jar jar) {
+        // The same inputs must produce the same jar, so that the jmh task can be up-to-date
+        // and that the jar can be reused from the build cache on other machines.
+        jar.preserveFileTimestamps = false
+        jar.reproducibleFileOrder = true
+        jar.outputs.cacheIf('the JMH jar is reproducible') { true }
+    }
+
+    private static void configureCompression(Jar jar, JmhParameters extension) {
+        String compression = extension.jarCompression.get().toLowerCase(Locale.ROOT)
+        switch (compression) {
+            case 'deflated':
+                jar.entryCompression = ZipEntryCompression.DEFLATED
+                break
+            case 'stored':
+                jar.entryCompression = ZipEntryCompression.STORED
+                break
+            case 'parallel':
+                // the jar task writes uncompressed entries, which are then deflated using all cores
+                jar.entryCompression = ZipEntryCompression.STORED
+                jar.doLast(new ParallelJarCompression())
+                break
+            default:
+                throw new InvalidUserDataException("Unsupported jar compression '${compression}'. Supported values are: deflated, stored, parallel")
         }
     }
 
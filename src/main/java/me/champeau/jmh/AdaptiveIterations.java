@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.Arrays;
+
+/**
+ * Decides when to stop iterating in the adaptive iterations mode: warmup ends when the scores reach
+ * a steady state, and measurement ends when the confidence interval of the score is narrow enough.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+final class AdaptiveIterations {
+    // the number of iterations which are compared to detect a steady state
+    static final int STEADY_STATE_WINDOW = 5;
+
+    // the confidence level of the score error reported by JMH
+    static final double CONFIDENCE = 0.999;
+
+    private static final double SIGNIFICANCE_LEVEL = 0.05;
+
+    private AdaptiveIterations() {
+    }
+
+    /**
+     * Returns the number of iterations after which the scores are in a steady state, that is the first
+     * iteration such that its window of iterations and the next one have means which differ by less than
+     * the given percentage, and are not significantly different. Returns -1 if the scores don't reach a
+     * steady state.
+     */
+    static int steadyStateStart(double[] scores, double thresholdPercent) {
+        for (int start = 0; start + 2 * STEADY_STATE_WINDOW <= scores.length; start++) {
+            double[] window = Arrays.copyOfRange(scores, start, start + STEADY_STATE_WINDOW);
+            double[] next = Arrays.copyOfRange(scores, start + STEADY_STATE_WINDOW, start + 2 * STEADY_STATE_WINDOW);
+            double mean = Statistics.mean(window);
+            double change = mean == 0 ? 0 : 100 * Math.abs(Statistics.mean(next) - mean) / Math.abs(mean);
+            double p = Statistics.welchTTest(window, next);
+            // identical windows give a NaN p-value, and are obviously steady
+            if (change < thresholdPercent && (Double.isNaN(p) || p >= SIGNIFICANCE_LEVEL)) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the half-width of the confidence interval of the mean of the scores, in percent of the mean,
+     * or infinity if it can't be computed yet.
+     */
+    static double relativeHalfWidth(double[] scores) {
+        if (scores.length < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = Statistics.mean(scores);
+        if (mean == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double halfWidth = Statistics.tQuantile(1 - CONFIDENCE, scores.length - 1) * Math.sqrt(Statistics.variance(scores) / scores.length);
+        return 100 * halfWidth / Math.abs(mean);
+    }
+}
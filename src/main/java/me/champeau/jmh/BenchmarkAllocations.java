@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the allocations of each benchmark, as measured by the {@code gc} profiler of JMH, to a JSON file:
+ * an array with one object per benchmark, mode and parameters combination, with the normalized allocation
+ * rate in bytes per operation, its error, the allocation rate and the number of garbage collections.
+ * Benchmarks executed without the {@code gc} profiler have null values.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+public final class BenchmarkAllocations {
+    // the secondary metrics of the gc profiler are prefixed with a dot in older JMH versions
+    private static final String PREFIX = "\u00b7";
+
+    private BenchmarkAllocations() {
+    }
+
+    /**
+     * Writes the allocations of the results written in the binary format by several runs.
+     */
+    public static void merge(List<File> inputs, File output) throws IOException {
+        List<RunResult> results = new ArrayList<>();
+        for (File input : inputs) {
+            List<RunResult> read = BenchmarkResults.read(input);
+            if (read == null) {
+                throw new IOException("Unable to read benchmark results from " + input);
+            }
+            results.addAll(read);
+        }
+        write(output, results);
+    }
+
+    static void write(File file, Collection<RunResult> results) throws IOException {
+        List<RunResult> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparing(RunResult::getParams));
+        StringBuilder sb = new StringBuilder("[");
+        boolean first = true;
+        for (RunResult result : sorted) {
+            Map<String, Result> metrics = new TreeMap<>();
+            result.getSecondaryResults().forEach((name, metric) -> metrics.put(name.startsWith(PREFIX) ? name.substring(PREFIX.length()) : name, metric));
+            Result norm = metrics.get("gc.alloc.rate.norm");
+            Result rate = metrics.get("gc.alloc.rate");
+            Result count = metrics.get("gc.count");
+            BenchmarkParams params = result.getParams();
+            sb.append(first ? "\n" : ",\n")
+                    .append("  {\"benchmark\":").append(ProgressOutputFormat.quote(params.getBenchmark()))
+                    .append(",\"mode\":").append(ProgressOutputFormat.quote(params.getMode().shortLabel()))
+                    .append(",\"params\":{");
+            boolean firstParam = true;
+            for (String key : params.getParamsKeys()) {
+                sb.append(firstParam ? "" : ",").append(ProgressOutputFormat.quote(key)).append(':').append(ProgressOutputFormat.quote(params.getParam(key)));
+                firstParam = false;
+            }
+            sb.append("},\"bytesPerOp\":").append(norm == null ? "null" : number(norm.getScore()))
+                    .append(",\"bytesPerOpError\":").append(norm == null ? "null" : number(norm.getScoreError()))
+                    .append(",\"allocationRate\":").append(rate == null ? "null" : number(rate.getScore()))
+                    .append(",\"allocationRateUnit\":").append(rate == null ? "null" : ProgressOutputFormat.quote(rate.getScoreUnit()))
+                    .append(",\"gcCount\":").append(count == null ? "null" : number(count.getScore()))
+                    .append('}');
+            first = false;
+        }
+        sb.append(first ? "]\n" : "\n]\n");
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String number(double value) {
+        // NaN isn't valid JSON, JMH uses it when a metric can't be computed
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes the key under which the results of the benchmarks of each class are cached.
+ *
+ * The key of a benchmark class depends on the bytecode of the class and of all the classes
+ * it transitively references in the classes directories of the classpath, on the content
+ * of the other entries of the classpath, and on a salt describing how benchmarks are executed.
+ * This means that changing a class only invalidates the benchmarks which reference it, while
+ * changing a dependency invalidates all benchmarks. Classes which are only reached through
+ * reflection are not taken into account.
+ */
+final class BenchmarkCacheKeys {
+    private BenchmarkCacheKeys() {
+    }
+
+    static Map<String, String> compute(Iterable<File> classpath, String salt) {
+        List<File> classesDirs = new ArrayList<>();
+        MessageDigest dependencies = newDigest();
+        update(dependencies, salt);
+        for (File entry : classpath) {
+            if (entry.isDirectory()) {
+                classesDirs.add(entry);
+            } else if (entry.isFile()) {
+                update(dependencies, hashOf(entry));
+            }
+        }
+        String dependenciesHash = toHex(dependencies.digest());
+        ClassGraph graph = ClassGraph.of(classesDirs);
+        Map<String, String> classHashes = new HashMap<>();
+        Map<String, String> keys = new TreeMap<>();
+        for (String className : graph.getClassNames()) {
+            if (graph.mayHaveBenchmarks(className)) {
+                MessageDigest digest = newDigest();
+                update(digest, dependenciesHash);
+                for (String dependency : graph.dependenciesOf(className)) {
+                    update(digest, dependency);
+                    update(digest, classHashes.computeIfAbsent(dependency, name -> hashOf(graph.fileOf(name))));
+                }
+                keys.put(className, toHex(digest.digest()));
+            }
+        }
+        return keys;
+    }
+
+    static String hashOf(File file) {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toHex(digest.digest());
+    }
+
+    static String hashOf(String value) {
+        MessageDigest digest = newDigest();
+        update(digest, value);
+        return toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        // separator, so that ("ab", "c") and ("a", "bc") don't produce the same hash
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the scores of benchmarks with the scores of a baseline. A benchmark is considered to
+ * have regressed, or improved, when its score changed by more than a threshold and Welch's t-test
+ * over the iteration scores tells that the change is statistically significant. Baseline scores
+ * are converted to the unit of the current scores first, and benchmarks whose units can't be
+ * converted, like a time and a custom unit, are not comparable.
+ */
+final class BenchmarkComparison {
+    enum Verdict {
+        REGRESSED, IMPROVED, UNCHANGED, NEW, REMOVED, NOT_COMPARABLE
+    }
+
+    private BenchmarkComparison() {
+    }
+
+    /**
+     * @param thresholdPercent the minimal change, in percent, for a difference to matter
+     * @param significanceLevel the maximal p-value for a difference to be statistically significant
+     */
+    static List<Delta> compare(Map<String, BenchmarkScores.Score> baseline,
+                               Map<String, BenchmarkScores.Score> current,
+                               double thresholdPercent,
+                               double significanceLevel) {
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<String, BenchmarkScores.Score> entry : current.entrySet()) {
+            BenchmarkScores.Score before = baseline.get(entry.getKey());
+            deltas.add(before == null
+                    ? new Delta(entry.getKey(), null, entry.getValue(), Double.NaN, Double.NaN, Verdict.NEW)
+                    : compare(entry.getKey(), before, entry.getValue(), thresholdPercent, significanceLevel));
+        }
+        for (Map.Entry<String, BenchmarkScores.Score> entry : baseline.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                deltas.add(new Delta(entry.getKey(), entry.getValue(), null, Double.NaN, Double.NaN, Verdict.REMOVED));
+            }
+        }
+        return deltas;
+    }
+
+    private static Delta compare(String key, BenchmarkScores.Score baseline, BenchmarkScores.Score after, double thresholdPercent, double significanceLevel) {
+        BenchmarkScores.Score before;
+        try {
+            before = baseline.inUnit(after.getUnit());
+        } catch (IllegalArgumentException e) {
+            return new Delta(key, baseline, after, Double.NaN, Double.NaN, Verdict.NOT_COMPARABLE);
+        }
+        double changePercent = (after.getScore() - before.getScore()) / before.getScore() * 100;
+        double pValue = Statistics.welchTTest(before.getValues(), after.getValues());
+        Verdict verdict = Verdict.UNCHANGED;
+        // without enough iterations, the p-value is NaN, and the difference is never significant
+        if (Math.abs(changePercent) > thresholdPercent && pValue < significanceLevel) {
+            boolean better = after.isHigherBetter() == changePercent > 0;
+            verdict = better ? Verdict.IMPROVED : Verdict.REGRESSED;
+        }
+        return new Delta(key, before, after, changePercent, pValue, verdict);
+    }
+
+    static String report(List<Delta> deltas) {
+        StringBuilder sb = new StringBuilder();
+        for (Delta delta : deltas) {
+            sb.append(delta).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static final class Delta {
+        private final String key;
+        private final BenchmarkScores.Score baseline;
+        private final BenchmarkScores.Score current;
+        private final double changePercent;
+        private final double pValue;
+        private final Verdict verdict;
+
+        Delta(String key, BenchmarkScores.Score baseline, BenchmarkScores.Score current, double changePercent, double pValue, Verdict verdict) {
+            this.key = key;
+            this.baseline = baseline;
+            this.current = current;
+            this.changePercent = changePercent;
+            this.pValue = pValue;
+            this.verdict = verdict;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        BenchmarkScores.Score getBaseline() {
+            return baseline;
+        }
+
+        BenchmarkScores.Score getCurrent() {
+            return current;
+        }
+
+        /**
+         * The relative change of the score, in percent. Whether a positive change is an improvement
+         * depends on the mode of the benchmark.
+         */
+        double getChangePercent() {
+            return changePercent;
+        }
+
+        double getPValue() {
+            return pValue;
+        }
+
+        Verdict getVerdict() {
+            return verdict;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-9s %s", verdict, key));
+            if (verdict == Verdict.NOT_COMPARABLE) {
+                sb.append(String.format(Locale.ROOT, ": %s can't be converted to %s", baseline.getUnit(), current.getUnit()));
+            } else if (baseline != null && current != null) {
+                sb.append(String.format(Locale.ROOT, ": %.3f -> %.3f %s (%+.2f%%, p=%s)",
+                        baseline.getScore(), current.getScore(), current.getUnit(), changePercent,
+                        Double.isNaN(pValue) ? "n/a" : String.format(Locale.ROOT, "%.4f", pValue)));
+            }
+            return sb.toString();
+        }
+    }
+}
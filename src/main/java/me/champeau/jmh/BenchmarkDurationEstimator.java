@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Defaults;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates how long each benchmark takes to execute, from the benchmark list generated by JMH
+ * and the options of the run, which take precedence over the annotations of the benchmarks.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+public final class BenchmarkDurationEstimator {
+    // single shot iterations call the benchmark once, assume it is short
+    private static final long SINGLE_SHOT_ITERATION_MILLIS = 100;
+
+    private BenchmarkDurationEstimator() {
+    }
+
+    /**
+     * Estimates the duration of each of the benchmarks selected by the JMH arguments.
+     *
+     * @param benchmarkList the BenchmarkList file generated by JMH
+     * @param jmhArgs the JMH arguments
+     * @return the estimated duration, in milliseconds, of each benchmark method
+     */
+    public static Map<String, Long> estimate(File benchmarkList, List<String> jmhArgs) throws Exception {
+        Map<String, Long> durations = new TreeMap<>();
+        for (Map.Entry<String, List<long[]>> entry : shapes(benchmarkList, jmhArgs).entrySet()) {
+            durations.put(entry.getKey(), TimeBudget.durationOf(entry.getValue(), null, null, null));
+        }
+        return durations;
+    }
+
+    /**
+     * Describes how each of the benchmarks selected by the JMH arguments is executed.
+     *
+     * @param benchmarkList the BenchmarkList file generated by JMH
+     * @param jmhArgs the JMH arguments
+     * @return the shapes of each benchmark method, one per mode, as described by {@link TimeBudget}
+     */
+    public static Map<String, List<long[]>> shapes(File benchmarkList, List<String> jmhArgs) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        OutputFormat out = OutputFormatFactory.createFormatInstance(System.out, VerboseMode.SILENT);
+        List<String> includes = new ArrayList<>(options.getIncludes());
+        if (includes.isEmpty()) {
+            includes.add(".*");
+        }
+        Collection<Mode> modes = options.getBenchModes();
+        Map<String, List<long[]>> shapes = new TreeMap<>();
+        for (BenchmarkListEntry entry : BenchmarkList.fromFile(benchmarkList.getAbsolutePath()).find(out, includes, options.getExcludes())) {
+            if (modes.isEmpty()) {
+                shapes.computeIfAbsent(entry.getUsername(), k -> new ArrayList<>()).add(shapeOf(entry, entry.getMode(), options));
+            } else if (!shapes.containsKey(entry.getUsername())) {
+                // the modes of the command line replace the modes of the annotations
+                List<long[]> benchmarkShapes = new ArrayList<>();
+                for (Mode mode : modes) {
+                    benchmarkShapes.add(shapeOf(entry, mode, options));
+                }
+                shapes.put(entry.getUsername(), benchmarkShapes);
+            }
+        }
+        return shapes;
+    }
+
+    private static long[] shapeOf(BenchmarkListEntry entry, Mode mode, CommandLineOptions options) {
+        boolean singleShot = mode == Mode.SingleShotTime;
+        long[] shape = new long[TimeBudget.SHAPE_SIZE];
+        shape[TimeBudget.COMBINATIONS] = parameterCombinations(entry, options);
+        shape[TimeBudget.FORKS] = options.getForkCount().orElse(entry.getForks().orElse(Defaults.MEASUREMENT_FORKS));
+        shape[TimeBudget.WARMUP_FORKS] = options.getWarmupForkCount().orElse(entry.getWarmupForks().orElse(Defaults.WARMUP_FORKS));
+        shape[TimeBudget.WARMUP_ITERATIONS] = options.getWarmupIterations().orElse(entry.getWarmupIterations().orElse(
+                singleShot ? Defaults.WARMUP_ITERATIONS_SINGLESHOT : Defaults.WARMUP_ITERATIONS));
+        shape[TimeBudget.ITERATIONS] = options.getMeasurementIterations().orElse(entry.getMeasurementIterations().orElse(
+                singleShot ? Defaults.MEASUREMENT_ITERATIONS_SINGLESHOT : Defaults.MEASUREMENT_ITERATIONS));
+        shape[TimeBudget.WARMUP_MILLIS] = singleShot ? SINGLE_SHOT_ITERATION_MILLIS : millis(options.getWarmupTime().orElse(entry.getWarmupTime().orElse(Defaults.WARMUP_TIME)));
+        shape[TimeBudget.ITERATION_MILLIS] = singleShot ? SINGLE_SHOT_ITERATION_MILLIS : millis(options.getMeasurementTime().orElse(entry.getMeasurementTime().orElse(Defaults.MEASUREMENT_TIME)));
+        return shape;
+    }
+
+    private static long parameterCombinations(BenchmarkListEntry entry, CommandLineOptions options) {
+        long combinations = 1;
+        if (entry.getParams().hasValue()) {
+            for (Map.Entry<String, String[]> param : entry.getParams().get().entrySet()) {
+                Collection<String> values = options.getParameter(param.getKey()).orElse(null);
+                combinations *= Math.max(1, values != null ? values.size() : param.getValue().length);
+            }
+        }
+        return combinations;
+    }
+
+    private static long millis(TimeValue time) {
+        return time.convertTo(TimeUnit.MILLISECONDS);
+    }
+}
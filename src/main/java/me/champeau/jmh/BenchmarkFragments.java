@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the output of the JMH generator for each benchmark class in a separate directory, so that
+ * only the benchmarks which changed need to be generated again. The fragments are then merged into
+ * the generated sources and resources directories, where only files which actually changed are written.
+ */
+final class BenchmarkFragments {
+    static final String SOURCES = "sources";
+    static final String RESOURCES = "resources";
+
+    // lists the fragments written by the last complete run, so that missing fragments can be detected
+    private static final String MANIFEST = "fragments.lst";
+
+    // resources which are written by each generator invocation and need to be merged instead of overwritten
+    private static final Set<String> MERGED_RESOURCES = new TreeSet<>(Arrays.asList(
+            "META-INF/BenchmarkList",
+            "META-INF/CompilerHints"
+    ));
+
+    private final File fragmentsDir;
+
+    BenchmarkFragments(File fragmentsDir) {
+        this.fragmentsDir = fragmentsDir;
+    }
+
+    File dirFor(String className) {
+        return new File(fragmentsDir, className);
+    }
+
+    Set<String> getClassNames() {
+        File[] dirs = fragmentsDir.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return Collections.emptySet();
+        }
+        return Arrays.stream(dirs).map(File::getName).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Tells if the fragments of the last run are all still there. They may be missing if the
+     * directory was deleted, for example when the task outputs were loaded from the build cache,
+     * or if the last run failed before all fragments were written.
+     */
+    boolean isComplete() {
+        Path manifest = new File(fragmentsDir, MANIFEST).toPath();
+        if (!Files.isRegularFile(manifest)) {
+            return false;
+        }
+        try {
+            for (String className : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (!className.isEmpty() && !dirFor(className).isDirectory()) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the fragments as incomplete until {@link #markComplete()} is called.
+     */
+    void invalidate() {
+        try {
+            Files.deleteIfExists(new File(fragmentsDir, MANIFEST).toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void markComplete() {
+        try {
+            Files.createDirectories(fragmentsDir.toPath());
+            Files.write(new File(fragmentsDir, MANIFEST).toPath(), getClassNames(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void delete(String className) {
+        deleteRecursively(dirFor(className).toPath());
+    }
+
+    void deleteAll() {
+        deleteRecursively(fragmentsDir.toPath());
+    }
+
+    /**
+     * Merges all fragments into the given directories. Fragments are visited in class name order, so that
+     * the merged files don't depend on the order in which benchmarks were generated.
+     */
+    void mergeInto(File sourcesDir, File resourcesDir) {
+        Map<String, List<Path>> sources = new TreeMap<>();
+        Map<String, List<Path>> resources = new TreeMap<>();
+        for (String className : getClassNames()) {
+            collect(new File(dirFor(className), SOURCES).toPath(), sources);
+            collect(new File(dirFor(className), RESOURCES).toPath(), resources);
+        }
+        try {
+            for (Map.Entry<String, List<Path>> entry : sources.entrySet()) {
+                writeIfChanged(sourcesDir.toPath().resolve(entry.getKey()), Files.readAllBytes(entry.getValue().get(0)));
+            }
+            for (Map.Entry<String, List<Path>> entry : resources.entrySet()) {
+                byte[] content;
+                if (MERGED_RESOURCES.contains(entry.getKey())) {
+                    content = mergeLines(entry.getValue());
+                } else {
+                    content = Files.readAllBytes(entry.getValue().get(0));
+                }
+                writeIfChanged(resourcesDir.toPath().resolve(entry.getKey()), content);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        deleteStale(sourcesDir.toPath(), sources.keySet());
+        deleteStale(resourcesDir.toPath(), resources.keySet());
+    }
+
+    static byte[] mergeLines(List<Path> files) throws IOException {
+        // lines are sorted, since the order in which JMH writes them is not guaranteed to be stable
+        Set<String> lines = new TreeSet<>();
+        for (Path file : files) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void collect(Path root, Map<String, List<Path>> into) {
+        for (Path file : listFiles(root)) {
+            String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+            into.computeIfAbsent(relativePath, k -> new ArrayList<>()).add(file);
+        }
+    }
+
+    private static void writeIfChanged(Path target, byte[] content) throws IOException {
+        if (Files.isRegularFile(target) && Arrays.equals(Files.readAllBytes(target), content)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Files.write(target, content);
+    }
+
+    private static void deleteStale(Path root, Set<String> expected) {
+        for (Path file : listFiles(root)) {
+            String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+            if (!expected.contains(relativePath)) {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private static List<Path> listFiles(Path root) {
+        if (!Files.isDirectory(root)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void deleteRecursively(Path root) {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path path : stream.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
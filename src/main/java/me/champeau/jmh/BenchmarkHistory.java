@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An append-only store of benchmark results. Each run is appended to {@code runs.tsv}, with the commit,
+ * the JVM and the host it was executed on, and the score of each benchmark is appended to a series file
+ * dedicated to the benchmark, so that the history of a benchmark can be read without reading the history
+ * of the others. {@code index.tsv} maps each benchmark to its series file.
+ */
+final class BenchmarkHistory {
+    private static final String RUNS = "runs.tsv";
+    private static final String INDEX = "index.tsv";
+    private static final String SERIES = "series";
+    private static final String LOCK = "history.lock";
+
+    private final File dir;
+
+    BenchmarkHistory(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Appends the scores of a run. The store is locked while writing, so that concurrent builds
+     * can record their runs in the same store.
+     */
+    void record(Run run, Collection<BenchmarkScores.Score> scores) {
+        try {
+            Files.createDirectories(new File(dir, SERIES).toPath());
+            try (FileChannel lockChannel = FileChannel.open(new File(dir, LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                Map<String, String> index = readIndex();
+                StringBuilder newEntries = new StringBuilder();
+                for (BenchmarkScores.Score score : scores) {
+                    String seriesName = index.get(score.getKey());
+                    if (seriesName == null) {
+                        seriesName = BenchmarkCacheKeys.hashOf(score.getKey()).substring(0, 16) + ".tsv";
+                        index.put(score.getKey(), seriesName);
+                        newEntries.append(escape(score.getKey())).append('\t').append(seriesName).append('\n');
+                    }
+                    append(new File(new File(dir, SERIES), seriesName), join(run.getId(), String.valueOf(run.getTimestamp()), run.getCommit(),
+                            run.getJvmId(), run.getHostId(), String.valueOf(score.getScore()), String.valueOf(score.getScoreError()), score.getUnit()));
+                }
+                append(new File(dir, INDEX), newEntries.toString());
+                append(new File(dir, RUNS), join(run.getId(), String.valueOf(run.getTimestamp()), run.getCommit(),
+                        run.getJvmId(), escape(run.getJvm()), run.getHostId(), escape(run.getHost())));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to record benchmark results in " + dir, e);
+        }
+    }
+
+    /**
+     * Returns the benchmarks of the store, mapped to their series file.
+     */
+    Map<String, String> readIndex() {
+        Map<String, String> index = new TreeMap<>();
+        for (String[] line : readLines(new File(dir, INDEX), 2)) {
+            index.put(unescape(line[0]), line[1]);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the scores of a benchmark, in the order they were recorded.
+     */
+    List<Entry> seriesOf(String benchmarkKey) {
+        String seriesName = readIndex().get(benchmarkKey);
+        if (seriesName == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (String[] line : readLines(new File(new File(dir, SERIES), seriesName), 8)) {
+            try {
+                entries.add(new Entry(line[0], Long.parseLong(line[1]), line[2], line[3], line[4],
+                        Double.parseDouble(line[5]), Double.parseDouble(line[6]), line[7]));
+            } catch (NumberFormatException e) {
+                // a line damaged by a crash, which must not prevent reading the rest of the history
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the lines of a file of the store, split into fields. The store is read without taking the lock, so
+     * a line which is being appended, that is which isn't terminated yet, is ignored, as well as lines which don't
+     * have the expected number of fields, which may be left by a build which crashed while appending.
+     */
+    private static List<String[]> readLines(File file, int fieldCount) {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            List<String[]> lines = new ArrayList<>();
+            int start = 0;
+            int end;
+            while ((end = content.indexOf('\n', start)) >= 0) {
+                String[] fields = content.substring(start, end).split("\t", -1);
+                if (fields.length == fieldCount) {
+                    lines.add(fields);
+                }
+                start = end + 1;
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void append(File file, String content) throws IOException {
+        if (content.isEmpty()) {
+            return;
+        }
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String join(String... values) {
+        return String.join("\t", values) + "\n";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * An execution of benchmarks: when, on which commit, which JVM and which host it happened.
+     */
+    static final class Run {
+        private final String id;
+        private final long timestamp;
+        private final String commit;
+        private final String jvm;
+        private final String host;
+
+        Run(String id, long timestamp, String commit, String jvm, String host) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.commit = commit;
+            this.jvm = jvm;
+            this.host = host;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        String getCommit() {
+            return commit;
+        }
+
+        String getJvm() {
+            return jvm;
+        }
+
+        String getJvmId() {
+            return idOf(jvm);
+        }
+
+        String getHost() {
+            return host;
+        }
+
+        String getHostId() {
+            return idOf(host);
+        }
+
+        static String idOf(String value) {
+            return BenchmarkCacheKeys.hashOf(value).substring(0, 12);
+        }
+    }
+
+    /**
+     * The score of a benchmark in a run.
+     */
+    static final class Entry {
+        private final String runId;
+        private final long timestamp;
+        private final String commit;
+        private final String jvmId;
+        private final String hostId;
+        private final double score;
+        private final double scoreError;
+        private final String unit;
+
+        Entry(String runId, long timestamp, String commit, String jvmId, String hostId, double score, double scoreError, String unit) {
+            this.runId = runId;
+            this.timestamp = timestamp;
+            this.commit = commit;
+            this.jvmId = jvmId;
+            this.hostId = hostId;
+            this.score = score;
+            this.scoreError = scoreError;
+            this.unit = unit;
+        }
+
+        String getRunId() {
+            return runId;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        String getCommit() {
+            return commit;
+        }
+
+        String getJvmId() {
+            return jvmId;
+        }
+
+        String getHostId() {
+            return hostId;
+        }
+
+        double getScore() {
+            return score;
+        }
+
+        double getScoreError() {
+            return scoreError;
+        }
+
+        String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Converts the score and the error of this entry to another unit.
+         *
+         * @throws IllegalArgumentException if there's no conversion from the unit of this entry to the given unit
+         */
+        Entry inUnit(String unit) {
+            if (this.unit.equals(unit)) {
+                return this;
+            }
+            double[] converted = BudgetCheck.Quantity.of(0, unit).convertScore(score, scoreError, this.unit);
+            return new Entry(runId, timestamp, commit, jvmId, hostId, converted[0], converted[1], unit);
+        }
+    }
+}
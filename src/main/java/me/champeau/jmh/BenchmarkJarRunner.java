@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.provider.Provider;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.process.ExecOperations;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs benchmarks from a JMH jar, with the given JVM and environment, and reads the scores from
+ * the JSON results.
+ */
+final class BenchmarkJarRunner {
+    private static final String JMH_MAIN_CLASS = "org.openjdk.jmh.Main";
+    private static final List<String> RESULT_OPTIONS = Arrays.asList("-o", "-rf", "-rff");
+
+    private final ExecOperations execOperations;
+    private final Map<String, Object> environment;
+    private final Provider<JavaLauncher> javaLauncher;
+    private final File temporaryDir;
+
+    BenchmarkJarRunner(ExecOperations execOperations, Map<String, Object> environment, Provider<JavaLauncher> javaLauncher, File temporaryDir) {
+        this.execOperations = execOperations;
+        this.environment = environment;
+        this.javaLauncher = javaLauncher;
+        this.temporaryDir = temporaryDir;
+    }
+
+    /**
+     * Runs the benchmarks of a jar with the given JMH arguments. The options which tell where to
+     * write results are ignored, since results are read from the given JSON file.
+     */
+    Map<String, BenchmarkScores.Score> run(File jar, List<String> jmhArgs, File resultsFile) {
+        List<String> args = new ArrayList<>(jmhArgs);
+        for (String option : RESULT_OPTIONS) {
+            removeOption(args, option);
+        }
+        args.add("-rf");
+        args.add("json");
+        args.add("-rff");
+        args.add(resultsFile.getAbsolutePath());
+        execOperations.javaexec(spec -> {
+            spec.classpath(jar);
+            spec.getMainClass().set(JMH_MAIN_CLASS);
+            spec.args(args);
+            spec.systemProperty("java.io.tmpdir", temporaryDir.getAbsolutePath());
+            spec.environment(environment);
+            if (javaLauncher.isPresent()) {
+                spec.executable(javaLauncher.get().getExecutablePath().getAsFile());
+            }
+        });
+        return BenchmarkScores.read(resultsFile);
+    }
+
+    /**
+     * Removes an option, and its value, from JMH arguments.
+     */
+    static void removeOption(List<String> args, String option) {
+        int index;
+        while ((index = args.indexOf(option)) >= 0) {
+            args.remove(index);
+            if (index < args.size()) {
+                args.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Replaces the value of an option, or adds the option when it's missing.
+     */
+    static void setOption(List<String> args, String option, String value) {
+        removeOption(args, option);
+        args.add(option);
+        args.add(value);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads and writes JMH results in a binary format, which keeps all the details of the results,
+ * so that results of separate runs can be merged then written in any of the JMH result formats.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+public final class BenchmarkResults {
+    private BenchmarkResults() {
+    }
+
+    /**
+     * Merges the results written by several runs, and writes them to a results file.
+     *
+     * @param inputs the binary results files to merge
+     * @param format the JMH result format of the results file
+     * @param output the results file
+     */
+    public static void merge(List<File> inputs, String format, File output) throws IOException {
+        List<RunResult> results = new ArrayList<>();
+        for (File input : inputs) {
+            List<RunResult> read = read(input);
+            if (read == null) {
+                throw new IOException("Unable to read benchmark results from " + input);
+            }
+            results.addAll(read);
+        }
+        writeFormatted(results, ResultFormatType.valueOf(format.toUpperCase(Locale.ROOT)), output.getAbsolutePath());
+    }
+
+    static void writeFormatted(Collection<RunResult> results, ResultFormatType format, String file) {
+        if (format != ResultFormatType.NONE) {
+            List<RunResult> sorted = new ArrayList<>(results);
+            sorted.sort(Comparator.comparing(RunResult::getParams));
+            ResultFormatFactory.getInstance(format, file).writeOut(sorted);
+        }
+    }
+
+    /**
+     * Reads results written by {@link #write(File, Collection)}, or returns null if the file
+     * doesn't exist or can't be read, for example because it was written by another JMH version.
+     */
+    @SuppressWarnings("unchecked")
+    static List<RunResult> read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream stream = Files.newInputStream(file.toPath());
+             ObjectInputStream in = new ResultsInputStream(stream)) {
+            return (List<RunResult>) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    static void write(File file, Collection<RunResult> results) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(tmp.toPath());
+             ObjectOutputStream out = new ObjectOutputStream(stream)) {
+            out.writeObject(new ArrayList<>(results));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Resolves classes with the loader of this class, which is the one which sees JMH.
+     */
+    private static class ResultsInputStream extends ObjectInputStream {
+        private ResultsInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, BenchmarkResults.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Defaults;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks like {@code org.openjdk.jmh.Main} does, with additional features of the plugin:
+ * <ul>
+ *     <li>when a results cache is configured, only the benchmarks which don't have cached results are executed.
+ *     The results of executed benchmarks are added to the cache, then the cached and new results are written
+ *     together to the results file.</li>
+ *     <li>the results can also be written in a binary format, so that they can be merged with the results of
+ *     other runs.</li>
+ *     <li>the allocations measured by the {@code gc} profiler can be written to a JSON file.</li>
+ *     <li>the benchmarks scaled down to fit the time budget are executed with their own counts, see {@link TimeBudget}.</li>
+ * </ul>
+ *
+ * This class is executed in the JVM running the benchmarks, with the JMH version of the project,
+ * so it must not reference any Gradle type.
+ *
+ * The arguments of this class are options, followed by {@code --}, the JMH arguments selecting benchmarks
+ * and telling where to write results, {@code --}, then the JMH arguments telling how to execute benchmarks.
+ */
+public final class BenchmarkRunnerMain {
+    static final String CACHE_DIR = "--cache-dir";
+    static final String CACHE_KEYS = "--cache-keys";
+    static final String RAW_RESULTS = "--raw-results";
+    static final String ALLOCATIONS = "--allocations";
+    static final String SCALED = "--scaled";
+    static final String SEPARATOR = "--";
+
+    private static final String CACHE_FILE_EXTENSION = ".results";
+
+    private BenchmarkRunnerMain() {
+    }
+
+    public static void main(String[] argv) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        int i = 0;
+        while (!SEPARATOR.equals(argv[i])) {
+            options.put(argv[i], argv[i + 1]);
+            i += 2;
+        }
+        int selectionStart = i + 1;
+        int selectionEnd = selectionStart;
+        while (!SEPARATOR.equals(argv[selectionEnd])) {
+            selectionEnd++;
+        }
+        String[] selectionArgs = Arrays.copyOfRange(argv, selectionStart, selectionEnd);
+        String[] executionArgs = Arrays.copyOfRange(argv, selectionEnd + 1, argv.length);
+        Properties classKeys = new Properties();
+        if (options.containsKey(CACHE_KEYS)) {
+            try (InputStream in = new FileInputStream(options.get(CACHE_KEYS))) {
+                classKeys.load(in);
+            }
+        }
+        File cacheDir = options.containsKey(CACHE_DIR) ? new File(options.get(CACHE_DIR)) : null;
+        File rawResults = options.containsKey(RAW_RESULTS) ? new File(options.get(RAW_RESULTS)) : null;
+        File allocations = options.containsKey(ALLOCATIONS) ? new File(options.get(ALLOCATIONS)) : null;
+        try {
+            Map<String, int[]> scaled = options.containsKey(SCALED)
+                    ? TimeBudget.readScaled(new File(options.get(SCALED)))
+                    : Collections.emptyMap();
+            run(cacheDir, classKeys, rawResults, allocations, scaled, new CommandLineOptions(selectionArgs), new CommandLineOptions(executionArgs));
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line:");
+            System.err.println(" " + e.getMessage());
+            System.exit(1);
+        } catch (RunnerException e) {
+            System.err.print("ERROR: ");
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+    private static void run(File cacheDir,
+                            Properties classKeys,
+                            File rawResults,
+                            File allocations,
+                            Map<String, int[]> scaled,
+                            CommandLineOptions selection,
+                            CommandLineOptions execution) throws RunnerException, IOException {
+        OutputFormat out = OutputFormatFactory.createFormatInstance(System.out, execution.verbosity().orElse(Defaults.VERBOSITY));
+        List<String> includes = new ArrayList<>(selection.getIncludes());
+        if (includes.isEmpty()) {
+            includes.add(".*");
+        }
+        // benchmark method name -> cache key, or null if the benchmark can't be cached
+        Map<String, String> benchmarks = new TreeMap<>();
+        for (BenchmarkListEntry entry : BenchmarkList.defaultList().find(out, includes, selection.getExcludes())) {
+            String classKey = cacheDir == null ? null : classKeys.getProperty(entry.getUserClassQName());
+            benchmarks.put(entry.getUsername(), classKey == null ? null : BenchmarkCacheKeys.hashOf(classKey + ":" + entry.getUsername()));
+        }
+        if (benchmarks.isEmpty()) {
+            throw new RunnerException("No matching benchmarks. Miss-spelled regexp?");
+        }
+
+        List<RunResult> results = new ArrayList<>();
+        List<String> toRun = new ArrayList<>();
+        for (Map.Entry<String, String> benchmark : benchmarks.entrySet()) {
+            List<RunResult> cached = benchmark.getValue() == null ? null : BenchmarkResults.read(cacheFileFor(cacheDir, benchmark.getValue()));
+            if (cached != null) {
+                out.println("Reusing cached results of " + benchmark.getKey());
+                results.addAll(cached);
+            } else {
+                toRun.add(benchmark.getKey());
+            }
+        }
+
+        if (!toRun.isEmpty()) {
+            // the output file is shared by the runs of JMH, which would truncate it, and close their output format
+            try (PrintStream humanOutput = selection.getOutput().hasValue()
+                    ? new PrintStream(new FileOutputStream(selection.getOutput().get()), true, "UTF-8")
+                    : null) {
+                // the benchmarks scaled down to fit the time budget are executed by separate runs, with their own counts
+                for (Map.Entry<List<Integer>, List<String>> run : TimeBudget.runsOf(toRun, scaled).entrySet()) {
+                    ChainedOptionsBuilder options = new OptionsBuilder()
+                            .parent(execution)
+                            .resultFormat(ResultFormatType.NONE);
+                    for (String benchmark : run.getValue()) {
+                        options.include("^" + Pattern.quote(benchmark) + "$");
+                    }
+                    List<Integer> counts = run.getKey();
+                    if (!counts.isEmpty()) {
+                        options.forks(counts.get(0))
+                                .warmupIterations(counts.get(1))
+                                .measurementIterations(counts.get(2));
+                    }
+                    Collection<RunResult> executed;
+                    if (humanOutput != null) {
+                        executed = new Runner(options.build(), OutputFormatFactory.createFormatInstance(
+                                new PrintStream(new BenchmarkWorkerRunner.NonClosingOutputStream(humanOutput), true, "UTF-8"),
+                                execution.verbosity().orElse(Defaults.VERBOSITY))).run();
+                    } else {
+                        executed = new Runner(options.build()).run();
+                    }
+                    if (cacheDir != null) {
+                        Map<String, List<RunResult>> byBenchmark = new TreeMap<>();
+                        for (RunResult result : executed) {
+                            byBenchmark.computeIfAbsent(result.getParams().getBenchmark(), k -> new ArrayList<>()).add(result);
+                        }
+                        for (Map.Entry<String, List<RunResult>> entry : byBenchmark.entrySet()) {
+                            String key = benchmarks.get(entry.getKey());
+                            if (key != null) {
+                                BenchmarkResults.write(cacheFileFor(cacheDir, key), entry.getValue());
+                            }
+                        }
+                    }
+                    results.addAll(executed);
+                }
+            }
+        }
+
+        if (rawResults != null) {
+            BenchmarkResults.write(rawResults, results);
+        }
+        if (allocations != null) {
+            BenchmarkAllocations.write(allocations, results);
+        }
+        ResultFormatType format = selection.getResultFormat().orElse(Defaults.RESULT_FORMAT);
+        String file = selection.getResult().orElse(Defaults.RESULT_FILE_PREFIX + "." + format.toString().toLowerCase(Locale.ROOT));
+        BenchmarkResults.writeFormatted(results, format, file);
+    }
+
+    private static File cacheFileFor(File cacheDir, String key) {
+        return new File(cacheDir, key + CACHE_FILE_EXTENSION);
+    }
+}
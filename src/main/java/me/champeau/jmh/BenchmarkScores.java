@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The primary scores of benchmarks, read from results written by JMH in the JSON format. Each score is
+ * identified by the benchmark, its mode and its parameters, and keeps the score of each measurement
+ * iteration, of all forks.
+ */
+final class BenchmarkScores {
+    private BenchmarkScores() {
+    }
+
+    /**
+     * Reads the scores of a JSON results file, indexed by {@link Score#getKey() key}.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Score> read(File jsonFile) {
+        Object json;
+        try {
+            json = new JsonSlurper().parse(jsonFile);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Unable to read JMH results from " + jsonFile + ". Results must be written in the JSON format, using resultFormat = 'JSON'.", e);
+        }
+        if (!(json instanceof List)) {
+            throw new IllegalArgumentException("Unable to read JMH results from " + jsonFile + ": expected a JSON array of results");
+        }
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (Map<String, Object> result : (List<Map<String, Object>>) json) {
+            Score score = Score.of(result);
+            scores.put(score.getKey(), score);
+        }
+        return scores;
+    }
+
+    /**
+     * Describes the JVM which executed the benchmarks of a JSON results file.
+     */
+    @SuppressWarnings("unchecked")
+    static String readJvm(File jsonFile) {
+        List<Map<String, Object>> results = (List<Map<String, Object>>) new JsonSlurper().parse(jsonFile);
+        if (results.isEmpty()) {
+            return "unknown";
+        }
+        Map<String, Object> result = results.get(0);
+        return result.get("jdkVersion") + " " + result.get("vmName") + " " + result.get("vmVersion");
+    }
+
+    static double toDouble(Object value) {
+        // JMH writes NaN and infinite values as strings
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(String.valueOf(value));
+    }
+
+    static final class Score {
+        private final String benchmark;
+        private final String mode;
+        private final Map<String, String> params;
+        private final String unit;
+        private final double score;
+        private final double scoreError;
+        private final double[] values;
+        private final Map<String, Double> secondaryMetrics;
+
+        Score(String benchmark, String mode, Map<String, String> params, String unit, double score, double scoreError, double[] values) {
+            this(benchmark, mode, params, unit, score, scoreError, values, Collections.emptyMap());
+        }
+
+        Score(String benchmark, String mode, Map<String, String> params, String unit, double score, double scoreError, double[] values,
+              Map<String, Double> secondaryMetrics) {
+            this.benchmark = benchmark;
+            this.mode = mode;
+            this.params = params;
+            this.unit = unit;
+            this.score = score;
+            this.scoreError = scoreError;
+            this.values = values;
+            this.secondaryMetrics = secondaryMetrics;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Score of(Map<String, Object> result) {
+            Map<String, String> params = new TreeMap<>();
+            Map<String, Object> jsonParams = (Map<String, Object>) result.get("params");
+            if (jsonParams != null) {
+                jsonParams.forEach((name, value) -> params.put(name, String.valueOf(value)));
+            }
+            Map<String, Object> metric = (Map<String, Object>) result.get("primaryMetric");
+            Map<String, Double> secondaryMetrics = new TreeMap<>();
+            Map<String, Map<String, Object>> jsonSecondaryMetrics = (Map<String, Map<String, Object>>) result.get("secondaryMetrics");
+            if (jsonSecondaryMetrics != null) {
+                jsonSecondaryMetrics.forEach((name, secondary) -> secondaryMetrics.put(name, toDouble(secondary.get("score"))));
+            }
+            return new Score(
+                    String.valueOf(result.get("benchmark")),
+                    String.valueOf(result.get("mode")),
+                    Collections.unmodifiableMap(params),
+                    String.valueOf(metric.get("scoreUnit")),
+                    toDouble(metric.get("score")),
+                    toDouble(metric.get("scoreError")),
+                    iterationScores(metric),
+                    Collections.unmodifiableMap(secondaryMetrics)
+            );
+        }
+
+        @SuppressWarnings("unchecked")
+        private static double[] iterationScores(Map<String, Object> metric) {
+            List<Double> scores = new ArrayList<>();
+            List<List<Object>> rawData = (List<List<Object>>) metric.get("rawData");
+            if (rawData != null) {
+                for (List<Object> fork : rawData) {
+                    for (Object iteration : fork) {
+                        scores.add(toDouble(iteration));
+                    }
+                }
+            } else {
+                // in sample mode, each iteration is a histogram of [value, count] pairs
+                List<List<List<List<Object>>>> histograms = (List<List<List<List<Object>>>>) metric.get("rawDataHistogram");
+                if (histograms != null) {
+                    for (List<List<List<Object>>> fork : histograms) {
+                        for (List<List<Object>> iteration : fork) {
+                            double sum = 0;
+                            double count = 0;
+                            for (List<Object> bucket : iteration) {
+                                double bucketCount = toDouble(bucket.get(1));
+                                sum += toDouble(bucket.get(0)) * bucketCount;
+                                count += bucketCount;
+                            }
+                            if (count > 0) {
+                                scores.add(sum / count);
+                            }
+                        }
+                    }
+                }
+            }
+            double[] result = new double[scores.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = scores.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Identifies the score among the results of other runs: the benchmark, its mode and its parameters.
+         */
+        String getKey() {
+            return params.isEmpty() ? benchmark + " " + mode : benchmark + " " + mode + " " + params;
+        }
+
+        String getBenchmark() {
+            return benchmark;
+        }
+
+        String getMode() {
+            return mode;
+        }
+
+        Map<String, String> getParams() {
+            return params;
+        }
+
+        String getUnit() {
+            return unit;
+        }
+
+        double getScore() {
+            return score;
+        }
+
+        double getScoreError() {
+            return scoreError;
+        }
+
+        /**
+         * The score of each measurement iteration, of all forks.
+         */
+        double[] getValues() {
+            return values;
+        }
+
+        /**
+         * The scores of the secondary metrics, like the ones of profilers, by name.
+         */
+        Map<String, Double> getSecondaryMetrics() {
+            return secondaryMetrics;
+        }
+
+        /**
+         * Converts this score, the score of each iteration and the error to another unit, for example
+         * from {@code us/op} to {@code ns/op}, or from {@code ops/s} to {@code ns/op}.
+         *
+         * @throws IllegalArgumentException if there's no conversion from the unit of this score to the given unit
+         */
+        Score inUnit(String unit) {
+            if (this.unit.equals(unit)) {
+                return this;
+            }
+            BudgetCheck.Quantity target = BudgetCheck.Quantity.of(0, unit);
+            double[] converted = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                converted[i] = target.convert(BudgetCheck.Quantity.of(values[i], this.unit));
+            }
+            double[] convertedScore = target.convertScore(score, scoreError, this.unit);
+            return new Score(benchmark, mode, params, unit, convertedScore[0], convertedScore[1], converted, secondaryMetrics);
+        }
+
+        /**
+         * Returns true when a higher score is better, which is the case for throughput. In the other modes,
+         * scores are times, so lower is better.
+         */
+        boolean isHigherBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.generators.asm.ASMGeneratorSource;
+import org.openjdk.jmh.generators.core.BenchmarkGenerator;
+import org.openjdk.jmh.generators.core.ClassInfo;
+import org.openjdk.jmh.generators.core.FileSystemDestination;
+import org.openjdk.jmh.generators.core.GeneratorSource;
+import org.openjdk.jmh.generators.core.SourceError;
+import org.openjdk.jmh.generators.core.SourceWarning;
+import org.openjdk.jmh.generators.reflection.RFGeneratorSource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives the JMH bytecode generator, the same way {@code JmhBytecodeGenerator} does, but without
+ * exiting the JVM on errors so that it can run in a reused worker daemon. Each benchmark class is
+ * generated separately, so that its generated code can be tracked by {@link BenchmarkFragments}.
+ *
+ * This class is loaded by an {@link IsolatedClassLoaders isolated class loader} which contains
+ * the JMH version of the project, so it must not reference any Gradle type.
+ */
+public final class BenchmarkSourcesGenerator {
+    private static final String GENERATOR_TYPE_DEFAULT = "default";
+    private static final String GENERATOR_TYPE_ASM = "asm";
+    private static final String GENERATOR_TYPE_REFLECTION = "reflection";
+
+    private BenchmarkSourcesGenerator() {
+    }
+
+    /**
+     * Generates the benchmark code for each of the given classes into its own fragment directory.
+     *
+     * @param loader the class loader used to load benchmark classes
+     * @param classFiles the class files to process for each benchmark class. The first file is the
+     * class file of the benchmark class, the others are the class files of its super classes.
+     * @param dependencyFiles the class files of the other classes each benchmark class depends on, like
+     * state classes declared outside of the benchmark class, which the ASM generator needs to resolve them
+     * @param fragmentsDir the directory containing a fragment directory for each benchmark class
+     * @param generatorType the type of generator
+     */
+    public static void generate(ClassLoader loader, Map<String, List<File>> classFiles, Map<String, List<File>> dependencyFiles, File fragmentsDir, String generatorType) throws Exception {
+        System.out.println("Processing " + classFiles.size() + " classes with \"" + generatorType + "\" generator");
+        List<SourceError> errors = new ArrayList<>();
+        for (Map.Entry<String, List<File>> entry : classFiles.entrySet()) {
+            File fragmentDir = new File(fragmentsDir, entry.getKey());
+            FileSystemDestination destination = new FileSystemDestination(
+                    new File(fragmentDir, BenchmarkFragments.RESOURCES),
+                    new File(fragmentDir, BenchmarkFragments.SOURCES)
+            );
+            List<File> dependencies = dependencyFiles.getOrDefault(entry.getKey(), Collections.emptyList());
+            GeneratorSource source = createSource(loader, generatorType, entry.getKey(), entry.getValue(), dependencies);
+            BenchmarkGenerator generator = new BenchmarkGenerator();
+            generator.generate(source, destination);
+            generator.complete(source, destination);
+
+            if (destination.hasErrors()) {
+                errors.addAll(destination.getErrors());
+            }
+            if (destination.hasWarnings()) {
+                for (SourceWarning warning : destination.getWarnings()) {
+                    System.err.println(warning);
+                }
+            }
+        }
+        if (!errors.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Generation of JMH bytecode failed with ")
+                    .append(errors.size())
+                    .append(" errors:\n");
+            for (SourceError error : errors) {
+                sb.append("  - ").append(error).append("\n");
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+    }
+
+    private static GeneratorSource createSource(ClassLoader loader, String generatorType, String className, List<File> classFiles, List<File> dependencyFiles) throws Exception {
+        if (GENERATOR_TYPE_ASM.equalsIgnoreCase(generatorType)) {
+            ASMGeneratorSource source = new ASMGeneratorSource();
+            source.processClasses(classFiles);
+            // the generator looks for benchmarks in all the classes of the source, so only the benchmark
+            // class and its super classes are listed, while the dependencies can still be resolved
+            List<ClassInfo> benchmarkClasses = new ArrayList<>(source.getClasses());
+            source.processClasses(dependencyFiles);
+            return new BenchmarkClassSource(source, benchmarkClasses);
+        }
+        if (GENERATOR_TYPE_DEFAULT.equalsIgnoreCase(generatorType) || GENERATOR_TYPE_REFLECTION.equalsIgnoreCase(generatorType)) {
+            RFGeneratorSource source = new RFGeneratorSource();
+            source.processClasses(Class.forName(className, false, loader));
+            return source;
+        }
+        throw new IllegalArgumentException("Unknown generator type '" + generatorType + "'. Supported types are: "
+                + GENERATOR_TYPE_DEFAULT + ", " + GENERATOR_TYPE_ASM + ", " + GENERATOR_TYPE_REFLECTION);
+    }
+
+    private static final class BenchmarkClassSource implements GeneratorSource {
+        private final GeneratorSource delegate;
+        private final List<ClassInfo> classes;
+
+        private BenchmarkClassSource(GeneratorSource delegate, List<ClassInfo> classes) {
+            this.delegate = delegate;
+            this.classes = classes;
+        }
+
+        @Override
+        public Collection<ClassInfo> getClasses() {
+            return classes;
+        }
+
+        @Override
+        public ClassInfo resolveClass(String className) {
+            return delegate.resolveClass(className);
+        }
+    }
+}
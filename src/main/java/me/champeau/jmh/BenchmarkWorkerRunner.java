@@ -0,0 +1,547 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Defaults;
+import org.openjdk.jmh.runner.IterationType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.WorkloadParams;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.runner.options.VerboseMode;
+import org.openjdk.jmh.runner.options.WarmupMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks with the JMH runner, in the worker process of the JMH task. The runner is configured
+ * from typed options keyed by the name of their JMH command line option, instead of a command line.
+ * The progress of the run is reported by {@link ProgressOutputFormat}, and the results are written to
+ * the results file and, when requested, in the binary format of {@link BenchmarkResults}, so that
+ * they can be used by other tasks without parsing the results file. When iterations are adaptive,
+ * the runner is called several times per benchmark, see {@link AdaptiveIterations}.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+public final class BenchmarkWorkerRunner {
+    static final String PROGRESS_FILE = "progressFile";
+    static final String RAW_RESULTS = "rawResults";
+    static final String METADATA_FILE = "metadataFile";
+    static final String ALLOCATIONS_FILE = "allocationsFile";
+    static final String TARGET_PRECISION = "targetPrecision";
+    static final String MAX_ITERATIONS = "maxIterations";
+    static final String MAX_WARMUP_ITERATIONS = "maxWarmupIterations";
+    static final String STEADY_STATE_THRESHOLD = "steadyStateThreshold";
+    static final String MIN_BATCH_ITERATIONS = "minBatchIterations";
+    static final String MAX_EXTRA_FORKS = "maxExtraForks";
+    static final String SCALED_BENCHMARKS = "scaledBenchmarks";
+
+    private BenchmarkWorkerRunner() {
+    }
+
+    /**
+     * Runs the benchmarks selected by the options.
+     *
+     * @param options the JMH options
+     * @param settings the settings of the plugin for this run, like where to write progress events
+     * @param forkClasspath the classpath of the forked JVMs
+     */
+    public static void run(Map<String, Object> options, Map<String, Object> settings, String forkClasspath) throws IOException, RunnerException {
+        String humanOutput = (String) options.get("o");
+        String progressFile = (String) settings.get(PROGRESS_FILE);
+        VerboseMode verbosity = options.containsKey("v") ? enumValue(VerboseMode.class, (String) options.get("v")) : Defaults.VERBOSITY;
+        // JMH launches forks with the classpath of the current JVM, which is the one of the worker
+        String classpath = System.getProperty("java.class.path");
+        System.setProperty("java.class.path", forkClasspath);
+        Collection<RunResult> results;
+        try (PrintStream out = humanOutput != null
+                ? new PrintStream(new FileOutputStream(humanOutput), true, "UTF-8")
+                : new PrintStream(new NonClosingOutputStream(System.out), true);
+             Writer progress = progressFile != null ? newWriter(new File(progressFile)) : null) {
+            // the streams are closed here, since JMH may close its output format at the end of each run
+            ProgressOutputFormat format = new ProgressOutputFormat(
+                    OutputFormatFactory.createFormatInstance(new PrintStream(new NonClosingOutputStream(out), true), verbosity),
+                    progress, humanOutput != null ? System.out : null);
+            if (settings.containsKey(TARGET_PRECISION)) {
+                Properties summary = new Properties();
+                results = runAdaptive(options, settings, format, summary);
+                if (settings.containsKey(METADATA_FILE)) {
+                    addMetadata(new File((String) settings.get(METADATA_FILE)), summary);
+                }
+            } else if (settings.containsKey(MAX_EXTRA_FORKS)) {
+                Properties summary = new Properties();
+                results = runDiscardingOutlierForks(options, settings, format, summary);
+                if (settings.containsKey(METADATA_FILE)) {
+                    addMetadata(new File((String) settings.get(METADATA_FILE)), summary);
+                }
+            } else {
+                results = runScaled(options, settings, format);
+            }
+        } finally {
+            System.setProperty("java.class.path", classpath);
+        }
+        if (settings.containsKey(RAW_RESULTS)) {
+            BenchmarkResults.write(new File((String) settings.get(RAW_RESULTS)), results);
+        }
+        if (settings.containsKey(ALLOCATIONS_FILE)) {
+            BenchmarkAllocations.write(new File((String) settings.get(ALLOCATIONS_FILE)), results);
+        }
+        ResultFormatType resultFormat = options.containsKey("rf")
+                ? enumValue(ResultFormatType.class, (String) options.get("rf"))
+                : Defaults.RESULT_FORMAT;
+        String resultsFile = (String) options.get("rff");
+        BenchmarkResults.writeFormatted(results, resultFormat, resultsFile != null
+                ? resultsFile
+                : Defaults.RESULT_FILE_PREFIX + "." + resultFormat.toString().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Runs each benchmark with as many iterations as it needs. A first fork without warmup records how
+     * the scores evolve from the start, which tells how many warmup iterations are needed to reach a steady
+     * state. The iterations of this fork which follow the warmup are the first batch. The benchmark is then
+     * executed by more batches, each batch being a fork with these warmup iterations, until the confidence
+     * interval of the score is narrow enough, or the maximum number of iterations is reached. The iterations
+     * of all batches make the results of the benchmark, like forks do.
+     */
+    private static Collection<RunResult> runAdaptive(Map<String, Object> options,
+                                                     Map<String, Object> settings,
+                                                     ProgressOutputFormat format,
+                                                     Properties summary) throws RunnerException {
+        double targetPrecision = ((Number) settings.get(TARGET_PRECISION)).doubleValue();
+        int maxIterations = ((Number) settings.get(MAX_ITERATIONS)).intValue();
+        int maxWarmupIterations = ((Number) settings.get(MAX_WARMUP_ITERATIONS)).intValue();
+        double steadyStateThreshold = ((Number) settings.get(STEADY_STATE_THRESHOLD)).doubleValue();
+        int minBatchIterations = ((Number) settings.get(MIN_BATCH_ITERATIONS)).intValue();
+        Options execution = optionsOf(options, false);
+        Collection<RunResult> probes = new Runner(new OptionsBuilder()
+                .parent(optionsOf(options, true))
+                .warmupIterations(0)
+                .measurementIterations(maxWarmupIterations)
+                .forks(1)
+                .warmupForks(0)
+                .build(), format).run();
+        List<RunResult> results = new ArrayList<>();
+        for (RunResult probe : probes) {
+            BenchmarkParams params = probe.getParams();
+            int warmupIterations = AdaptiveIterations.steadyStateStart(scoresOf(probe.getBenchmarkResults()), steadyStateThreshold);
+            boolean steady = warmupIterations >= 0;
+            if (!steady) {
+                warmupIterations = maxWarmupIterations;
+            }
+            BenchmarkParams batchParams = null;
+            List<BenchmarkResult> batches = new ArrayList<>();
+            double[] scores = new double[0];
+            double precision = Double.POSITIVE_INFINITY;
+            if (steady) {
+                // the iterations of the probe which follow the warmup were measured in a steady state
+                batchParams = params;
+                batches.addAll(steadyIterationsOf(probe, warmupIterations, maxIterations));
+                scores = scoresOf(batches);
+                precision = AdaptiveIterations.relativeHalfWidth(scores);
+            }
+            // the warmup of each batch is paid once, so a batch measures at least as many iterations as it warms up
+            int batchSize = Math.max(minBatchIterations, warmupIterations);
+            while (scores.length < maxIterations && precision > targetPrecision) {
+                Options batch = optionsOf(execution, params)
+                        .warmupIterations(warmupIterations)
+                        .measurementIterations(Math.min(batchSize, maxIterations - scores.length))
+                        .forks(1)
+                        .warmupForks(0)
+                        .build();
+                int before = batches.size();
+                for (RunResult result : new Runner(batch, format).run()) {
+                    batchParams = batchParams == null ? result.getParams() : batchParams;
+                    batches.addAll(result.getBenchmarkResults());
+                }
+                if (batches.size() == before) {
+                    // the benchmark failed, and JMH is configured to go on
+                    break;
+                }
+                scores = scoresOf(batches);
+                precision = AdaptiveIterations.relativeHalfWidth(scores);
+            }
+            if (batchParams != null) {
+                results.add(new RunResult(withCounts(batchParams, batches.size(), warmupIterations, scores.length), batches));
+            }
+            String key = keyOf(params);
+            summary.setProperty("adaptive." + key + ".warmupIterations", String.valueOf(warmupIterations));
+            summary.setProperty("adaptive." + key + ".steadyState", String.valueOf(steady));
+            summary.setProperty("adaptive." + key + ".iterations", String.valueOf(scores.length));
+            summary.setProperty("adaptive." + key + ".precision", String.format(Locale.ROOT, "%.3f", precision));
+            summary.setProperty("adaptive." + key + ".converged", String.valueOf(precision <= targetPrecision));
+            format.event("adaptive", params, "\"warmupIterations\":" + warmupIterations
+                    + ",\"steadyState\":" + steady
+                    + ",\"iterations\":" + scores.length
+                    + ",\"converged\":" + (precision <= targetPrecision));
+            format.println(String.format(Locale.ROOT, "# Adaptive iterations of %s: %d warmup iterations%s, %d measurement iterations, +/-%.2f%% of the score%s",
+                    key, warmupIterations, steady ? "" : " (no steady state)", scores.length, precision,
+                    precision <= targetPrecision ? "" : " (maximum iterations reached)"));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the iterations of each fork of the probe which follow its warmup, as forks of their own, without
+     * exceeding the given number of iterations.
+     */
+    private static List<BenchmarkResult> steadyIterationsOf(RunResult probe, int warmupIterations, int maxIterations) {
+        List<BenchmarkResult> steady = new ArrayList<>();
+        int remaining = maxIterations;
+        for (BenchmarkResult fork : probe.getBenchmarkResults()) {
+            List<IterationResult> iterations = new ArrayList<>(fork.getIterationResults());
+            List<IterationResult> kept = iterations.subList(Math.min(warmupIterations, iterations.size()), iterations.size());
+            kept = kept.subList(0, Math.min(kept.size(), remaining));
+            if (!kept.isEmpty()) {
+                steady.add(new BenchmarkResult(fork.getParams(), new ArrayList<>(kept)));
+                remaining -= kept.size();
+            }
+        }
+        return steady;
+    }
+
+    /**
+     * Runs the benchmarks selected by the options. The benchmarks scaled down to fit the time budget, if any,
+     * are executed by separate runs, with their own counts, see {@link TimeBudget}.
+     */
+    private static Collection<RunResult> runScaled(Map<String, Object> options,
+                                                   Map<String, Object> settings,
+                                                   ProgressOutputFormat format) throws IOException, RunnerException {
+        Options selection = optionsOf(options, true);
+        if (!settings.containsKey(SCALED_BENCHMARKS)) {
+            return new Runner(selection, format).run();
+        }
+        Map<String, int[]> scaled = TimeBudget.readScaled(new File((String) settings.get(SCALED_BENCHMARKS)));
+        List<String> includes = new ArrayList<>(selection.getIncludes());
+        if (includes.isEmpty()) {
+            includes.add(".*");
+        }
+        Set<String> benchmarks = new TreeSet<>();
+        for (BenchmarkListEntry entry : BenchmarkList.defaultList().find(format, includes, selection.getExcludes())) {
+            benchmarks.add(entry.getUsername());
+        }
+        Options execution = optionsOf(options, false);
+        List<RunResult> results = new ArrayList<>();
+        for (Map.Entry<List<Integer>, List<String>> run : TimeBudget.runsOf(benchmarks, scaled).entrySet()) {
+            ChainedOptionsBuilder builder = new OptionsBuilder().parent(execution);
+            for (String benchmark : run.getValue()) {
+                builder.include("^" + Pattern.quote(benchmark) + "$");
+            }
+            List<Integer> counts = run.getKey();
+            if (!counts.isEmpty()) {
+                builder.forks(counts.get(0))
+                        .warmupIterations(counts.get(1))
+                        .measurementIterations(counts.get(2));
+            }
+            results.addAll(new Runner(builder.build(), format).run());
+        }
+        return results;
+    }
+
+    /**
+     * Runs the benchmarks, then checks the forks of each benchmark for outliers, see {@link OutlierForks}.
+     * Outlier forks are discarded, and replaced by extra forks, as long as the number of extra forks of the
+     * benchmark doesn't exceed the maximum. The results only contain the forks which are not outliers, unless
+     * all forks are outliers.
+     */
+    private static Collection<RunResult> runDiscardingOutlierForks(Map<String, Object> options,
+                                                                   Map<String, Object> settings,
+                                                                   ProgressOutputFormat format,
+                                                                   Properties summary) throws IOException, RunnerException {
+        int maxExtraForks = ((Number) settings.get(MAX_EXTRA_FORKS)).intValue();
+        Options execution = optionsOf(options, false);
+        List<RunResult> results = new ArrayList<>();
+        for (RunResult result : runScaled(options, settings, format)) {
+            BenchmarkParams params = result.getParams();
+            List<BenchmarkResult> forks = new ArrayList<>(result.getBenchmarkResults());
+            int expected = forks.size();
+            if (expected < OutlierForks.MIN_FORKS) {
+                results.add(result);
+                continue;
+            }
+            Map<Integer, String> outliers = OutlierForks.detect(scoresByFork(forks));
+            int extraForks = 0;
+            while (forks.size() - outliers.size() < expected && extraForks < maxExtraForks) {
+                int count = Math.min(expected - (forks.size() - outliers.size()), maxExtraForks - extraForks);
+                format.println(String.format(Locale.ROOT, "# Running %d extra fork(s) of %s to replace outlier forks", count, keyOf(params)));
+                // the counts of the benchmark may have been scaled down to fit the time budget
+                Options extra = optionsOf(execution, params)
+                        .forks(count)
+                        .warmupForks(0)
+                        .warmupIterations(params.getWarmup().getCount())
+                        .measurementIterations(params.getMeasurement().getCount())
+                        .build();
+                for (RunResult extraResult : new Runner(extra, format).run()) {
+                    forks.addAll(extraResult.getBenchmarkResults());
+                }
+                extraForks += count;
+                outliers = OutlierForks.detect(scoresByFork(forks));
+            }
+            String key = keyOf(params);
+            summary.setProperty("outliers." + key + ".forks", String.valueOf(forks.size()));
+            summary.setProperty("outliers." + key + ".extraForks", String.valueOf(extraForks));
+            summary.setProperty("outliers." + key + ".discarded", String.valueOf(outliers.size()));
+            List<BenchmarkResult> kept = new ArrayList<>();
+            for (int i = 0; i < forks.size(); i++) {
+                String reason = outliers.get(i);
+                if (reason == null) {
+                    kept.add(forks.get(i));
+                } else {
+                    summary.setProperty("outliers." + key + ".fork" + (i + 1), reason);
+                    format.event("discardedFork", params, "\"fork\":" + (i + 1) + ",\"reason\":" + ProgressOutputFormat.quote(reason));
+                    format.println(String.format(Locale.ROOT, "# Discarded fork %d of %s: %s", i + 1, key, reason));
+                }
+            }
+            if (outliers.isEmpty() && extraForks == 0) {
+                results.add(result);
+            } else {
+                List<BenchmarkResult> reported = kept.isEmpty() ? forks : kept;
+                // the params tell how many forks the result is made of, which are the forks which were kept
+                BenchmarkParams reportedParams = withCounts(params, reported.size(),
+                        params.getWarmup().getCount(), params.getMeasurement().getCount());
+                results.add(new RunResult(reportedParams, reported));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a builder of options which only select the given benchmark, with its mode and parameters.
+     */
+    private static ChainedOptionsBuilder optionsOf(Options execution, BenchmarkParams params) {
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(execution)
+                .include("^" + Pattern.quote(params.getBenchmark()) + "$")
+                .mode(params.getMode());
+        for (String key : params.getParamsKeys()) {
+            builder.param(key, params.getParam(key));
+        }
+        return builder;
+    }
+
+    /**
+     * Returns a copy of the parameters of a benchmark with other counts. In an adaptive run, each batch is
+     * reported as a fork, and the measurement iterations are those of all batches. When outlier forks are
+     * discarded, only the kept forks are reported. The parameters of the benchmark are pinned to a single
+     * value in each run, which is why their order is always 0.
+     */
+    private static BenchmarkParams withCounts(BenchmarkParams params, int forks, int warmupIterations, int measurementIterations) {
+        WorkloadParams workload = new WorkloadParams();
+        for (String key : params.getParamsKeys()) {
+            workload.put(key, params.getParam(key), 0);
+        }
+        IterationParams warmup = params.getWarmup();
+        IterationParams measurement = params.getMeasurement();
+        return new BenchmarkParams(params.getBenchmark(), params.generatedBenchmark(), params.shouldSynchIterations(),
+                params.getThreads(), params.getThreadGroups(), params.getThreadGroupLabels(),
+                forks, 0,
+                new IterationParams(IterationType.WARMUP, warmupIterations, warmup.getTime(), warmup.getBatchSize()),
+                new IterationParams(IterationType.MEASUREMENT, measurementIterations, measurement.getTime(), measurement.getBatchSize()),
+                params.getMode(), workload,
+                params.getTimeUnit(), params.getOpsPerInvocation(),
+                params.getJvm(), params.getJvmArgs(),
+                params.getJdkVersion(), params.getVmName(), params.getVmVersion(), params.getJmhVersion(),
+                params.getTimeout());
+    }
+
+    private static String keyOf(BenchmarkParams params) {
+        return ProgressOutputFormat.describe(params) + " " + params.getMode().shortLabel();
+    }
+
+    private static List<double[]> scoresByFork(List<BenchmarkResult> forks) {
+        List<double[]> scores = new ArrayList<>();
+        for (BenchmarkResult fork : forks) {
+            scores.add(scoresOf(Collections.singletonList(fork)));
+        }
+        return scores;
+    }
+
+    private static double[] scoresOf(Collection<BenchmarkResult> results) {
+        List<Double> scores = new ArrayList<>();
+        for (BenchmarkResult result : results) {
+            for (IterationResult iteration : result.getIterationResults()) {
+                scores.add(iteration.getPrimaryResult().getScore());
+            }
+        }
+        return scores.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    private static void addMetadata(File metadataFile, Properties entries) throws IOException {
+        Properties metadata = new Properties();
+        if (metadataFile.isFile()) {
+            try (InputStream in = Files.newInputStream(metadataFile.toPath())) {
+                metadata.load(in);
+            }
+        }
+        metadata.putAll(entries);
+        try (OutputStream out = Files.newOutputStream(metadataFile.toPath())) {
+            metadata.store(out, null);
+        }
+    }
+
+    private static Writer newWriter(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        return Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Converts the options to JMH options.
+     *
+     * @param includeSelection whether to include the options which select benchmarks. The options of a builder
+     * are added to the ones of its parent, so they must not be included in a parent which selects other benchmarks
+     */
+    static Options optionsOf(Map<String, Object> options, boolean includeSelection) {
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                // results are written once all benchmarks are executed, together with the binary results
+                .resultFormat(ResultFormatType.NONE);
+        if (includeSelection) {
+            for (String include : strings(options, "")) {
+                builder.include(include);
+            }
+            for (String exclude : strings(options, "e")) {
+                builder.exclude(exclude);
+            }
+        }
+        for (String mode : strings(options, "bm")) {
+            builder.mode(Mode.deepValueOf(mode));
+        }
+        with(options, "i", (Integer value) -> builder.measurementIterations(value));
+        with(options, "bs", (Integer value) -> builder.measurementBatchSize(value));
+        with(options, "f", (Integer value) -> builder.forks(value));
+        with(options, "foe", (Boolean value) -> builder.shouldFailOnError(value));
+        with(options, "gc", (Boolean value) -> builder.shouldDoGC(value));
+        with(options, "jvm", (String value) -> builder.jvm(value));
+        with(options, "jvmArgs", (List<String> value) -> builder.jvmArgs(value.toArray(new String[0])));
+        with(options, "jvmArgsAppend", (List<String> value) -> builder.jvmArgsAppend(value.toArray(new String[0])));
+        with(options, "jvmArgsPrepend", (List<String> value) -> builder.jvmArgsPrepend(value.toArray(new String[0])));
+        with(options, "opi", (Integer value) -> builder.operationsPerInvocation(value));
+        with(options, "p", (Map<String, List<String>> params) -> params.forEach((name, values) ->
+                builder.param(name, values.toArray(new String[0]))));
+        for (String profiler : strings(options, "prof")) {
+            int separator = profiler.indexOf(':');
+            if (separator < 0) {
+                builder.addProfiler(profiler);
+            } else {
+                builder.addProfiler(profiler.substring(0, separator), profiler.substring(separator + 1));
+            }
+        }
+        with(options, "r", (String value) -> builder.measurementTime(TimeValue.fromString(value)));
+        with(options, "si", (Boolean value) -> builder.syncIterations(value));
+        with(options, "t", (Integer value) -> builder.threads(value));
+        with(options, "tg", (List<Integer> value) -> builder.threadGroups(value.stream().mapToInt(Integer::intValue).toArray()));
+        with(options, "to", (String value) -> builder.timeout(TimeValue.fromString(value)));
+        with(options, "tu", (String value) -> builder.timeUnit(timeUnitOf(value)));
+        with(options, "v", (String value) -> builder.verbosity(enumValue(VerboseMode.class, value)));
+        with(options, "w", (String value) -> builder.warmupTime(TimeValue.fromString(value)));
+        with(options, "wbs", (Integer value) -> builder.warmupBatchSize(value));
+        with(options, "wf", (Integer value) -> builder.warmupForks(value));
+        with(options, "wi", (Integer value) -> builder.warmupIterations(value));
+        with(options, "wm", (String value) -> builder.warmupMode(enumValue(WarmupMode.class, value)));
+        for (String warmupBenchmark : strings(options, "wmb")) {
+            builder.includeWarmup(warmupBenchmark);
+        }
+        return builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void with(Map<String, Object> options, String option, Consumer<T> action) {
+        Object value = options.get(option);
+        if (value != null) {
+            action.accept((T) value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(Map<String, Object> options, String option) {
+        List<String> values = (List<String>) options.get(option);
+        return values == null ? Collections.emptyList() : values;
+    }
+
+    private static <E extends Enum<E>> E enumValue(Class<E> type, String value) {
+        return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+    }
+
+    private static TimeUnit timeUnitOf(String unit) {
+        // the units accepted by the JMH command line
+        switch (unit) {
+            case "m":
+                return TimeUnit.MINUTES;
+            case "s":
+                return TimeUnit.SECONDS;
+            case "ms":
+                return TimeUnit.MILLISECONDS;
+            case "us":
+                return TimeUnit.MICROSECONDS;
+            case "ns":
+                return TimeUnit.NANOSECONDS;
+            default:
+                throw new IllegalArgumentException("Unknown time unit: " + unit);
+        }
+    }
+
+    /**
+     * Prevents JMH from closing the streams it writes to, like the standard output of the worker, which is reused by other work.
+     */
+    static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the results of benchmarks against their {@link PerformanceBudget budgets}.
+ */
+final class BudgetCheck {
+    // the secondary metric of the gc profiler, which is prefixed with a dot in older JMH versions
+    private static final Pattern ALLOCATION_METRIC = Pattern.compile("\u00b7?gc\\.alloc\\.rate\\.norm");
+    private static final Pattern QUANTITY = Pattern.compile("\\s*([0-9.eE+-]+)\\s*(\\S+)\\s*");
+
+    private BudgetCheck() {
+    }
+
+    /**
+     * Returns the checks of each budget for each matching benchmark result.
+     */
+    static List<Row> check(Collection<PerformanceBudget> budgets, Map<String, BenchmarkScores.Score> scores) {
+        List<Row> rows = new ArrayList<>();
+        for (PerformanceBudget budget : budgets) {
+            for (BenchmarkScores.Score score : scores.values()) {
+                if (!matches(budget, score)) {
+                    continue;
+                }
+                if (budget.getMaxScore().isPresent()) {
+                    rows.add(checkScore(score, Quantity.parse(budget.getMaxScore().get()), true));
+                }
+                if (budget.getMinScore().isPresent()) {
+                    rows.add(checkScore(score, Quantity.parse(budget.getMinScore().get()), false));
+                }
+                if (budget.getMaxAllocBytesPerOp().isPresent()) {
+                    rows.add(checkAllocation(score, budget.getMaxAllocBytesPerOp().get().doubleValue()));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the names of the budgets which don't match any of the results.
+     */
+    static List<String> unmatched(Collection<PerformanceBudget> budgets, Map<String, BenchmarkScores.Score> scores) {
+        List<String> unmatched = new ArrayList<>();
+        for (PerformanceBudget budget : budgets) {
+            if (scores.values().stream().noneMatch(score -> matches(budget, score))) {
+                unmatched.add(budget.getName());
+            }
+        }
+        return unmatched;
+    }
+
+    private static boolean matches(PerformanceBudget budget, BenchmarkScores.Score score) {
+        return budget.getName().equals(score.getBenchmark()) || Pattern.compile(budget.getName()).matcher(score.getBenchmark()).matches();
+    }
+
+    private static Row checkScore(BenchmarkScores.Score score, Quantity limit, boolean max) {
+        double actual = limit.convert(Quantity.of(score.getScore(), score.getUnit()));
+        boolean passed = max ? actual <= limit.value : actual >= limit.value;
+        return new Row(score, "score", format(actual) + " " + limit.unit, (max ? "<= " : ">= ") + format(limit.value) + " " + limit.unit, passed);
+    }
+
+    private static Row checkAllocation(BenchmarkScores.Score score, double limit) {
+        String budget = "<= " + format(limit) + " B/op";
+        for (Map.Entry<String, Double> metric : score.getSecondaryMetrics().entrySet()) {
+            if (ALLOCATION_METRIC.matcher(metric.getKey()).matches()) {
+                return new Row(score, "allocation", format(metric.getValue()) + " B/op", budget, metric.getValue() <= limit);
+            }
+        }
+        return new Row(score, "allocation", "not measured, add the gc profiler", budget, false);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Formats the checks as a table.
+     */
+    static String table(List<Row> rows) {
+        String[] header = {"Benchmark", "Metric", "Actual", "Budget", "Status"};
+        int[] widths = new int[header.length];
+        List<String[]> lines = new ArrayList<>();
+        lines.add(header);
+        for (Row row : rows) {
+            lines.add(new String[]{row.benchmark, row.metric, row.actual, row.budget, row.passed ? "OK" : "EXCEEDED"});
+        }
+        for (String[] line : lines) {
+            for (int i = 0; i < line.length; i++) {
+                widths[i] = Math.max(widths[i], line[i].length());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String[] line : lines) {
+            for (int i = 0; i < line.length; i++) {
+                sb.append(String.format(Locale.ROOT, i == line.length - 1 ? "%s" : "%-" + widths[i] + "s  ", line[i]));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static final class Row {
+        private final String benchmark;
+        private final String metric;
+        private final String actual;
+        private final String budget;
+        private final boolean passed;
+
+        Row(BenchmarkScores.Score score, String metric, String actual, String budget, boolean passed) {
+            this.benchmark = score.getKey();
+            this.metric = metric;
+            this.actual = actual;
+            this.budget = budget;
+            this.passed = passed;
+        }
+
+        boolean isPassed() {
+            return passed;
+        }
+    }
+
+    /**
+     * A score with its unit, which is either a time per operation, like {@code ns/op}, or a number
+     * of operations per time, like {@code ops/s}.
+     */
+    static final class Quantity {
+        private final double value;
+        private final String unit;
+        private final boolean timePerOperation;
+        private final long unitNanos;
+
+        private Quantity(double value, String unit, boolean timePerOperation, long unitNanos) {
+            this.value = value;
+            this.unit = unit;
+            this.timePerOperation = timePerOperation;
+            this.unitNanos = unitNanos;
+        }
+
+        static Quantity parse(String quantity) {
+            Matcher matcher = QUANTITY.matcher(quantity);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid score '" + quantity + "', expected a value followed by a unit, like '120 ns/op'");
+            }
+            return of(Double.parseDouble(matcher.group(1)), matcher.group(2));
+        }
+
+        static Quantity of(double value, String unit) {
+            String[] parts = unit.split("/");
+            if (parts.length == 2 && "op".equals(parts[1])) {
+                return new Quantity(value, unit, true, nanosOf(parts[0], unit));
+            }
+            if (parts.length == 2 && "ops".equals(parts[0])) {
+                return new Quantity(value, unit, false, nanosOf(parts[1], unit));
+            }
+            throw new IllegalArgumentException("Invalid unit '" + unit + "', expected a time per operation, like 'ns/op', or operations per time, like 'ops/s'");
+        }
+
+        private static long nanosOf(String timeUnit, String unit) {
+            switch (timeUnit) {
+                case "ns":
+                    return 1;
+                case "us":
+                    return TimeUnit.MICROSECONDS.toNanos(1);
+                case "ms":
+                    return TimeUnit.MILLISECONDS.toNanos(1);
+                case "s":
+                    return TimeUnit.SECONDS.toNanos(1);
+                case "min":
+                    return TimeUnit.MINUTES.toNanos(1);
+                case "hr":
+                    return TimeUnit.HOURS.toNanos(1);
+                case "day":
+                    return TimeUnit.DAYS.toNanos(1);
+                default:
+                    throw new IllegalArgumentException("Unknown time unit '" + timeUnit + "' in '" + unit + "'");
+            }
+        }
+
+        private double nanosPerOperation() {
+            return timePerOperation ? value * unitNanos : unitNanos / value;
+        }
+
+        /**
+         * Converts another quantity to the unit of this one.
+         */
+        double convert(Quantity other) {
+            double nanosPerOperation = other.nanosPerOperation();
+            return timePerOperation ? nanosPerOperation / unitNanos : unitNanos / nanosPerOperation;
+        }
+
+        /**
+         * Converts a score and its error, expressed in the given unit, to the unit of this quantity. A conversion
+         * between times and throughputs isn't linear, so the error is taken at the upper bound of the score.
+         *
+         * @return the converted score, followed by the converted error
+         */
+        double[] convertScore(double score, double scoreError, String unit) {
+            double convertedScore = convert(of(score, unit));
+            double convertedError = Math.abs(convert(of(score + scoreError, unit)) - convertedScore);
+            return new double[]{convertedScore, convertedError};
+        }
+    }
+}
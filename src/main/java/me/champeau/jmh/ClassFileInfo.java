@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal class file reader, which extracts the information required to compute dependencies
+ * between benchmark classes without requiring a bytecode library on the plugin classpath.
+ * Referenced classes are over-approximated from the constant pool.
+ */
+final class ClassFileInfo {
+    private static final String BENCHMARK_DESCRIPTOR = "Lorg/openjdk/jmh/annotations/Benchmark;";
+    private static final Pattern TYPE_IN_DESCRIPTOR = Pattern.compile("L([\\w/$]+)[;<]");
+
+    private final String className;
+    private final String superClassName;
+    private final String sourceFile;
+    private final Set<String> referencedClasses;
+    private final boolean declaresBenchmarks;
+
+    private ClassFileInfo(String className, String superClassName, String sourceFile, Set<String> referencedClasses, boolean declaresBenchmarks) {
+        this.className = className;
+        this.superClassName = superClassName;
+        this.sourceFile = sourceFile;
+        this.referencedClasses = Collections.unmodifiableSet(referencedClasses);
+        this.declaresBenchmarks = declaresBenchmarks;
+    }
+
+    /**
+     * The fully qualified name of the class, using dots as separators.
+     */
+    String getClassName() {
+        return className;
+    }
+
+    String getSuperClassName() {
+        return superClassName;
+    }
+
+    /**
+     * The name of the source file this class was compiled from, without its directory, or null if unknown.
+     */
+    String getSourceFile() {
+        return sourceFile;
+    }
+
+    Set<String> getReferencedClasses() {
+        return referencedClasses;
+    }
+
+    /**
+     * Returns true if one of the methods of this class is annotated with {@code @Benchmark}.
+     */
+    boolean declaresBenchmarks() {
+        return declaresBenchmarks;
+    }
+
+    static ClassFileInfo read(File classFile) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(classFile.toPath()))) {
+            return read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read class file " + classFile, e);
+        }
+    }
+
+    static ClassFileInfo read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classIndexes = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.readInt();
+                    break;
+                case 5:
+                case 6:
+                    in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unexpected constant pool tag " + tag);
+            }
+        }
+        in.readUnsignedShort();
+        String className = internalToClassName(utf8[classIndexes[in.readUnsignedShort()]]);
+        int superIndex = in.readUnsignedShort();
+        String superClassName = superIndex == 0 ? null : internalToClassName(utf8[classIndexes[superIndex]]);
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            in.readUnsignedShort();
+        }
+        skipMembers(in);
+        skipMembers(in);
+        String sourceFile = null;
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String name = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("SourceFile".equals(name)) {
+                sourceFile = utf8[in.readUnsignedShort()];
+            } else {
+                skipFully(in, length);
+            }
+        }
+
+        Set<String> referenced = new TreeSet<>();
+        boolean declaresBenchmarks = false;
+        for (int i = 1; i < count; i++) {
+            if (classIndexes[i] != 0) {
+                String name = utf8[classIndexes[i]];
+                if (name.startsWith("[")) {
+                    addTypesFromDescriptor(name, referenced);
+                } else {
+                    referenced.add(internalToClassName(name));
+                }
+            } else if (utf8[i] != null) {
+                String value = utf8[i];
+                if (BENCHMARK_DESCRIPTOR.equals(value)) {
+                    declaresBenchmarks = true;
+                }
+                addTypesFromDescriptor(value, referenced);
+            }
+        }
+        referenced.remove(className);
+        return new ClassFileInfo(className, superClassName, sourceFile, referenced, declaresBenchmarks);
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                in.readUnsignedShort();
+                skipFully(in, in.readInt());
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static void addTypesFromDescriptor(String descriptor, Set<String> into) {
+        if (descriptor.indexOf(';') < 0) {
+            return;
+        }
+        Matcher matcher = TYPE_IN_DESCRIPTOR.matcher(descriptor);
+        while (matcher.find()) {
+            into.add(internalToClassName(matcher.group(1)));
+        }
+    }
+
+    private static String internalToClassName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+}
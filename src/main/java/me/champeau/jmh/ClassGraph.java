@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The dependency graph between the classes found in a set of classes directories.
+ * Only classes which belong to these directories are part of the graph.
+ */
+final class ClassGraph {
+    private final Map<String, ClassFileInfo> classes;
+    private final Map<String, File> files;
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+
+    private ClassGraph(Map<String, ClassFileInfo> classes, Map<String, File> files) {
+        this.classes = classes;
+        this.files = files;
+        for (ClassFileInfo info : classes.values()) {
+            for (String dependency : info.getReferencedClasses()) {
+                dependents.computeIfAbsent(dependency, k -> new HashSet<>()).add(info.getClassName());
+            }
+        }
+    }
+
+    static ClassGraph of(Iterable<File> classesDirs) {
+        Map<String, ClassFileInfo> classes = new LinkedHashMap<>();
+        Map<String, File> files = new HashMap<>();
+        for (File classesDir : classesDirs) {
+            if (classesDir.isDirectory()) {
+                collect(classesDir, classes, files);
+            }
+        }
+        return new ClassGraph(classes, files);
+    }
+
+    private static void collect(File dir, Map<String, ClassFileInfo> classes, Map<String, File> files) {
+        File[] listing = dir.listFiles();
+        if (listing == null) {
+            return;
+        }
+        for (File file : listing) {
+            if (file.isDirectory()) {
+                collect(file, classes, files);
+            } else if (file.getName().endsWith(".class") && !"module-info.class".equals(file.getName())) {
+                ClassFileInfo info = ClassFileInfo.read(file);
+                // when the same class is found in several directories, the first one wins, like on a classpath
+                if (!classes.containsKey(info.getClassName())) {
+                    classes.put(info.getClassName(), info);
+                    files.put(info.getClassName(), file);
+                }
+            }
+        }
+    }
+
+    Set<String> getClassNames() {
+        return classes.keySet();
+    }
+
+    ClassFileInfo get(String className) {
+        return classes.get(className);
+    }
+
+    File fileOf(String className) {
+        return files.get(className);
+    }
+
+    /**
+     * Returns true if the class, or one of its super classes, declares benchmark methods. If the
+     * class extends a class which doesn't belong to this graph, we can't tell, so it is assumed
+     * that it may.
+     */
+    boolean mayHaveBenchmarks(String className) {
+        List<String> hierarchy = superClassesOf(className, true);
+        for (String name : hierarchy) {
+            if (classes.get(name).declaresBenchmarks()) {
+                return true;
+            }
+        }
+        if (hierarchy.isEmpty()) {
+            return false;
+        }
+        String topMostSuperClass = classes.get(hierarchy.get(hierarchy.size() - 1)).getSuperClassName();
+        return topMostSuperClass != null && !"java.lang.Object".equals(topMostSuperClass);
+    }
+
+    /**
+     * Returns the class and its super classes, from the most specific to the least specific,
+     * as long as they belong to this graph.
+     */
+    List<String> superClassesOf(String className, boolean includeSelf) {
+        List<String> result = new ArrayList<>();
+        ClassFileInfo info = classes.get(className);
+        if (info != null && includeSelf) {
+            result.add(className);
+        }
+        Set<String> seen = new HashSet<>(result);
+        while (info != null && info.getSuperClassName() != null && seen.add(info.getSuperClassName())) {
+            info = classes.get(info.getSuperClassName());
+            if (info != null) {
+                result.add(info.getClassName());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the class files of the class and of its super classes, from the most specific to the
+     * least specific, as long as they belong to this graph.
+     */
+    List<File> hierarchyFilesOf(String className) {
+        List<File> result = new ArrayList<>();
+        for (String name : superClassesOf(className, true)) {
+            result.add(files.get(name));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the class files of the classes of this graph which the class or its super classes
+     * transitively depend on, excluding the files returned by {@link #hierarchyFilesOf(String)}.
+     */
+    List<File> dependencyFilesOf(String className) {
+        List<String> hierarchy = superClassesOf(className, true);
+        Set<File> result = new LinkedHashSet<>();
+        for (String name : hierarchy) {
+            for (String dependency : dependenciesOf(name)) {
+                if (!hierarchy.contains(dependency)) {
+                    result.add(files.get(dependency));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the class and the classes of this graph it transitively depends on.
+     */
+    Set<String> dependenciesOf(String className) {
+        Set<String> result = new TreeSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(className);
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            ClassFileInfo info = classes.get(current);
+            if (info != null && result.add(current)) {
+                queue.addAll(info.getReferencedClasses());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the classes of this graph which transitively depend on any of the given classes,
+     * including the given classes themselves when they belong to the graph. The given classes
+     * don't have to exist anymore, which makes it possible to find the dependents of removed classes.
+     */
+    Set<String> dependentsOf(Collection<String> changedClasses) {
+        Set<String> result = new TreeSet<>();
+        Deque<String> queue = new ArrayDeque<>(changedClasses);
+        Set<String> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            if (!visited.add(current)) {
+                continue;
+            }
+            if (classes.containsKey(current)) {
+                result.add(current);
+            }
+            Set<String> direct = dependents.get(current);
+            if (direct != null) {
+                queue.addAll(direct);
+            }
+        }
+        return result;
+    }
+}
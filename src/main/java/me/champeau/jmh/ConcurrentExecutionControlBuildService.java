@@ -16,22 +16,76 @@
 package me.champeau.jmh;
 
 import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.services.BuildService;
 import org.gradle.api.services.BuildServiceParameters;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the number of tasks which run concurrently. Tasks which run benchmarks concurrently
+ * can also lease a set of CPUs, which is disjoint from the sets leased by the other tasks.
+ */
 public abstract class ConcurrentExecutionControlBuildService implements BuildService<ConcurrentExecutionControlBuildService.Params> {
+    private List<CpuTopology.CpuSet> cpuSets;
+    private final List<CpuTopology.CpuSet> leased = new ArrayList<>();
+
     public static Provider<ConcurrentExecutionControlBuildService> restrict(Class<?> clazz, Gradle gradle, int maxConcurrentTasks) {
         return gradle.getSharedServices()
                 .registerIfAbsent("maxConcurrent" + clazz.getName(),
                         ConcurrentExecutionControlBuildService.class,
-                        spec -> spec.getMaxParallelUsages().set(maxConcurrentTasks));
+                        spec -> {
+                            spec.getMaxParallelUsages().set(maxConcurrentTasks);
+                            spec.getParameters().getMaxConcurrentTasks().set(maxConcurrentTasks);
+                        });
+    }
+
+    public static Provider<ConcurrentExecutionControlBuildService> restrict(Class<?> clazz, Gradle gradle, Provider<Integer> maxConcurrentTasks) {
+        return gradle.getSharedServices()
+                .registerIfAbsent("maxConcurrent" + clazz.getName(),
+                        ConcurrentExecutionControlBuildService.class,
+                        spec -> {
+                            spec.getMaxParallelUsages().set(maxConcurrentTasks);
+                            spec.getParameters().getMaxConcurrentTasks().set(maxConcurrentTasks);
+                        });
     }
 
     public static Provider<ConcurrentExecutionControlBuildService> restrict(Class<?> clazz, Gradle gradle) {
         return ConcurrentExecutionControlBuildService.restrict(clazz, gradle, 1);
     }
 
+    /**
+     * Leases a set of CPUs which is not leased by another task. The CPUs of the host are split into
+     * as many sets as tasks allowed to run concurrently, so a set is always available to a task using
+     * this service.
+     */
+    synchronized CpuTopology.CpuSet leaseCpus() {
+        if (cpuSets == null) {
+            cpuSets = CpuTopology.current().split(getParameters().getMaxConcurrentTasks().get());
+        }
+        for (CpuTopology.CpuSet cpuSet : cpuSets) {
+            if (!leased.contains(cpuSet)) {
+                leased.add(cpuSet);
+                return cpuSet;
+            }
+        }
+        throw new IllegalStateException("All CPU sets are leased: " + leased);
+    }
+
+    /**
+     * Whether several tasks using this service may run at the same time.
+     */
+    boolean allowsConcurrentTasks() {
+        return getParameters().getMaxConcurrentTasks().get() > 1;
+    }
+
+    synchronized void release(CpuTopology.CpuSet cpuSet) {
+        leased.remove(cpuSet);
+    }
+
     public interface Params extends BuildServiceParameters {
+        Property<Integer> getMaxConcurrentTasks();
     }
 }
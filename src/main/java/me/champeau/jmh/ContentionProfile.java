@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the time the threads of a benchmark spend blocked, entering or waiting on monitors and parked,
+ * during its measurement iterations, by thread count. The blocked time is divided by the number of measured
+ * operations, so that it can be read alongside the score, and is broken down by lock class and stack trace.
+ */
+final class ContentionProfile {
+    private static final int MAX_STACK_DEPTH = 8;
+
+    // frames of the blocking mechanism itself, which are the same for every lock
+    private static final List<String> BLOCKING_FRAMES = Arrays.asList(
+            "jdk.internal.misc.Unsafe.",
+            "sun.misc.Unsafe.",
+            "java.util.concurrent.locks.LockSupport.",
+            "java.lang.Object.wait"
+    );
+
+    private final List<Iteration> iterations = new ArrayList<>();
+    private final List<Blocking> events = new ArrayList<>();
+
+    enum Kind {
+        MONITOR_ENTER("monitor enter"),
+        MONITOR_WAIT("monitor wait"),
+        THREAD_PARK("park");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Adds a measurement iteration, executed between the given times, in nanoseconds.
+     */
+    void addIteration(long start, long end, int threads, long operations, double score, String scoreUnit) {
+        iterations.add(new Iteration(start, end, threads, operations, score, scoreUnit));
+    }
+
+    /**
+     * Adds the blocking of a benchmark thread, which started at the given time and lasted the given duration,
+     * in nanoseconds, with its stack trace from the outermost frame.
+     */
+    void addEvent(Kind kind, long start, long duration, String lockClass, List<String> frames) {
+        events.add(new Blocking(kind, start, duration, lockClass, frames));
+    }
+
+    boolean hasEvents() {
+        return !events.isEmpty();
+    }
+
+    /**
+     * Returns the contention of each thread count, from the lowest one. Blocking which doesn't start during a
+     * measurement iteration isn't counted, and is cut at the end of the iteration.
+     */
+    List<Summary> summaries() {
+        List<Iteration> sorted = new ArrayList<>(iterations);
+        sorted.sort(Comparator.comparingLong(iteration -> iteration.start));
+        long[] starts = sorted.stream().mapToLong(iteration -> iteration.start).toArray();
+        Map<Integer, Summary> summaries = new TreeMap<>();
+        for (Iteration iteration : sorted) {
+            summaries.computeIfAbsent(iteration.threads, Summary::new).add(iteration);
+        }
+        for (Blocking event : events) {
+            int index = Arrays.binarySearch(starts, event.start);
+            index = index >= 0 ? index : -index - 2;
+            if (index >= 0 && event.start <= sorted.get(index).end) {
+                Iteration iteration = sorted.get(index);
+                summaries.get(iteration.threads).add(event, Math.min(event.duration, iteration.end - event.start));
+            }
+        }
+        return new ArrayList<>(summaries.values());
+    }
+
+    /**
+     * Renders the contention of each thread count, followed by the stack traces which block the longest.
+     */
+    String html(String title, int topStacks) {
+        List<Summary> summaries = summaries();
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>").append(FlameGraph.escape(title)).append("</title>\n")
+                .append("<style>\n")
+                .append("body { font: 13px sans-serif; margin: 16px; }\n")
+                .append("table { border-collapse: collapse; } th, td { padding: 2px 8px; text-align: right; vertical-align: top; } ")
+                .append("td.stack { text-align: left; font-family: monospace; } tr:nth-child(even) { background: #f3f3f3; }\n")
+                .append("</style>\n</head>\n<body>\n")
+                .append("<h1>").append(FlameGraph.escape(title)).append("</h1>\n")
+                .append("<p>Time the benchmark threads spend entering or waiting on monitors and parked, during the measurement iterations. ")
+                .append("The blocked share is the blocked time divided by the time of all threads.</p>\n")
+                .append("<table>\n<tr><th>Threads</th><th>Score</th><th>Blocked per operation</th><th>Blocked share</th><th>Events</th></tr>\n");
+        for (Summary summary : summaries) {
+            sb.append("<tr><td>").append(summary.threads).append("</td><td>").append(format(summary.getScore())).append(' ')
+                    .append(FlameGraph.escape(summary.scoreUnit)).append("</td><td>").append(format(summary.getBlockedNanosPerOperation()))
+                    .append(" ns/op</td><td>").append(String.format(Locale.ROOT, "%.2f%%", 100 * summary.getBlockedShare()))
+                    .append("</td><td>").append(summary.events).append("</td></tr>\n");
+        }
+        sb.append("</table>\n");
+        for (Summary summary : summaries) {
+            if (summary.stacks.isEmpty()) {
+                continue;
+            }
+            List<Map.Entry<String, long[]>> sorted = new ArrayList<>(summary.stacks.entrySet());
+            sorted.sort((a, b) -> a.getValue()[1] != b.getValue()[1] ? Long.compare(b.getValue()[1], a.getValue()[1]) : a.getKey().compareTo(b.getKey()));
+            sb.append("<h2>Blocking stack traces with ").append(summary.threads).append(" thread(s)</h2>\n<table>\n")
+                    .append("<tr><th>Kind</th><th>Lock class</th><th>Events</th><th>Blocked</th><th>Per operation</th><th>Share</th><th>Stack trace</th></tr>\n");
+            for (Map.Entry<String, long[]> stack : sorted.subList(0, Math.min(topStacks, sorted.size()))) {
+                String[] lines = stack.getKey().split("\n");
+                long nanos = stack.getValue()[1];
+                sb.append("<tr><td>").append(FlameGraph.escape(lines[0])).append("</td><td>").append(FlameGraph.escape(lines[1]))
+                        .append("</td><td>").append(stack.getValue()[0])
+                        .append("</td><td>").append(format(nanos / 1e6)).append(" ms")
+                        .append("</td><td>").append(format(summary.operations == 0 ? 0 : (double) nanos / summary.operations)).append(" ns/op")
+                        .append("</td><td>").append(String.format(Locale.ROOT, "%.2f%%", 100d * nanos / summary.blockedNanos))
+                        .append("</td><td class=\"stack\">");
+                for (int i = 2; i < lines.length; i++) {
+                    sb.append(i > 2 ? "<br>" : "").append(FlameGraph.escape(lines[i]));
+                }
+                sb.append("</td></tr>\n");
+            }
+            sb.append("</table>\n");
+        }
+        sb.append("</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * The key of the stack trace of a blocking: its kind, the lock class and the innermost frames, one per line,
+     * without the frames of the blocking mechanism.
+     */
+    static String stackKey(Kind kind, String lockClass, List<String> frames) {
+        StringBuilder key = new StringBuilder(kind.label).append('\n').append(lockClass == null ? "unknown" : lockClass);
+        int depth = 0;
+        for (int i = frames.size() - 1; i >= 0 && depth < MAX_STACK_DEPTH; i--) {
+            String frame = frames.get(i);
+            if (depth == 0 && BLOCKING_FRAMES.stream().anyMatch(frame::startsWith)) {
+                continue;
+            }
+            key.append('\n').append(frame);
+            depth++;
+        }
+        return key.toString();
+    }
+
+    static final class Summary {
+        private final int threads;
+        private final Map<String, long[]> stacks = new HashMap<>();
+        private int iterations;
+        private long operations;
+        private long threadNanos;
+        private double scores;
+        private String scoreUnit = "";
+        private long blockedNanos;
+        private long events;
+
+        private Summary(int threads) {
+            this.threads = threads;
+        }
+
+        private void add(Iteration iteration) {
+            iterations++;
+            operations += iteration.operations;
+            threadNanos += iteration.threads * (iteration.end - iteration.start);
+            scores += iteration.score;
+            scoreUnit = iteration.scoreUnit;
+        }
+
+        private void add(Blocking event, long nanos) {
+            events++;
+            blockedNanos += nanos;
+            long[] stack = stacks.computeIfAbsent(stackKey(event.kind, event.lockClass, event.frames), k -> new long[2]);
+            stack[0]++;
+            stack[1] += nanos;
+        }
+
+        int getThreads() {
+            return threads;
+        }
+
+        /**
+         * The mean score of the iterations.
+         */
+        double getScore() {
+            return iterations == 0 ? Double.NaN : scores / iterations;
+        }
+
+        double getBlockedNanosPerOperation() {
+            return operations == 0 ? Double.NaN : (double) blockedNanos / operations;
+        }
+
+        double getBlockedShare() {
+            return threadNanos == 0 ? 0 : (double) blockedNanos / threadNanos;
+        }
+
+        long getEvents() {
+            return events;
+        }
+    }
+
+    private static final class Iteration {
+        private final long start;
+        private final long end;
+        private final int threads;
+        private final long operations;
+        private final double score;
+        private final String scoreUnit;
+
+        private Iteration(long start, long end, int threads, long operations, double score, String scoreUnit) {
+            this.start = start;
+            this.end = end;
+            this.threads = threads;
+            this.operations = operations;
+            this.score = score;
+            this.scoreUnit = scoreUnit;
+        }
+    }
+
+    private static final class Blocking {
+        private final Kind kind;
+        private final long start;
+        private final long duration;
+        private final String lockClass;
+        private final List<String> frames;
+
+        private Blocking(Kind kind, long start, long duration, String lockClass, List<String> frames) {
+            this.kind = kind;
+            this.start = start;
+            this.duration = duration;
+            this.lockClass = lockClass;
+            this.frames = frames;
+        }
+    }
+}
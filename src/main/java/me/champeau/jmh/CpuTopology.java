@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The CPUs of the host, grouped by NUMA node. On Linux, they are read from {@code /sys/devices/system},
+ * on other systems, all CPUs are assumed to belong to a single node.
+ */
+final class CpuTopology {
+    private static final File SYSTEM_DIR = new File("/sys/devices/system");
+
+    private static final int UNKNOWN_NODE = Integer.MAX_VALUE;
+
+    private final Map<Integer, List<Integer>> cpusByNode;
+
+    CpuTopology(Map<Integer, List<Integer>> cpusByNode) {
+        this.cpusByNode = cpusByNode;
+    }
+
+    static CpuTopology current() {
+        List<Integer> online = readCpuList(new File(SYSTEM_DIR, "cpu/online"));
+        if (online.isEmpty()) {
+            for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+                online.add(i);
+            }
+        }
+        Map<Integer, List<Integer>> cpusByNode = new TreeMap<>();
+        File[] nodes = new File(SYSTEM_DIR, "node").listFiles((dir, name) -> name.matches("node\\d+"));
+        TreeSet<Integer> remaining = new TreeSet<>(online);
+        if (nodes != null) {
+            for (File node : nodes) {
+                List<Integer> cpus = readCpuList(new File(node, "cpulist"));
+                cpus.retainAll(remaining);
+                if (!cpus.isEmpty()) {
+                    cpusByNode.put(Integer.parseInt(node.getName().substring("node".length())), cpus);
+                    remaining.removeAll(cpus);
+                }
+            }
+        }
+        if (!remaining.isEmpty()) {
+            // CPUs which don't belong to a known node are put last
+            cpusByNode.computeIfAbsent(cpusByNode.isEmpty() ? 0 : UNKNOWN_NODE, k -> new ArrayList<>()).addAll(remaining);
+        }
+        return new CpuTopology(cpusByNode);
+    }
+
+    /**
+     * Splits the CPUs into the given number of disjoint sets of the same size. CPUs are ordered by
+     * NUMA node, so that a set spans as few nodes as possible. When there are fewer CPUs than sets,
+     * sets share CPUs.
+     */
+    List<CpuSet> split(int count) {
+        List<int[]> cpus = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> node : cpusByNode.entrySet()) {
+            for (Integer cpu : node.getValue()) {
+                cpus.add(new int[]{cpu, node.getKey()});
+            }
+        }
+        List<CpuSet> result = new ArrayList<>(count);
+        int size = Math.max(1, cpus.size() / count);
+        for (int i = 0; i < count; i++) {
+            TreeSet<Integer> set = new TreeSet<>();
+            TreeSet<Integer> nodes = new TreeSet<>();
+            for (int j = 0; j < size; j++) {
+                int[] cpu = cpus.get((i * size + j) % cpus.size());
+                set.add(cpu[0]);
+                if (cpu[1] != UNKNOWN_NODE) {
+                    nodes.add(cpu[1]);
+                }
+            }
+            result.add(new CpuSet(set, nodes));
+        }
+        return result;
+    }
+
+    static List<Integer> parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                cpus.add(Integer.parseInt(range));
+            } else {
+                int end = Integer.parseInt(range.substring(dash + 1));
+                for (int cpu = Integer.parseInt(range.substring(0, dash)); cpu <= end; cpu++) {
+                    cpus.add(cpu);
+                }
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Formats CPUs the way {@code taskset -c} expects them, for example {@code 0-3,8}.
+     */
+    static String formatCpuList(Collection<Integer> cpus) {
+        StringBuilder sb = new StringBuilder();
+        Integer start = null;
+        Integer previous = null;
+        for (Integer cpu : new TreeSet<>(cpus)) {
+            if (previous != null && cpu == previous + 1) {
+                previous = cpu;
+                continue;
+            }
+            appendRange(sb, start, previous);
+            start = cpu;
+            previous = cpu;
+        }
+        appendRange(sb, start, previous);
+        return sb.toString();
+    }
+
+    private static void appendRange(StringBuilder sb, Integer start, Integer end) {
+        if (start == null) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        sb.append(start);
+        if (!start.equals(end)) {
+            sb.append('-').append(end);
+        }
+    }
+
+    private static List<Integer> readCpuList(File file) {
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        try {
+            return parseCpuList(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException | NumberFormatException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * A set of CPUs, together with the NUMA nodes they belong to.
+     */
+    static final class CpuSet {
+        private final TreeSet<Integer> cpus;
+        private final TreeSet<Integer> nodes;
+
+        CpuSet(TreeSet<Integer> cpus, TreeSet<Integer> nodes) {
+            this.cpus = cpus;
+            this.nodes = nodes;
+        }
+
+        int size() {
+            return cpus.size();
+        }
+
+        String getCpuList() {
+            return formatCpuList(cpus);
+        }
+
+        String getNodeList() {
+            return formatCpuList(nodes);
+        }
+
+        @Override
+        public String toString() {
+            return getCpuList();
+        }
+    }
+}
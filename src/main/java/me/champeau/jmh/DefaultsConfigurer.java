@@ -18,20 +18,64 @@ package me.champeau.jmh;
 import org.gradle.api.Named;
 import org.gradle.api.Project;
 import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Provider;
+
+import java.io.File;
 
 class DefaultsConfigurer {
     public static void configureDefaults(JmhParameters params, Project project) {
         params.getJmhVersion().convention("1.36");
         params.getIncludeTests().convention(true);
         params.getZip64().convention(false);
+        params.getJarCompression().convention("deflated");
         params.getDuplicateClassesStrategy().convention(DuplicatesStrategy.INCLUDE);
+        params.getExplodedClasspath().convention(false);
         params.getFailOnError().convention(false);
         params.getForceGC().convention(false);
         params.getResultFormat().convention("text");
-        params.getResultsFile().convention(
-                project.getProviders().zip(params.getResultFormat(), project.getLayout().getBuildDirectory(), (format, dir) ->
-                        dir.file("results/" + nameOf(params) + "/results." + extensionFor(format)))
-        );
+        params.getCacheResults().convention(false);
+        params.getResultsCacheDir().convention(project.getLayout().getBuildDirectory().dir("jmh-results-cache/" + nameOf(params)));
+        params.getShards().convention(1);
+        // concurrent benchmarks compete for the same cores unless they are pinned to disjoint sets of CPUs
+        params.getMaxParallelShards().convention(params.getPinCores().zip(params.getShards(), (pinCores, shards) -> pinCores ? shards : 1));
+        params.getPinCores().convention(false);
+        params.getRecordHistory().convention(false);
+        params.getRunInWorker().convention(false);
+        params.getAdaptiveIterations().convention(false);
+        params.getTargetPrecision().convention(2.0);
+        params.getMaxIterations().convention(50);
+        params.getMaxWarmupIterations().convention(20);
+        params.getSteadyStateThreshold().convention(2.0);
+        params.getMinBatchIterations().convention(5);
+        params.getDiscardOutlierForks().convention(false);
+        params.getMaxExtraForks().convention(3);
+        params.getHostReadinessPolicy().convention("warn");
+        params.getJfr().getEnabled().convention(false);
+        params.getProfileAllocations().convention(false);
+        params.getProfileContention().convention(false);
+        params.getInliningDiagnostics().convention(false);
+        params.getJfr().getSettings().convention("profile");
+        params.getJfr().getJvmEvents().convention(true);
+        File historyDir = defaultHistoryDir(project);
+        params.getHistoryDir().convention(project.getLayout().dir(project.provider(() -> historyDir)));
+        params.getResultsFile().convention(defaultResultsFile(project, params.getResultFormat(), nameOf(params)));
+    }
+
+    static Provider<RegularFile> defaultResultsFile(Project project, Provider<String> resultFormat, String name) {
+        return project.getProviders().zip(resultFormat, project.getLayout().getBuildDirectory(), (format, dir) ->
+                dir.file("results/" + name + "/results." + extensionFor(format)));
+    }
+
+    /**
+     * The history is stored in the Gradle user home, so that it survives a clean of the project.
+     */
+    private static File defaultHistoryDir(Project project) {
+        String projectName = project.getRootProject().getName();
+        if (project != project.getRootProject()) {
+            projectName += project.getPath().replace(':', '_');
+        }
+        return new File(project.getGradle().getGradleUserHomeDir(), "jmh-history/" + projectName);
     }
 
     private static String nameOf(JmhParameters params) {
@@ -82,9 +126,38 @@ class DefaultsConfigurer {
         into.getWarmupMode().convention(from.getWarmupMode());
         into.getWarmupBenchmarks().convention(from.getWarmupBenchmarks());
         into.getZip64().convention(from.getZip64());
+        into.getJarCompression().convention(from.getJarCompression());
         into.getDuplicateClassesStrategy().convention(from.getDuplicateClassesStrategy());
+        into.getExplodedClasspath().convention(from.getExplodedClasspath());
         into.getJavaLauncher().convention(from.getJavaLauncher());
         into.getEnvironment().convention(from.getEnvironment());
+        into.getCacheResults().convention(from.getCacheResults());
+        into.getResultsCacheDir().convention(from.getResultsCacheDir());
+        into.getShards().convention(from.getShards());
+        into.getMaxParallelShards().convention(from.getMaxParallelShards());
+        into.getPinCores().convention(from.getPinCores());
+        into.getRecordHistory().convention(from.getRecordHistory());
+        into.getRunInWorker().convention(from.getRunInWorker());
+        into.getAdaptiveIterations().convention(from.getAdaptiveIterations());
+        into.getTargetPrecision().convention(from.getTargetPrecision());
+        into.getMaxIterations().convention(from.getMaxIterations());
+        into.getMaxWarmupIterations().convention(from.getMaxWarmupIterations());
+        into.getSteadyStateThreshold().convention(from.getSteadyStateThreshold());
+        into.getMinBatchIterations().convention(from.getMinBatchIterations());
+        into.getDiscardOutlierForks().convention(from.getDiscardOutlierForks());
+        into.getMaxExtraForks().convention(from.getMaxExtraForks());
+        into.getHostReadinessPolicy().convention(from.getHostReadinessPolicy());
+        into.getIgnoredHostChecks().convention(from.getIgnoredHostChecks());
+        into.getJfr().getEnabled().convention(from.getJfr().getEnabled());
+        into.getProfileAllocations().convention(from.getProfileAllocations());
+        into.getProfileContention().convention(from.getProfileContention());
+        into.getInliningDiagnostics().convention(from.getInliningDiagnostics());
+        into.getJfr().getSettings().convention(from.getJfr().getSettings());
+        into.getJfr().getJvmEvents().convention(from.getJfr().getJvmEvents());
+        into.getHistoryDir().convention(from.getHistoryDir());
+        into.getTimeBudget().convention(from.getTimeBudget());
+        into.getBenchmarkWeights().convention(from.getBenchmarkWeights());
+        from.getBudgets().all(budget -> into.getBudgets().add(budget));
     }
 
 }
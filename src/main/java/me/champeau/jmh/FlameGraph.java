@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Aggregates stack trace samples into a tree of frames, which is rendered as folded stacks, the format of
+ * the flame graph tools, and as a self-contained HTML flame graph with a table of the hottest methods.
+ * Samples can be weighted, for example by the number of bytes allocated.
+ */
+final class FlameGraph {
+    private final String unit;
+    private final Node root = new Node("all");
+    private final Map<String, Long> selfSamples = new HashMap<>();
+    private final Map<String, Long> totalSamples = new HashMap<>();
+
+    FlameGraph() {
+        this("samples");
+    }
+
+    FlameGraph(String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Adds samples of a stack trace, given from the outermost frame to the innermost one.
+     */
+    void add(List<String> frames, long count) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        Node node = root;
+        node.samples += count;
+        for (String frame : frames) {
+            node = node.children.computeIfAbsent(frame, Node::new);
+            node.samples += count;
+        }
+        selfSamples.merge(frames.get(frames.size() - 1), count, Long::sum);
+        // recursive methods only count once per sample
+        Set<String> distinct = new HashSet<>(frames);
+        for (String frame : distinct) {
+            totalSamples.merge(frame, count, Long::sum);
+        }
+    }
+
+    long getSamples() {
+        return root.samples;
+    }
+
+    /**
+     * Returns the stacks in the folded format: one line per distinct stack, with its frames separated by
+     * semicolons from the outermost one, followed by the number of samples.
+     */
+    String folded() {
+        StringBuilder sb = new StringBuilder();
+        for (Node child : root.children.values()) {
+            fold(child, child.name, sb);
+        }
+        return sb.toString();
+    }
+
+    private static void fold(Node node, String stack, StringBuilder sb) {
+        long childSamples = 0;
+        for (Node child : node.children.values()) {
+            childSamples += child.samples;
+        }
+        if (node.samples > childSamples) {
+            sb.append(stack).append(' ').append(node.samples - childSamples).append('\n');
+        }
+        for (Node child : node.children.values()) {
+            fold(child, stack + ";" + child.name, sb);
+        }
+    }
+
+    /**
+     * Returns the methods with the most samples where they are the innermost frame.
+     */
+    List<HotMethod> hotMethods(int count) {
+        List<HotMethod> methods = new ArrayList<>();
+        selfSamples.forEach((method, self) -> methods.add(new HotMethod(method, self, totalSamples.get(method))));
+        methods.sort((a, b) -> a.self != b.self ? Long.compare(b.self, a.self) : a.method.compareTo(b.method));
+        return methods.size() > count ? methods.subList(0, count) : methods;
+    }
+
+    String html(String title, int topMethods) {
+        return html(title, topMethods, "");
+    }
+
+    /**
+     * Renders the flame graph, followed by the hottest methods and by the given HTML.
+     */
+    String html(String title, int topMethods, String appendix) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>").append(escape(title)).append("</title>\n")
+                .append("<style>\n")
+                .append("body { font: 13px sans-serif; margin: 16px; }\n")
+                .append("#graph { position: relative; width: 100%; }\n")
+                .append("#graph div { position: absolute; height: 17px; line-height: 17px; font-size: 11px; overflow: hidden; white-space: nowrap; ")
+                .append("box-sizing: border-box; border: 1px solid #fff; padding-left: 2px; cursor: pointer; }\n")
+                .append("table { border-collapse: collapse; } th, td { padding: 2px 8px; text-align: right; } ")
+                .append("th:first-child, td:first-child { text-align: left; font-family: monospace; } tr:nth-child(even) { background: #f3f3f3; }\n")
+                .append("</style>\n</head>\n<body>\n")
+                .append("<h1>").append(escape(title)).append("</h1>\n")
+                .append("<p>").append(root.samples).append(' ').append(unit).append(". Click a frame to zoom in, and a frame below it to zoom out.</p>\n")
+                .append("<div id=\"graph\"></div>\n")
+                .append("<h2>Hot methods</h2>\n<table>\n<tr><th>Method</th><th>Self ").append(unit).append("</th><th>Self</th><th>Total</th></tr>\n");
+        for (HotMethod method : hotMethods(topMethods)) {
+            sb.append("<tr><td>").append(escape(method.method)).append("</td><td>").append(method.self)
+                    .append("</td><td>").append(percent(method.self)).append("</td><td>").append(percent(method.total)).append("</td></tr>\n");
+        }
+        sb.append("</table>\n").append(appendix).append("<script>\nvar root = ");
+        json(root, sb);
+        sb.append(";\nvar unit = '").append(unit).append("';\n")
+                .append("var H = 17, graph = document.getElementById('graph');\n")
+                .append("function link(n, p, d) { n.p = p; n.d = d; var m = d; (n.c || []).forEach(function (c) { m = Math.max(m, link(c, n, d + 1)); }); return m; }\n")
+                .append("graph.style.height = ((link(root, null, 0) + 1) * H) + 'px';\n")
+                .append("function color(name) { var h = 0; for (var i = 0; i < name.length; i++) { h = (h * 31 + name.charCodeAt(i)) | 0; }")
+                .append(" return 'hsl(' + (Math.abs(h) % 55) + ',85%,' + (60 + Math.abs(h >> 8) % 15) + '%)'; }\n")
+                .append("function box(n, x, w) { var e = document.createElement('div'); e.style.left = x + '%'; e.style.width = w + '%';")
+                .append(" e.style.bottom = (n.d * H) + 'px'; e.style.background = color(n.n); e.textContent = n.n;")
+                .append(" e.title = n.n + ' (' + n.v + ' ' + unit + ', ' + (100 * n.v / root.v).toFixed(2) + '%)'; e.onclick = function () { zoom(n); }; graph.appendChild(e); }\n")
+                .append("function draw(n, x, w) { if (w < 0.05) { return; } box(n, x, w); var cx = x; (n.c || []).forEach(function (c) { var cw = w * c.v / n.v; draw(c, cx, cw); cx += cw; }); }\n")
+                .append("function zoom(f) { graph.innerHTML = ''; for (var a = f.p; a; a = a.p) { box(a, 0, 100); } draw(f, 0, 100); }\n")
+                .append("zoom(root);\n</script>\n</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    private String percent(long samples) {
+        return String.format(Locale.ROOT, "%.2f%%", root.samples == 0 ? 0d : 100d * samples / root.samples);
+    }
+
+    private static void json(Node node, StringBuilder sb) {
+        sb.append("{\"n\":\"");
+        for (char c : node.name.toCharArray()) {
+            // < is escaped so that frame names can't close the script element
+            if (c == '"' || c == '\\' || c == '<' || c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append("\",\"v\":").append(node.samples);
+        if (!node.children.isEmpty()) {
+            sb.append(",\"c\":[");
+            boolean first = true;
+            for (Node child : node.children.values()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                json(child, sb);
+                first = false;
+            }
+            sb.append(']');
+        }
+        sb.append('}');
+    }
+
+    static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static final class Node {
+        private final String name;
+        // children are sorted by name, like in flame graphs, so that the layout doesn't depend on the sampling order
+        private final Map<String, Node> children = new TreeMap<>();
+        private long samples;
+
+        private Node(String name) {
+            this.name = name;
+        }
+    }
+
+    static final class HotMethod {
+        private final String method;
+        private final long self;
+        private final long total;
+
+        HotMethod(String method, long self, long total) {
+            this.method = method;
+            this.self = self;
+            this.total = total;
+        }
+
+        String getMethod() {
+            return method;
+        }
+
+        long getSelf() {
+            return self;
+        }
+
+        long getTotal() {
+            return total;
+        }
+    }
+}
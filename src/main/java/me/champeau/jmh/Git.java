@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs git commands in a repository.
+ */
+final class Git {
+    private static final int BISECT_CANNOT_CONTINUE = 2;
+
+    private final ExecOperations execOperations;
+    private final File repositoryDir;
+
+    Git(ExecOperations execOperations, File repositoryDir) {
+        this.execOperations = execOperations;
+        this.repositoryDir = repositoryDir;
+    }
+
+    /**
+     * Runs a git command, and returns the non blank lines it wrote to the standard output.
+     */
+    List<String> run(String... args) {
+        return run(false, args);
+    }
+
+    /**
+     * Runs a git bisect command. {@code git bisect skip} exits with 2 when only skipped commits are left, which
+     * tells that the first bad commit can't be found rather than a failure, so its output is returned too.
+     */
+    List<String> bisect(String... args) {
+        String[] command = new String[args.length + 1];
+        command[0] = "bisect";
+        System.arraycopy(args, 0, command, 1, args.length);
+        return run(true, command);
+    }
+
+    private List<String> run(boolean bisect, String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExecResult result = execOperations.exec(spec -> {
+            spec.setWorkingDir(repositoryDir);
+            spec.executable("git");
+            spec.args((Object[]) args);
+            spec.setStandardOutput(out);
+            spec.setIgnoreExitValue(true);
+        });
+        if (!bisect || result.getExitValue() != BISECT_CANNOT_CONTINUE) {
+            result.assertNormalExitValue();
+        }
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\r?\\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Resolves a revision, like a branch name, to the id of a commit.
+     */
+    String resolve(String revision) {
+        return run("rev-parse", "--verify", revision + "^{commit}").get(0);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describes the hardware and operating system benchmarks are executed on. Two hosts with
+ * the same fingerprint are expected to produce comparable benchmark results.
+ */
+final class HostFingerprint {
+    private final Map<String, String> properties;
+
+    private HostFingerprint(Map<String, String> properties) {
+        this.properties = Collections.unmodifiableMap(properties);
+    }
+
+    static HostFingerprint current() {
+        Map<String, String> properties = new TreeMap<>();
+        properties.put("os.name", System.getProperty("os.name"));
+        properties.put("os.arch", System.getProperty("os.arch"));
+        properties.put("os.version", System.getProperty("os.version"));
+        properties.put("cpu.model", cpuModel());
+        properties.put("cpu.count", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        properties.put("memory.total", String.valueOf(totalPhysicalMemory()));
+        return new HostFingerprint(properties);
+    }
+
+    Map<String, String> getProperties() {
+        return properties;
+    }
+
+    private static String cpuModel() {
+        Path cpuInfo = Paths.get("/proc/cpuinfo");
+        if (Files.isReadable(cpuInfo)) {
+            try {
+                List<String> lines = Files.readAllLines(cpuInfo, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.startsWith("model name")) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch (IOException e) {
+                // fall through
+            }
+        }
+        String identifier = System.getenv("PROCESSOR_IDENTIFIER");
+        return identifier != null ? identifier : "unknown";
+    }
+
+    private static long totalPhysicalMemory() {
+        // com.sun.management.OperatingSystemMXBean isn't available on all JVMs
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            Method method = os.getClass().getMethod("getTotalPhysicalMemorySize");
+            method.setAccessible(true);
+            return ((Number) method.invoke(os)).longValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return properties.equals(((HostFingerprint) o).properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return properties.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
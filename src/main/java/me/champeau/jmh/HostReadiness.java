@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks whether a Linux host is set up to produce stable benchmark results, by reading the state of the
+ * CPU frequency scaling, turbo, SMT, load, memory and transparent huge pages from {@code /sys} and {@code /proc}.
+ * Checks which can't be performed, for example on other operating systems, are skipped.
+ */
+final class HostReadiness {
+    static final String GOVERNOR = "governor";
+    static final String TURBO = "turbo";
+    static final String LOAD = "load";
+    static final String SMT = "smt";
+    static final String MEMORY = "memory";
+    static final String THP = "thp";
+
+    // the 1 minute load average above which other processes are likely to compete with the benchmarks, per CPU
+    static final double MAX_LOAD_PER_CPU = 0.1;
+    static final long MIN_AVAILABLE_MEMORY = 1024L * 1024 * 1024;
+
+    private static final Pattern CPU_DIR = Pattern.compile("cpu[0-9]+");
+    private static final Pattern SELECTED = Pattern.compile("\\[([^]]+)]");
+
+    private HostReadiness() {
+    }
+
+    /**
+     * Performs all checks against the file system rooted at the given path, which is {@code /} on a real host.
+     */
+    static List<Check> check(Path root, int cpuCount) {
+        List<Check> checks = new ArrayList<>();
+        add(checks, governor(root));
+        add(checks, turbo(root));
+        add(checks, load(root, cpuCount));
+        add(checks, smt(root));
+        add(checks, memory(root));
+        add(checks, thp(root));
+        return checks;
+    }
+
+    private static void add(List<Check> checks, Check check) {
+        if (check != null) {
+            checks.add(check);
+        }
+    }
+
+    static Check governor(Path root) {
+        Map<String, Integer> governors = new TreeMap<>();
+        Path cpus = root.resolve("sys/devices/system/cpu");
+        if (!Files.isDirectory(cpus)) {
+            return null;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cpus)) {
+            for (Path cpu : stream) {
+                if (CPU_DIR.matcher(cpu.getFileName().toString()).matches()) {
+                    String governor = read(cpu.resolve("cpufreq/scaling_governor"));
+                    if (governor != null) {
+                        governors.merge(governor, 1, Integer::sum);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (governors.isEmpty()) {
+            return null;
+        }
+        boolean ready = governors.size() == 1 && governors.containsKey("performance");
+        String value = String.join(",", governors.keySet());
+        return new Check(GOVERNOR, value, ready, ready ? null
+                : "the CPU frequency governor is " + governors + " instead of 'performance' on all CPUs");
+    }
+
+    static Check turbo(Path root) {
+        String noTurbo = read(root.resolve("sys/devices/system/cpu/intel_pstate/no_turbo"));
+        if (noTurbo != null) {
+            boolean enabled = "0".equals(noTurbo);
+            return new Check(TURBO, enabled ? "on" : "off", !enabled, enabled ? "Intel turbo boost is enabled" : null);
+        }
+        String boost = read(root.resolve("sys/devices/system/cpu/cpufreq/boost"));
+        if (boost != null) {
+            boolean enabled = "1".equals(boost);
+            return new Check(TURBO, enabled ? "on" : "off", !enabled, enabled ? "CPU frequency boost is enabled" : null);
+        }
+        return null;
+    }
+
+    static Check load(Path root, int cpuCount) {
+        String loadavg = read(root.resolve("proc/loadavg"));
+        if (loadavg == null) {
+            return null;
+        }
+        double load;
+        try {
+            load = Double.parseDouble(loadavg.split("\\s+")[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        double max = Math.max(1, cpuCount * MAX_LOAD_PER_CPU);
+        boolean ready = load <= max;
+        return new Check(LOAD, String.valueOf(load), ready, ready ? null
+                : "the load average is " + load + ", other processes are likely to compete with the benchmarks");
+    }
+
+    static Check smt(Path root) {
+        String active = read(root.resolve("sys/devices/system/cpu/smt/active"));
+        if (active == null) {
+            return null;
+        }
+        boolean enabled = "1".equals(active);
+        return new Check(SMT, enabled ? "on" : "off", !enabled, enabled ? "simultaneous multithreading (hyper-threading) is enabled" : null);
+    }
+
+    static Check memory(Path root) {
+        Path meminfo = root.resolve("proc/meminfo");
+        if (!Files.isReadable(meminfo)) {
+            return null;
+        }
+        try {
+            for (String line : Files.readAllLines(meminfo, StandardCharsets.UTF_8)) {
+                if (line.startsWith("MemAvailable:")) {
+                    long available = Long.parseLong(line.substring("MemAvailable:".length()).trim().split("\\s+")[0]) * 1024;
+                    boolean ready = available >= MIN_AVAILABLE_MEMORY;
+                    return new Check(MEMORY, String.valueOf(available), ready, ready ? null
+                            : "only " + available / (1024 * 1024) + " MiB of memory are available, the host may swap");
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    static Check thp(Path root) {
+        String enabled = read(root.resolve("sys/kernel/mm/transparent_hugepage/enabled"));
+        if (enabled == null) {
+            return null;
+        }
+        Matcher matcher = SELECTED.matcher(enabled);
+        String mode = matcher.find() ? matcher.group(1) : enabled;
+        // with 'always', khugepaged compacts memory in the background, at unpredictable times
+        boolean ready = !"always".equals(mode);
+        return new Check(THP, mode, ready, ready ? null : "transparent huge pages are set to 'always'");
+    }
+
+    private static String read(Path file) {
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static final class Check {
+        private final String name;
+        private final String value;
+        private final boolean ready;
+        private final String problem;
+
+        Check(String name, String value, boolean ready, String problem) {
+            this.name = name;
+            this.value = value;
+            this.ready = ready;
+            this.problem = problem;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        boolean isReady() {
+            return ready;
+        }
+
+        /**
+         * Describes why the host isn't ready, or null when it is.
+         */
+        String getProblem() {
+            return problem;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + value;
+        }
+    }
+}
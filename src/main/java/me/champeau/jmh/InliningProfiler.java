@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+
+/**
+ * A JMH profiler which tells which benchmark a fork executes, so that the compilation log written by the
+ * fork can be related to its benchmark. The forks write their compilation log to {@code compilation-pid<pid>.log},
+ * with {@code -XX:+LogCompilation -XX:LogFile=<dir>/compilation-%p.log}, and this profiler writes the benchmark
+ * into {@code compilation-pid<pid>.properties}.
+ *
+ * <p>The profiler is configured with the {@code dir} option, the directory of the compilation logs.</p>
+ */
+public final class InliningProfiler implements InternalProfiler {
+    static final String DIR = "dir";
+    static final String PREFIX = "compilation-pid";
+    static final String LOG_EXTENSION = ".log";
+    static final String BENCHMARK_EXTENSION = ".properties";
+    static final String BENCHMARK = "benchmark";
+    static final String NAME = "name";
+
+    private final File dir;
+    private boolean written;
+
+    public InliningProfiler(String initLine) throws ProfilerException {
+        String dir = JfrProfiler.parseOptions(initLine).get(DIR);
+        if (dir == null) {
+            throw new ProfilerException("The directory of the compilation logs must be set with " + DIR + "=<path>");
+        }
+        this.dir = new File(dir);
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        if (written) {
+            return;
+        }
+        // the JVM expands %p to "pid" followed by the process id
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        Properties benchmark = new Properties();
+        benchmark.setProperty(BENCHMARK, benchmarkParams.getBenchmark());
+        benchmark.setProperty(NAME, JfrProfiler.recordingName(benchmarkParams));
+        try (OutputStream out = Files.newOutputStream(new File(dir, PREFIX + pid + BENCHMARK_EXTENSION).toPath())) {
+            benchmark.store(out, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        written = true;
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Relates the compilation logs of the forks to their benchmark";
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Writes the inlining reports of the benchmarks from the compilation logs of the forks: for each benchmark
+ * and parameters combination, the inlining tree under the benchmark method, where failed inlines and
+ * megamorphic call sites are highlighted, and the changes since a previous run.
+ */
+final class InliningReports {
+    static final String TREE_EXTENSION = ".inlining.txt";
+
+    private static final String FAILED = "failed";
+    private static final String MEGAMORPHIC = "megamorphic";
+
+    private InliningReports() {
+    }
+
+    /**
+     * Reads the inlining trees of the benchmarks from the compilation logs found in the given directories.
+     * Forks don't always make the same decisions, so each distinct tree is returned with the number of forks
+     * which produced it, the most frequent first.
+     */
+    static Map<String, Map<String, Integer>> read(List<File> logDirs) {
+        Map<String, Map<String, Integer>> trees = new TreeMap<>();
+        for (File dir : logDirs) {
+            File[] files = dir.listFiles((d, name) -> name.startsWith(InliningProfiler.PREFIX) && name.endsWith(InliningProfiler.BENCHMARK_EXTENSION));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String baseName = file.getName().substring(0, file.getName().length() - InliningProfiler.BENCHMARK_EXTENSION.length());
+                File log = new File(dir, baseName + InliningProfiler.LOG_EXTENSION);
+                if (!log.isFile()) {
+                    continue;
+                }
+                Properties benchmark = load(file);
+                InliningTree tree = InliningTree.read(log, benchmark.getProperty(InliningProfiler.BENCHMARK));
+                String rendered = tree == null
+                        ? benchmark.getProperty(InliningProfiler.BENCHMARK) + " wasn't compiled by C2\n"
+                        : tree.render();
+                trees.computeIfAbsent(benchmark.getProperty(InliningProfiler.NAME), k -> new LinkedHashMap<>()).merge(rendered, 1, Integer::sum);
+            }
+        }
+        trees.replaceAll((name, variants) -> {
+            Map<String, Integer> sorted = new LinkedHashMap<>();
+            variants.entrySet().stream()
+                    .sorted((a, b) -> !a.getValue().equals(b.getValue()) ? Integer.compare(b.getValue(), a.getValue()) : a.getKey().compareTo(b.getKey()))
+                    .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+            return sorted;
+        });
+        return trees;
+    }
+
+    /**
+     * Writes the reports into the report directory, comparing the most frequent tree of each benchmark with
+     * the tree of the previous run, when there is one, and returns the changes by benchmark.
+     */
+    static Map<String, List<String>> write(Map<String, Map<String, Integer>> trees, Map<String, String> previous, File reportDir) {
+        Map<String, List<String>> changes = new TreeMap<>();
+        StringBuilder index = new StringBuilder();
+        header(index, "JMH inlining");
+        index.append("<table>\n<tr><th>Benchmark</th><th>Failed inlines</th><th>Megamorphic calls</th><th>Changes since the previous run</th></tr>\n");
+        trees.forEach((name, variants) -> {
+            String tree = variants.keySet().iterator().next();
+            List<String> diff = previous.containsKey(name) ? InliningTree.diff(previous.get(name), tree) : null;
+            if (diff != null && !diff.isEmpty()) {
+                changes.put(name, diff);
+            }
+            write(new File(reportDir, name + TREE_EXTENSION), tree);
+            write(new File(reportDir, name + ".inlining.html"), html(name, variants, diff));
+            index.append("<tr><td><a href=\"").append(FlameGraph.escape(name)).append(".inlining.html\">").append(FlameGraph.escape(name))
+                    .append("</a></td><td>").append(count(tree, FAILED)).append("</td><td>").append(count(tree, MEGAMORPHIC))
+                    .append("</td><td>").append(diff == null ? "no previous run" : diff.size()).append("</td></tr>\n");
+        });
+        index.append("</table>\n</body>\n</html>\n");
+        write(new File(reportDir, "index.html"), index.toString());
+        return changes;
+    }
+
+    static String html(String name, Map<String, Integer> variants, List<String> diff) {
+        int forks = variants.values().stream().mapToInt(Integer::intValue).sum();
+        StringBuilder sb = new StringBuilder();
+        header(sb, name + " inlining");
+        sb.append("<p>Failed inlines are <span class=\"failed\">highlighted</span>, as well as <span class=\"megamorphic\">megamorphic</span> call sites. ")
+                .append("Native methods can't be inlined, so they aren't highlighted.</p>\n");
+        if (diff != null) {
+            sb.append("<h2>Changes since the previous run</h2>\n");
+            if (diff.isEmpty()) {
+                sb.append("<p>None.</p>\n");
+            } else {
+                sb.append("<pre>");
+                for (String change : diff) {
+                    sb.append(FlameGraph.escape(change)).append('\n');
+                }
+                sb.append("</pre>\n");
+            }
+        }
+        for (Map.Entry<String, Integer> variant : variants.entrySet()) {
+            sb.append("<h2>Inlining tree of ").append(variant.getValue()).append(" of ").append(forks).append(" fork(s)</h2>\n<pre>");
+            for (String line : variant.getKey().split("\n")) {
+                String style = highlightOf(line);
+                sb.append(style == null ? "" : "<span class=\"" + style + "\">").append(FlameGraph.escape(line))
+                        .append(style == null ? "" : "</span>").append('\n');
+            }
+            sb.append("</pre>\n");
+        }
+        sb.append("</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String title) {
+        sb.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>").append(FlameGraph.escape(title)).append("</title>\n")
+                .append("<style>\n")
+                .append("body { font: 13px sans-serif; margin: 16px; } th, td { padding: 2px 8px; text-align: left; }\n")
+                .append(".failed { background: #fde0dc; } .megamorphic { background: #fff3c4; }\n")
+                .append("</style>\n</head>\n<body>\n<h1>").append(FlameGraph.escape(title)).append("</h1>\n");
+    }
+
+    /**
+     * Returns how a line of a rendered tree is highlighted, or null if it isn't.
+     */
+    static String highlightOf(String line) {
+        if (line.contains("[megamorphic")) {
+            return MEGAMORPHIC;
+        }
+        if (line.contains("  failed: ") && !line.endsWith("failed: native method")) {
+            return FAILED;
+        }
+        return null;
+    }
+
+    private static long count(String tree, String highlight) {
+        return Arrays.stream(tree.split("\n")).filter(line -> highlight.equals(highlightOf(line))).count();
+    }
+
+    private static Properties load(File file) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The inlining decisions of the JIT under a benchmark method, read from a compilation log written with
+ * {@code -XX:+LogCompilation}. Only C2 compilations are considered, and the tree comes from the last
+ * C2 compilation which compiled the benchmark method, either on its own or inlined into the JMH stub.
+ */
+final class InliningTree {
+    private final int compileId;
+    private final Node root;
+
+    private InliningTree(int compileId, Node root) {
+        this.compileId = compileId;
+        this.root = root;
+    }
+
+    int getCompileId() {
+        return compileId;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Reads the inlining tree of a benchmark method from a compilation log, or returns null when the
+     * benchmark method wasn't compiled by C2.
+     *
+     * @param benchmark the benchmark method, like {@code com.acme.Codec.decode}
+     */
+    static InliningTree read(File log, String benchmark) {
+        int separator = benchmark.lastIndexOf('.');
+        String holder = benchmark.substring(0, separator);
+        String method = benchmark.substring(separator + 1);
+        InliningTree[] last = new InliningTree[1];
+        LogHandler handler = new LogHandler(task -> {
+            Node node = task.root.find(holder, method);
+            if (node != null && (last[0] == null || task.compileId > last[0].compileId)) {
+                last[0] = new InliningTree(task.compileId, node);
+            }
+        });
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.newSAXParser().parse(log, handler);
+        } catch (SAXException e) {
+            // a fork which didn't exit normally leaves an incomplete log, whose complete tasks are still usable
+            if (handler.depth == 0) {
+                throw new IllegalStateException("Unable to parse the compilation log " + log, e);
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the compilation log " + log, e);
+        }
+        return last[0];
+    }
+
+    /**
+     * Renders the tree like {@code -XX:+PrintInlining} does, one call per line, indented by depth.
+     */
+    String render() {
+        StringBuilder sb = new StringBuilder(root.method).append(" (").append(root.bytes).append(" bytes)\n");
+        for (Node child : root.children) {
+            render(child, 1, sb);
+        }
+        return sb.toString();
+    }
+
+    private static void render(Node node, int depth, StringBuilder sb) {
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+        sb.append(node.line()).append('\n');
+        for (Node child : node.children) {
+            render(child, depth + 1, sb);
+        }
+    }
+
+    /**
+     * Returns the decision of each call of a rendered tree, with the size of the callee, by path of calls from
+     * the root, so that two trees can be compared line by line. Calls are identified by their callee and their
+     * rank among the calls of the same callee, rather than by bytecode index, which changes with any edit.
+     */
+    static Map<String, String> decisions(String rendered) {
+        Map<String, String> decisions = new LinkedHashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        List<String> path = new ArrayList<>();
+        for (String line : rendered.split("\n")) {
+            int indent = 0;
+            while (indent < line.length() && line.charAt(indent) == ' ') {
+                indent++;
+            }
+            if (indent == 0 || !line.startsWith("@ ", indent)) {
+                continue;
+            }
+            String[] call = line.substring(indent).split(" ", 4);
+            if (call.length < 4) {
+                continue;
+            }
+            while (path.size() >= indent / 2) {
+                path.remove(path.size() - 1);
+            }
+            String parent = String.join(" > ", path);
+            int occurrence = occurrences.merge(parent + " > " + call[2], 1, Integer::sum);
+            path.add(occurrence == 1 ? call[2] : call[2] + "#" + occurrence);
+            // the receiver counts of the profile change with every run, unlike the decision
+            decisions.put(String.join(" > ", path), call[3].replaceAll(", profiled [^\\]]*", "").trim());
+        }
+        return decisions;
+    }
+
+    /**
+     * Describes the calls whose inlining decision changed between two rendered trees. The calls under a call
+     * which is only inlined in one of the trees aren't listed, since the change of that call explains them.
+     */
+    static List<String> diff(String previous, String current) {
+        Map<String, String> before = decisions(previous);
+        Map<String, String> after = decisions(current);
+        List<String> changes = new ArrayList<>();
+        after.forEach((path, decision) -> {
+            String old = before.get(path);
+            if (old == null) {
+                if (inlinedInBoth(parentOf(path), before, after)) {
+                    changes.add("+ " + path + "  " + decision);
+                }
+            } else if (!old.equals(decision)) {
+                changes.add("~ " + path + "  " + old + " -> " + decision);
+            }
+        });
+        before.forEach((path, decision) -> {
+            if (!after.containsKey(path) && inlinedInBoth(parentOf(path), before, after)) {
+                changes.add("- " + path + "  " + decision);
+            }
+        });
+        return changes;
+    }
+
+    private static String parentOf(String path) {
+        int separator = path.lastIndexOf(" > ");
+        return separator < 0 ? null : path.substring(0, separator);
+    }
+
+    private static boolean inlinedInBoth(String path, Map<String, String> before, Map<String, String> after) {
+        return path == null || isInlined(before.get(path)) && isInlined(after.get(path));
+    }
+
+    private static boolean isInlined(String decision) {
+        return decision != null && !decision.contains("failed: ");
+    }
+
+    static final class Node {
+        private final String method;
+        private final int bci;
+        private final int bytes;
+        private final List<Node> children = new ArrayList<>();
+        private long count;
+        private boolean virtual;
+        private boolean virtualDispatch;
+        private boolean inlined;
+        private String reason;
+        private String intrinsic;
+        private final List<String> receivers = new ArrayList<>();
+
+        Node(String method, int bci, int bytes) {
+            this.method = method;
+            this.bci = bci;
+            this.bytes = bytes;
+        }
+
+        String getMethod() {
+            return method;
+        }
+
+        List<Node> getChildren() {
+            return children;
+        }
+
+        boolean isInlined() {
+            return inlined || intrinsic != null;
+        }
+
+        /**
+         * Returns true when the call failed to inline, for another reason than being native.
+         */
+        boolean isFailed() {
+            return !isInlined() && reason != null && !"native method".equals(reason);
+        }
+
+        /**
+         * Returns true for a virtual call which was profiled, but is still dispatched at runtime, because the
+         * profile has more receiver types than the JIT inlines.
+         */
+        boolean isMegamorphic() {
+            return virtual && virtualDispatch && count > 0;
+        }
+
+        private Node find(String holder, String name) {
+            // JMH names nested classes with dots, where the JVM uses dollars
+            if (method.replace('$', '.').equals(holder.replace('$', '.') + "::" + name)) {
+                return this;
+            }
+            for (Node child : children) {
+                Node found = child.find(holder, name);
+                if (found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+
+        String line() {
+            StringBuilder sb = new StringBuilder("@ ").append(bci).append(' ').append(method).append(" (").append(bytes).append(" bytes)  ");
+            if (intrinsic != null) {
+                sb.append("intrinsic");
+            } else if (inlined) {
+                sb.append(reason == null ? "inline" : reason);
+            } else {
+                sb.append("failed: ").append(reason == null ? virtualDispatch ? "virtual call" : "not inlined" : reason);
+            }
+            if (isMegamorphic()) {
+                sb.append("  [megamorphic");
+                if (!receivers.isEmpty()) {
+                    sb.append(", profiled ").append(String.join(", ", receivers));
+                }
+                sb.append(']');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final class Task {
+        private final int compileId;
+        private final Node root;
+
+        private Task(int compileId, Node root) {
+            this.compileId = compileId;
+            this.root = root;
+        }
+    }
+
+    /**
+     * Builds the tree of each C2 task of the compilation log, and hands it to a consumer once complete,
+     * so that only the trees of interest are kept in memory.
+     */
+    private static final class LogHandler extends DefaultHandler {
+        private final Consumer<Task> consumer;
+        private final Map<String, String> klasses = new HashMap<>();
+        private final Map<String, String[]> methods = new HashMap<>();
+        private final Deque<Node> parses = new ArrayDeque<>();
+        private int depth;
+        private int compileId = -1;
+        private boolean c2;
+        private boolean inCompilationLog;
+        private Node root;
+        private Node call;
+        private String callMethod;
+        private int bci = -1;
+
+        private LogHandler(Consumer<Task> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            depth++;
+            if ("compilation_log".equals(qName)) {
+                inCompilationLog = true;
+                return;
+            }
+            if (!inCompilationLog) {
+                return;
+            }
+            switch (qName) {
+                case "task":
+                    // tasks without a level are C2 tasks of a VM without tiered compilation
+                    String level = attributes.getValue("level");
+                    c2 = level == null || "4".equals(level);
+                    compileId = Integer.parseInt(attributes.getValue("compile_id"));
+                    klasses.clear();
+                    methods.clear();
+                    parses.clear();
+                    root = null;
+                    call = null;
+                    break;
+                case "klass":
+                    klasses.put(attributes.getValue("id"), attributes.getValue("name").replace('/', '.'));
+                    break;
+                case "method":
+                    methods.put(attributes.getValue("id"), new String[]{
+                            attributes.getValue("holder"), attributes.getValue("name"), attributes.getValue("bytes")
+                    });
+                    break;
+                case "bc":
+                    bci = Integer.parseInt(attributes.getValue("bci"));
+                    break;
+                case "call":
+                    if (!parses.isEmpty()) {
+                        callMethod = attributes.getValue("method");
+                        call = new Node(methodName(callMethod), bci, bytesOf(callMethod));
+                        call.count = parseCount(attributes.getValue("count"));
+                        call.virtual = "1".equals(attributes.getValue("virtual"));
+                        addReceiver(call, attributes, "receiver", "receiver_count");
+                        addReceiver(call, attributes, "receiver2", "receiver2_count");
+                        parses.peek().children.add(call);
+                    }
+                    break;
+                case "inline_fail":
+                    if (call != null) {
+                        call.reason = attributes.getValue("reason");
+                    }
+                    break;
+                case "inline_success":
+                    if (call != null) {
+                        call.inlined = true;
+                        call.reason = attributes.getValue("reason");
+                    }
+                    break;
+                case "intrinsic":
+                    if (call != null) {
+                        call.intrinsic = attributes.getValue("id");
+                    }
+                    break;
+                case "virtual_call":
+                    if (call != null) {
+                        call.virtualDispatch = true;
+                    }
+                    break;
+                case "parse":
+                    String parsed = attributes.getValue("method");
+                    Node node;
+                    if (parses.isEmpty()) {
+                        node = new Node(methodName(parsed), -1, bytesOf(parsed));
+                        node.inlined = true;
+                        root = node;
+                    } else if (call != null && parsed.equals(callMethod)) {
+                        node = call;
+                    } else {
+                        // a receiver type predicted from the profile, inlined under the virtual call
+                        node = new Node(methodName(parsed), bci, bytesOf(parsed));
+                        node.inlined = true;
+                        parses.peek().children.add(node);
+                    }
+                    parses.push(node);
+                    call = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            depth--;
+            if ("compilation_log".equals(qName)) {
+                inCompilationLog = false;
+            } else if (inCompilationLog && "parse".equals(qName) && !parses.isEmpty()) {
+                parses.pop();
+                call = null;
+            } else if (inCompilationLog && "task".equals(qName)) {
+                if (c2 && root != null) {
+                    consumer.accept(new Task(compileId, root));
+                }
+                root = null;
+            }
+        }
+
+        private String methodName(String id) {
+            String[] method = methods.get(id);
+            if (method == null) {
+                return "unknown";
+            }
+            return klasses.getOrDefault(method[0], "unknown") + "::" + method[1];
+        }
+
+        private int bytesOf(String id) {
+            String[] method = methods.get(id);
+            return method == null || method[2] == null ? 0 : Integer.parseInt(method[2]);
+        }
+
+        private void addReceiver(Node node, Attributes attributes, String receiver, String receiverCount) {
+            String klass = attributes.getValue(receiver);
+            if (klass != null) {
+                node.receivers.add(klasses.getOrDefault(klass, "unknown") + " (" + attributes.getValue(receiverCount) + ")");
+            }
+        }
+
+        private static long parseCount(String count) {
+            return count == null ? 0 : (long) Double.parseDouble(count);
+        }
+    }
+}
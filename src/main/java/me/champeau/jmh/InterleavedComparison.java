@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the scores of two versions of benchmarks which were executed in interleaved rounds. Since
+ * both versions of a round ran under the same conditions, the ratio of their scores cancels out the
+ * drift of the host, and the ratios of all rounds give a confidence interval of the actual ratio.
+ */
+final class InterleavedComparison {
+    private InterleavedComparison() {
+    }
+
+    static List<Ratio> of(List<Map<String, BenchmarkScores.Score>> baselineRounds,
+                          List<Map<String, BenchmarkScores.Score>> currentRounds,
+                          double confidenceLevel) {
+        Map<String, List<Double>> logRatios = new LinkedHashMap<>();
+        Map<String, BenchmarkScores.Score> scores = new LinkedHashMap<>();
+        Map<String, Ratio> notComparable = new LinkedHashMap<>();
+        for (int round = 0; round < currentRounds.size(); round++) {
+            for (Map.Entry<String, BenchmarkScores.Score> entry : currentRounds.get(round).entrySet()) {
+                BenchmarkScores.Score baseline = baselineRounds.get(round).get(entry.getKey());
+                if (baseline != null) {
+                    BenchmarkScores.Score current = entry.getValue();
+                    logRatios.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+                    scores.put(entry.getKey(), current);
+                    try {
+                        baseline = baseline.inUnit(current.getUnit());
+                    } catch (IllegalArgumentException e) {
+                        notComparable.putIfAbsent(entry.getKey(), Ratio.notComparable(entry.getKey(), baseline.getUnit(), current.getUnit()));
+                        continue;
+                    }
+                    logRatios.get(entry.getKey()).add(Math.log(current.getScore() / baseline.getScore()));
+                }
+            }
+        }
+        List<Ratio> ratios = new ArrayList<>();
+        for (Map.Entry<String, List<Double>> entry : logRatios.entrySet()) {
+            if (notComparable.containsKey(entry.getKey())) {
+                ratios.add(notComparable.get(entry.getKey()));
+                continue;
+            }
+            double[] values = entry.getValue().stream().mapToDouble(Double::doubleValue).toArray();
+            ratios.add(Ratio.of(entry.getKey(), scores.get(entry.getKey()).isHigherBetter(), values, confidenceLevel));
+        }
+        return ratios;
+    }
+
+    static String report(List<Ratio> ratios) {
+        StringBuilder sb = new StringBuilder();
+        for (Ratio ratio : ratios) {
+            sb.append(ratio).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The ratio of the score of the current version to the score of the baseline, which is the
+     * geometric mean of the ratios of all rounds.
+     */
+    static final class Ratio {
+        private final String key;
+        private final int rounds;
+        private final double ratio;
+        private final double lower;
+        private final double upper;
+        private final BenchmarkComparison.Verdict verdict;
+        private final String reason;
+
+        Ratio(String key, int rounds, double ratio, double lower, double upper, BenchmarkComparison.Verdict verdict) {
+            this(key, rounds, ratio, lower, upper, verdict, null);
+        }
+
+        private Ratio(String key, int rounds, double ratio, double lower, double upper, BenchmarkComparison.Verdict verdict, String reason) {
+            this.key = key;
+            this.rounds = rounds;
+            this.ratio = ratio;
+            this.lower = lower;
+            this.upper = upper;
+            this.verdict = verdict;
+            this.reason = reason;
+        }
+
+        /**
+         * The ratio of scores whose units can't be converted to each other, for example when the
+         * mode of the benchmark changed between both versions.
+         */
+        static Ratio notComparable(String key, String baselineUnit, String currentUnit) {
+            return new Ratio(key, 0, Double.NaN, Double.NaN, Double.NaN, BenchmarkComparison.Verdict.NOT_COMPARABLE,
+                    String.format(Locale.ROOT, "%s can't be converted to %s", baselineUnit, currentUnit));
+        }
+
+        static Ratio of(String key, boolean higherIsBetter, double[] logRatios, double confidenceLevel) {
+            double mean = Statistics.mean(logRatios);
+            double lower = Double.NaN;
+            double upper = Double.NaN;
+            BenchmarkComparison.Verdict verdict = BenchmarkComparison.Verdict.UNCHANGED;
+            if (logRatios.length > 1) {
+                double halfWidth = Statistics.tQuantile(1 - confidenceLevel, logRatios.length - 1)
+                        * Math.sqrt(Statistics.variance(logRatios) / logRatios.length);
+                lower = Math.exp(mean - halfWidth);
+                upper = Math.exp(mean + halfWidth);
+                // the difference is significant when the interval doesn't contain 1
+                if (lower > 1 || upper < 1) {
+                    boolean better = higherIsBetter == lower > 1;
+                    verdict = better ? BenchmarkComparison.Verdict.IMPROVED : BenchmarkComparison.Verdict.REGRESSED;
+                }
+            }
+            return new Ratio(key, logRatios.length, Math.exp(mean), lower, upper, verdict);
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        int getRounds() {
+            return rounds;
+        }
+
+        double getRatio() {
+            return ratio;
+        }
+
+        double getLower() {
+            return lower;
+        }
+
+        double getUpper() {
+            return upper;
+        }
+
+        BenchmarkComparison.Verdict getVerdict() {
+            return verdict;
+        }
+
+        @Override
+        public String toString() {
+            if (verdict == BenchmarkComparison.Verdict.NOT_COMPARABLE) {
+                return String.format(Locale.ROOT, "%-9s %s: %s", verdict, key, reason);
+            }
+            return String.format(Locale.ROOT, "%-9s %s: current/baseline = %.4f [%s, %s] (%d rounds)",
+                    verdict, key, ratio, format(lower), format(upper), rounds);
+        }
+
+        private static String format(double value) {
+            return Double.isNaN(value) ? "n/a" : String.format(Locale.ROOT, "%.4f", value);
+        }
+    }
+}
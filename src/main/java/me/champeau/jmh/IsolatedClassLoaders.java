@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates class loaders which only see the JMH classpath of the benchmarked project, together
+ * with the classes of this plugin, so that the JMH version configured by the user is used
+ * instead of the one the plugin was compiled against.
+ *
+ * Worker daemons are reused between builds, so jars, which are not expected to change, are
+ * loaded by a cached parent loader. Directories are always loaded by a fresh child loader
+ * to avoid seeing stale classes. Tasks which run in the Gradle daemon itself must not use the
+ * cache, since it would keep the JMH jars of every build open for the lifetime of the daemon.
+ */
+final class IsolatedClassLoaders {
+    private static final int MAX_CACHED_LOADERS = 4;
+
+    private static final Map<List<String>, URLClassLoader> JAR_LOADERS = new LinkedHashMap<List<String>, URLClassLoader>(MAX_CACHED_LOADERS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, URLClassLoader> eldest) {
+            if (size() > MAX_CACHED_LOADERS) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private IsolatedClassLoaders() {
+    }
+
+    /**
+     * Creates a class loader for the given classpath, whose jars are loaded by a cached parent loader.
+     * This is only meant to be used in worker daemons. The returned loader must be closed by the caller,
+     * which will not close the cached parent loader.
+     */
+    static URLClassLoader create(Collection<File> classpath) {
+        List<File> jars = new ArrayList<>();
+        List<File> directories = new ArrayList<>();
+        jars.add(pluginLocation());
+        for (File file : classpath) {
+            if (file.isDirectory()) {
+                directories.add(file);
+            } else if (file.exists()) {
+                jars.add(file);
+            }
+        }
+        return new URLClassLoader(toUrls(directories), jarLoaderFor(jars));
+    }
+
+    /**
+     * Creates a class loader which loads the whole classpath by itself, without caching, so that closing it
+     * releases all its jars. This is what tasks running in the Gradle daemon use. This is also required
+     * to run benchmarks, since JMH looks up the benchmark list, and loads the benchmarks when they are not
+     * forked, with its own class loader, which must then also see the benchmark classes and resources.
+     */
+    static URLClassLoader createUncached(Collection<File> classpath) {
+        List<File> files = new ArrayList<>();
+        files.add(pluginLocation());
+        for (File file : classpath) {
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        return new URLClassLoader(toUrls(files), ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    /**
+     * Invokes a static method of a class loaded by the given class loader. The method
+     * signature must only use JDK types, since the plugin types are not shared between loaders.
+     */
+    static Object invokeStatic(ClassLoader loader, String className, String methodName, Class<?>[] parameterTypes, Object... args) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            Method method = loader.loadClass(className).getMethod(methodName, parameterTypes);
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Unable to call " + className + "." + methodName, e);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    static void closeQuietly(URLClassLoader loader) {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            // nothing we can do
+        }
+    }
+
+    private static synchronized ClassLoader jarLoaderFor(List<File> jars) {
+        List<String> key = new ArrayList<>(jars.size());
+        for (File jar : jars) {
+            key.add(jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified());
+        }
+        URLClassLoader loader = JAR_LOADERS.get(key);
+        if (loader == null) {
+            loader = new URLClassLoader(toUrls(jars), ClassLoader.getSystemClassLoader().getParent());
+            JAR_LOADERS.put(key, loader);
+        }
+        return loader;
+    }
+
+    static File pluginLocation() {
+        try {
+            return new File(IsolatedClassLoaders.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Unable to determine the location of the JMH plugin classes", e);
+        }
+    }
+
+    private static URL[] toUrls(List<File> files) {
+        URL[] urls = new URL[files.size()];
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                urls[i] = files.get(i).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Aligns the events of the JVM, like JIT compilations or garbage collections, with the measurement iterations
+ * of a benchmark, in order to flag the iterations which overlap them. A noisy iteration which isn't flagged is
+ * more likely to come from the benchmarked code than from the JVM.
+ */
+final class IterationTimeline {
+    // safepoints are frequent and usually short, so they only flag an iteration above this share of its duration
+    static final double SAFEPOINT_THRESHOLD = 0.01;
+
+    private static final int MAX_DETAILS = 10;
+
+    private final List<Iteration> iterations = new ArrayList<>();
+    private final List<JvmEvent> events = new ArrayList<>();
+
+    enum Kind {
+        COMPILATION("compilations"),
+        DEOPTIMIZATION("deoptimizations"),
+        GC("GC pauses"),
+        SAFEPOINT("safepoints");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Adds a measurement iteration, executed by the given JVM between the given times, in nanoseconds.
+     */
+    void addIteration(String jvm, int index, long start, long end, double score, String scoreUnit) {
+        iterations.add(new Iteration(jvm, index, start, end, score, scoreUnit));
+    }
+
+    /**
+     * Adds an event of the JVM, which lasted between the given times, and which took the given time,
+     * in nanoseconds: the compilation time, the pause time of a GC or the duration of a safepoint.
+     */
+    void addEvent(Kind kind, long start, long end, long time, String description) {
+        events.add(new JvmEvent(kind, start, end, time, description));
+    }
+
+    boolean isEmpty() {
+        return iterations.isEmpty();
+    }
+
+    /**
+     * Returns the iterations in execution order, with the events they overlap.
+     */
+    List<Row> rows() {
+        List<Iteration> sorted = new ArrayList<>(iterations);
+        sorted.sort(Comparator.comparingLong(iteration -> iteration.start));
+        Map<String, Integer> forks = new LinkedHashMap<>();
+        List<Row> rows = new ArrayList<>();
+        for (Iteration iteration : sorted) {
+            int fork = forks.computeIfAbsent(iteration.jvm, jvm -> forks.size() + 1);
+            Row row = new Row(fork, iteration);
+            for (JvmEvent event : events) {
+                if (event.start <= iteration.end && event.end >= iteration.start) {
+                    row.add(event);
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Renders the iterations as an HTML table, where flagged iterations are highlighted and followed by
+     * the events which flagged them.
+     */
+    String html(String title) {
+        List<Row> rows = rows();
+        double median = median(rows);
+        long flagged = rows.stream().filter(Row::isFlagged).count();
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>").append(FlameGraph.escape(title)).append("</title>\n")
+                .append("<style>\n")
+                .append("body { font: 13px sans-serif; margin: 16px; }\n")
+                .append("table { border-collapse: collapse; } th, td { padding: 2px 8px; text-align: right; vertical-align: top; } ")
+                .append("td:last-child { text-align: left; font-family: monospace; } tr.flagged { background: #fde0dc; }\n")
+                .append("</style>\n</head>\n<body>\n")
+                .append("<h1>").append(FlameGraph.escape(title)).append("</h1>\n")
+                .append("<p>").append(flagged).append(" of ").append(rows.size())
+                .append(" measurement iterations overlap a JIT compilation, a deoptimization, a GC pause, or safepoints longer than ")
+                .append(String.format(Locale.ROOT, "%.1f", 100 * SAFEPOINT_THRESHOLD)).append("% of the iteration.</p>\n")
+                .append("<table>\n<tr><th>Fork</th><th>Iteration</th><th>Score</th><th>From median</th>");
+        for (Kind kind : Kind.values()) {
+            sb.append("<th>").append(kind.label).append("</th>");
+        }
+        sb.append("<th>Events</th></tr>\n");
+        for (Row row : rows) {
+            sb.append(row.isFlagged() ? "<tr class=\"flagged\">" : "<tr>")
+                    .append("<td>").append(row.fork).append("</td><td>").append(row.iteration.index)
+                    .append("</td><td>").append(format(row.iteration.score)).append(' ').append(FlameGraph.escape(row.iteration.scoreUnit))
+                    .append("</td><td>").append(median == 0 ? "" : String.format(Locale.ROOT, "%+.2f%%", 100 * (row.iteration.score - median) / median))
+                    .append("</td>");
+            for (Kind kind : Kind.values()) {
+                int count = row.counts.get(kind);
+                sb.append("<td>").append(count == 0 ? "" : count + (kind == Kind.DEOPTIMIZATION ? "" : " (" + format(row.times.get(kind) / 1e6) + " ms)"))
+                        .append("</td>");
+            }
+            sb.append("<td>");
+            if (row.isFlagged()) {
+                List<String> details = row.details();
+                for (int i = 0; i < Math.min(MAX_DETAILS, details.size()); i++) {
+                    sb.append(i > 0 ? "<br>" : "").append(FlameGraph.escape(details.get(i)));
+                }
+                if (details.size() > MAX_DETAILS) {
+                    sb.append("<br>... ").append(details.size() - MAX_DETAILS).append(" more");
+                }
+            }
+            sb.append("</td></tr>\n");
+        }
+        sb.append("</table>\n</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    private static double median(List<Row> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        double[] scores = rows.stream().mapToDouble(row -> row.iteration.score).sorted().toArray();
+        int middle = scores.length / 2;
+        return scores.length % 2 == 1 ? scores[middle] : (scores[middle - 1] + scores[middle]) / 2;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    static final class Row {
+        private final int fork;
+        private final Iteration iteration;
+        private final Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+        private final Map<Kind, Long> times = new EnumMap<>(Kind.class);
+        private final List<JvmEvent> events = new ArrayList<>();
+
+        private Row(int fork, Iteration iteration) {
+            this.fork = fork;
+            this.iteration = iteration;
+            for (Kind kind : Kind.values()) {
+                counts.put(kind, 0);
+                times.put(kind, 0L);
+            }
+        }
+
+        private void add(JvmEvent event) {
+            counts.merge(event.kind, 1, Integer::sum);
+            if (event.kind == Kind.SAFEPOINT) {
+                // only the part of a safepoint which falls within the iteration slows it down
+                long overlap = Math.min(event.end, iteration.end) - Math.max(event.start, iteration.start);
+                times.merge(event.kind, Math.max(0, overlap), Long::sum);
+            } else {
+                times.merge(event.kind, event.time, Long::sum);
+            }
+            events.add(event);
+        }
+
+        int getFork() {
+            return fork;
+        }
+
+        int getIteration() {
+            return iteration.index;
+        }
+
+        int count(Kind kind) {
+            return counts.get(kind);
+        }
+
+        /**
+         * Returns true when the iteration overlaps an event of the JVM which may have changed its score.
+         */
+        boolean isFlagged() {
+            return counts.get(Kind.COMPILATION) > 0
+                    || counts.get(Kind.DEOPTIMIZATION) > 0
+                    || counts.get(Kind.GC) > 0
+                    || times.get(Kind.SAFEPOINT) > SAFEPOINT_THRESHOLD * (iteration.end - iteration.start);
+        }
+
+        /**
+         * Returns the descriptions of the events which flag the iteration. Safepoints are described as a
+         * share of the iteration, since there are usually many of them.
+         */
+        List<String> details() {
+            List<String> details = new ArrayList<>();
+            long duration = iteration.end - iteration.start;
+            if (times.get(Kind.SAFEPOINT) > SAFEPOINT_THRESHOLD * duration) {
+                details.add(String.format(Locale.ROOT, "safepoints during %.1f%% of the iteration", 100d * times.get(Kind.SAFEPOINT) / duration));
+            }
+            for (JvmEvent event : events) {
+                if (event.kind != Kind.SAFEPOINT) {
+                    details.add(event.description);
+                }
+            }
+            return details;
+        }
+    }
+
+    private static final class Iteration {
+        private final String jvm;
+        private final int index;
+        private final long start;
+        private final long end;
+        private final double score;
+        private final String scoreUnit;
+
+        private Iteration(String jvm, int index, long start, long end, double score, String scoreUnit) {
+            this.jvm = jvm;
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.score = score;
+            this.scoreUnit = scoreUnit;
+        }
+    }
+
+    private static final class JvmEvent {
+        private final Kind kind;
+        private final long start;
+        private final long end;
+        private final long time;
+        private final String description;
+
+        private JvmEvent(Kind kind, long start, long end, long time, String description) {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+            this.time = time;
+            this.description = description;
+        }
+    }
+}
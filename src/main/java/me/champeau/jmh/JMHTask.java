@@ -16,28 +16,64 @@
 package me.champeau.jmh;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
 import org.gradle.api.file.ConfigurableFileCollection;
-import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.jvm.toolchain.JavaLauncher;
 import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * The JMH task is responsible for launching a JMH benchmark.
  */
 public abstract class JMHTask extends DefaultTask implements JmhParameters {
     private final static String JAVA_IO_TMPDIR = "java.io.tmpdir";
+    private final static String JMH_MAIN_CLASS = "org.openjdk.jmh.Main";
+    // referenced by name, since they can only be loaded with JMH on the classpath
+    private final static String RUNNER_MAIN_CLASS = "me.champeau.jmh.BenchmarkRunnerMain";
+    private final static String RESULTS_CLASS = "me.champeau.jmh.BenchmarkResults";
+    private final static String ESTIMATOR_CLASS = "me.champeau.jmh.BenchmarkDurationEstimator";
+    private final static String JFR_PROFILER_CLASS = "me.champeau.jmh.JfrProfiler";
+    private final static String INLINING_PROFILER_CLASS = "me.champeau.jmh.InliningProfiler";
+    private final static String ALLOCATIONS_CLASS = "me.champeau.jmh.BenchmarkAllocations";
+    private final static List<String> GC_PROFILERS = Arrays.asList("gc", "org.openjdk.jmh.profile.GCProfiler");
 
     @Inject
     public abstract ExecOperations getExecOperations();
@@ -45,6 +81,9 @@ public abstract class JMHTask extends DefaultTask implements JmhParameters {
     @Inject
     public abstract ObjectFactory getObjects();
 
+    @Inject
+    public abstract WorkerExecutor getWorkerExecutor();
+
     @Classpath
     public abstract ConfigurableFileCollection getJmhClasspath();
 
@@ -52,8 +91,16 @@ public abstract class JMHTask extends DefaultTask implements JmhParameters {
     public abstract ConfigurableFileCollection getTestRuntimeClasspath();
 
     @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getJarArchive();
 
+    /**
+     * The benchmark classes, generated classes and resources, when running from an
+     * exploded classpath instead of the JMH jar.
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getBenchmarkClasspath();
 
     @OutputFile
     @Optional
@@ -62,15 +109,384 @@ public abstract class JMHTask extends DefaultTask implements JmhParameters {
     @OutputFile
     public abstract RegularFileProperty getResultsFile();
 
+    /**
+     * The classpath of the benchmarks, used to compute the cache key of each benchmark when
+     * results are cached. The content of this classpath is already tracked by the other inputs.
+     */
+    @Internal
+    public abstract ConfigurableFileCollection getResultsCacheClasspath();
+
+    @Internal
+    @Override
+    public abstract DirectoryProperty getResultsCacheDir();
+
+    /**
+     * The list of benchmarks generated by JMH, used to plan the execution of benchmarks when there's a time budget.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBenchmarkList();
+
+    /**
+     * Where to write the results of the benchmarks in a binary format, so that they can be merged
+     * with the results of other tasks.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getRawResultsFile();
+
+    /**
+     * Where to write the allocations of the benchmarks, in JSON, when {@code profileAllocations} is enabled.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getAllocationsFile();
+
+    /**
+     * The binary results of the shards of this task. When set, this task doesn't run benchmarks,
+     * but merges the results of its shards into its results file.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract ConfigurableFileCollection getShardResults();
+
+    /**
+     * Where to write the metadata of the run, like the CPUs the benchmarks were pinned to.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getMetadataFile();
+
+    /**
+     * Where to write the progress of the run, one JSON event per line, when running in a worker.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getProgressFile();
+
+    /**
+     * Where to write the JFR recordings of the benchmarks, when enabled with {@code jfr}.
+     */
+    @OutputDirectory
+    @Optional
+    public abstract DirectoryProperty getJfrRecordingsDir();
+
+    /**
+     * Where the forks write their compilation logs, when enabled with {@code inliningDiagnostics}.
+     */
+    @OutputDirectory
+    @Optional
+    public abstract DirectoryProperty getCompilationLogsDir();
+
+    @Internal
+    public abstract Property<ConcurrentExecutionControlBuildService> getExecutionControl();
+
+    /**
+     * The git repository of the project, used to tell which commit results are recorded for in the history.
+     */
+    @Internal
+    public abstract DirectoryProperty getRepositoryDir();
+
     @TaskAction
     public void callJmh() {
+        if (getAllocationsFile().isPresent() && !getProfileAllocations().get()) {
+            // downstream tasks must not read the allocations of a previous run
+            getAllocationsFile().get().getAsFile().delete();
+        }
+        if (!getShardResults().isEmpty()) {
+            mergeShardResults();
+            writeMetadata(null, Collections.emptyList());
+        } else {
+            List<HostReadiness.Check> readiness = checkHostReadiness();
+            CpuTopology.CpuSet cpus = leaseCpus();
+            try {
+                runJmh(cpus, readiness);
+            } finally {
+                if (cpus != null) {
+                    getExecutionControl().get().release(cpus);
+                }
+            }
+        }
+        if (getRecordHistory().get()) {
+            recordHistory();
+        }
+        if (!getBudgets().isEmpty()) {
+            checkBudgets();
+        }
+    }
+
+    /**
+     * Checks whether the host is set up to produce stable results, and warns or fails according to the policy.
+     */
+    private List<HostReadiness.Check> checkHostReadiness() {
+        String policy = getHostReadinessPolicy().get().toLowerCase(Locale.ROOT);
+        if (!Arrays.asList("ignore", "warn", "fail").contains(policy)) {
+            throw new GradleException("Invalid host readiness policy '" + getHostReadinessPolicy().get() + "'. It must be one of 'ignore', 'warn' or 'fail'.");
+        }
+        if ("ignore".equals(policy)) {
+            return Collections.emptyList();
+        }
+        List<HostReadiness.Check> checks = HostReadiness.check(Paths.get("/"), Runtime.getRuntime().availableProcessors());
+        List<String> ignored = new ArrayList<>(getIgnoredHostChecks().get());
+        if (getExecutionControl().get().allowsConcurrentTasks() && !ignored.contains(HostReadiness.LOAD)) {
+            // the load average includes the benchmarks of the other JMH tasks running concurrently in this build
+            getLogger().info("The load check is ignored, since JMH tasks run concurrently.");
+            ignored.add(HostReadiness.LOAD);
+        }
+        List<String> problems = checks.stream()
+                .filter(check -> !check.isReady() && !ignored.contains(check.getName()))
+                .map(check -> "  - " + check.getName() + ": " + check.getProblem())
+                .collect(Collectors.toList());
+        if (problems.isEmpty()) {
+            getLogger().info("The host is ready for benchmarking: {}", checks);
+        } else {
+            String message = "The host isn't set up to produce stable benchmark results:\n" + String.join("\n", problems);
+            if ("fail".equals(policy)) {
+                throw new GradleException(message + "\nFix the host, ignore these checks with ignoredHostChecks, or set hostReadinessPolicy to 'warn'.");
+            }
+            getLogger().warn(message);
+        }
+        return checks;
+    }
+
+    private void checkBudgets() {
+        if (!"json".equalsIgnoreCase(getResultFormat().get())) {
+            throw new GradleException("Performance budgets can only be checked when results are written in the JSON format, using resultFormat = 'JSON'.");
+        }
+        Map<String, BenchmarkScores.Score> scores = BenchmarkScores.read(getResultsFile().get().getAsFile());
+        for (String budget : BudgetCheck.unmatched(getBudgets(), scores)) {
+            getLogger().warn("The performance budget '{}' doesn't match any benchmark result", budget);
+        }
+        List<BudgetCheck.Row> rows = BudgetCheck.check(getBudgets(), scores);
+        String table = BudgetCheck.table(rows);
+        long exceeded = rows.stream().filter(row -> !row.isPassed()).count();
+        if (exceeded > 0) {
+            throw new GradleException(exceeded + " performance budget(s) exceeded:\n" + table);
+        }
+        getLogger().lifecycle("All performance budgets are met:\n{}", table);
+    }
+
+    private void recordHistory() {
+        if (!"json".equalsIgnoreCase(getResultFormat().get())) {
+            getLogger().warn("Results can only be recorded in the history when they are written in the JSON format, using resultFormat = 'JSON'.");
+            return;
+        }
+        File resultsFile = getResultsFile().get().getAsFile();
+        Map<String, BenchmarkScores.Score> scores = BenchmarkScores.read(resultsFile);
+        BenchmarkHistory.Run run = new BenchmarkHistory.Run(UUID.randomUUID().toString(), System.currentTimeMillis(),
+                currentCommit(), BenchmarkScores.readJvm(resultsFile), HostFingerprint.current().toString());
+        new BenchmarkHistory(getHistoryDir().get().getAsFile()).record(run, scores.values());
+        getLogger().info("Recorded the results of {} benchmarks in the history of commit {}", scores.size(), run.getCommit());
+    }
+
+    private String currentCommit() {
+        try {
+            Git git = new Git(getExecOperations(), getRepositoryDir().get().getAsFile());
+            String commit = git.resolve("HEAD");
+            // results of uncommitted changes can't be reproduced from the commit alone
+            return git.run("status", "--porcelain", "--untracked-files=no").isEmpty() ? commit : commit + "-dirty";
+        } catch (RuntimeException e) {
+            getLogger().info("Unable to determine the current git commit", e);
+            return "unknown";
+        }
+    }
+
+    private CpuTopology.CpuSet leaseCpus() {
+        if (!getPinCores().get()) {
+            return null;
+        }
+        if (!System.getProperty("os.name").startsWith("Linux") || findOnPath("taskset") == null) {
+            getLogger().warn("Benchmarks can only be pinned to CPUs on Linux, with taskset installed. Running without pinning.");
+            return null;
+        }
+        CpuTopology.CpuSet cpus = getExecutionControl().get().leaseCpus();
+        getLogger().lifecycle("Pinning benchmarks to CPUs {}", cpus);
+        return cpus;
+    }
+
+    private void runJmh(CpuTopology.CpuSet cpus, List<HostReadiness.Check> readiness) {
+        boolean cacheResults = usesResultsCache();
+        boolean inWorker = getRunInWorker().get() || getAdaptiveIterations().get() || getDiscardOutlierForks().get();
+        if (inWorker && cacheResults) {
+            getLogger().warn("Cached results are not supported when running JMH in a worker. Running JMH as an application, without adaptive iterations nor outlier detection.");
+            inWorker = false;
+        }
+        TimeBudget.Plan plan = planTimeBudget(inWorker && getAdaptiveIterations().get());
+        long start = System.nanoTime();
+        if (inWorker) {
+            runInWorker(cpus, plan, readiness);
+        } else {
+            runApplication(cpus, plan, readiness, cacheResults);
+        }
+        if (plan != null) {
+            getLogger().lifecycle("Benchmarks were planned to take {}, and took {}",
+                    TimeBudget.format(plan.getPlannedMillis()), TimeBudget.format((System.nanoTime() - start) / 1_000_000));
+        }
+    }
+
+    /**
+     * Whether the results of benchmarks are read from and written to the cache. The JFR recordings and the
+     * compilation logs are replaced by each run, so they would miss the benchmarks whose results are cached:
+     * all benchmarks are executed when they are enabled.
+     */
+    private boolean usesResultsCache() {
+        if (!getCacheResults().get()) {
+            return false;
+        }
+        boolean recordings = (getJfr().getEnabled().get() || getProfileAllocations().get() || getProfileContention().get())
+                && getJfrRecordingsDir().isPresent();
+        boolean compilationLogs = getInliningDiagnostics().get() && getCompilationLogsDir().isPresent();
+        if (recordings || compilationLogs) {
+            getLogger().warn("Cached results are ignored, since the {} must cover all benchmarks. Executing all benchmarks.",
+                    recordings ? "JFR recordings" : "compilation logs");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Plans the execution of the benchmarks so that it fits in the time budget, if any.
+     */
+    @SuppressWarnings("unchecked")
+    private TimeBudget.Plan planTimeBudget(boolean adaptiveIterations) {
+        if (!getTimeBudget().isPresent()) {
+            return null;
+        }
+        if (adaptiveIterations) {
+            getLogger().warn("The time budget is ignored when iterations are adaptive.");
+            return null;
+        }
+        if (!getBenchmarkList().isPresent()) {
+            getLogger().warn("The time budget is ignored, since the list of benchmarks of this task is unknown.");
+            return null;
+        }
+        long budget;
+        try {
+            budget = TimeBudget.parseDuration(getTimeBudget().get());
+        } catch (IllegalArgumentException e) {
+            throw new GradleException("Invalid time budget: " + e.getMessage(), e);
+        }
         List<String> jmhArgs = new ArrayList<>();
         ParameterConverter.collectParameters(this, jmhArgs);
+        Map<String, List<long[]>> shapes;
+        URLClassLoader loader = IsolatedClassLoaders.createUncached(getJmhClasspath().getFiles());
+        try {
+            shapes = (Map<String, List<long[]>>) IsolatedClassLoaders.invokeStatic(loader, ESTIMATOR_CLASS, "shapes",
+                    new Class<?>[]{File.class, List.class},
+                    getBenchmarkList().get().getAsFile(), jmhArgs);
+        } finally {
+            IsolatedClassLoaders.closeQuietly(loader);
+        }
+        TimeBudget.Plan plan = TimeBudget.plan(shapes, getBenchmarkWeights().get(), budget);
+        if (plan.getDurations().isEmpty() && !plan.getDropped().isEmpty()) {
+            throw new GradleException("The time budget of " + getTimeBudget().get() + " is too short to execute any benchmark.");
+        }
+        getLogger().lifecycle(plan.toString());
+        plan.getDurations().forEach((benchmark, millis) -> getLogger().info("  {}: {}", benchmark, TimeBudget.format(millis)));
+        return plan;
+    }
+
+    /**
+     * Leaves out the benchmarks dropped by the plan of the time budget from the JMH arguments selecting
+     * benchmarks. The scaled benchmarks are executed with their own counts by the runner, see
+     * {@link #writeScaled(TimeBudget.Plan)}.
+     */
+    static void applyPlan(List<String> args, TimeBudget.Plan plan) {
+        if (!plan.getDropped().isEmpty()) {
+            String excludes = plan.getDropped().stream().map(JMHTask::exactPattern).collect(Collectors.joining(","));
+            int index = args.indexOf("-e");
+            if (index >= 0) {
+                args.set(index + 1, args.get(index + 1) + "," + excludes);
+            } else {
+                args.add("-e");
+                args.add(excludes);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #applyPlan(List, TimeBudget.Plan)}, for the typed options of the worker.
+     */
+    @SuppressWarnings("unchecked")
+    static void applyPlan(Map<String, Object> options, TimeBudget.Plan plan) {
+        if (!plan.getDropped().isEmpty()) {
+            List<String> excludes = new ArrayList<>((List<String>) options.getOrDefault("e", Collections.emptyList()));
+            plan.getDropped().stream().map(JMHTask::exactPattern).forEach(excludes::add);
+            options.put("e", excludes);
+        }
+    }
+
+    /**
+     * Writes the counts of the benchmarks scaled down by the plan of the time budget, or returns null if
+     * no benchmark is scaled down.
+     */
+    private File writeScaled(TimeBudget.Plan plan) {
+        if (plan == null || !plan.isScaled()) {
+            return null;
+        }
+        File file = new File(getTemporaryDir(), "scaled-benchmarks.properties");
+        TimeBudget.writeScaled(file, plan.getScaledBenchmarks());
+        return file;
+    }
+
+    private static String exactPattern(String benchmark) {
+        return "^" + Pattern.quote(benchmark) + "$";
+    }
+
+    private void runApplication(CpuTopology.CpuSet cpus, TimeBudget.Plan plan, List<HostReadiness.Check> readiness, boolean cacheResults) {
+        List<String> jmhArgs = new ArrayList<>();
+        ParameterConverter.collectParameters(this, jmhArgs);
+        List<String> executionArgs = new ArrayList<>();
+        ParameterConverter.collectExecutionParameters(this, executionArgs);
+        if (plan != null) {
+            applyPlan(jmhArgs, plan);
+        }
+        File scaled = writeScaled(plan);
+        // the cache keys must not depend on the paths of the pinned launcher and of the profiler outputs
+        String cacheKeySalt = cacheResults ? cacheKeySalt(executionArgs, cpus, plan) : null;
+        if (cpus != null) {
+            File launcher = writePinnedLauncher(cpus);
+            pinForks(jmhArgs, launcher, cpus);
+            pinForks(executionArgs, launcher, cpus);
+        }
+        String jfrProfiler = jfrProfiler();
+        if (jfrProfiler != null) {
+            jmhArgs.add("-prof");
+            jmhArgs.add(jfrProfiler);
+            executionArgs.add("-prof");
+            executionArgs.add(jfrProfiler);
+        }
+        if (needsGcProfiler()) {
+            jmhArgs.add("-prof");
+            jmhArgs.add("gc");
+            executionArgs.add("-prof");
+            executionArgs.add("gc");
+        }
+        String inliningProfiler = inliningProfiler();
+        if (inliningProfiler != null) {
+            for (List<String> argList : Arrays.asList(jmhArgs, executionArgs)) {
+                argList.add("-prof");
+                argList.add(inliningProfiler);
+                appendJvmArgs(argList, inliningJvmArgs());
+            }
+        }
+        writeMetadata(cpus, readiness);
+        boolean useRunnerMain = cacheResults || getRawResultsFile().isPresent() || writesAllocations() || scaled != null;
+        List<String> args = useRunnerMain ? runnerMainArguments(jmhArgs, executionArgs, cacheKeySalt, scaled) : jmhArgs;
         getLogger().info("Running JMH with arguments: " + jmhArgs);
         getExecOperations().javaexec(spec -> {
-            spec.setClasspath(computeClasspath());
-            spec.getMainClass().set("org.openjdk.jmh.Main");
-            spec.args(jmhArgs);
+            ConfigurableFileCollection classpath = computeClasspath();
+            if (useRunnerMain || jfrProfiler != null || inliningProfiler != null) {
+                classpath.from(IsolatedClassLoaders.pluginLocation());
+            }
+            if (useRunnerMain) {
+                spec.getMainClass().set(RUNNER_MAIN_CLASS);
+            } else {
+                spec.getMainClass().set(JMH_MAIN_CLASS);
+            }
+            spec.setClasspath(classpath);
+            spec.args(args);
             spec.systemProperty(JAVA_IO_TMPDIR, getTemporaryDir().getAbsolutePath());
             spec.environment(getEnvironment().get());
             Provider<JavaLauncher> javaLauncher = getJavaLauncher();
@@ -80,10 +496,425 @@ public abstract class JMHTask extends DefaultTask implements JmhParameters {
         });
     }
 
-    private FileCollection computeClasspath() {
+    private void runInWorker(CpuTopology.CpuSet cpus, TimeBudget.Plan plan, List<HostReadiness.Check> readiness) {
+        Map<String, Object> options = new LinkedHashMap<>();
+        ParameterConverter.collectOptions(this, options);
+        if (plan != null) {
+            applyPlan(options, plan);
+        }
+        File scaled = writeScaled(plan);
+        if (cpus != null) {
+            pinForks(options, writePinnedLauncher(cpus), cpus);
+        }
+        String jfrProfiler = jfrProfiler();
+        if (jfrProfiler != null) {
+            addProfiler(options, jfrProfiler);
+        }
+        if (needsGcProfiler()) {
+            addProfiler(options, "gc");
+        }
+        String inliningProfiler = inliningProfiler();
+        if (inliningProfiler != null) {
+            addProfiler(options, inliningProfiler);
+            appendJvmArgs(options, inliningJvmArgs());
+        }
+        writeMetadata(cpus, readiness);
+        getLogger().info("Running JMH in a worker with options: " + options);
+        WorkQueue workQueue = getWorkerExecutor().processIsolation(spec -> spec.forkOptions(fork -> {
+            fork.systemProperty(JAVA_IO_TMPDIR, getTemporaryDir().getAbsolutePath());
+            fork.environment(getEnvironment().get());
+            Provider<JavaLauncher> javaLauncher = getJavaLauncher();
+            if (javaLauncher.isPresent()) {
+                fork.setExecutable(javaLauncher.get().getExecutablePath().getAsFile());
+            }
+        }));
+        Map<String, Object> settings = new LinkedHashMap<>();
+        putPath(settings, BenchmarkWorkerRunner.PROGRESS_FILE, getProgressFile());
+        putPath(settings, BenchmarkWorkerRunner.RAW_RESULTS, getRawResultsFile());
+        putPath(settings, BenchmarkWorkerRunner.METADATA_FILE, getMetadataFile());
+        if (writesAllocations()) {
+            putPath(settings, BenchmarkWorkerRunner.ALLOCATIONS_FILE, getAllocationsFile());
+        }
+        if (scaled != null) {
+            settings.put(BenchmarkWorkerRunner.SCALED_BENCHMARKS, scaled.getAbsolutePath());
+        }
+        if (getAdaptiveIterations().get()) {
+            settings.put(BenchmarkWorkerRunner.TARGET_PRECISION, getTargetPrecision().get());
+            settings.put(BenchmarkWorkerRunner.MAX_ITERATIONS, getMaxIterations().get());
+            settings.put(BenchmarkWorkerRunner.MAX_WARMUP_ITERATIONS, getMaxWarmupIterations().get());
+            settings.put(BenchmarkWorkerRunner.STEADY_STATE_THRESHOLD, getSteadyStateThreshold().get());
+            settings.put(BenchmarkWorkerRunner.MIN_BATCH_ITERATIONS, getMinBatchIterations().get());
+            if (getDiscardOutlierForks().get()) {
+                getLogger().warn("Outlier forks are not discarded when iterations are adaptive.");
+            }
+        } else if (getDiscardOutlierForks().get()) {
+            settings.put(BenchmarkWorkerRunner.MAX_EXTRA_FORKS, getMaxExtraForks().get());
+        }
+        workQueue.submit(JmhRunnerWorkAction.class, parameters -> {
+            parameters.getClasspath().from(computeClasspath());
+            if (jfrProfiler != null || inliningProfiler != null) {
+                // the forks load the profilers from their classpath
+                parameters.getClasspath().from(IsolatedClassLoaders.pluginLocation());
+            }
+            parameters.getOptions().set(options);
+            parameters.getSettings().set(settings);
+        });
+        workQueue.await();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void addProfiler(Map<String, Object> options, String profiler) {
+        List<String> profilers = new ArrayList<>((List<String>) options.getOrDefault("prof", Collections.emptyList()));
+        profilers.add(profiler);
+        options.put("prof", profilers);
+    }
+
+    /**
+     * Returns the JFR profiler to add to the JMH options, if JFR is enabled, after deleting the recordings
+     * of the previous run, since the recordings of the forks are appended to them.
+     */
+    private String jfrProfiler() {
+        if (!getJfr().getEnabled().get() && !getProfileAllocations().get() && !getProfileContention().get()) {
+            return null;
+        }
+        if (!getJfrRecordingsDir().isPresent()) {
+            getLogger().warn("JFR recordings are disabled, since the jfrRecordingsDir of this task isn't set.");
+            return null;
+        }
+        File dir = getJfrRecordingsDir().get().getAsFile();
+        BenchmarkFragments.deleteRecursively(dir.toPath());
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + dir);
+        }
+        return JFR_PROFILER_CLASS + ":" + JfrProfiler.DIR + "=" + dir.getAbsolutePath()
+                + ";" + JfrProfiler.SETTINGS + "=" + getJfr().getSettings().get()
+                + ";" + JfrProfiler.ALLOCATIONS + "=" + getProfileAllocations().get()
+                + ";" + JfrProfiler.JVM_EVENTS + "=" + (getJfr().getEnabled().get() && getJfr().getJvmEvents().get())
+                + ";" + JfrProfiler.CONTENTION + "=" + getProfileContention().get();
+    }
+
+    /**
+     * Returns the profiler which relates the compilation logs of the forks to their benchmark, if inlining
+     * diagnostics are enabled, after deleting the logs of the previous run.
+     */
+    private String inliningProfiler() {
+        if (!getInliningDiagnostics().get()) {
+            return null;
+        }
+        if (!getCompilationLogsDir().isPresent()) {
+            getLogger().warn("Inlining diagnostics are disabled, since the compilationLogsDir of this task isn't set.");
+            return null;
+        }
+        File dir = getCompilationLogsDir().get().getAsFile();
+        BenchmarkFragments.deleteRecursively(dir.toPath());
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + dir);
+        }
+        return INLINING_PROFILER_CLASS + ":" + InliningProfiler.DIR + "=" + dir.getAbsolutePath();
+    }
+
+    /**
+     * The JVM arguments which make each fork write the decisions of the JIT, including the inlining decisions,
+     * to a compilation log named after its process id.
+     */
+    private List<String> inliningJvmArgs() {
+        File log = new File(getCompilationLogsDir().get().getAsFile(), InliningProfiler.PREFIX.replace("pid", "%p") + InliningProfiler.LOG_EXTENSION);
+        return Arrays.asList("-XX:+UnlockDiagnosticVMOptions", "-XX:+LogCompilation", "-XX:LogFile=" + log.getAbsolutePath());
+    }
+
+    private boolean writesAllocations() {
+        return getProfileAllocations().get() && getAllocationsFile().isPresent();
+    }
+
+    /**
+     * Returns true if allocations are profiled and the gc profiler, which measures the bytes allocated per
+     * operation, isn't already one of the profilers.
+     */
+    private boolean needsGcProfiler() {
+        return getProfileAllocations().get() && getProfilers().getOrElse(Collections.emptyList()).stream()
+                .noneMatch(profiler -> GC_PROFILERS.contains(profiler.contains(":") ? profiler.substring(0, profiler.indexOf(':')) : profiler));
+    }
+
+    private static void putPath(Map<String, Object> settings, String key, RegularFileProperty file) {
+        if (file.isPresent()) {
+            settings.put(key, file.get().getAsFile().getAbsolutePath());
+        }
+    }
+
+    private void mergeShardResults() {
+        // shards without benchmarks delete their results instead of running
+        List<File> shardResults = getShardResults().getFiles().stream().filter(File::isFile).collect(Collectors.toList());
+        File resultsFile = getResultsFile().get().getAsFile();
+        getLogger().info("Merging the results of {} shards into {}", shardResults.size(), resultsFile);
+        URLClassLoader loader = IsolatedClassLoaders.createUncached(getJmhClasspath().getFiles());
+        try {
+            IsolatedClassLoaders.invokeStatic(loader, RESULTS_CLASS, "merge",
+                    new Class<?>[]{List.class, String.class, File.class},
+                    shardResults, getResultFormat().get(), resultsFile);
+            if (writesAllocations()) {
+                IsolatedClassLoaders.invokeStatic(loader, ALLOCATIONS_CLASS, "merge",
+                        new Class<?>[]{List.class, File.class},
+                        shardResults, getAllocationsFile().get().getAsFile());
+            }
+        } finally {
+            IsolatedClassLoaders.closeQuietly(loader);
+        }
+    }
+
+    /**
+     * Deletes the outputs of a previous run. This is used by shards which have no benchmarks to run, so that
+     * the results of a previous plan aren't merged into the results of the jmh task, nor reported.
+     */
+    void deleteOutputs() {
+        for (RegularFileProperty file : Arrays.asList(getResultsFile(), getHumanOutputFile(), getRawResultsFile(),
+                getAllocationsFile(), getMetadataFile(), getProgressFile())) {
+            if (file.isPresent()) {
+                file.get().getAsFile().delete();
+            }
+        }
+        for (DirectoryProperty dir : Arrays.asList(getJfrRecordingsDir(), getCompilationLogsDir())) {
+            if (dir.isPresent()) {
+                BenchmarkFragments.deleteRecursively(dir.get().getAsFile().toPath());
+            }
+        }
+    }
+
+    /**
+     * Writes a script which launches the JVM of the benchmark forks with its CPU affinity set to the given
+     * CPUs. It is used as the JVM of the forks, so that the benchmarks, and not only the JMH harness, are pinned.
+     */
+    private File writePinnedLauncher(CpuTopology.CpuSet cpus) {
+        File launcher = new File(getTemporaryDir(), "pinned-java");
+        String script = "#!/bin/sh\n"
+                + "exec taskset -c " + cpus.getCpuList() + " '" + forkJvm().replace("'", "'\\''") + "' \"$@\"\n";
+        try {
+            Files.write(launcher.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!launcher.setExecutable(true)) {
+            throw new IllegalStateException("Unable to make " + launcher + " executable");
+        }
+        return launcher;
+    }
+
+    /**
+     * Returns the JVM JMH would use for forks: the configured one, or the one running JMH.
+     */
+    private String forkJvm() {
+        if (getJvm().isPresent()) {
+            return getJvm().get();
+        }
+        Provider<JavaLauncher> javaLauncher = getJavaLauncher();
+        if (javaLauncher.isPresent()) {
+            return javaLauncher.get().getExecutablePath().getAsFile().getAbsolutePath();
+        }
+        return new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+    }
+
+    /**
+     * Replaces the JVM of the forks with the pinned launcher, and tells the forks how many CPUs they can
+     * use, so that the JVM sizes its thread pools, like the GC and JIT threads, after the leased CPUs.
+     */
+    static void pinForks(List<String> args, File launcher, CpuTopology.CpuSet cpus) {
+        int jvm = args.indexOf("-jvm");
+        if (jvm >= 0) {
+            args.set(jvm + 1, launcher.getAbsolutePath());
+        } else {
+            args.add("-jvm");
+            args.add(launcher.getAbsolutePath());
+        }
+        appendJvmArgs(args, Collections.singletonList("-XX:ActiveProcessorCount=" + cpus.size()));
+    }
+
+    /**
+     * Appends arguments to the JVM arguments of the forks, after the ones configured with {@code jvmArgsAppend}.
+     * Each argument is passed with its own {@code -jvmArgsAppend} option, so that it can contain spaces: JMH
+     * only splits the value of this option when it is given once, like it is by {@link ParameterConverter}.
+     */
+    static void appendJvmArgs(List<String> args, List<String> jvmArgs) {
+        List<String> values = new ArrayList<>();
+        int position = -1;
+        for (int i = args.indexOf("-jvmArgsAppend"); i >= 0; i = args.indexOf("-jvmArgsAppend")) {
+            values.add(args.get(i + 1));
+            args.subList(i, i + 2).clear();
+            position = position < 0 ? i : position;
+        }
+        List<String> appended = values.size() == 1 ? splitQuoted(values.get(0)) : values;
+        appended.addAll(jvmArgs);
+        List<String> options = new ArrayList<>();
+        for (String value : appended) {
+            options.add("-jvmArgsAppend");
+            // a single value is split by JMH, unless quoted
+            options.add(appended.size() == 1 && value.contains(" ") ? '"' + value + '"' : value);
+        }
+        args.addAll(position < 0 ? args.size() : position, options);
+    }
+
+    /**
+     * Splits a value of a JMH option like JMH does, on spaces outside of double quotes.
+     */
+    static List<String> splitQuoted(String value) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (char c : value.toCharArray()) {
+            if (c == ' ' && !quoted) {
+                if (current.length() > 0) {
+                    values.add(current.toString());
+                    current.setLength(0);
+                }
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            values.add(current.toString());
+        }
+        return values;
+    }
+
+    /**
+     * Same as {@link #pinForks(List, File, CpuTopology.CpuSet)}, for the typed options of the worker.
+     */
+    static void pinForks(Map<String, Object> options, File launcher, CpuTopology.CpuSet cpus) {
+        options.put("jvm", launcher.getAbsolutePath());
+        appendJvmArgs(options, Collections.singletonList("-XX:ActiveProcessorCount=" + cpus.size()));
+    }
+
+    /**
+     * Same as {@link #appendJvmArgs(List, List)}, for the typed options of the worker.
+     */
+    @SuppressWarnings("unchecked")
+    static void appendJvmArgs(Map<String, Object> options, List<String> jvmArgs) {
+        List<String> jvmArgsAppend = new ArrayList<>((List<String>) options.getOrDefault("jvmArgsAppend", Collections.emptyList()));
+        jvmArgsAppend.addAll(jvmArgs);
+        options.put("jvmArgsAppend", jvmArgsAppend);
+    }
+
+    /**
+     * Writes the metadata of the run, including the fingerprint of the host and of the JVM, so that results
+     * from different machines aren't compared blindly.
+     */
+    private void writeMetadata(CpuTopology.CpuSet cpus, List<HostReadiness.Check> readiness) {
+        if (!getMetadataFile().isPresent()) {
+            return;
+        }
+        Properties metadata = new Properties();
+        HostFingerprint host = HostFingerprint.current();
+        host.getProperties().forEach((key, value) -> metadata.setProperty("host." + key, value));
+        // same id as in the history, so that runs can be related to their history entries
+        metadata.setProperty("host.id", BenchmarkHistory.Run.idOf(host.toString()));
+        jvmFingerprint().getProperties().forEach((key, value) -> metadata.setProperty("jvm." + key, value));
+        for (HostReadiness.Check check : readiness) {
+            metadata.setProperty("readiness." + check.getName(), check.getValue());
+        }
+        metadata.setProperty("cpu.pinned", String.valueOf(cpus != null));
+        if (cpus != null) {
+            metadata.setProperty("cpu.list", cpus.getCpuList());
+            metadata.setProperty("cpu.count", String.valueOf(cpus.size()));
+            metadata.setProperty("cpu.numaNodes", cpus.getNodeList());
+        }
+        File metadataFile = getMetadataFile().get().getAsFile();
+        try {
+            Files.createDirectories(metadataFile.getParentFile().toPath());
+            try (OutputStream out = Files.newOutputStream(metadataFile.toPath())) {
+                metadata.store(out, null);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static File findOnPath(String executable) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            File candidate = new File(dir, executable);
+            if (candidate.canExecute()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private List<String> runnerMainArguments(List<String> jmhArgs, List<String> executionArgs, String cacheKeySalt, File scaled) {
+        List<String> args = new ArrayList<>();
+        if (cacheKeySalt != null) {
+            Map<String, String> keys = BenchmarkCacheKeys.compute(getResultsCacheClasspath(), cacheKeySalt);
+            getLogger().info("Computed cache keys of {} benchmark classes", keys.size());
+            File keysFile = new File(getTemporaryDir(), "cache-keys.properties");
+            Properties properties = new Properties();
+            properties.putAll(keys);
+            try (OutputStream out = Files.newOutputStream(keysFile.toPath())) {
+                properties.store(out, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            args.add(BenchmarkRunnerMain.CACHE_DIR);
+            args.add(getResultsCacheDir().get().getAsFile().getAbsolutePath());
+            args.add(BenchmarkRunnerMain.CACHE_KEYS);
+            args.add(keysFile.getAbsolutePath());
+        }
+        if (getRawResultsFile().isPresent()) {
+            args.add(BenchmarkRunnerMain.RAW_RESULTS);
+            args.add(getRawResultsFile().get().getAsFile().getAbsolutePath());
+        }
+        if (writesAllocations()) {
+            args.add(BenchmarkRunnerMain.ALLOCATIONS);
+            args.add(getAllocationsFile().get().getAsFile().getAbsolutePath());
+        }
+        if (scaled != null) {
+            args.add(BenchmarkRunnerMain.SCALED);
+            args.add(scaled.getAbsolutePath());
+        }
+        args.add(BenchmarkRunnerMain.SEPARATOR);
+        args.addAll(jmhArgs);
+        args.add(BenchmarkRunnerMain.SEPARATOR);
+        args.addAll(executionArgs);
+        return args;
+    }
+
+    /**
+     * Describes everything, besides the benchmark code, which has an impact on the results of benchmarks:
+     * the execution parameters, the counts of the benchmarks scaled down to fit the time budget, the JMH
+     * version, the environment, the JVM, the number of CPUs the forks can use and the host. The execution
+     * parameters must be the ones configured for the task, before the pinning and profiler arguments, which
+     * contain paths of this build, are added.
+     */
+    private String cacheKeySalt(List<String> executionArgs, CpuTopology.CpuSet cpus, TimeBudget.Plan plan) {
+        StringBuilder scaled = new StringBuilder();
+        if (plan != null) {
+            plan.getScaledBenchmarks().forEach((benchmark, counts) -> scaled.append(benchmark).append(Arrays.toString(counts)).append(' '));
+        }
+        return "jmh=" + getJmhVersion().get() + "\n"
+                + "args=" + executionArgs + "\n"
+                + "scaled=" + scaled + "\n"
+                + "cpus=" + (cpus != null ? cpus.size() : Runtime.getRuntime().availableProcessors()) + "\n"
+                + "environment=" + new TreeMap<>(getEnvironment().getOrElse(Collections.emptyMap())) + "\n"
+                + "jvm=" + jvmFingerprint().getIdentity() + "\n"
+                + "host=" + HostFingerprint.current();
+    }
+
+    /**
+     * Describes the JVM of the benchmark forks, which is the one JMH uses, with the flags passed to the forks.
+     */
+    private JvmFingerprint jvmFingerprint() {
+        List<String> flags = new ArrayList<>(getJvmArgsPrepend().getOrElse(Collections.emptyList()));
+        flags.addAll(getJvmArgs().getOrElse(Collections.emptyList()));
+        flags.addAll(getJvmArgsAppend().getOrElse(Collections.emptyList()));
+        return JvmFingerprint.of(forkJvm(), flags);
+    }
+
+    private ConfigurableFileCollection computeClasspath() {
         ConfigurableFileCollection classpath = getObjects().fileCollection();
         classpath.from(getJmhClasspath());
         classpath.from(getJarArchive());
+        classpath.from(getBenchmarkClasspath());
         classpath.from(getTestRuntimeClasspath());
         return classpath;
     }
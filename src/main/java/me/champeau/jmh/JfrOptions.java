@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+
+/**
+ * Configures the recording of benchmarks with Java Flight Recorder. Only the measurement iterations are
+ * recorded, and the recordings of all forks of a benchmark are written to a single file per benchmark and
+ * parameters combination. The recordings are rendered as flame graphs by the {@code jmhJfrReport} task.
+ */
+public interface JfrOptions {
+    /**
+     * Records the measurement iterations of the benchmarks with JFR. Requires a JDK which supports JFR,
+     * that is JDK 11 or later, or JDK 8u262 or later.
+     */
+    @Input
+    Property<Boolean> getEnabled();
+
+    /**
+     * The JFR settings: the name of a configuration of the JDK, like {@code default} or {@code profile},
+     * or the path of a {@code .jfc} file.
+     */
+    @Input
+    Property<String> getSettings();
+
+    /**
+     * Records all JIT compilations, deoptimizations, garbage collections and safepoints, whatever the
+     * settings, so that the report can flag the measurement iterations they overlap.
+     */
+    @Input
+    Property<Boolean> getJvmEvents();
+}
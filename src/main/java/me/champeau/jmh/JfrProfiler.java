@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A JMH profiler which records the measurement iterations of benchmarks with Java Flight Recorder, using the
+ * JFR API of the JDK, so no native agent is required. Warmup iterations aren't recorded. The recordings of all
+ * forks of a benchmark are appended to a single file per benchmark and parameters combination, which is valid
+ * since JFR files can be concatenated.
+ *
+ * <p>The profiler is configured with options separated by semicolons: {@code dir}, the directory of the
+ * recordings, {@code settings}, the name of a JFR configuration or the path of a {@code .jfc} file,
+ * {@code allocations}, which enables allocation samples with their stack traces, {@code jvmEvents}, which
+ * records all JIT compilations, deoptimizations, garbage collections and safepoints, whatever their duration,
+ * and {@code contention}, which records all blocking on monitors and parking of threads, with their stack traces.</p>
+ *
+ * <p>Each measurement iteration is recorded as a {@link JmhIterationEvent}, with its score, so that the events
+ * of the JVM can be aligned with the iterations they overlap.</p>
+ */
+public final class JfrProfiler implements InternalProfiler {
+    static final String DIR = "dir";
+    static final String SETTINGS = "settings";
+    static final String ALLOCATIONS = "allocations";
+    static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    static final String ALLOCATION_IN_NEW_TLAB = "jdk.ObjectAllocationInNewTLAB";
+    static final String ALLOCATION_OUTSIDE_TLAB = "jdk.ObjectAllocationOutsideTLAB";
+    static final String JVM_EVENTS = "jvmEvents";
+    static final String COMPILATION = "jdk.Compilation";
+    static final String DEOPTIMIZATION = "jdk.Deoptimization";
+    static final String GARBAGE_COLLECTION = "jdk.GarbageCollection";
+    static final String SAFEPOINT_BEGIN = "jdk.SafepointBegin";
+    static final String CONTENTION = "contention";
+    static final String MONITOR_ENTER = "jdk.JavaMonitorEnter";
+    static final String MONITOR_WAIT = "jdk.JavaMonitorWait";
+    static final String THREAD_PARK = "jdk.ThreadPark";
+    static final String EXTENSION = ".jfr";
+
+    private static final int MAX_NAME_LENGTH = 200;
+
+    private final File dir;
+    private final Configuration configuration;
+    private final boolean allocations;
+    private final boolean jvmEvents;
+    private final boolean contention;
+    private final String jvm = ManagementFactory.getRuntimeMXBean().getName();
+
+    private Recording recording;
+    private JmhIterationEvent iteration;
+    private int measurementIterations;
+
+    public JfrProfiler(String initLine) throws ProfilerException {
+        Map<String, String> options = parseOptions(initLine);
+        if (!options.containsKey(DIR)) {
+            throw new ProfilerException("The directory of the recordings must be set with " + DIR + "=<path>");
+        }
+        this.dir = new File(options.get(DIR));
+        this.allocations = Boolean.parseBoolean(options.get(ALLOCATIONS));
+        this.jvmEvents = Boolean.parseBoolean(options.get(JVM_EVENTS));
+        this.contention = Boolean.parseBoolean(options.get(CONTENTION));
+        String settings = options.getOrDefault(SETTINGS, "profile");
+        try {
+            this.configuration = settings.endsWith(".jfc")
+                    ? Configuration.create(Paths.get(settings))
+                    : Configuration.getConfiguration(settings);
+        } catch (IOException | ParseException e) {
+            throw new ProfilerException("Unable to load the JFR settings '" + settings + "'", e);
+        }
+    }
+
+    static Map<String, String> parseOptions(String initLine) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (initLine == null) {
+            return options;
+        }
+        for (String option : initLine.split(";")) {
+            int separator = option.indexOf('=');
+            if (separator > 0) {
+                options.put(option.substring(0, separator).trim(), option.substring(separator + 1).trim());
+            }
+        }
+        return options;
+    }
+
+    /**
+     * The name of the recording of a benchmark: its name, mode and parameters, usable as a file name.
+     */
+    static String recordingName(String benchmark, String mode, Map<String, String> params) {
+        StringBuilder sb = new StringBuilder(benchmark).append('-').append(mode);
+        params.forEach((key, value) -> sb.append('-').append(key).append('=').append(value));
+        String name = sb.toString().replaceAll("[^A-Za-z0-9._=-]", "_");
+        if (name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, MAX_NAME_LENGTH) + "-" + Integer.toHexString(sb.toString().hashCode());
+        }
+        return name;
+    }
+
+    static String recordingName(BenchmarkParams params) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String key : params.getParamsKeys()) {
+            values.put(key, params.getParam(key));
+        }
+        return recordingName(params.getBenchmark(), params.getMode().shortLabel(), values);
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        if (iterationParams.getType() == IterationType.MEASUREMENT && recording == null) {
+            recording = new Recording(configuration);
+            recording.setName(recordingName(benchmarkParams));
+            if (allocations) {
+                enableAllocationEvents(recording);
+            }
+            if (jvmEvents) {
+                enableJvmEvents(recording);
+            }
+            if (contention) {
+                enableContentionEvents(recording);
+            }
+            recording.enable(JmhIterationEvent.NAME);
+            recording.start();
+            measurementIterations = 0;
+        }
+        if (recording != null) {
+            iteration = new JmhIterationEvent();
+            iteration.begin();
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        if (iteration != null) {
+            iteration.end();
+            iteration.benchmark = recordingName(benchmarkParams);
+            iteration.jvm = jvm;
+            iteration.iteration = measurementIterations + 1;
+            iteration.score = result.getPrimaryResult().getScore();
+            iteration.scoreUnit = result.getPrimaryResult().getScoreUnit();
+            iteration.threads = benchmarkParams.getThreads();
+            iteration.operations = result.getMetadata().getMeasuredOps();
+            iteration.commit();
+            iteration = null;
+        }
+        if (iterationParams.getType() == IterationType.MEASUREMENT && recording != null
+                && ++measurementIterations == iterationParams.getCount()) {
+            try {
+                recording.stop();
+                append(recording, new File(dir, recordingName(benchmarkParams) + EXTENSION).toPath());
+            } finally {
+                recording.close();
+                recording = null;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static void enableAllocationEvents(Recording recording) {
+        // allocation samples are throttled, and only exist since JDK 16. Older JDKs record TLAB allocations instead
+        boolean sampled = FlightRecorder.getFlightRecorder().getEventTypes().stream()
+                .anyMatch(type -> ALLOCATION_SAMPLE.equals(type.getName()));
+        if (sampled) {
+            recording.enable(ALLOCATION_SAMPLE).withStackTrace().with("throttle", "1000/s");
+        } else {
+            recording.enable(ALLOCATION_IN_NEW_TLAB).withStackTrace();
+            recording.enable(ALLOCATION_OUTSIDE_TLAB).withStackTrace();
+        }
+    }
+
+    private static void enableJvmEvents(Recording recording) {
+        // the settings of the JDK only keep the longest compilations, and don't record safepoints
+        recording.enable(COMPILATION).withoutThreshold();
+        recording.enable(DEOPTIMIZATION);
+        recording.enable(GARBAGE_COLLECTION).withoutThreshold();
+        recording.enable(SAFEPOINT_BEGIN).withoutThreshold();
+    }
+
+    private static void enableContentionEvents(Recording recording) {
+        // the blocked time per operation is only right if short blocking is recorded too
+        recording.enable(MONITOR_ENTER).withStackTrace().withoutThreshold();
+        recording.enable(MONITOR_WAIT).withStackTrace().withoutThreshold();
+        recording.enable(THREAD_PARK).withStackTrace().withoutThreshold();
+    }
+
+    private static void append(Recording recording, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            Path chunk = Files.createTempFile(target.getParent(), "fork", ".part");
+            try {
+                recording.dump(chunk);
+                Files.write(target, Files.readAllBytes(chunk), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } finally {
+                Files.deleteIfExists(chunk);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write the JFR recording " + target, e);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Java Flight Recorder of the measurement iterations";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the reports of JFR recordings in a worker, which runs in the JVM of the benchmarks, so that
+ * the JVM running Gradle doesn't need to support JFR.
+ */
+public abstract class JfrReportWorkAction implements WorkAction<JfrReportWorkAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        ConfigurableFileCollection getRecordings();
+
+        DirectoryProperty getReportDir();
+
+        Property<Integer> getTopMethods();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        List<File> recordings = new ArrayList<>(parameters.getRecordings().getFiles());
+        JfrReports.write(recordings, parameters.getReportDir().get().getAsFile(), parameters.getTopMethods().get());
+    }
+}
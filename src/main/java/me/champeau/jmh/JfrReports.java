@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the reports of the JFR recordings of benchmarks: for each recording, the execution samples are
+ * collapsed into folded stacks and rendered as an HTML flame graph, and an index links to all of them.
+ * When the recordings have allocation events, the allocated bytes are rendered the same way, with line
+ * numbers, together with the stack traces which allocate the most. The measurement iterations are listed
+ * together with the JIT compilations, deoptimizations, GC pauses and safepoints they overlap. When the threads
+ * of a benchmark block on monitors or park, the blocked time per operation is reported for each thread count.
+ * Recordings of the same benchmark from several directories, like runs with different thread counts, are
+ * aggregated in a single contention report.
+ * This class uses the JFR consumer API, so it must only be loaded by a JVM which supports JFR.
+ */
+final class JfrReports {
+    static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    // JMH names the threads which run the benchmarks after the benchmark, followed by this
+    static final String JMH_WORKER = "-jmh-worker-";
+
+    private static final int MAX_STACK_DEPTH = 8;
+
+    private JfrReports() {
+    }
+
+    /**
+     * Writes the reports of the given recordings into the report directory, and returns the number of
+     * samples of each recording, by recording name.
+     */
+    static Map<String, Long> write(List<File> recordings, File reportDir, int topMethods) {
+        Map<String, Long> samples = new TreeMap<>();
+        Map<String, Long> allocatedBytes = new TreeMap<>();
+        Map<String, String> iterations = new TreeMap<>();
+        Map<String, ContentionProfile> contention = new TreeMap<>();
+        for (File recording : recordings) {
+            String name = recording.getName().substring(0, recording.getName().length() - JfrProfiler.EXTENSION.length());
+            FlameGraph cpu = new FlameGraph();
+            Allocations sampledAllocations = new Allocations();
+            Allocations tlabAllocations = new Allocations();
+            IterationTimeline timeline = new IterationTimeline();
+            ContentionProfile contentionProfile = contention.computeIfAbsent(name, k -> new ContentionProfile());
+            try (RecordingFile file = new RecordingFile(recording.toPath())) {
+                while (file.hasMoreEvents()) {
+                    RecordedEvent event = file.readEvent();
+                    switch (event.getEventType().getName()) {
+                        case EXECUTION_SAMPLE:
+                            cpu.add(framesOf(event.getStackTrace(), false), 1);
+                            break;
+                        case JfrProfiler.ALLOCATION_SAMPLE:
+                            sampledAllocations.add(event, event.getLong("weight"));
+                            break;
+                        case JfrProfiler.ALLOCATION_IN_NEW_TLAB:
+                            tlabAllocations.add(event, event.getLong("tlabSize"));
+                            break;
+                        case JfrProfiler.ALLOCATION_OUTSIDE_TLAB:
+                            tlabAllocations.add(event, event.getLong("allocationSize"));
+                            break;
+                        case JmhIterationEvent.NAME:
+                            timeline.addIteration(event.getString("jvm"), event.getInt("iteration"), nanos(event.getStartTime()),
+                                    nanos(event.getEndTime()), event.getDouble("score"), event.getString("scoreUnit"));
+                            contentionProfile.addIteration(nanos(event.getStartTime()), nanos(event.getEndTime()), event.getInt("threads"),
+                                    event.getLong("operations"), event.getDouble("score"), event.getString("scoreUnit"));
+                            break;
+                        case JfrProfiler.MONITOR_ENTER:
+                            addBlocking(contentionProfile, ContentionProfile.Kind.MONITOR_ENTER, event, "monitorClass");
+                            break;
+                        case JfrProfiler.MONITOR_WAIT:
+                            addBlocking(contentionProfile, ContentionProfile.Kind.MONITOR_WAIT, event, "monitorClass");
+                            break;
+                        case JfrProfiler.THREAD_PARK:
+                            addBlocking(contentionProfile, ContentionProfile.Kind.THREAD_PARK, event, "parkedClass");
+                            break;
+                        case JfrProfiler.COMPILATION:
+                            addJvmEvent(timeline, IterationTimeline.Kind.COMPILATION, event, event.getDuration().toNanos(), compilation(event));
+                            break;
+                        case JfrProfiler.DEOPTIMIZATION:
+                            addJvmEvent(timeline, IterationTimeline.Kind.DEOPTIMIZATION, event, 0, deoptimization(event));
+                            break;
+                        case JfrProfiler.GARBAGE_COLLECTION:
+                            addJvmEvent(timeline, IterationTimeline.Kind.GC, event, event.getDuration("sumOfPauses").toNanos(),
+                                    event.getString("name") + " (" + event.getString("cause") + ")");
+                            break;
+                        case JfrProfiler.SAFEPOINT_BEGIN:
+                            addJvmEvent(timeline, IterationTimeline.Kind.SAFEPOINT, event, event.getDuration().toNanos(), "safepoint");
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read the JFR recording " + recording, e);
+            }
+            write(new File(reportDir, name + ".folded"), cpu.folded());
+            write(new File(reportDir, name + ".html"), cpu.html(name, topMethods));
+            samples.put(name, cpu.getSamples());
+            // both kinds of events estimate the same allocations, so they are never added up
+            Allocations allocations = sampledAllocations.stacks.isEmpty() ? tlabAllocations : sampledAllocations;
+            if (!allocations.stacks.isEmpty()) {
+                write(new File(reportDir, name + ".alloc.folded"), allocations.graph.folded());
+                write(new File(reportDir, name + ".alloc.html"), allocations.graph.html(name + " allocations", topMethods,
+                        topStacks(allocations.stacks, topMethods)));
+                allocatedBytes.put(name, allocations.graph.getSamples());
+            }
+            if (!timeline.isEmpty()) {
+                write(new File(reportDir, name + ".iterations.html"), timeline.html(name + " iterations"));
+                List<IterationTimeline.Row> rows = timeline.rows();
+                iterations.put(name, rows.stream().filter(IterationTimeline.Row::isFlagged).count() + " of " + rows.size() + " iterations flagged");
+            }
+        }
+        Map<String, String> blocked = new TreeMap<>();
+        contention.forEach((name, profile) -> {
+            if (profile.hasEvents()) {
+                write(new File(reportDir, name + ".contention.html"), profile.html(name + " contention", topMethods));
+                blocked.put(name, profile.summaries().stream()
+                        .map(summary -> String.format(Locale.ROOT, "%.1f ns/op blocked with %d thread(s)", summary.getBlockedNanosPerOperation(), summary.getThreads()))
+                        .collect(Collectors.joining(", ")));
+            }
+        });
+        write(new File(reportDir, "index.html"), index(samples, allocatedBytes, iterations, blocked));
+        return samples;
+    }
+
+    /**
+     * Renders the stack traces which allocate the most, keyed by the allocated class followed by the
+     * frames from the innermost one, one per line.
+     */
+    static String topStacks(Map<String, Long> stacks, int count) {
+        long total = stacks.values().stream().mapToLong(Long::longValue).sum();
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(stacks.entrySet());
+        sorted.sort((a, b) -> !a.getValue().equals(b.getValue()) ? Long.compare(b.getValue(), a.getValue()) : a.getKey().compareTo(b.getKey()));
+        StringBuilder sb = new StringBuilder("<h2>Top allocating stack traces</h2>\n<table>\n<tr><th>Allocated class</th><th>Bytes</th><th>Share</th><th>Stack trace</th></tr>\n");
+        for (Map.Entry<String, Long> stack : sorted.subList(0, Math.min(count, sorted.size()))) {
+            String[] lines = stack.getKey().split("\n");
+            sb.append("<tr><td>").append(FlameGraph.escape(lines[0])).append("</td><td>").append(stack.getValue())
+                    .append("</td><td>").append(String.format(Locale.ROOT, "%.2f%%", 100d * stack.getValue() / total))
+                    .append("</td><td style=\"text-align: left; font-family: monospace\">");
+            for (int i = 1; i < lines.length; i++) {
+                sb.append(i > 1 ? "<br>" : "").append(FlameGraph.escape(lines[i]));
+            }
+            sb.append("</td></tr>\n");
+        }
+        return sb.append("</table>\n").toString();
+    }
+
+    private static void addJvmEvent(IterationTimeline timeline, IterationTimeline.Kind kind, RecordedEvent event, long time, String description) {
+        timeline.addEvent(kind, nanos(event.getStartTime()), nanos(event.getEndTime()), time, description);
+    }
+
+    private static void addBlocking(ContentionProfile profile, ContentionProfile.Kind kind, RecordedEvent event, String lockClassField) {
+        // only the threads running the benchmark are of interest, not the ones of JMH or of the JVM
+        RecordedThread thread = event.getThread();
+        if (thread == null || thread.getJavaName() == null || !thread.getJavaName().contains(JMH_WORKER)) {
+            return;
+        }
+        RecordedClass lockClass = event.hasField(lockClassField) ? event.getClass(lockClassField) : null;
+        profile.addEvent(kind, nanos(event.getStartTime()), event.getDuration().toNanos(),
+                lockClass == null ? null : typeName(lockClass.getName()), framesOf(event.getStackTrace(), true));
+    }
+
+    private static String compilation(RecordedEvent event) {
+        int level = ((Number) event.getValue("compileLevel")).intValue();
+        String compiler = level == 4 ? "C2" : level > 0 ? "C1" : "level " + level;
+        boolean osr = event.hasField("isOsr") && event.getBoolean("isOsr");
+        return compiler + (osr ? " OSR" : "") + " compilation of " + methodName(event.getValue("method"));
+    }
+
+    private static String deoptimization(RecordedEvent event) {
+        return "deoptimization of " + methodName(event.getValue("method")) + " (" + event.getString("reason") + ", " + event.getString("action") + ")";
+    }
+
+    private static String methodName(RecordedMethod method) {
+        return method == null ? "unknown method" : method.getType().getName() + "." + method.getName();
+    }
+
+    private static long nanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    /**
+     * Returns the frames of a stack trace from the outermost one, which is the order of folded stacks.
+     */
+    static List<String> framesOf(RecordedStackTrace stackTrace, boolean lineNumbers) {
+        if (stackTrace == null) {
+            return Collections.emptyList();
+        }
+        List<String> frames = new ArrayList<>();
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String name = frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+            frames.add(lineNumbers && frame.getLineNumber() >= 0 ? name + ":" + frame.getLineNumber() : name);
+        }
+        Collections.reverse(frames);
+        return frames;
+    }
+
+    static String index(Map<String, Long> samples, Map<String, Long> allocatedBytes, Map<String, String> iterations, Map<String, String> blocked) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>JMH flame graphs</title>\n")
+                .append("<style>\nbody { font: 13px sans-serif; margin: 16px; } td { padding: 2px 8px; } td:last-child { text-align: right; }\n</style>\n")
+                .append("</head>\n<body>\n<h1>JMH flame graphs</h1>\n<table>\n");
+        samples.forEach((name, count) -> sb.append("<tr><td><a href=\"").append(FlameGraph.escape(name)).append(".html\">")
+                .append(FlameGraph.escape(name)).append("</a></td><td>").append(count).append(" samples</td><td>")
+                .append(allocatedBytes.containsKey(name)
+                        ? "<a href=\"" + FlameGraph.escape(name) + ".alloc.html\">" + allocatedBytes.get(name) + " bytes allocated</a>"
+                        : "")
+                .append("</td><td>")
+                .append(iterations.containsKey(name)
+                        ? "<a href=\"" + FlameGraph.escape(name) + ".iterations.html\">" + iterations.get(name) + "</a>"
+                        : "")
+                .append("</td><td>")
+                .append(blocked.containsKey(name)
+                        ? "<a href=\"" + FlameGraph.escape(name) + ".contention.html\">" + blocked.get(name) + "</a>"
+                        : "")
+                .append("</td></tr>\n"));
+        sb.append("</table>\n</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    private static final class Allocations {
+        private final FlameGraph graph = new FlameGraph("bytes");
+        private final Map<String, Long> stacks = new HashMap<>();
+
+        private void add(RecordedEvent event, long bytes) {
+            List<String> frames = framesOf(event.getStackTrace(), true);
+            graph.add(frames, bytes);
+            StringBuilder key = new StringBuilder(typeName(event.getClass("objectClass").getName()));
+            for (int i = frames.size() - 1; i >= Math.max(0, frames.size() - MAX_STACK_DEPTH); i--) {
+                key.append('\n').append(frames.get(i));
+            }
+            stacks.merge(key.toString(), bytes, Long::sum);
+        }
+    }
+
+    /**
+     * Converts the binary name of a class, which is the name of arrays in JFR, to the name used in sources.
+     */
+    static String typeName(String binaryName) {
+        int dimensions = 0;
+        while (dimensions < binaryName.length() && binaryName.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return binaryName;
+        }
+        String element = binaryName.substring(dimensions);
+        switch (element) {
+            case "Z": element = "boolean"; break;
+            case "B": element = "byte"; break;
+            case "C": element = "char"; break;
+            case "S": element = "short"; break;
+            case "I": element = "int"; break;
+            case "J": element = "long"; break;
+            case "F": element = "float"; break;
+            case "D": element = "double"; break;
+            default:
+                element = element.startsWith("L") && element.endsWith(";") ? element.substring(1, element.length() - 1) : element;
+        }
+        StringBuilder sb = new StringBuilder(element);
+        for (int i = 0; i < dimensions; i++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Computes which benchmark classes are affected by a change, by walking the dependency graph of
+ * the classes of the project. The changes are either the files which changed since a git revision,
+ * when {@link #getChangedSince()} is set, or the classes which changed since the last execution of
+ * this task.
+ *
+ * The benchmarks of the affected classes which are selected by the includes and excludes of the
+ * configuration are written to {@link #getAffectedBenchmarksFile()}, one per line.
+ */
+public abstract class JmhAffectedBenchmarksTask extends DefaultTask {
+    private static final String GENERATED_PACKAGE_SUFFIX = ".jmh_generated";
+    private static final String ESTIMATOR_CLASS = "me.champeau.jmh.BenchmarkDurationEstimator";
+
+    // changes to these files can't be analyzed, for example because they change dependencies, so all benchmarks are affected
+    private static final List<String> BUILD_FILE_EXTENSIONS = Arrays.asList(".gradle", ".gradle.kts", ".properties", ".toml");
+
+    public JmhAffectedBenchmarksTask() {
+        // git changes are not tracked by Gradle
+        getOutputs().upToDateWhen(task -> !getChangedSince().isPresent());
+    }
+
+    @Inject
+    public abstract ExecOperations getExecOperations();
+
+    /**
+     * The classes directories of the benchmarks, of the code they benchmark and of the
+     * generated benchmark code.
+     */
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @IgnoreEmptyDirectories
+    public abstract ConfigurableFileCollection getClassesDirs();
+
+    /**
+     * A git revision, like {@code origin/main}. When set, the benchmarks affected by the files
+     * which changed since this revision are selected.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getChangedSince();
+
+    @Internal
+    public abstract DirectoryProperty getRepositoryDir();
+
+    /**
+     * The classpath of JMH, used to read the list of benchmarks.
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getJmhClasspath();
+
+    /**
+     * The BenchmarkList file generated by JMH. It changes when benchmarks are added or removed, which
+     * doesn't tell anything about the affected classes, so it doesn't prevent incremental executions.
+     */
+    @Incremental
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBenchmarkList();
+
+    /**
+     * The patterns of the benchmarks to execute. Affected benchmarks which don't match any are left out.
+     */
+    @Input
+    @Optional
+    public abstract ListProperty<String> getIncludes();
+
+    /**
+     * The patterns of the benchmarks not to execute.
+     */
+    @Input
+    @Optional
+    public abstract ListProperty<String> getExcludes();
+
+    @OutputFile
+    public abstract RegularFileProperty getAffectedBenchmarksFile();
+
+    @TaskAction
+    public void computeAffectedBenchmarks(InputChanges inputChanges) throws IOException {
+        ClassGraph graph = ClassGraph.of(getClassesDirs());
+        Set<String> affectedClasses;
+        if (getChangedSince().isPresent()) {
+            affectedClasses = graph.dependentsOf(changedClassesSince(graph, getChangedSince().get()));
+        } else if (inputChanges.isIncremental()) {
+            affectedClasses = graph.dependentsOf(changedClasses(inputChanges));
+        } else {
+            // without a previous execution, we can't tell what changed
+            affectedClasses = graph.getClassNames();
+        }
+        Set<String> benchmarkClasses = new TreeSet<>();
+        for (String className : affectedClasses) {
+            if (isGenerated(className)) {
+                benchmarkClasses.addAll(benchmarkClassesOf(graph, className));
+            } else if (graph.mayHaveBenchmarks(className)) {
+                benchmarkClasses.add(className);
+            }
+        }
+        Set<String> benchmarks = selectedBenchmarksOf(benchmarkClasses);
+        getLogger().lifecycle("{} benchmark classes are affected by the changes, with {} selected benchmarks", benchmarkClasses.size(), benchmarks.size());
+        for (String benchmark : benchmarks) {
+            getLogger().info("  - {}", benchmark);
+        }
+        File file = getAffectedBenchmarksFile().get().getAsFile();
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), benchmarks, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the benchmarks selected by the includes and excludes, as JMH selects them, which belong
+     * to one of the given classes.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> selectedBenchmarksOf(Set<String> benchmarkClasses) {
+        List<String> jmhArgs = new ArrayList<>(getIncludes().getOrElse(Collections.emptyList()));
+        List<String> excludes = getExcludes().getOrElse(Collections.emptyList());
+        if (!excludes.isEmpty()) {
+            jmhArgs.add("-e");
+            jmhArgs.add(String.join(",", excludes));
+        }
+        Map<String, Long> selected;
+        URLClassLoader loader = IsolatedClassLoaders.createUncached(getJmhClasspath().getFiles());
+        try {
+            selected = (Map<String, Long>) IsolatedClassLoaders.invokeStatic(loader, ESTIMATOR_CLASS, "estimate",
+                    new Class<?>[]{File.class, List.class},
+                    getBenchmarkList().get().getAsFile(), jmhArgs);
+        } finally {
+            IsolatedClassLoaders.closeQuietly(loader);
+        }
+        return selectedBenchmarksOf(benchmarkClasses, selected.keySet());
+    }
+
+    /**
+     * Returns the benchmarks, named like {@code com.acme.FooBenchmark.foo}, which belong to one of the given
+     * classes. Nested classes may be named with either a dot or a dollar sign.
+     */
+    static Set<String> selectedBenchmarksOf(Set<String> benchmarkClasses, Set<String> selectedBenchmarks) {
+        Set<String> classes = new HashSet<>();
+        for (String benchmarkClass : benchmarkClasses) {
+            classes.add(benchmarkClass.replace('$', '.'));
+        }
+        Set<String> benchmarks = new TreeSet<>();
+        for (String benchmark : selectedBenchmarks) {
+            int lastDot = benchmark.lastIndexOf('.');
+            if (lastDot > 0 && classes.contains(benchmark.substring(0, lastDot).replace('$', '.'))) {
+                benchmarks.add(benchmark);
+            }
+        }
+        return benchmarks;
+    }
+
+    /**
+     * Reads the affected benchmarks file, and converts each benchmark to a pattern which
+     * only includes this benchmark.
+     */
+    static List<String> includesOf(File affectedBenchmarksFile) {
+        try {
+            List<String> includes = new ArrayList<>();
+            for (String benchmark : Files.readAllLines(affectedBenchmarksFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!benchmark.isEmpty()) {
+                    includes.add("^" + Pattern.quote(benchmark) + "$");
+                }
+            }
+            return includes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Set<String> changedClasses(InputChanges inputChanges) {
+        Set<String> changedClasses = new HashSet<>();
+        for (FileChange change : inputChanges.getFileChanges(getClassesDirs())) {
+            String path = change.getNormalizedPath();
+            if (change.getFileType() == FileType.FILE && path.endsWith(".class")) {
+                changedClasses.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+        return changedClasses;
+    }
+
+    private Set<String> changedClassesSince(ClassGraph graph, String revision) {
+        // class files only know the name of their source file, so source files are matched using their package path
+        Map<String, Set<String>> classesBySourcePath = new HashMap<>();
+        for (String className : graph.getClassNames()) {
+            String sourceFile = graph.get(className).getSourceFile();
+            if (sourceFile != null) {
+                int lastDot = className.lastIndexOf('.');
+                String packagePath = lastDot < 0 ? "" : className.substring(0, lastDot + 1).replace('.', '/');
+                classesBySourcePath.computeIfAbsent(packagePath + sourceFile, k -> new HashSet<>()).add(className);
+            }
+        }
+        Set<String> changedFiles = new TreeSet<>();
+        changedFiles.addAll(git("diff", "--name-only", revision, "--"));
+        changedFiles.addAll(git("ls-files", "--others", "--exclude-standard"));
+        Set<String> changedClasses = new HashSet<>();
+        for (String changedFile : changedFiles) {
+            if (BUILD_FILE_EXTENSIONS.stream().anyMatch(changedFile::endsWith)) {
+                getLogger().lifecycle("{} changed, all benchmarks are affected", changedFile);
+                return graph.getClassNames();
+            }
+            for (Map.Entry<String, Set<String>> entry : classesBySourcePath.entrySet()) {
+                if (changedFile.equals(entry.getKey()) || changedFile.endsWith("/" + entry.getKey())) {
+                    changedClasses.addAll(entry.getValue());
+                }
+            }
+        }
+        getLogger().info("{} files changed since {}, corresponding to {} classes", changedFiles.size(), revision, changedClasses.size());
+        return changedClasses;
+    }
+
+    private List<String> git(String... args) {
+        return new Git(getExecOperations(), getRepositoryDir().get().getAsFile()).run(args);
+    }
+
+    private static boolean isGenerated(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot > 0 && className.substring(0, lastDot).endsWith(GENERATED_PACKAGE_SUFFIX);
+    }
+
+    /**
+     * Returns the benchmark classes a generated class was generated for, that is the benchmark
+     * classes it references from the package it was generated for.
+     */
+    private static Set<String> benchmarkClassesOf(ClassGraph graph, String generatedClass) {
+        String generatedPackage = generatedClass.substring(0, generatedClass.lastIndexOf('.'));
+        String benchmarkPackage = generatedPackage.substring(0, generatedPackage.length() - GENERATED_PACKAGE_SUFFIX.length());
+        Set<String> result = new TreeSet<>();
+        for (String referenced : graph.get(generatedClass).getReferencedClasses()) {
+            int lastDot = referenced.lastIndexOf('.');
+            String referencedPackage = lastDot < 0 ? "" : referenced.substring(0, lastDot);
+            if (referencedPackage.equals(benchmarkPackage) && graph.get(referenced) != null && graph.mayHaveBenchmarks(referenced)) {
+                result.add(referenced);
+            }
+        }
+        return result;
+    }
+}
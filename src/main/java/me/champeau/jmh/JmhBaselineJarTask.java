@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Builds the JMH jar of the project as of a baseline revision, in a git worktree next to the
+ * working copy of the project.
+ */
+public abstract class JmhBaselineJarTask extends DefaultTask {
+    public JmhBaselineJarTask() {
+        // the revision may be a branch which moved, which is checked when the task executes
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @Inject
+    public abstract ExecOperations getExecOperations();
+
+    /**
+     * The baseline revision, like a commit id or a branch name.
+     */
+    @Input
+    public abstract Property<String> getBaselineRevision();
+
+    @Internal
+    public abstract DirectoryProperty getRootProjectDir();
+
+    @Input
+    public abstract Property<String> getProjectPath();
+
+    @Internal
+    public abstract DirectoryProperty getWorktreeDir();
+
+    @OutputFile
+    public abstract RegularFileProperty getBaselineJar();
+
+    @TaskAction
+    public void buildBaselineJar() throws IOException {
+        String commit = new Git(getExecOperations(), getRootProjectDir().get().getAsFile()).resolve(getBaselineRevision().get());
+        File baselineJar = getBaselineJar().get().getAsFile();
+        File builtCommit = new File(baselineJar.getParentFile(), baselineJar.getName() + ".commit");
+        if (baselineJar.isFile() && builtCommit.isFile()
+                && commit.equals(new String(Files.readAllBytes(builtCommit.toPath()), StandardCharsets.UTF_8))) {
+            getLogger().info("The JMH jar of {} is already built", commit);
+            return;
+        }
+        new RevisionJarBuilder(getExecOperations(), getLogger(), getRootProjectDir().get().getAsFile(), getProjectPath().get(),
+                getWorktreeDir().get().getAsFile(), getTemporaryDir()).build(commit, baselineJar);
+        Files.write(builtCommit.toPath(), commit.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the commit which introduced a performance regression of a benchmark, using {@code git bisect}.
+ * At each step, the JMH jar of the commit is built in a git worktree, and the benchmark is executed
+ * with the iterations of this task, which are usually fewer than for a full run. A commit is bad when
+ * the score of the benchmark is worse than the score of the good revision by more than the threshold,
+ * and good when the score of the bad revision is worse than its score by more than the threshold. Both
+ * differences must be statistically significant, according to Welch's t-test over the iteration scores,
+ * and commits whose scores are neither are skipped, so that a noisy step doesn't mislead the bisection.
+ */
+public abstract class JmhBisectTask extends DefaultTask implements WithJavaToolchain {
+    private static final String FIRST_BAD_COMMIT = "is the first bad commit";
+
+    public JmhBisectTask() {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @Inject
+    public abstract ExecOperations getExecOperations();
+
+    /**
+     * The JMH arguments which configure the execution of benchmarks, as collected from the JMH configuration by
+     * {@link ParameterConverter#collectExecutionParameters(JmhParameters, List)}.
+     */
+    @Input
+    public abstract ListProperty<String> getJmhArguments();
+
+    @Input
+    @Optional
+    public abstract MapProperty<String, Object> getEnvironment();
+
+    /**
+     * The number of forks of each step, which overrides the one of the JMH arguments.
+     */
+    @Input
+    public abstract Property<Integer> getFork();
+
+    /**
+     * The number of warmup iterations of each step, which overrides the one of the JMH arguments.
+     */
+    @Input
+    public abstract Property<Integer> getWarmupIterations();
+
+    /**
+     * The number of measurement iterations of each step, which overrides the one of the JMH arguments.
+     */
+    @Input
+    public abstract Property<Integer> getIterations();
+
+    @Input
+    public abstract Property<String> getGoodRevision();
+
+    @Input
+    public abstract Property<String> getBadRevision();
+
+    /**
+     * A pattern selecting the benchmark to execute at each step.
+     */
+    @Input
+    public abstract Property<String> getBenchmark();
+
+    /**
+     * How much worse than the score of the good revision, in percent, a score must be for a commit to be bad.
+     */
+    @Input
+    public abstract Property<Double> getRegressionThreshold();
+
+    /**
+     * The maximal p-value of Welch's t-test for a difference between two scores to be considered as statistically significant.
+     */
+    @Input
+    public abstract Property<Double> getSignificanceLevel();
+
+    @Internal
+    public abstract DirectoryProperty getRootProjectDir();
+
+    @Input
+    public abstract Property<String> getProjectPath();
+
+    @Internal
+    public abstract DirectoryProperty getWorktreeDir();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    public void bisect() throws IOException {
+        Git git = new Git(getExecOperations(), getRootProjectDir().get().getAsFile());
+        String good = git.resolve(getGoodRevision().get());
+        String bad = git.resolve(getBadRevision().get());
+        Git worktree = new Git(getExecOperations(), getWorktreeDir().get().getAsFile());
+        List<String> report = new ArrayList<>();
+
+        Map<String, BenchmarkScores.Score> goodScores = measure(good);
+        report.add(step(worktree, "good", good, goodScores));
+        Map<String, BenchmarkScores.Score> badScores = measure(bad);
+        report.add(step(worktree, "bad", bad, badScores));
+        Set<String> regressions = regressions(goodScores, badScores, getRegressionThreshold().get(), getSignificanceLevel().get());
+        if (regressions.isEmpty()) {
+            writeReport(report);
+            throw new GradleException("The benchmark didn't regress by more than " + getRegressionThreshold().get()
+                    + "% between " + getGoodRevision().get() + " and " + getBadRevision().get()
+                    + ", or the difference isn't statistically significant. See the report at " + getReportFile().get().getAsFile());
+        }
+
+        List<String> output = worktree.bisect("start", bad, good);
+        String firstBadCommit = firstBadCommit(output);
+        try {
+            while (firstBadCommit == null && !onlySkippedCommitsLeft(output)) {
+                String commit = worktree.resolve("HEAD");
+                String verdict;
+                Map<String, BenchmarkScores.Score> scores = null;
+                try {
+                    scores = measure(commit);
+                    verdict = verdict(regressions, goodScores, badScores, scores, getRegressionThreshold().get(), getSignificanceLevel().get());
+                } catch (RuntimeException e) {
+                    getLogger().warn("Unable to measure the benchmark as of " + commit + ", skipping it", e);
+                    verdict = "skip";
+                }
+                report.add(step(worktree, verdict, commit, scores));
+                output = worktree.bisect(verdict);
+                firstBadCommit = firstBadCommit(output);
+            }
+        } finally {
+            worktree.bisect("reset");
+        }
+        if (firstBadCommit != null) {
+            report.add("First bad commit: " + firstBadCommit + " " + subject(worktree, firstBadCommit));
+        } else {
+            report.add("The first bad commit could not be found, since some commits had to be skipped: " + output);
+        }
+        writeReport(report);
+        getLogger().lifecycle(String.join("\n", report));
+    }
+
+    private Map<String, BenchmarkScores.Score> measure(String commit) {
+        File jar = new File(getTemporaryDir(), "jmh-" + commit + ".jar");
+        if (!jar.isFile()) {
+            new RevisionJarBuilder(getExecOperations(), getLogger(), getRootProjectDir().get().getAsFile(), getProjectPath().get(),
+                    getWorktreeDir().get().getAsFile(), getTemporaryDir()).build(commit, jar);
+        }
+        List<String> args = new ArrayList<>();
+        args.add(getBenchmark().get());
+        args.addAll(getJmhArguments().get());
+        BenchmarkJarRunner.setOption(args, "-f", String.valueOf(getFork().get()));
+        BenchmarkJarRunner.setOption(args, "-wi", String.valueOf(getWarmupIterations().get()));
+        BenchmarkJarRunner.setOption(args, "-i", String.valueOf(getIterations().get()));
+        return new BenchmarkJarRunner(getExecOperations(), getEnvironment().get(), getJavaLauncher(), getTemporaryDir())
+                .run(jar, args, new File(getTemporaryDir(), "results-" + commit + ".json"));
+    }
+
+    /**
+     * Returns the keys of the benchmarks which regressed between two runs: their score is worse by more than
+     * the threshold, and the difference is statistically significant.
+     */
+    static Set<String> regressions(Map<String, BenchmarkScores.Score> before, Map<String, BenchmarkScores.Score> after,
+                                   double thresholdPercent, double significanceLevel) {
+        return BenchmarkComparison.compare(before, after, thresholdPercent, significanceLevel).stream()
+                .filter(delta -> delta.getVerdict() == BenchmarkComparison.Verdict.REGRESSED)
+                .map(BenchmarkComparison.Delta::getKey)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Tells if the scores of a commit are {@code bad}, when one of the regressed benchmarks is significantly worse
+     * than in the good revision, {@code good}, when all of them are significantly better than in the bad revision,
+     * or inconclusive, in which case the commit is skipped.
+     */
+    static String verdict(Set<String> regressions,
+                          Map<String, BenchmarkScores.Score> goodScores,
+                          Map<String, BenchmarkScores.Score> badScores,
+                          Map<String, BenchmarkScores.Score> scores,
+                          double thresholdPercent,
+                          double significanceLevel) {
+        Set<String> worseThanGood = regressions(goodScores, scores, thresholdPercent, significanceLevel);
+        if (regressions.stream().anyMatch(worseThanGood::contains)) {
+            return "bad";
+        }
+        Set<String> betterThanBad = regressions(scores, badScores, thresholdPercent, significanceLevel);
+        if (betterThanBad.containsAll(regressions)) {
+            return "good";
+        }
+        return "skip";
+    }
+
+    private static String step(Git worktree, String verdict, String commit, Map<String, BenchmarkScores.Score> scores) {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-5s %s %s", verdict, commit, subject(worktree, commit)));
+        if (scores != null) {
+            for (BenchmarkScores.Score score : scores.values()) {
+                sb.append(String.format(Locale.ROOT, "%n      %s: %.3f +/- %.3f %s", score.getKey(), score.getScore(), score.getScoreError(), score.getUnit()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String subject(Git worktree, String commit) {
+        List<String> subject = worktree.run("log", "-1", "--format=%s", commit);
+        return subject.isEmpty() ? "" : subject.get(0);
+    }
+
+    private static String firstBadCommit(List<String> bisectOutput) {
+        for (String line : bisectOutput) {
+            if (line.endsWith(FIRST_BAD_COMMIT)) {
+                return line.substring(0, line.indexOf(' '));
+            }
+        }
+        return null;
+    }
+
+    static boolean onlySkippedCommitsLeft(List<String> bisectOutput) {
+        for (String line : bisectOutput) {
+            if (line.contains("only 'skip'ped commits left")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeReport(List<String> report) throws IOException {
+        Files.write(getReportFile().get().getAsFile().toPath(), report, StandardCharsets.UTF_8);
+    }
+}
@@ -18,21 +18,32 @@ package me.champeau.jmh;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.*;
 import org.gradle.jvm.toolchain.JavaLauncher;
-import org.gradle.process.ExecOperations;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @CacheableTask
 public abstract class JmhBytecodeGeneratorTask extends DefaultTask implements WithJavaToolchain {
 
     @Inject
-    public abstract ExecOperations getExecOperations();
+    public abstract WorkerExecutor getWorkerExecutor();
 
     @Input
     public abstract ListProperty<String> getJvmArgs();
@@ -43,10 +54,17 @@ public abstract class JmhBytecodeGeneratorTask extends DefaultTask implements Wi
     @Classpath
     public abstract ConfigurableFileCollection getJmhClasspath();
 
-    @Classpath
+    /**
+     * The classpath used to resolve the benchmark classes. Only the API of these classes
+     * is relevant to the generator, so it must not contain the classes directories to process.
+     */
+    @CompileClasspath
     public abstract ConfigurableFileCollection getRuntimeClasspath();
 
-    @Classpath
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @IgnoreEmptyDirectories
     public abstract ConfigurableFileCollection getClassesDirsToProcess();
 
     @OutputDirectory
@@ -55,42 +73,101 @@ public abstract class JmhBytecodeGeneratorTask extends DefaultTask implements Wi
     @OutputDirectory
     public abstract DirectoryProperty getGeneratedResourcesDir();
 
+    /**
+     * The directory where the generated code of each benchmark class is kept between runs.
+     */
+    @LocalState
+    public abstract DirectoryProperty getIncrementalStateDir();
+
     @TaskAction
-    public void generate() {
+    public void generate(InputChanges inputChanges) {
+        File generatedSourcesDir = getGeneratedSourcesDir().get().getAsFile();
+        File generatedResourcesDir = getGeneratedResourcesDir().get().getAsFile();
+        BenchmarkFragments fragments = new BenchmarkFragments(getIncrementalStateDir().dir("fragments").get().getAsFile());
+        ClassGraph graph = ClassGraph.of(getClassesDirsToProcess());
 
-        // Delete output directories, since JMH doesn't clean up between runs automatically. If we don't delete the
-        //  former outputs, we might end up with stale classes.
-        cleanup(getGeneratedSourcesDir().get().getAsFile());
-        cleanup(getGeneratedResourcesDir().get().getAsFile());
+        // Unchanged benchmarks are only kept from the fragments of the last run, so everything needs to be
+        // generated again if some of these fragments are gone
+        boolean incremental = inputChanges.isIncremental() && fragments.isComplete();
+        if (inputChanges.isIncremental() && !incremental) {
+            getLogger().info("The generated code of the last run is missing, all benchmarks are generated again");
+        }
+        fragments.invalidate();
 
-        for (File classesDir : getClassesDirsToProcess()) {
-            getExecOperations().javaexec(spec -> {
-                spec.getMainClass().set("org.openjdk.jmh.generators.bytecode.JmhBytecodeGenerator");
-                spec.classpath(getJmhClasspath(), getRuntimeClasspath(), getClassesDirsToProcess());
-                spec.args(
-                        classesDir,
-                        getGeneratedSourcesDir().get().getAsFile(),
-                        getGeneratedResourcesDir().get().getAsFile(),
-                        getGeneratorType().get()
-                );
-                spec.jvmArgs(getJvmArgs().get());
+        Set<String> classesToGenerate;
+        if (incremental) {
+            Set<String> changedClasses = new HashSet<>();
+            for (FileChange change : inputChanges.getFileChanges(getClassesDirsToProcess())) {
+                String path = change.getNormalizedPath();
+                if (change.getFileType() == FileType.FILE && path.endsWith(".class")) {
+                    changedClasses.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+            // A benchmark needs to be generated again if it, or any class it depends on, like
+            // a super class or a state class, changed.
+            classesToGenerate = graph.dependentsOf(changedClasses);
+            for (String className : fragments.getClassNames()) {
+                if (classesToGenerate.contains(className) || !graph.getClassNames().contains(className)) {
+                    fragments.delete(className);
+                }
+            }
+            getLogger().info("{} classes changed, {} classes are affected", changedClasses.size(), classesToGenerate.size());
+        } else {
+            fragments.deleteAll();
+            classesToGenerate = graph.getClassNames();
+        }
+
+        // Benchmarks are grouped by classes directory, and each directory is processed by a separate worker,
+        // so that projects with several JVM languages generate their benchmarks concurrently.
+        Map<File, List<String>> benchmarkClassesByDir = new LinkedHashMap<>();
+        for (String className : classesToGenerate) {
+            if (graph.mayHaveBenchmarks(className)) {
+                File classesDir = classesDirOf(graph.fileOf(className));
+                benchmarkClassesByDir.computeIfAbsent(classesDir, dir -> new ArrayList<>()).add(className);
+            }
+        }
+
+        if (!benchmarkClassesByDir.isEmpty()) {
+            // The generator runs in worker daemons which are reused between invocations, which avoids paying
+            // the cost of starting a new JVM each time.
+            WorkQueue workQueue = getWorkerExecutor().processIsolation(spec -> spec.forkOptions(options -> {
+                options.jvmArgs(getJvmArgs().get());
                 Provider<JavaLauncher> javaLauncher = getJavaLauncher();
                 if (javaLauncher.isPresent()) {
-                    spec.executable(javaLauncher.get().getExecutablePath().getAsFile());
+                    options.setExecutable(javaLauncher.get().getExecutablePath().getAsFile());
+                }
+            }));
+            for (List<String> benchmarkClasses : benchmarkClassesByDir.values()) {
+                // the class files are resolved from the graph of this task, so that workers don't parse the classes again
+                Map<String, List<File>> classFiles = new LinkedHashMap<>();
+                Map<String, List<File>> dependencyFiles = new LinkedHashMap<>();
+                for (String className : benchmarkClasses) {
+                    classFiles.put(className, graph.hierarchyFilesOf(className));
+                    dependencyFiles.put(className, graph.dependencyFilesOf(className));
                 }
-            });
+                workQueue.submit(JmhBytecodeGeneratorWorkAction.class, parameters -> {
+                    parameters.getClasspath().from(getJmhClasspath(), getRuntimeClasspath(), getClassesDirsToProcess());
+                    parameters.getClassFiles().set(classFiles);
+                    parameters.getDependencyFiles().set(dependencyFiles);
+                    parameters.getFragmentsDir().set(getIncrementalStateDir().dir("fragments"));
+                    parameters.getGeneratorType().set(getGeneratorType());
+                });
+            }
+            workQueue.await();
         }
+
+        // Only the files which changed are written, so that the generated classes can be compiled incrementally
+        fragments.mergeInto(generatedSourcesDir, generatedResourcesDir);
+        fragments.markComplete();
     }
 
-    private static void cleanup(final File file) {
-        if (file.exists()) {
-            File[] listing = file.listFiles();
-            if (listing != null) {
-                for (File sub : listing) {
-                    cleanup(sub);
-                }
+    private File classesDirOf(File classFile) {
+        String path = classFile.getAbsolutePath();
+        for (File classesDir : getClassesDirsToProcess()) {
+            if (path.startsWith(classesDir.getAbsolutePath() + File.separator)) {
+                return classesDir;
             }
-            file.delete();
         }
+        return classFile.getParentFile();
     }
 }
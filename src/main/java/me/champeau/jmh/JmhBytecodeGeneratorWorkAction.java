@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the JMH bytecode generator over a set of benchmark classes in a worker.
+ */
+public abstract class JmhBytecodeGeneratorWorkAction implements WorkAction<JmhBytecodeGeneratorWorkAction.Parameters> {
+    // referenced by name, since the generator class must only be loaded by the isolated class loader
+    private static final String GENERATOR_CLASS = "me.champeau.jmh.BenchmarkSourcesGenerator";
+
+    public interface Parameters extends WorkParameters {
+        ConfigurableFileCollection getClasspath();
+
+        /**
+         * The class files of each benchmark class to generate and of its super classes.
+         */
+        MapProperty<String, List<File>> getClassFiles();
+
+        /**
+         * The class files of the other classes each benchmark class depends on.
+         */
+        MapProperty<String, List<File>> getDependencyFiles();
+
+        DirectoryProperty getFragmentsDir();
+
+        Property<String> getGeneratorType();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        URLClassLoader loader = IsolatedClassLoaders.create(parameters.getClasspath().getFiles());
+        try {
+            IsolatedClassLoaders.invokeStatic(loader,
+                    GENERATOR_CLASS,
+                    "generate",
+                    new Class<?>[]{ClassLoader.class, Map.class, Map.class, File.class, String.class},
+                    loader,
+                    parameters.getClassFiles().get(),
+                    parameters.getDependencyFiles().get(),
+                    parameters.getFragmentsDir().get().getAsFile(),
+                    parameters.getGeneratorType().get());
+        } finally {
+            IsolatedClassLoaders.closeQuietly(loader);
+        }
+    }
+}
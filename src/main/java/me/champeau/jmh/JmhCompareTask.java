@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the results of the benchmarks with the results of a baseline, and fails when a benchmark
+ * regressed. Both results must be written in the JSON format.
+ */
+public abstract class JmhCompareTask extends DefaultTask {
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getResultsFile();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBaselineFile();
+
+    /**
+     * The minimal change of a score, in percent, for a benchmark to be considered as regressed or improved.
+     */
+    @Input
+    public abstract Property<Double> getRegressionThreshold();
+
+    /**
+     * The maximal p-value of Welch's t-test for a change to be considered as statistically significant.
+     */
+    @Input
+    public abstract Property<Double> getSignificanceLevel();
+
+    @Input
+    public abstract Property<Boolean> getFailOnRegression();
+
+    /**
+     * The metadata written along with the results, which describes the host and the JVM they were produced on.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getResultsMetadataFile();
+
+    /**
+     * The metadata written along with the baseline, which describes the host and the JVM it was produced on.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBaselineMetadataFile();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    public void compare() throws IOException {
+        List<BenchmarkComparison.Delta> deltas = BenchmarkComparison.compare(
+                BenchmarkScores.read(getBaselineFile().get().getAsFile()),
+                BenchmarkScores.read(getResultsFile().get().getAsFile()),
+                getRegressionThreshold().get(),
+                getSignificanceLevel().get());
+        String report = BenchmarkComparison.report(deltas);
+        if (getResultsMetadataFile().isPresent() && getBaselineMetadataFile().isPresent()) {
+            List<String> differences = fingerprintDifferences(
+                    load(getBaselineMetadataFile().get().getAsFile()),
+                    load(getResultsMetadataFile().get().getAsFile()));
+            if (!differences.isEmpty()) {
+                report = "WARNING: the baseline and the results were produced on different hosts or JVMs, scores may not be comparable:\n"
+                        + String.join("\n", differences) + "\n\n" + report;
+            }
+        } else {
+            getLogger().info("The baseline or the results have no metadata, they may have been produced on different hosts or JVMs");
+        }
+        File reportFile = getReportFile().get().getAsFile();
+        Files.write(reportFile.toPath(), report.getBytes(StandardCharsets.UTF_8));
+        getLogger().lifecycle(report);
+        List<BenchmarkComparison.Delta> regressions = deltas.stream()
+                .filter(delta -> delta.getVerdict() == BenchmarkComparison.Verdict.REGRESSED)
+                .collect(Collectors.toList());
+        if (!regressions.isEmpty() && getFailOnRegression().get()) {
+            throw new GradleException(regressions.size() + " benchmark(s) regressed by more than "
+                    + getRegressionThreshold().get() + "%. See the report at " + reportFile);
+        }
+    }
+
+    /**
+     * Returns the differences between the host and JVM fingerprints of two runs, one line per property.
+     */
+    static List<String> fingerprintDifferences(Properties baseline, Properties results) {
+        Set<String> keys = new TreeSet<>();
+        keys.addAll(baseline.stringPropertyNames());
+        keys.addAll(results.stringPropertyNames());
+        return keys.stream()
+                .filter(key -> key.startsWith("host.") || key.startsWith("jvm."))
+                // the id is derived from the other host properties, and the location of the JVM doesn't matter
+                .filter(key -> !"host.id".equals(key) && !"jvm.home".equals(key))
+                .filter(key -> !Objects.equals(baseline.getProperty(key), results.getProperty(key)))
+                .map(key -> "  " + key + ": " + baseline.getProperty(key, "unknown") + " (baseline) vs " + results.getProperty(key, "unknown") + " (results)")
+                .collect(Collectors.toList());
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        return properties;
+    }
+}
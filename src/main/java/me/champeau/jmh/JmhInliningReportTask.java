@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the inlining decisions of the JIT under each benchmark method, from the compilation logs written
+ * by the JMH tasks when {@code inliningDiagnostics} is enabled, and compares them with a previous run.
+ */
+public abstract class JmhInliningReportTask extends DefaultTask {
+    /**
+     * The directories the compilation logs are written to.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getCompilationLogs();
+
+    /**
+     * A directory with the inlining trees of a previous report, which the trees are compared with. When not
+     * set, the trees are compared with the ones of the previous execution of this task.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @Optional
+    public abstract DirectoryProperty getBaselineDir();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getReportDir();
+
+    @TaskAction
+    public void writeReports() {
+        File reportDir = getReportDir().get().getAsFile();
+        Map<String, String> previous = readTrees(getBaselineDir().isPresent() ? getBaselineDir().get().getAsFile() : reportDir);
+        List<File> logDirs = new ArrayList<>(getCompilationLogs().getFiles());
+        Map<String, Map<String, Integer>> trees = InliningReports.read(logDirs);
+        BenchmarkFragments.deleteRecursively(reportDir.toPath());
+        if (!reportDir.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + reportDir);
+        }
+        if (trees.isEmpty()) {
+            getLogger().warn("There are no compilation logs of benchmarks. Enable them with jmh { inliningDiagnostics = true }, and run benchmarks in forks.");
+            return;
+        }
+        Map<String, List<String>> changes = InliningReports.write(trees, previous, reportDir);
+        changes.forEach((name, diff) -> getLogger().lifecycle("Inlining of {} changed since the previous run:\n  {}", name, String.join("\n  ", diff)));
+        getLogger().lifecycle("Wrote the inlining trees of {} benchmark(s) to {}", trees.size(), new File(reportDir, "index.html").toURI());
+    }
+
+    private static Map<String, String> readTrees(File dir) {
+        Map<String, String> trees = new HashMap<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(InliningReports.TREE_EXTENSION));
+        if (files == null) {
+            return trees;
+        }
+        for (File file : files) {
+            try {
+                String name = file.getName().substring(0, file.getName().length() - InliningReports.TREE_EXTENSION.length());
+                trees.put(name, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return trees;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks of two JMH jars, the current one and the one of a baseline, in interleaved rounds
+ * of a single fork each, and reports the ratio of their scores. Since the forks of both versions alternate,
+ * the drift of the host, like thermal throttling or background activity, affects both the same way. The
+ * version which runs first also alternates between rounds, following an ABBA order, so that a drift within
+ * a round doesn't always favor the same version.
+ */
+public abstract class JmhInterleavedTask extends DefaultTask implements WithJavaToolchain {
+    @Inject
+    public abstract ExecOperations getExecOperations();
+
+    /**
+     * The JMH arguments which select the benchmarks and configure their execution, as collected from the
+     * JMH configuration by {@link ParameterConverter#collectSelectionAndExecutionParameters(JmhParameters, List)}.
+     */
+    @Input
+    public abstract ListProperty<String> getJmhArguments();
+
+    @Input
+    @Optional
+    public abstract MapProperty<String, Object> getEnvironment();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getJarArchive();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBaselineJarArchive();
+
+    /**
+     * The number of rounds, each round running one fork of the baseline and one fork of the current version.
+     */
+    @Input
+    public abstract Property<Integer> getRounds();
+
+    /**
+     * The confidence level of the reported intervals.
+     */
+    @Input
+    public abstract Property<Double> getConfidenceLevel();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    public void runInterleaved() throws IOException {
+        List<String> jmhArgs = new ArrayList<>(getJmhArguments().get());
+        BenchmarkJarRunner.setOption(jmhArgs, "-f", "1");
+        BenchmarkJarRunner runner = new BenchmarkJarRunner(getExecOperations(), getEnvironment().get(), getJavaLauncher(), getTemporaryDir());
+        File baselineJar = getBaselineJarArchive().get().getAsFile();
+        File currentJar = getJarArchive().get().getAsFile();
+        List<Map<String, BenchmarkScores.Score>> baselineRounds = new ArrayList<>();
+        List<Map<String, BenchmarkScores.Score>> currentRounds = new ArrayList<>();
+        int rounds = getRounds().get();
+        for (int round = 1; round <= rounds; round++) {
+            if (baselineFirst(round)) {
+                baselineRounds.add(runRound(runner, round, rounds, "baseline", baselineJar, jmhArgs));
+                currentRounds.add(runRound(runner, round, rounds, "current", currentJar, jmhArgs));
+            } else {
+                currentRounds.add(runRound(runner, round, rounds, "current", currentJar, jmhArgs));
+                baselineRounds.add(runRound(runner, round, rounds, "baseline", baselineJar, jmhArgs));
+            }
+        }
+        String report = InterleavedComparison.report(InterleavedComparison.of(baselineRounds, currentRounds, getConfidenceLevel().get()));
+        Files.write(getReportFile().get().getAsFile().toPath(), report.getBytes(StandardCharsets.UTF_8));
+        getLogger().lifecycle(report);
+    }
+
+    private Map<String, BenchmarkScores.Score> runRound(BenchmarkJarRunner runner, int round, int rounds, String version, File jar, List<String> jmhArgs) {
+        getLogger().lifecycle("Round {}/{}: {}", round, rounds, version);
+        return runner.run(jar, jmhArgs, new File(getTemporaryDir(), version + "-" + round + ".json"));
+    }
+
+    /**
+     * Tells if the baseline runs first in a round. It runs first in odd rounds, and second in even rounds, so
+     * that the forks follow an ABBA order, where each pair of rounds runs both versions in both positions.
+     */
+    static boolean baselineFirst(int round) {
+        return round % 2 == 1;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event which spans a measurement iteration of a benchmark, so that the events of the JVM can be
+ * aligned with iteration boundaries.
+ */
+@Name(JmhIterationEvent.NAME)
+@Label("JMH Iteration")
+@Category("JMH")
+@Description("A measurement iteration of a benchmark")
+@StackTrace(false)
+final class JmhIterationEvent extends Event {
+    static final String NAME = "me.champeau.jmh.Iteration";
+
+    @Label("Benchmark")
+    String benchmark;
+
+    @Label("JVM")
+    @Description("Identifies the fork which executed the iteration")
+    String jvm;
+
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Score")
+    double score;
+
+    @Label("Score Unit")
+    String scoreUnit;
+
+    @Label("Threads")
+    int threads;
+
+    @Label("Operations")
+    @Description("The operations measured by all threads")
+    long operations;
+}
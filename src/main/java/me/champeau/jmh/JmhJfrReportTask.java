@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Renders the JFR recordings of the benchmarks, written by the JMH tasks when {@code jfr} is enabled, as
+ * folded stacks and HTML flame graphs, one per benchmark and parameters combination.
+ */
+public abstract class JmhJfrReportTask extends DefaultTask implements WithJavaToolchain {
+    /**
+     * The directories the JFR recordings are written to.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getRecordings();
+
+    /**
+     * The number of hot methods listed for each benchmark.
+     */
+    @Input
+    public abstract Property<Integer> getTopMethods();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getReportDir();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void writeReports() {
+        List<File> recordings = getRecordings().getAsFileTree().getFiles().stream()
+                .filter(file -> file.getName().endsWith(JfrProfiler.EXTENSION))
+                .sorted()
+                .collect(Collectors.toList());
+        File reportDir = getReportDir().get().getAsFile();
+        BenchmarkFragments.deleteRecursively(reportDir.toPath());
+        if (!reportDir.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + reportDir);
+        }
+        if (recordings.isEmpty()) {
+            getLogger().warn("There are no JFR recordings of benchmarks. Enable them with jmh { jfr { enabled = true } }.");
+            return;
+        }
+        WorkQueue workQueue = getWorkerExecutor().processIsolation(spec -> spec.forkOptions(fork -> {
+            Provider<JavaLauncher> javaLauncher = getJavaLauncher();
+            if (javaLauncher.isPresent()) {
+                fork.setExecutable(javaLauncher.get().getExecutablePath().getAsFile());
+            }
+        }));
+        workQueue.submit(JfrReportWorkAction.class, parameters -> {
+            parameters.getRecordings().from(recordings);
+            parameters.getReportDir().set(reportDir);
+            parameters.getTopMethods().set(getTopMethods());
+        });
+        workQueue.await();
+        getLogger().lifecycle("Wrote the flame graphs of {} benchmark(s) to {}", recordings.size(), new File(reportDir, "index.html").toURI());
+    }
+}
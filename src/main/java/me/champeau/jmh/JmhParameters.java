@@ -15,12 +15,17 @@
  */
 package me.champeau.jmh;
 
+import org.gradle.api.Action;
+import org.gradle.api.NamedDomainObjectContainer;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.DuplicatesStrategy;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.Optional;
 
 public interface JmhParameters extends WithJavaToolchain {
@@ -142,13 +147,174 @@ public interface JmhParameters extends WithJavaToolchain {
     @Input
     Property<Boolean> getZip64();
 
+    @Input
+    Property<String> getJarCompression();
+
     @Input
     Property<DuplicatesStrategy> getDuplicateClassesStrategy();
 
+    @Input
+    Property<Boolean> getExplodedClasspath();
+
     @Input
     @Optional
     MapProperty<String, Object> getEnvironment();
 
+    @Input
+    Property<Boolean> getCacheResults();
+
+    DirectoryProperty getResultsCacheDir();
+
+    @Input
+    Property<Integer> getShards();
+
+    @Internal
+    Property<Integer> getMaxParallelShards();
+
+    @Input
+    Property<Boolean> getPinCores();
+
+    @Input
+    Property<Boolean> getRecordHistory();
+
+    /**
+     * Runs the JMH runner in a Gradle worker process instead of launching JMH as an application,
+     * which reports the progress of the benchmarks as each iteration completes.
+     */
+    @Input
+    Property<Boolean> getRunInWorker();
+
+    /**
+     * Runs each benchmark with as many iterations as it needs, instead of {@code warmupIterations} and
+     * {@code iterations}: warmup ends when the scores reach a steady state, and measurement ends when
+     * the confidence interval of the score is narrower than {@code targetPrecision}. Implies running in a worker.
+     */
+    @Input
+    Property<Boolean> getAdaptiveIterations();
+
+    /**
+     * The half-width of the 99.9% confidence interval of the score, in percent of the score, at which
+     * adaptive iterations stop.
+     */
+    @Input
+    Property<Double> getTargetPrecision();
+
+    /**
+     * The maximum number of measurement iterations of a benchmark when iterations are adaptive.
+     */
+    @Input
+    Property<Integer> getMaxIterations();
+
+    /**
+     * The maximum number of warmup iterations of a benchmark when iterations are adaptive.
+     */
+    @Input
+    Property<Integer> getMaxWarmupIterations();
+
+    /**
+     * The change of the mean score, in percent, between two consecutive windows of iterations below which
+     * the scores are considered steady, which ends the warmup when iterations are adaptive.
+     */
+    @Input
+    Property<Double> getSteadyStateThreshold();
+
+    /**
+     * The minimum number of measurement iterations of each batch when iterations are adaptive. A batch runs
+     * at least as many measurement iterations as warmup iterations, so that the warmup doesn't dominate its cost.
+     */
+    @Input
+    Property<Integer> getMinBatchIterations();
+
+    /**
+     * Discards the forks of a benchmark which are outliers compared to its other forks, like a fork which landed
+     * on a bad JIT compilation, and runs extra forks instead. Requires at least 3 forks. Implies running in a worker.
+     */
+    @Input
+    Property<Boolean> getDiscardOutlierForks();
+
+    /**
+     * The maximum number of extra forks of a benchmark which are executed to replace outlier forks.
+     */
+    @Input
+    Property<Integer> getMaxExtraForks();
+
+    /**
+     * What to do when the host isn't set up to produce stable results, for example when the CPU frequency governor
+     * isn't {@code performance} or when turbo is enabled: {@code ignore}, {@code warn} or {@code fail}.
+     */
+    @Internal
+    Property<String> getHostReadinessPolicy();
+
+    /**
+     * The host readiness checks which are ignored: {@code governor}, {@code turbo}, {@code load}, {@code smt},
+     * {@code memory} or {@code thp}.
+     */
+    @Internal
+    ListProperty<String> getIgnoredHostChecks();
+
+    @Internal
+    DirectoryProperty getHistoryDir();
+
+    /**
+     * The wall-clock time the benchmarks of a task should fit in, like {@code 45m} or {@code 1h30m}. When the
+     * benchmarks are estimated to take longer, forks and iterations are scaled down, then the benchmarks with
+     * the lowest weight are left out.
+     */
+    @Input
+    @Optional
+    Property<String> getTimeBudget();
+
+    /**
+     * The weight of benchmarks when planning a time budget, by regular expression matching the benchmark
+     * methods. Benchmarks which don't match any default to 1.
+     */
+    @Input
+    MapProperty<String, Number> getBenchmarkWeights();
+
+    /**
+     * Measures the allocations of the benchmarks: the {@code gc} profiler is added to report the bytes allocated
+     * per operation of each benchmark, and the benchmarks are recorded with JFR allocation events, to find the
+     * stack traces which allocate the most.
+     */
+    @Input
+    Property<Boolean> getProfileAllocations();
+
+    /**
+     * Records with JFR the time the benchmark threads spend blocked on monitors or parked during the measurement
+     * iterations, which the {@code jmhJfrReport} task reports as blocked time per operation, by lock class and
+     * stack trace.
+     */
+    @Input
+    Property<Boolean> getProfileContention();
+
+    /**
+     * Writes the compilation log of each fork, with the inlining decisions of the JIT, which are rendered as an
+     * inlining tree per benchmark by the {@code jmhInliningReport} task. Only benchmarks executed in forks are
+     * reported.
+     */
+    @Input
+    Property<Boolean> getInliningDiagnostics();
+
+    /**
+     * Records the benchmarks with Java Flight Recorder.
+     */
+    @Nested
+    JfrOptions getJfr();
+
+    default void jfr(Action<? super JfrOptions> action) {
+        action.execute(getJfr());
+    }
+
+    /**
+     * Absolute limits for the results of benchmarks, checked after the benchmarks are executed.
+     */
+    @Nested
+    NamedDomainObjectContainer<PerformanceBudget> getBudgets();
+
+    default void budgets(Action<? super NamedDomainObjectContainer<PerformanceBudget>> action) {
+        action.execute(getBudgets());
+    }
+
     RegularFileProperty getHumanOutputFile();
 
     RegularFileProperty getResultsFile();
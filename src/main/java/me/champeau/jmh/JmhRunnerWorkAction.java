@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Runs benchmarks with the JMH runner in a worker.
+ */
+public abstract class JmhRunnerWorkAction implements WorkAction<JmhRunnerWorkAction.Parameters> {
+    // referenced by name, since the runner class must only be loaded by the isolated class loader
+    private static final String RUNNER_CLASS = "me.champeau.jmh.BenchmarkWorkerRunner";
+
+    public interface Parameters extends WorkParameters {
+        ConfigurableFileCollection getClasspath();
+
+        MapProperty<String, Object> getOptions();
+
+        MapProperty<String, Object> getSettings();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        Set<File> classpath = parameters.getClasspath().getFiles();
+        String forkClasspath = classpath.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator));
+        URLClassLoader loader = IsolatedClassLoaders.createUncached(classpath);
+        try {
+            IsolatedClassLoaders.invokeStatic(loader,
+                    RUNNER_CLASS,
+                    "run",
+                    new Class<?>[]{Map.class, Map.class, String.class},
+                    parameters.getOptions().get(),
+                    parameters.getSettings().get(),
+                    forkClasspath);
+        } finally {
+            IsolatedClassLoaders.closeQuietly(loader);
+        }
+    }
+}
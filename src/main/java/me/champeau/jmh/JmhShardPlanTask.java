@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the benchmarks selected by the JMH configuration into shards of similar estimated
+ * duration. The benchmarks of each shard are written to a separate file of the shards directory.
+ */
+public abstract class JmhShardPlanTask extends DefaultTask {
+    // referenced by name, since it can only be loaded with JMH on the classpath
+    private static final String ESTIMATOR_CLASS = "me.champeau.jmh.BenchmarkDurationEstimator";
+
+    @Classpath
+    public abstract ConfigurableFileCollection getJmhClasspath();
+
+    /**
+     * The list of benchmarks generated by JMH.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBenchmarkList();
+
+    /**
+     * The JMH arguments which select the benchmarks and configure their execution, as collected from the
+     * JMH configuration by {@link ParameterConverter#collectSelectionAndExecutionParameters(JmhParameters, List)}.
+     */
+    @Input
+    public abstract ListProperty<String> getJmhArguments();
+
+    @Input
+    public abstract Property<Integer> getShards();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getShardsDir();
+
+    @TaskAction
+    @SuppressWarnings("unchecked")
+    public void planShards() throws IOException {
+        List<String> jmhArgs = new ArrayList<>(getJmhArguments().get());
+        Map<String, Long> durations;
+        URLClassLoader loader = IsolatedClassLoaders.createUncached(getJmhClasspath().getFiles());
+        try {
+            durations = (Map<String, Long>) IsolatedClassLoaders.invokeStatic(loader, ESTIMATOR_CLASS, "estimate",
+                    new Class<?>[]{File.class, List.class},
+                    getBenchmarkList().get().getAsFile(), jmhArgs);
+        } finally {
+            IsolatedClassLoaders.closeQuietly(loader);
+        }
+        ShardPlan plan = ShardPlan.of(durations, getShards().get());
+        File shardsDir = getShardsDir().get().getAsFile();
+        BenchmarkFragments.deleteRecursively(shardsDir.toPath());
+        Files.createDirectories(shardsDir.toPath());
+        for (int i = 0; i < plan.size(); i++) {
+            Files.write(shardFile(shardsDir, i + 1).toPath(), plan.getBenchmarks(i), StandardCharsets.UTF_8);
+            getLogger().lifecycle("Shard {}: {} benchmarks, estimated to take {} minutes", i + 1, plan.getBenchmarks(i).size(),
+                    TimeUnit.MILLISECONDS.toMinutes(plan.getEstimatedDuration(i)));
+        }
+    }
+
+    static File shardFile(File shardsDir, int shard) {
+        return new File(shardsDir, "shard-" + shard + ".txt");
+    }
+
+    /**
+     * Reads the benchmarks of a shard, and converts each benchmark to a pattern which
+     * only includes this benchmark.
+     */
+    static List<String> includesOf(File shardFile) {
+        try {
+            List<String> includes = new ArrayList<>();
+            for (String benchmark : Files.readAllLines(shardFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!benchmark.isEmpty()) {
+                    includes.add("^" + Pattern.quote(benchmark) + "$");
+                }
+            }
+            return includes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
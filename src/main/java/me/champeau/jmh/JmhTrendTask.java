@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Renders the history of the scores of each benchmark, as recorded by the JMH tasks, and flags step changes.
+ */
+public abstract class JmhTrendTask extends DefaultTask {
+    private static final char[] SPARKS = {'\u2581', '\u2582', '\u2583', '\u2584', '\u2585', '\u2586', '\u2587', '\u2588'};
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneOffset.UTC);
+
+    public JmhTrendTask() {
+        // the history is shared with other builds
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @Internal
+    public abstract DirectoryProperty getHistoryDir();
+
+    /**
+     * A pattern selecting the benchmarks to report.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getBenchmarks();
+
+    /**
+     * The number of most recent runs of each benchmark to report.
+     */
+    @Input
+    public abstract Property<Integer> getMaxRuns();
+
+    /**
+     * When true, only the runs executed on a host with the same fingerprint as the current one are reported.
+     */
+    @Input
+    public abstract Property<Boolean> getCurrentHostOnly();
+
+    /**
+     * The number of runs compared before and after a point to detect a step change.
+     */
+    @Input
+    public abstract Property<Integer> getStepWindow();
+
+    /**
+     * The minimal change of the mean score, in percent, for a step change.
+     */
+    @Input
+    public abstract Property<Double> getStepThreshold();
+
+    @Input
+    public abstract Property<Double> getSignificanceLevel();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    public void renderTrend() throws IOException {
+        BenchmarkHistory history = new BenchmarkHistory(getHistoryDir().get().getAsFile());
+        String hostId = BenchmarkHistory.Run.idOf(HostFingerprint.current().toString());
+        Pattern benchmarks = getBenchmarks().isPresent() ? Pattern.compile(getBenchmarks().get()) : null;
+        StringBuilder report = new StringBuilder();
+        int stepCount = 0;
+        for (String key : history.readIndex().keySet()) {
+            if (benchmarks != null && !benchmarks.matcher(key).find()) {
+                continue;
+            }
+            List<BenchmarkHistory.Entry> entries = history.seriesOf(key).stream()
+                    .filter(entry -> !getCurrentHostOnly().get() || entry.getHostId().equals(hostId))
+                    .collect(Collectors.toList());
+            if (entries.isEmpty()) {
+                continue;
+            }
+            entries = inLatestUnit(entries);
+            entries = entries.subList(Math.max(0, entries.size() - getMaxRuns().get()), entries.size());
+            stepCount += render(key, entries, report);
+        }
+        Files.write(getReportFile().get().getAsFile().toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        getLogger().lifecycle(report.toString());
+        getLogger().lifecycle("{} step change(s) found. See the report at {}", stepCount, getReportFile().get().getAsFile());
+    }
+
+    private int render(String key, List<BenchmarkHistory.Entry> entries, StringBuilder report) {
+        double[] scores = entries.stream().mapToDouble(BenchmarkHistory.Entry::getScore).toArray();
+        String unit = entries.get(entries.size() - 1).getUnit();
+        report.append(key).append(" (").append(unit).append("), ").append(entries.size()).append(" runs\n");
+        report.append("  ").append(sparkline(scores)).append('\n');
+        List<Integer> steps = StepChanges.detect(scores, getStepWindow().get(), getStepThreshold().get(), getSignificanceLevel().get());
+        Map<Integer, Boolean> stepIndexes = steps.stream().collect(Collectors.toMap(i -> i, i -> true));
+        for (int i = 0; i < entries.size(); i++) {
+            BenchmarkHistory.Entry entry = entries.get(i);
+            report.append(String.format(Locale.ROOT, "  %s  %-12.12s  %14.3f +/- %.3f",
+                    DATE_FORMAT.format(Instant.ofEpochMilli(entry.getTimestamp())), entry.getCommit(), entry.getScore(), entry.getScoreError()));
+            if (stepIndexes.containsKey(i)) {
+                report.append(String.format(Locale.ROOT, "  <- STEP %+.2f%%", StepChanges.changePercent(scores, i, getStepWindow().get())));
+                if (!entry.getJvmId().equals(entries.get(i - 1).getJvmId())) {
+                    report.append(", the JVM changed");
+                }
+            }
+            report.append('\n');
+        }
+        report.append('\n');
+        return steps.size();
+    }
+
+    /**
+     * Converts the entries to the unit of the most recent one, since the time unit of a benchmark may change
+     * over time. Entries whose unit can't be converted to this unit are left out.
+     */
+    static List<BenchmarkHistory.Entry> inLatestUnit(List<BenchmarkHistory.Entry> entries) {
+        String unit = entries.get(entries.size() - 1).getUnit();
+        List<BenchmarkHistory.Entry> converted = new ArrayList<>(entries.size());
+        for (BenchmarkHistory.Entry entry : entries) {
+            try {
+                converted.add(entry.inUnit(unit));
+            } catch (IllegalArgumentException e) {
+                // not comparable with the most recent scores
+            }
+        }
+        return converted;
+    }
+
+    static String sparkline(double[] scores) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double score : scores) {
+            min = Math.min(min, score);
+            max = Math.max(max, score);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (double score : scores) {
+            int level = max == min ? SPARKS.length / 2 : (int) ((score - min) / (max - min) * (SPARKS.length - 1));
+            sb.append(SPARKS[level]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Describes the JVM benchmark forks run with: its vendor and version, read from the release file
+ * of the JDK, and the flags passed to the forks. Together with the {@link HostFingerprint}, it tells
+ * whether results are expected to be comparable.
+ */
+final class JvmFingerprint {
+    private final File javaHome;
+    private final File releaseFile;
+    private final Map<String, String> properties;
+
+    private JvmFingerprint(File javaHome, File releaseFile, Map<String, String> properties) {
+        this.javaHome = javaHome;
+        this.releaseFile = releaseFile;
+        this.properties = Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * Returns the fingerprint of the JVM of the given java executable, which is expected to be in the
+     * bin directory of the JDK.
+     */
+    static JvmFingerprint of(String javaExecutable, List<String> flags) {
+        File bin = new File(javaExecutable).getAbsoluteFile().getParentFile();
+        File javaHome = bin.getParentFile() != null ? bin.getParentFile() : bin;
+        // the release file describes the exact version and vendor of the JDK. On Java 8, java.home may be the JRE directory
+        File releaseFile = new File(javaHome, "release");
+        if (!releaseFile.isFile() && javaHome.getParentFile() != null) {
+            releaseFile = new File(javaHome.getParentFile(), "release");
+        }
+        if (!releaseFile.isFile()) {
+            releaseFile = null;
+        }
+        Map<String, String> properties = new TreeMap<>();
+        if (releaseFile != null) {
+            Properties release = load(releaseFile);
+            putUnquoted(properties, "vendor", release.getProperty("IMPLEMENTOR"));
+            putUnquoted(properties, "version", release.getProperty("JAVA_RUNTIME_VERSION", release.getProperty("JAVA_VERSION")));
+        }
+        properties.put("home", javaHome.getAbsolutePath());
+        properties.put("flags", String.join(" ", flags));
+        return new JvmFingerprint(javaHome, releaseFile, properties);
+    }
+
+    Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Identifies the exact JDK, whatever the flags: the hash of its release file, or its location when it
+     * doesn't have one.
+     */
+    String getIdentity() {
+        return releaseFile != null ? BenchmarkCacheKeys.hashOf(releaseFile) : javaHome.getAbsolutePath();
+    }
+
+    private static Properties load(File file) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+
+    private static void putUnquoted(Map<String, String> properties, String key, String value) {
+        if (value != null) {
+            properties.put(key, value.replaceAll("^\"|\"$", ""));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
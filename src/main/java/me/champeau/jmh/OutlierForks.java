@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Detects the forks of a benchmark which are outliers compared to the other forks, like a fork which
+ * landed on a bad JIT compilation or hit a GC storm. A fork is an outlier when its mean is far from the
+ * median of the means of the forks, or when its iterations are much more dispersed than the ones of the
+ * other forks, which happens when the scores of a fork switch between two modes.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+final class OutlierForks {
+    // outliers can't be told apart from the other forks with less forks
+    static final int MIN_FORKS = 3;
+
+    // the robust z-score above which a fork mean is an outlier
+    private static final double MAX_ROBUST_Z_SCORE = 3.5;
+
+    // fork means closer than this to the median are never outliers, even when forks are very consistent
+    private static final double MIN_DEVIATION_PERCENT = 5;
+
+    // how many times more dispersed than the median fork a fork must be to be an outlier
+    private static final double MAX_DISPERSION_RATIO = 3;
+
+    private OutlierForks() {
+    }
+
+    /**
+     * Returns the outlier forks, by index, with the reason why they are outliers.
+     *
+     * @param forks the scores of the iterations of each fork
+     */
+    static Map<Integer, String> detect(List<double[]> forks) {
+        Map<Integer, String> outliers = new TreeMap<>();
+        if (forks.size() < MIN_FORKS) {
+            return outliers;
+        }
+        double[] means = new double[forks.size()];
+        double[] variations = new double[forks.size()];
+        for (int i = 0; i < forks.size(); i++) {
+            double[] scores = forks.get(i);
+            means[i] = Statistics.mean(scores);
+            variations[i] = scores.length < 2 || means[i] == 0 ? 0 : Math.sqrt(Statistics.variance(scores)) / Math.abs(means[i]);
+        }
+        double median = median(means);
+        double[] deviations = new double[means.length];
+        for (int i = 0; i < means.length; i++) {
+            deviations[i] = Math.abs(means[i] - median);
+        }
+        // the median absolute deviation, scaled to be comparable to a standard deviation
+        double mad = median(deviations) / 0.6745;
+        double medianVariation = median(variations);
+        for (int i = 0; i < forks.size(); i++) {
+            double deviationPercent = median == 0 ? 0 : 100 * deviations[i] / Math.abs(median);
+            boolean farFromOthers = deviationPercent > MIN_DEVIATION_PERCENT && (mad == 0 || deviations[i] / mad > MAX_ROBUST_Z_SCORE);
+            if (farFromOthers) {
+                outliers.put(i, String.format(Locale.ROOT, "its mean, %.3f, is %.1f%% %s the median of the forks, %.3f",
+                        means[i], deviationPercent, means[i] > median ? "above" : "below", median));
+            } else if (variations[i] * 100 > MIN_DEVIATION_PERCENT && variations[i] > MAX_DISPERSION_RATIO * medianVariation) {
+                outliers.put(i, String.format(Locale.ROOT, "its iterations vary by %.1f%%, more than %.0f times the median of the forks, %.1f%%",
+                        variations[i] * 100, MAX_DISPERSION_RATIO, medianVariation * 100));
+            }
+        }
+        return outliers;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
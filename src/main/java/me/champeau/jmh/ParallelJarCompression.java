@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.Action;
+import org.gradle.api.Task;
+import org.gradle.api.tasks.bundling.Zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compresses the entries of an archive in parallel. The archive task is configured to write
+ * uncompressed entries, so that everything which defines the content of the archive, like
+ * duplicate handling or excludes, is still done by the task itself. This action then deflates
+ * the entries using all available cores, and writes them in their original order, with their
+ * original attributes, like the unix permissions, and extra fields.
+ */
+final class ParallelJarCompression implements Action<Task> {
+    private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 16;
+
+    @Override
+    public void execute(Task task) {
+        Zip archiveTask = (Zip) task;
+        File archive = archiveTask.getArchiveFile().get().getAsFile();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        compress(archive, archiveTask.isZip64(), threads);
+        task.getLogger().info("Compressed {} using {} threads in {}ms", archive, threads, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    static void compress(File archive, boolean zip64, int threads) {
+        File compressed = new File(archive.getParentFile(), archive.getName() + ".deflated");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ZipFile source = ZipFile.builder().setFile(archive).get();
+             ZipArchiveOutputStream out = new ZipArchiveOutputStream(compressed)) {
+            out.setUseZip64(zip64 ? Zip64Mode.AsNeeded : Zip64Mode.Never);
+            Deque<Future<DeflatedEntry>> pending = new ArrayDeque<>();
+            Enumeration<ZipArchiveEntry> entries = source.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                pending.add(executor.submit(() -> DeflatedEntry.of(source, entry)));
+                if (pending.size() >= threads * ENTRIES_IN_FLIGHT_PER_THREAD) {
+                    writeNext(out, pending);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeNext(out, pending);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compress " + archive, e);
+        } finally {
+            executor.shutdownNow();
+        }
+        try {
+            Files.move(compressed.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNext(ZipArchiveOutputStream out, Deque<Future<DeflatedEntry>> pending) throws IOException {
+        try {
+            DeflatedEntry deflated = pending.poll().get();
+            out.addRawArchiveEntry(deflated.entry, new ByteArrayInputStream(deflated.content));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class DeflatedEntry {
+        private final ZipArchiveEntry entry;
+        private final byte[] content;
+
+        private DeflatedEntry(ZipArchiveEntry entry, byte[] content) {
+            this.entry = entry;
+            this.content = content;
+        }
+
+        private static DeflatedEntry of(ZipFile source, ZipArchiveEntry entry) throws IOException {
+            byte[] content = entry.isDirectory() ? new byte[0] : deflate(source, entry);
+            // copies the time, CRC, size, attributes and extra fields of the original entry
+            ZipArchiveEntry result = new ZipArchiveEntry(entry);
+            result.setCompressedSize(content.length);
+            result.setMethod(entry.isDirectory() ? ZipEntry.STORED : ZipEntry.DEFLATED);
+            return new DeflatedEntry(result, content);
+        }
+
+        private static byte[] deflate(ZipFile source, ZipArchiveEntry entry) throws IOException {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try (InputStream in = source.getInputStream(entry)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(32, entry.getSize() / 2));
+                byte[] input = new byte[8192];
+                byte[] output = new byte[8192];
+                int read;
+                while ((read = in.read(input)) > 0) {
+                    deflater.setInput(input, 0, read);
+                    while (!deflater.needsInput()) {
+                        out.write(output, 0, deflater.deflate(output));
+                    }
+                }
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(output, 0, deflater.deflate(output));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -20,6 +20,8 @@ import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Provider;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,12 +29,37 @@ import static java.util.stream.Collectors.joining;
 
 public class ParameterConverter {
     public static void collectParameters(JmhParameters from, final List<String> into) {
+        collect(from, into, true, true);
+    }
+
+    /**
+     * Collects the parameters which affect how benchmarks are executed, that is all parameters
+     * except the ones which select the benchmarks to run and the ones which tell where to write
+     * results.
+     */
+    public static void collectExecutionParameters(JmhParameters from, final List<String> into) {
+        collect(from, into, false, false);
+    }
+
+    /**
+     * Collects the parameters which select the benchmarks to run and the ones which affect how they
+     * are executed, that is all parameters except the ones which tell where to write results.
+     */
+    public static void collectSelectionAndExecutionParameters(JmhParameters from, final List<String> into) {
+        collect(from, into, true, false);
+    }
+
+    private static void collect(JmhParameters from, final List<String> into, boolean includeSelection, boolean includeOutput) {
         // ordered as when running -help
-        addOption(into, from.getIncludes(), "");
+        if (includeSelection) {
+            addOption(into, from.getIncludes(), "");
+        }
         addIntOption(into, from.getIterations(), "i");
         addOption(into, from.getBenchmarkMode(), "bm");
         addIntOption(into, from.getBatchSize(), "bs");
-        addOption(into, from.getExcludes(), "e");
+        if (includeSelection) {
+            addOption(into, from.getExcludes(), "e");
+        }
         addIntOption(into, from.getFork(), "f");
         addBooleanOption(into, from.getFailOnError(), "foe");
         addBooleanOption(into, from.getForceGC(), "gc");
@@ -40,13 +67,17 @@ public class ParameterConverter {
         addOption(into, from.getJvmArgs(), "jvmArgs", " ");
         addOption(into, from.getJvmArgsAppend(), "jvmArgsAppend", " ");
         addOption(into, from.getJvmArgsPrepend(), "jvmArgsPrepend", " ");
-        addFileOption(into, from.getHumanOutputFile(), "o");
+        if (includeOutput) {
+            addFileOption(into, from.getHumanOutputFile(), "o");
+        }
         addIntOption(into, from.getOperationsPerInvocation(), "opi");
         addMapOption(into, from.getBenchmarkParameters(), "p");
         addRepeatableOption(into, from.getProfilers(), "prof");
         addOption(into, from.getTimeOnIteration(), "r");
-        addOption(into, from.getResultFormat(), "rf");
-        addFileOption(into, from.getResultsFile(), "rff");
+        if (includeOutput) {
+            addOption(into, from.getResultFormat(), "rf");
+            addFileOption(into, from.getResultsFile(), "rff");
+        }
         addBooleanOption(into, from.getSynchronizeIterations(), "si");
         addIntOption(into, from.getThreads(), "t");
         addOption(into, from.getThreadGroups(), "tg");
@@ -61,6 +92,65 @@ public class ParameterConverter {
         addOption(into, from.getWarmupBenchmarks(), "wmb");
     }
 
+    /**
+     * Collects the parameters as typed values keyed by the name of their JMH command line option,
+     * so that the JMH runner can be configured without going through a command line. Values only
+     * use JDK types, since they are passed to a worker and to classes loaded with JMH.
+     */
+    public static void collectOptions(JmhParameters from, final Map<String, Object> into) {
+        putList(into, from.getIncludes(), "");
+        putValue(into, from.getIterations(), "i");
+        putList(into, from.getBenchmarkMode(), "bm");
+        putValue(into, from.getBatchSize(), "bs");
+        putList(into, from.getExcludes(), "e");
+        putValue(into, from.getFork(), "f");
+        putValue(into, from.getFailOnError(), "foe");
+        putValue(into, from.getForceGC(), "gc");
+        putValue(into, from.getJvm(), "jvm");
+        putList(into, from.getJvmArgs(), "jvmArgs");
+        putList(into, from.getJvmArgsAppend(), "jvmArgsAppend");
+        putList(into, from.getJvmArgsPrepend(), "jvmArgsPrepend");
+        if (from.getHumanOutputFile().isPresent()) {
+            into.put("o", from.getHumanOutputFile().getAsFile().get().getAbsolutePath());
+        }
+        putValue(into, from.getOperationsPerInvocation(), "opi");
+        if (from.getBenchmarkParameters().isPresent() && !from.getBenchmarkParameters().get().isEmpty()) {
+            Map<String, List<String>> params = new LinkedHashMap<>();
+            from.getBenchmarkParameters().get().forEach((key, values) -> params.put(key, new ArrayList<>(values.get())));
+            into.put("p", params);
+        }
+        putList(into, from.getProfilers(), "prof");
+        putValue(into, from.getTimeOnIteration(), "r");
+        putValue(into, from.getResultFormat(), "rf");
+        if (from.getResultsFile().isPresent()) {
+            into.put("rff", from.getResultsFile().getAsFile().get().getAbsolutePath());
+        }
+        putValue(into, from.getSynchronizeIterations(), "si");
+        putValue(into, from.getThreads(), "t");
+        putList(into, from.getThreadGroups(), "tg");
+        putValue(into, from.getJmhTimeout(), "to");
+        putValue(into, from.getTimeUnit(), "tu");
+        putValue(into, from.getVerbosity(), "v");
+        putValue(into, from.getWarmup(), "w");
+        putValue(into, from.getWarmupBatchSize(), "wbs");
+        putValue(into, from.getWarmupForks(), "wf");
+        putValue(into, from.getWarmupIterations(), "wi");
+        putValue(into, from.getWarmupMode(), "wm");
+        putList(into, from.getWarmupBenchmarks(), "wmb");
+    }
+
+    private static <T> void putValue(Map<String, Object> into, Provider<T> value, String option) {
+        if (value.isPresent()) {
+            into.put(option, value.get());
+        }
+    }
+
+    private static <T> void putList(Map<String, Object> into, ListProperty<T> values, String option) {
+        if (values.isPresent() && !values.get().isEmpty()) {
+            into.put(option, new ArrayList<>(values.get()));
+        }
+    }
+
     private static <T> void addOption(List<String> into, Provider<T> str, String option) {
         if (str.isPresent()) {
             into.add("-" + option);
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.Named;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Optional;
+
+/**
+ * Absolute limits for the results of the benchmarks matching a name. The name is either the name
+ * of a benchmark, like {@code com.acme.Codec.decode}, or a regular expression matching the names
+ * of benchmarks.
+ */
+public abstract class PerformanceBudget implements Named {
+    @Input
+    @Override
+    public abstract String getName();
+
+    /**
+     * The maximal score, with its unit, like {@code 120 ns/op}. The score is converted to this unit
+     * before being checked, so a time budget can be given for a throughput benchmark.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getMaxScore();
+
+    /**
+     * The minimal score, with its unit, like {@code 1000 ops/ms}.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getMinScore();
+
+    /**
+     * The maximal number of bytes allocated per operation, which requires the {@code gc} profiler.
+     */
+    @Input
+    @Optional
+    public abstract Property<Number> getMaxAllocBytesPerOp();
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.IterationType;
+import org.openjdk.jmh.runner.format.OutputFormat;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * An output format which reports the progress of the run, in addition to the output of JMH.
+ * Each event, like the start of a benchmark or the result of an iteration, is written as a JSON object
+ * on its own line of the progress file, which is flushed after each event so that it can be followed
+ * while benchmarks are running. When the output of JMH goes to a file, a short progress line is also
+ * printed for each iteration, so that the build log shows where the run is.
+ *
+ * This class is loaded with the JMH version of the project, so it must not reference any Gradle type.
+ */
+final class ProgressOutputFormat implements OutputFormat {
+    private final OutputFormat delegate;
+    private final Writer progress;
+    private final PrintStream console;
+    private int benchmarks;
+
+    /**
+     * @param delegate the output format of JMH
+     * @param progress where to write progress events, or null. It is owned by the caller, since the same
+     * progress is reported over several runs of JMH when iterations are adaptive
+     * @param console where to print progress lines, or null if the output of JMH already goes to the console
+     */
+    ProgressOutputFormat(OutputFormat delegate, Writer progress, PrintStream console) {
+        this.delegate = delegate;
+        this.progress = progress;
+        this.console = console;
+    }
+
+    @Override
+    public void iteration(BenchmarkParams benchParams, IterationParams params, int iteration) {
+        delegate.iteration(benchParams, params, iteration);
+    }
+
+    @Override
+    public void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration, IterationResult data) {
+        delegate.iterationResult(benchParams, params, iteration, data);
+        Result<?> result = data.getPrimaryResult();
+        String phase = params.getType() == IterationType.WARMUP ? "warmup" : "measurement";
+        event("iteration", benchParams, "\"phase\":" + quote(phase)
+                + ",\"iteration\":" + iteration
+                + ",\"iterations\":" + params.getCount()
+                + ",\"score\":" + number(result.getScore())
+                + ",\"unit\":" + quote(result.getScoreUnit()));
+        if (console != null) {
+            console.println(String.format(Locale.ROOT, "[%d] %s %s %d/%d: %.3f %s",
+                    benchmarks, describe(benchParams), phase, iteration, params.getCount(), result.getScore(), result.getScoreUnit()));
+        }
+    }
+
+    @Override
+    public void startBenchmark(BenchmarkParams benchParams) {
+        delegate.startBenchmark(benchParams);
+        benchmarks++;
+        event("startBenchmark", benchParams, "\"index\":" + benchmarks);
+    }
+
+    @Override
+    public void endBenchmark(BenchmarkResult result) {
+        delegate.endBenchmark(result);
+        if (result == null) {
+            // JMH reports benchmarks which failed without a result
+            return;
+        }
+        Result<?> primary = result.getPrimaryResult();
+        event("endBenchmark", result.getParams(), "\"score\":" + number(primary.getScore())
+                + ",\"scoreError\":" + number(primary.getScoreError())
+                + ",\"unit\":" + quote(primary.getScoreUnit()));
+    }
+
+    @Override
+    public void startRun() {
+        delegate.startRun();
+        event("startRun", null, null);
+    }
+
+    @Override
+    public void endRun(Collection<RunResult> result) {
+        delegate.endRun(result);
+        event("endRun", null, "\"results\":" + (result == null ? 0 : result.size()));
+    }
+
+    @Override
+    public void print(String s) {
+        delegate.print(s);
+    }
+
+    @Override
+    public void println(String s) {
+        delegate.println(s);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public void verbosePrintln(String s) {
+        delegate.verbosePrintln(s);
+    }
+
+    @Override
+    public void write(int b) {
+        delegate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        delegate.write(b);
+    }
+
+    void event(String type, BenchmarkParams params, String fields) {
+        if (progress == null) {
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        line.append("{\"event\":").append(quote(type)).append(",\"time\":").append(System.currentTimeMillis());
+        if (params != null) {
+            line.append(",\"benchmark\":").append(quote(params.getBenchmark()))
+                    .append(",\"mode\":").append(quote(params.getMode().shortLabel()))
+                    .append(",\"params\":{");
+            boolean first = true;
+            for (String key : params.getParamsKeys()) {
+                if (!first) {
+                    line.append(',');
+                }
+                line.append(quote(key)).append(':').append(quote(params.getParam(key)));
+                first = false;
+            }
+            line.append('}');
+        }
+        if (fields != null) {
+            line.append(',').append(fields);
+        }
+        line.append("}\n");
+        try {
+            progress.write(line.toString());
+            progress.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String describe(BenchmarkParams params) {
+        StringBuilder sb = new StringBuilder(params.getBenchmark());
+        if (!params.getParamsKeys().isEmpty()) {
+            sb.append(" (");
+            boolean first = true;
+            for (String key : params.getParamsKeys()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(params.getParam(key));
+                first = false;
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    private static String number(double value) {
+        // NaN and infinity are not valid JSON numbers
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.process.ExecOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Builds the JMH jar of a project as of another revision of its git repository. The revision is
+ * checked out in a separate worktree, so that the working copy of the project isn't touched, and
+ * the {@code jmhJar} task of the project is executed there by the Gradle wrapper of that revision.
+ */
+final class RevisionJarBuilder {
+    private final ExecOperations execOperations;
+    private final Logger logger;
+    private final File rootProjectDir;
+    private final String projectPath;
+    private final File worktreeDir;
+    private final File temporaryDir;
+
+    /**
+     * @param rootProjectDir the directory of the root project, in the current working copy
+     * @param projectPath the Gradle path of the project
+     * @param worktreeDir where to check out the other revisions
+     * @param temporaryDir where to write temporary files
+     */
+    RevisionJarBuilder(ExecOperations execOperations, Logger logger, File rootProjectDir, String projectPath, File worktreeDir, File temporaryDir) {
+        this.execOperations = execOperations;
+        this.logger = logger;
+        this.rootProjectDir = rootProjectDir;
+        this.projectPath = projectPath;
+        this.worktreeDir = worktreeDir;
+        this.temporaryDir = temporaryDir;
+    }
+
+    /**
+     * Builds the JMH jar of the given commit, and copies it to the target file.
+     */
+    void build(String commit, File target) {
+        Git git = new Git(execOperations, rootProjectDir);
+        File repositoryDir = new File(git.run("rev-parse", "--show-toplevel").get(0));
+        if (new File(worktreeDir, ".git").exists()) {
+            new Git(execOperations, worktreeDir).run("checkout", "--quiet", "--detach", "--force", commit);
+        } else {
+            // forget about the worktree if it was deleted, for example by a clean
+            git.run("worktree", "prune");
+            git.run("worktree", "add", "--detach", "--force", worktreeDir.getAbsolutePath(), commit);
+        }
+        File worktreeRootProjectDir = new File(worktreeDir, relativePath(repositoryDir, rootProjectDir));
+        File wrapper = new File(worktreeRootProjectDir, isWindows() ? "gradlew.bat" : "gradlew");
+        if (!wrapper.isFile()) {
+            throw new GradleException("Unable to build the JMH jar as of " + commit + ": " + wrapper + " doesn't exist");
+        }
+        File jarLocation = new File(temporaryDir, "jmh-jar-location.txt");
+        // a location written by the build of another revision must not be mistaken for the one of this build
+        if (jarLocation.exists() && !jarLocation.delete()) {
+            throw new GradleException("Unable to delete " + jarLocation);
+        }
+        File initScript = writeInitScript(jarLocation);
+        logger.lifecycle("Building the JMH jar as of {}", commit);
+        execOperations.exec(spec -> {
+            spec.setWorkingDir(worktreeRootProjectDir);
+            spec.executable(wrapper.getAbsolutePath());
+            spec.args("--init-script", initScript.getAbsolutePath(), "--no-configuration-cache", "--quiet",
+                    (":".equals(projectPath) ? "" : projectPath) + ":jmhJar");
+        });
+        if (!jarLocation.isFile()) {
+            throw new GradleException("Unable to build the JMH jar as of " + commit + ": the jmhJar task of " + projectPath + " wasn't executed");
+        }
+        try {
+            File jar = new File(new String(Files.readAllBytes(jarLocation.toPath()), StandardCharsets.UTF_8).trim());
+            if (!jar.isFile()) {
+                throw new GradleException("Unable to build the JMH jar as of " + commit + ": " + jar + " doesn't exist");
+            }
+            Files.createDirectories(target.getParentFile().toPath());
+            Files.copy(jar.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes an init script which tells where the JMH jar of the project is written, since its
+     * location depends on the configuration of the project. The location is written once the task
+     * graph is ready, since the actions of the jmhJar task don't run when it is up-to-date or its
+     * output comes from the build cache.
+     */
+    private File writeInitScript(File jarLocation) {
+        File initScript = new File(temporaryDir, "jmh-jar-location.gradle");
+        String script = "gradle.taskGraph.whenReady { graph ->\n"
+                + "    graph.allTasks.findAll { it.name == 'jmhJar' && it.project.path == '" + projectPath + "' }.each { task ->\n"
+                + "        new File('" + escape(jarLocation.getAbsolutePath()) + "').text = task.archiveFile.get().asFile.absolutePath\n"
+                + "    }\n"
+                + "}\n";
+        try {
+            Files.write(initScript.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return initScript;
+    }
+
+    private static String escape(String path) {
+        return path.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private static String relativePath(File from, File to) {
+        try {
+            return from.getCanonicalFile().toPath().relativize(to.getCanonicalFile().toPath()).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("windows");
+    }
+}
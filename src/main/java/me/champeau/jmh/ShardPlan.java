@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Splits benchmarks into shards of similar total duration. Benchmarks are assigned from the
+ * longest to the shortest, each one to the shard with the smallest total duration so far,
+ * which is the "longest processing time first" heuristic.
+ */
+final class ShardPlan {
+    private final List<List<String>> shards;
+    private final long[] durations;
+
+    private ShardPlan(List<List<String>> shards, long[] durations) {
+        this.shards = shards;
+        this.durations = durations;
+    }
+
+    static ShardPlan of(Map<String, Long> estimatedDurations, int shardCount) {
+        List<Map.Entry<String, Long>> benchmarks = new ArrayList<>(estimatedDurations.entrySet());
+        benchmarks.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        List<List<String>> shards = new ArrayList<>(shardCount);
+        long[] durations = new long[shardCount];
+        PriorityQueue<Integer> byDuration = new PriorityQueue<>(shardCount,
+                Comparator.<Integer>comparingLong(i -> durations[i]).thenComparing(Comparator.naturalOrder()));
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
+            byDuration.add(i);
+        }
+        for (Map.Entry<String, Long> benchmark : benchmarks) {
+            int shard = byDuration.poll();
+            shards.get(shard).add(benchmark.getKey());
+            durations[shard] += benchmark.getValue();
+            byDuration.add(shard);
+        }
+        for (List<String> shard : shards) {
+            Collections.sort(shard);
+        }
+        return new ShardPlan(shards, durations);
+    }
+
+    List<String> getBenchmarks(int shard) {
+        return shards.get(shard);
+    }
+
+    long getEstimatedDuration(int shard) {
+        return durations[shard];
+    }
+
+    int size() {
+        return shards.size();
+    }
+}
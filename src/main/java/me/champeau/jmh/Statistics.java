@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+/**
+ * The statistics used to compare benchmark results. The Student's t distribution is computed
+ * from the regularized incomplete beta function, as described in Numerical Recipes.
+ */
+final class Statistics {
+    private static final int MAX_ITERATIONS = 300;
+    private static final double EPSILON = 1e-14;
+    private static final double TINY = 1e-300;
+
+    private Statistics() {
+    }
+
+    static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * Returns the unbiased sample variance.
+     */
+    static double variance(double[] values) {
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    /**
+     * Returns the two-sided p-value of Welch's t-test, which doesn't assume that both samples have
+     * the same variance. Returns {@code NaN} when a sample has less than 2 values.
+     */
+    static double welchTTest(double[] a, double[] b) {
+        if (a.length < 2 || b.length < 2) {
+            return Double.NaN;
+        }
+        double varianceOfMeanA = variance(a) / a.length;
+        double varianceOfMeanB = variance(b) / b.length;
+        double difference = mean(a) - mean(b);
+        double standardError = Math.sqrt(varianceOfMeanA + varianceOfMeanB);
+        if (standardError == 0) {
+            return difference == 0 ? 1 : 0;
+        }
+        double t = difference / standardError;
+        return twoSidedPValue(t, welchDegreesOfFreedom(varianceOfMeanA, a.length, varianceOfMeanB, b.length));
+    }
+
+    /**
+     * Returns the Welch-Satterthwaite approximation of the degrees of freedom.
+     */
+    static double welchDegreesOfFreedom(double varianceOfMeanA, int sizeA, double varianceOfMeanB, int sizeB) {
+        double sum = varianceOfMeanA + varianceOfMeanB;
+        return sum * sum / (varianceOfMeanA * varianceOfMeanA / (sizeA - 1) + varianceOfMeanB * varianceOfMeanB / (sizeB - 1));
+    }
+
+    /**
+     * Returns the probability that the absolute value of a variable following the Student's t
+     * distribution is greater than {@code |t|}.
+     */
+    static double twoSidedPValue(double t, double degreesOfFreedom) {
+        return regularizedIncompleteBeta(degreesOfFreedom / (degreesOfFreedom + t * t), degreesOfFreedom / 2, 0.5);
+    }
+
+    /**
+     * Returns the value {@code t} such that the probability that the absolute value of a variable
+     * following the Student's t distribution is greater than {@code t} is {@code p}.
+     */
+    static double tQuantile(double p, double degreesOfFreedom) {
+        double low = 0;
+        double high = 1;
+        while (twoSidedPValue(high, degreesOfFreedom) > p) {
+            high *= 2;
+        }
+        for (int i = 0; i < 100; i++) {
+            double middle = (low + high) / 2;
+            if (twoSidedPValue(middle, degreesOfFreedom) > p) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    static double regularizedIncompleteBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+        // the continued fraction converges quickly for x < (a + 1) / (a + b + 2), otherwise use the symmetry
+        if (x < (a + 1) / (a + b + 2)) {
+            return front * betaContinuedFraction(x, a, b) / a;
+        }
+        return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+    }
+
+    private static double betaContinuedFraction(double x, double a, double b) {
+        // modified Lentz's method
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        if (Math.abs(d) < TINY) {
+            d = TINY;
+        }
+        d = 1 / d;
+        double result = d;
+        for (int m = 1; m <= MAX_ITERATIONS; m++) {
+            int m2 = 2 * m;
+            double numerator = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 + numerator * d;
+            if (Math.abs(d) < TINY) {
+                d = TINY;
+            }
+            c = 1 + numerator / c;
+            if (Math.abs(c) < TINY) {
+                c = TINY;
+            }
+            d = 1 / d;
+            result *= d * c;
+            numerator = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 + numerator * d;
+            if (Math.abs(d) < TINY) {
+                d = TINY;
+            }
+            c = 1 + numerator / c;
+            if (Math.abs(c) < TINY) {
+                c = TINY;
+            }
+            d = 1 / d;
+            double delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1) < EPSILON) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the logarithm of the gamma function, using the Lanczos approximation.
+     */
+    static double logGamma(double x) {
+        double[] coefficients = {
+                76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5
+        };
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+}
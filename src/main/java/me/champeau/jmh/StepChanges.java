@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the step changes of a series of scores: the points where the scores which follow differ
+ * significantly from the scores which precede. The windows before and after each point are compared
+ * with Welch's t-test, and of several consecutive candidates, only the most significant one is kept.
+ */
+final class StepChanges {
+    private StepChanges() {
+    }
+
+    /**
+     * Returns the indexes of the first score after each step change.
+     *
+     * @param window the number of scores compared before and after each point
+     * @param thresholdPercent the minimal change of the mean score, in percent
+     * @param significanceLevel the maximal p-value of a change
+     */
+    static List<Integer> detect(double[] scores, int window, double thresholdPercent, double significanceLevel) {
+        List<Integer> steps = new ArrayList<>();
+        int best = -1;
+        int last = -1;
+        double bestPValue = 1;
+        for (int i = window; i <= scores.length - window; i++) {
+            double[] before = Arrays.copyOfRange(scores, i - window, i);
+            double[] after = Arrays.copyOfRange(scores, i, i + window);
+            double changePercent = (Statistics.mean(after) - Statistics.mean(before)) / Statistics.mean(before) * 100;
+            double pValue = Statistics.welchTTest(before, after);
+            if (Math.abs(changePercent) <= thresholdPercent || !(pValue < significanceLevel)) {
+                continue;
+            }
+            // candidates closer than a window to the previous one belong to the same step
+            if (best >= 0 && i - last >= window) {
+                steps.add(best);
+                best = -1;
+            }
+            if (best < 0 || pValue < bestPValue) {
+                best = i;
+                bestPValue = pValue;
+            }
+            last = i;
+        }
+        if (best >= 0) {
+            steps.add(best);
+        }
+        return steps;
+    }
+
+    static double changePercent(double[] scores, int index, int window) {
+        double before = Statistics.mean(Arrays.copyOfRange(scores, Math.max(0, index - window), index));
+        double after = Statistics.mean(Arrays.copyOfRange(scores, index, Math.min(scores.length, index + window)));
+        return (after - before) / before * 100;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plans the execution of benchmarks so that it fits in a wall-clock time budget. When the benchmarks are
+ * estimated to take longer than the budget, the number of forks, warmup iterations and measurement
+ * iterations are capped together. A benchmark never runs more forks or iterations than configured, so only
+ * the benchmarks above the caps are scaled down, and they are executed by separate runs of JMH, one per
+ * combination of counts. If the benchmarks still don't fit with a single fork and iteration, the benchmarks
+ * with the lowest weight are left out.
+ *
+ * The way a benchmark is executed, its shape, is described by an array of longs indexed by the constants
+ * of this class, so that it can be computed by classes loaded with JMH. This class must therefore not
+ * reference any Gradle type either.
+ */
+final class TimeBudget {
+    // rough cost of starting a forked JVM and of the JMH infrastructure
+    static final long FORK_OVERHEAD_MILLIS = 1000;
+
+    static final int COMBINATIONS = 0;
+    static final int FORKS = 1;
+    static final int WARMUP_FORKS = 2;
+    static final int WARMUP_ITERATIONS = 3;
+    static final int ITERATIONS = 4;
+    static final int WARMUP_MILLIS = 5;
+    static final int ITERATION_MILLIS = 6;
+    static final int SHAPE_SIZE = 7;
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(ms|s|min|m|h|d)");
+
+    private TimeBudget() {
+    }
+
+    /**
+     * Returns the duration of a benchmark in milliseconds, using at most the given number of forks and
+     * iterations when they are not null.
+     */
+    static long durationOf(long[] shape, Integer forks, Integer warmupIterations, Integer iterations) {
+        long measurementForks = Math.max(1, capped(shape[FORKS], forks));
+        long warmup = capped(shape[WARMUP_ITERATIONS], warmupIterations);
+        long measurement = capped(shape[ITERATIONS], iterations);
+        long perRun = FORK_OVERHEAD_MILLIS + warmup * shape[WARMUP_MILLIS] + measurement * shape[ITERATION_MILLIS];
+        // fork = 0 runs the benchmark in the same JVM, once
+        return (measurementForks + shape[WARMUP_FORKS]) * perRun * shape[COMBINATIONS];
+    }
+
+    private static long capped(long value, Integer cap) {
+        return cap != null ? Math.min(value, cap) : value;
+    }
+
+    static long durationOf(List<long[]> shapes, Integer forks, Integer warmupIterations, Integer iterations) {
+        long duration = 0;
+        for (long[] shape : shapes) {
+            duration += durationOf(shape, forks, warmupIterations, iterations);
+        }
+        return duration;
+    }
+
+    /**
+     * Plans the execution of the benchmarks.
+     *
+     * @param shapes the shapes of each benchmark method, one per mode
+     * @param weights the weight of benchmarks, by regular expression. Benchmarks which don't match any default to 1
+     * @param budgetMillis the time budget
+     */
+    static Plan plan(Map<String, List<long[]>> shapes, Map<String, ? extends Number> weights, long budgetMillis) {
+        long estimated = total(shapes, null, null, null);
+        if (estimated <= budgetMillis) {
+            return new Plan(budgetMillis, estimated, null, null, null, Collections.emptyMap(), durations(shapes, null, null, null), Collections.emptyList());
+        }
+        int maxForks = 1;
+        int maxWarmupIterations = 0;
+        int maxIterations = 1;
+        for (List<long[]> benchmark : shapes.values()) {
+            for (long[] shape : benchmark) {
+                maxForks = (int) Math.max(maxForks, shape[FORKS]);
+                maxWarmupIterations = (int) Math.max(maxWarmupIterations, shape[WARMUP_ITERATIONS]);
+                maxIterations = (int) Math.max(maxIterations, shape[ITERATIONS]);
+            }
+        }
+        // the duration grows with the scale, so the largest scale which fits the budget is found by bisection
+        double low = 0;
+        double high = 1;
+        for (int i = 0; i < 50; i++) {
+            double middle = (low + high) / 2;
+            if (total(shapes, scale(maxForks, middle), scaleWarmup(maxWarmupIterations, middle), scale(maxIterations, middle)) <= budgetMillis) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        Integer forks = scale(maxForks, low);
+        Integer warmupIterations = scaleWarmup(maxWarmupIterations, low);
+        Integer iterations = scale(maxIterations, low);
+        Map<String, Long> durations = durations(shapes, forks, warmupIterations, iterations);
+        List<String> dropped = new ArrayList<>();
+        long planned = sum(durations);
+        if (planned > budgetMillis) {
+            List<String> byPriority = new ArrayList<>(durations.keySet());
+            byPriority.sort(Comparator.<String>comparingDouble(benchmark -> weightOf(benchmark, weights))
+                    .thenComparing(durations::get, Comparator.reverseOrder()));
+            for (String benchmark : byPriority) {
+                if (planned <= budgetMillis) {
+                    break;
+                }
+                planned -= durations.remove(benchmark);
+                dropped.add(benchmark);
+            }
+        }
+        Map<String, int[]> scaled = new TreeMap<>();
+        for (String benchmark : durations.keySet()) {
+            int[] counts = countsOf(shapes.get(benchmark), forks, warmupIterations, iterations);
+            if (counts != null) {
+                scaled.put(benchmark, counts);
+            }
+        }
+        return new Plan(budgetMillis, estimated, forks, warmupIterations, iterations, scaled, durations, dropped);
+    }
+
+    /**
+     * Returns the forks, warmup iterations and measurement iterations of a benchmark capped to the given
+     * counts, or null if the benchmark is within the caps and keeps its configuration.
+     */
+    private static int[] countsOf(List<long[]> shapes, int forks, int warmupIterations, int iterations) {
+        long maxForks = 0;
+        long maxWarmupIterations = 0;
+        long maxIterations = 0;
+        for (long[] shape : shapes) {
+            maxForks = Math.max(maxForks, shape[FORKS]);
+            maxWarmupIterations = Math.max(maxWarmupIterations, shape[WARMUP_ITERATIONS]);
+            maxIterations = Math.max(maxIterations, shape[ITERATIONS]);
+        }
+        if (maxForks <= forks && maxWarmupIterations <= warmupIterations && maxIterations <= iterations) {
+            return null;
+        }
+        return new int[]{
+                (int) Math.min(maxForks, forks),
+                (int) Math.min(maxWarmupIterations, warmupIterations),
+                (int) Math.min(maxIterations, iterations)
+        };
+    }
+
+    /**
+     * Groups benchmarks by the runs of JMH which execute them: the scaled benchmarks by their forks, warmup
+     * iterations and measurement iterations, and the benchmarks which keep their configuration under an
+     * empty list.
+     */
+    static Map<List<Integer>, List<String>> runsOf(Collection<String> benchmarks, Map<String, int[]> scaled) {
+        Map<List<Integer>, List<String>> runs = new LinkedHashMap<>();
+        for (String benchmark : benchmarks) {
+            int[] counts = scaled.get(benchmark);
+            List<Integer> key = counts == null
+                    ? Collections.emptyList()
+                    : Arrays.asList(counts[0], counts[1], counts[2]);
+            runs.computeIfAbsent(key, k -> new ArrayList<>()).add(benchmark);
+        }
+        return runs;
+    }
+
+    /**
+     * Writes the counts of scaled benchmarks to a file, so that they can be read by the runners of the benchmarks.
+     */
+    static void writeScaled(File file, Map<String, int[]> scaled) {
+        Properties properties = new Properties();
+        scaled.forEach((benchmark, counts) -> properties.setProperty(benchmark, counts[0] + "," + counts[1] + "," + counts[2]));
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Map<String, int[]> readScaled(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        Map<String, int[]> scaled = new TreeMap<>();
+        for (String benchmark : properties.stringPropertyNames()) {
+            String[] counts = properties.getProperty(benchmark).split(",");
+            scaled.put(benchmark, new int[]{Integer.parseInt(counts[0]), Integer.parseInt(counts[1]), Integer.parseInt(counts[2])});
+        }
+        return scaled;
+    }
+
+    private static Integer scale(int value, double scale) {
+        return Math.max(1, (int) Math.floor(value * scale));
+    }
+
+    private static Integer scaleWarmup(int value, double scale) {
+        // benchmarks configured without warmup keep running without warmup
+        return value == 0 ? 0 : scale(value, scale);
+    }
+
+    private static long total(Map<String, List<long[]>> shapes, Integer forks, Integer warmupIterations, Integer iterations) {
+        return sum(durations(shapes, forks, warmupIterations, iterations));
+    }
+
+    private static Map<String, Long> durations(Map<String, List<long[]>> shapes, Integer forks, Integer warmupIterations, Integer iterations) {
+        Map<String, Long> durations = new TreeMap<>();
+        shapes.forEach((benchmark, benchmarkShapes) -> durations.put(benchmark, durationOf(benchmarkShapes, forks, warmupIterations, iterations)));
+        return durations;
+    }
+
+    private static long sum(Map<String, Long> durations) {
+        return durations.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    static double weightOf(String benchmark, Map<String, ? extends Number> weights) {
+        for (Map.Entry<String, ? extends Number> weight : weights.entrySet()) {
+            if (Pattern.compile(weight.getKey()).matcher(benchmark).find()) {
+                return weight.getValue().doubleValue();
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Parses a duration like {@code 45m}, {@code 1h30m} or {@code 90s} into milliseconds.
+     */
+    static long parseDuration(String duration) {
+        String trimmed = duration.trim().toLowerCase(Locale.ROOT);
+        Matcher matcher = DURATION_PART.matcher(trimmed);
+        double millis = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            double value = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "ms":
+                    millis += value;
+                    break;
+                case "s":
+                    millis += value * 1000;
+                    break;
+                case "m":
+                case "min":
+                    millis += value * 60_000;
+                    break;
+                case "h":
+                    millis += value * 3_600_000;
+                    break;
+                default:
+                    millis += value * 86_400_000;
+            }
+            end = matcher.end();
+            while (end < trimmed.length() && trimmed.charAt(end) == ' ') {
+                end++;
+            }
+        }
+        if (end == 0 || end != trimmed.length()) {
+            throw new IllegalArgumentException("Invalid duration '" + duration + "', expected a duration like '45m', '1h30m' or '90s'");
+        }
+        return (long) millis;
+    }
+
+    /**
+     * Returns the share of a time budget of each shard, when the shards run at most {@code concurrentShards}
+     * at a time. An invalid budget is returned as is, so that it is reported by the shards.
+     */
+    static String shareOf(String budget, int shards, int concurrentShards) {
+        long millis;
+        try {
+            millis = parseDuration(budget);
+        } catch (IllegalArgumentException e) {
+            return budget;
+        }
+        return millis * Math.max(1, Math.min(concurrentShards, shards)) / shards + "ms";
+    }
+
+    static String format(long millis) {
+        long seconds = Math.round(millis / 1000.0);
+        long hours = seconds / 3600;
+        long minutes = seconds % 3600 / 60;
+        StringBuilder sb = new StringBuilder();
+        if (hours > 0) {
+            sb.append(hours).append("h ");
+        }
+        if (hours > 0 || minutes > 0) {
+            sb.append(minutes).append("m ");
+        }
+        return sb.append(seconds % 60).append('s').toString();
+    }
+
+    /**
+     * The planned execution of benchmarks.
+     */
+    static final class Plan {
+        private final long budgetMillis;
+        private final long estimatedMillis;
+        private final Integer forks;
+        private final Integer warmupIterations;
+        private final Integer iterations;
+        private final Map<String, int[]> scaled;
+        private final Map<String, Long> durations;
+        private final List<String> dropped;
+
+        Plan(long budgetMillis, long estimatedMillis, Integer forks, Integer warmupIterations, Integer iterations,
+             Map<String, int[]> scaled, Map<String, Long> durations, List<String> dropped) {
+            this.budgetMillis = budgetMillis;
+            this.estimatedMillis = estimatedMillis;
+            this.forks = forks;
+            this.warmupIterations = warmupIterations;
+            this.iterations = iterations;
+            this.scaled = scaled;
+            this.durations = durations;
+            this.dropped = dropped;
+        }
+
+        /**
+         * The estimated duration of the benchmarks, as configured.
+         */
+        long getEstimatedMillis() {
+            return estimatedMillis;
+        }
+
+        /**
+         * The estimated duration of the benchmarks, as planned.
+         */
+        long getPlannedMillis() {
+            return sum(durations);
+        }
+
+        boolean isScaled() {
+            return !scaled.isEmpty();
+        }
+
+        /**
+         * The maximum number of forks of a benchmark, or null if the benchmarks fit the budget as configured.
+         */
+        Integer getForks() {
+            return forks;
+        }
+
+        Integer getWarmupIterations() {
+            return warmupIterations;
+        }
+
+        Integer getIterations() {
+            return iterations;
+        }
+
+        /**
+         * The forks, warmup iterations and measurement iterations of the benchmarks which are scaled down, by
+         * benchmark. The other benchmarks are executed as configured.
+         */
+        Map<String, int[]> getScaledBenchmarks() {
+            return scaled;
+        }
+
+        /**
+         * The planned duration of each benchmark which is executed.
+         */
+        Map<String, Long> getDurations() {
+            return durations;
+        }
+
+        /**
+         * The benchmarks which are left out to fit the budget.
+         */
+        List<String> getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Time budget of ").append(format(budgetMillis)).append(": the benchmarks are estimated to take ")
+                    .append(format(estimatedMillis));
+            if (!isScaled() && dropped.isEmpty()) {
+                return sb.append(", no change needed").toString();
+            }
+            if (isScaled()) {
+                sb.append(", ").append(scaled.size()).append(" benchmark(s) scaled down to at most ").append(forks).append(" fork(s), ")
+                        .append(warmupIterations).append(" warmup iteration(s) and ")
+                        .append(iterations).append(" iteration(s)");
+            }
+            if (!dropped.isEmpty()) {
+                sb.append(", leaving out ").append(dropped.size()).append(" benchmark(s) with the lowest weight");
+            }
+            sb.append(", estimated to take ").append(format(getPlannedMillis()));
+            for (String benchmark : dropped) {
+                sb.append("\n  left out: ").append(benchmark);
+            }
+            return sb.toString();
+        }
+    }
+}
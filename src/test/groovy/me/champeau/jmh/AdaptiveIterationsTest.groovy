@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class AdaptiveIterationsTest extends Specification {
+    def "adaptive iterations stop once scores are steady and precise enough"() {
+        given:
+        double[] warmingUp = [10, 20, 40, 70, 90, 100, 101, 99, 100, 100, 101, 99, 100, 100, 100]
+        double[] neverSteady = [10, 20, 40, 70, 90, 100, 110, 120, 130, 140]
+
+        expect:
+        AdaptiveIterations.steadyStateStart(warmingUp, 2) == 5
+        AdaptiveIterations.steadyStateStart(neverSteady, 2) == -1
+        AdaptiveIterations.relativeHalfWidth([100] as double[]) == Double.POSITIVE_INFINITY
+        AdaptiveIterations.relativeHalfWidth([99, 101] as double[]) > 600
+        AdaptiveIterations.relativeHalfWidth([99, 101, 100, 100, 99, 101, 100, 100, 99, 101] as double[]) < 2
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class BenchmarkComparisonTest extends Specification {
+    def "benchmarks only regress when the change is statistically significant"() {
+        given:
+        def score = { String name, String mode, List<Double> values ->
+            new BenchmarkScores.Score(name, mode, [:], 'ops/s', values.sum() / values.size(), 0d, values as double[])
+        }
+        def baseline = [
+                score('a', 'thrpt', [100d, 101d, 99d, 100d, 100d]),
+                score('b', 'thrpt', [100d, 101d, 99d, 100d, 100d]),
+                score('c', 'avgt', [10d, 10.1d, 9.9d]),
+                score('d', 'avgt', [10d, 10.1d, 9.9d]),
+        ].collectEntries { [it.key, it] }
+        def current = [
+                score('a', 'thrpt', [80d, 81d, 79d, 80d, 80d]),
+                score('b', 'thrpt', [50d, 150d, 110d, 80d, 100d]),
+                score('c', 'avgt', [8d, 8.1d, 7.9d]),
+                score('e', 'avgt', [1d, 1d, 1d]),
+        ].collectEntries { [it.key, it] }
+
+        when:
+        def verdicts = BenchmarkComparison.compare(baseline, current, 5d, 0.05d).collectEntries { [it.key, it.verdict] }
+
+        then:
+        verdicts == [
+                'a thrpt': BenchmarkComparison.Verdict.REGRESSED,
+                'b thrpt': BenchmarkComparison.Verdict.UNCHANGED,
+                'c avgt' : BenchmarkComparison.Verdict.IMPROVED,
+                'e avgt' : BenchmarkComparison.Verdict.NEW,
+                'd avgt' : BenchmarkComparison.Verdict.REMOVED,
+        ]
+    }
+
+    def "baseline scores are converted to the unit of the results before being compared"() {
+        given:
+        def baseline = [
+                new BenchmarkScores.Score('a', 'avgt', [:], 'us/op', 1d, 0.01d, [1d, 1.01d, 0.99d, 1d] as double[]),
+                new BenchmarkScores.Score('b', 'avgt', [:], 'us/op', 1d, 0.01d, [1d, 1.01d, 0.99d, 1d] as double[]),
+                new BenchmarkScores.Score('c', 'avgt', [:], 'B/op', 1d, 0.01d, [1d, 1.01d, 0.99d, 1d] as double[]),
+        ].collectEntries { [it.key, it] }
+        def current = [
+                new BenchmarkScores.Score('a', 'avgt', [:], 'ns/op', 1000d, 10d, [1000d, 1010d, 990d, 1000d] as double[]),
+                new BenchmarkScores.Score('b', 'avgt', [:], 'ns/op', 1500d, 10d, [1500d, 1510d, 1490d, 1500d] as double[]),
+                new BenchmarkScores.Score('c', 'avgt', [:], 'ns/op', 1d, 0.01d, [1d, 1.01d, 0.99d, 1d] as double[]),
+        ].collectEntries { [it.key, it] }
+
+        when:
+        def deltas = BenchmarkComparison.compare(baseline, current, 5d, 0.05d).collectEntries { [it.key, it] }
+
+        then:
+        deltas['a avgt'].verdict == BenchmarkComparison.Verdict.UNCHANGED
+        Math.abs(deltas['a avgt'].changePercent) < 1e-9
+        deltas['b avgt'].verdict == BenchmarkComparison.Verdict.REGRESSED
+        Math.abs(deltas['b avgt'].changePercent - 50d) < 1e-9
+        deltas['c avgt'].verdict == BenchmarkComparison.Verdict.NOT_COMPARABLE
+        deltas['c avgt'].toString().contains("B/op can't be converted to ns/op")
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class BenchmarkHistoryTest extends Specification {
+    def "scores are appended to the history of each benchmark"() {
+        given:
+        File dir = File.createTempDir()
+        BenchmarkHistory history = new BenchmarkHistory(dir)
+        def score = { String name, double value ->
+            new BenchmarkScores.Score(name, 'avgt', [size: '10'], 'ns/op', value, 0.5d, [value] as double[])
+        }
+
+        when:
+        history.record(new BenchmarkHistory.Run('1', 1000L, 'abc', 'jdk 17', 'host'), [score('a', 10d), score('b', 20d)])
+        history.record(new BenchmarkHistory.Run('2', 2000L, 'def', 'jdk 17', 'host'), [score('a', 11d)])
+
+        then:
+        history.readIndex().keySet() == ['a avgt {size=10}', 'b avgt {size=10}'] as Set
+        history.seriesOf('a avgt {size=10}')*.score == [10d, 11d]
+        history.seriesOf('a avgt {size=10}')*.commit == ['abc', 'def']
+        history.seriesOf('b avgt {size=10}')*.runId == ['1']
+        history.seriesOf('c avgt').empty
+
+        cleanup:
+        dir.deleteDir()
+    }
+
+    def "damaged lines of the history are ignored"() {
+        given:
+        File dir = File.createTempDir()
+        BenchmarkHistory history = new BenchmarkHistory(dir)
+        def score = new BenchmarkScores.Score('a', 'avgt', [:], 'ns/op', 10d, 0.5d, [10d] as double[])
+        history.record(new BenchmarkHistory.Run('1', 1000L, 'abc', 'jdk 17', 'host'), [score])
+        File series = new File(dir, "series/${history.readIndex()['a avgt']}")
+
+        when:
+        series << "2\t2000\tdef\tjvm\thost\t1x.5\t0.5\tns/op\n"
+        series << "3\t3000\n"
+        series << "4\t4000\tghi\tjvm\thost\t12"
+        new File(dir, 'index.tsv') << 'b avgt'
+
+        then:
+        history.readIndex().keySet() == ['a avgt'] as Set
+        history.seriesOf('a avgt')*.runId == ['1']
+
+        cleanup:
+        dir.deleteDir()
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class ContentionProfileTest extends Specification {
+    def "blocked time is reported per operation for each thread count"() {
+        given:
+        ContentionProfile profile = new ContentionProfile()
+        profile.addIteration(0, 1_000, 2, 100, 50.0, 'ops/us')
+        profile.addIteration(1_000, 2_000, 2, 100, 60.0, 'ops/us')
+        profile.addIteration(5_000, 6_000, 4, 200, 40.0, 'ops/us')
+        def cacheGet = ['java.lang.Thread.run:840', 'com.acme.Cache.get:42', 'java.util.concurrent.locks.LockSupport.park:211', 'jdk.internal.misc.Unsafe.park']
+        profile.addEvent(ContentionProfile.Kind.THREAD_PARK, 100, 300, 'java.util.concurrent.locks.ReentrantLock$NonfairSync', cacheGet)
+        profile.addEvent(ContentionProfile.Kind.THREAD_PARK, 1_900, 500, 'java.util.concurrent.locks.ReentrantLock$NonfairSync', cacheGet)
+        profile.addEvent(ContentionProfile.Kind.MONITOR_ENTER, 5_500, 1_000, 'com.acme.Cache', ['com.acme.Cache.put:57'])
+        // between iterations, so not measured
+        profile.addEvent(ContentionProfile.Kind.MONITOR_ENTER, 3_000, 1_000, 'com.acme.Cache', ['com.acme.Cache.put:57'])
+
+        when:
+        def summaries = profile.summaries()
+        String html = profile.html('com.acme.Cache.get-thrpt contention', 10)
+
+        then:
+        summaries.collect { it.threads } == [2, 4]
+        summaries[0].score == 55.0
+        summaries[0].events == 2
+        summaries[0].blockedNanosPerOperation == 2.0
+        summaries[0].blockedShare == 0.1
+        summaries[1].blockedNanosPerOperation == 2.5
+        ContentionProfile.stackKey(ContentionProfile.Kind.THREAD_PARK, 'java.util.concurrent.locks.ReentrantLock$NonfairSync', cacheGet) ==
+                'park\njava.util.concurrent.locks.ReentrantLock$NonfairSync\ncom.acme.Cache.get:42\njava.lang.Thread.run:840'
+        html.contains('<td class="stack">com.acme.Cache.get:42<br>java.lang.Thread.run:840</td>')
+    }
+}
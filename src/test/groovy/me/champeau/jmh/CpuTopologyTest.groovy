@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class CpuTopologyTest extends Specification {
+    def "CPUs are split into disjoint sets following NUMA nodes"() {
+        given:
+        CpuTopology topology = new CpuTopology([0: CpuTopology.parseCpuList('0-3'), 1: CpuTopology.parseCpuList('4-6,8')])
+
+        when:
+        List<CpuTopology.CpuSet> sets = topology.split(2)
+
+        then:
+        sets*.cpuList == ['0-3', '4-6,8']
+        sets*.nodeList == ['0', '1']
+
+        when:
+        sets = topology.split(3)
+
+        then:
+        sets*.cpuList == ['0-1', '2-3', '4-5']
+        sets*.size() == [2, 2, 2]
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class FlameGraphTest extends Specification {
+    def "execution samples are folded into stacks and hot methods"() {
+        given:
+        FlameGraph graph = new FlameGraph()
+        graph.add(['main', 'run', 'parse'], 3)
+        graph.add(['main', 'run', 'parse', 'parse'], 1)
+        graph.add(['main', 'run'], 2)
+        graph.add(['main', 'gc'], 4)
+
+        when:
+        def hot = graph.hotMethods(2)
+        String html = graph.html('com.acme.Codec.decode-thrpt', 2)
+
+        then:
+        graph.samples == 10
+        graph.folded() == """main;gc 4
+main;run 2
+main;run;parse 3
+main;run;parse;parse 1
+"""
+        hot*.method == ['gc', 'parse']
+        hot*.self == [4, 4]
+        hot*.total == [4, 4]
+        html.contains('<td>parse</td><td>4</td><td>40.00%</td><td>40.00%</td>')
+        html.contains('{"n":"all","v":10,"c":[{"n":"main","v":10,')
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import org.gradle.api.Project
+import org.gradle.process.ExecOperations
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class GitTest extends Specification {
+    @TempDir
+    File repositoryDir
+
+    Git git
+
+    def setup() {
+        Project project = ProjectBuilder.builder().build()
+        git = new Git(project.services.get(ExecOperations), repositoryDir)
+        git.run('init', '-q')
+        4.times { i ->
+            new File(repositoryDir, 'file.txt') << "change $i\n"
+            git.run('add', 'file.txt')
+            git.run('-c', 'user.name=Bisect', '-c', 'user.email=bisect@example.com', 'commit', '-q', '-m', "Change $i")
+        }
+    }
+
+    def "bisect stops once only skipped commits are left"() {
+        when:
+        List<String> output = git.bisect('start', 'HEAD', 'HEAD~3')
+        int steps = 0
+        while (!JmhBisectTask.onlySkippedCommitsLeft(output) && steps < 3) {
+            // git exits with 2 once only skipped commits are left
+            output = git.bisect('skip')
+            steps++
+        }
+        git.bisect('reset')
+
+        then:
+        JmhBisectTask.onlySkippedCommitsLeft(output)
+        output.containsAll(git.run('rev-list', 'HEAD~3..HEAD'))
+    }
+
+    def "other failures of git commands are reported"() {
+        when:
+        git.run('bisect', 'skip')
+
+        then:
+        thrown(Exception)
+    }
+}
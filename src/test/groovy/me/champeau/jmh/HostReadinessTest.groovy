@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class HostReadinessTest extends Specification {
+    def "host readiness is read from sysfs and procfs"() {
+        given:
+        File root = File.createTempDir()
+        def write = { String path, String content ->
+            File file = new File(root, path)
+            file.parentFile.mkdirs()
+            file.text = content
+        }
+        write('sys/devices/system/cpu/cpu0/cpufreq/scaling_governor', 'performance\n')
+        write('sys/devices/system/cpu/cpu1/cpufreq/scaling_governor', 'powersave\n')
+        write('sys/devices/system/cpu/intel_pstate/no_turbo', '0\n')
+        write('sys/devices/system/cpu/smt/active', '0\n')
+        write('proc/loadavg', '3.50 1.20 0.80 2/345 6789\n')
+        write('proc/meminfo', 'MemTotal:       16384000 kB\nMemFree:         1000000 kB\nMemAvailable:    8192000 kB\n')
+        write('sys/kernel/mm/transparent_hugepage/enabled', 'always [madvise] never\n')
+
+        when:
+        def checks = HostReadiness.check(root.toPath(), 8).collectEntries { [it.name, it] }
+
+        then:
+        checks.keySet() == ['governor', 'turbo', 'load', 'smt', 'memory', 'thp'] as Set
+        !checks.governor.ready
+        checks.governor.value == 'performance,powersave'
+        !checks.turbo.ready
+        // a load of 3.5 is too much for 8 CPUs
+        !checks.load.ready
+        checks.smt.ready
+        checks.memory.ready
+        checks.memory.value == String.valueOf(8192000L * 1024)
+        checks.thp.ready
+        checks.thp.value == 'madvise'
+        // checks which can't be performed are skipped
+        HostReadiness.check(new File(root, 'missing').toPath(), 8).empty
+
+        cleanup:
+        root.deleteDir()
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class InliningTreeTest extends Specification {
+    def "inlining tree of a benchmark is read from the compilation log"() {
+        given:
+        File log = File.createTempFile('compilation', '.log')
+        log.text = '''<?xml version='1.0' encoding='UTF-8'?>
+<hotspot_log version='160 1' process='42'>
+<compilation_log thread='7'>
+<task compile_id='10' method='com.acme.Codec decode ()I' bytes='20' level='3'>
+<klass id='1' name='com.acme.Codec' flags='1'/>
+<method id='2' holder='1' name='decode' return='3' bytes='20'/>
+<parse method='2'>
+</parse>
+</task>
+<task compile_id='12' method='com.acme.jmh_generated.Codec_decode_jmhTest decode_avgt_jmhStub ()V' bytes='50'>
+<klass id='1' name='com/acme/Codec' flags='1'/>
+<klass id='4' name='com/acme/jmh_generated/Codec_decode_jmhTest' flags='1'/>
+<klass id='5' name='com/acme/Decoder' flags='1'/>
+<klass id='6' name='com/acme/Utf8Decoder' flags='1'/>
+<klass id='7' name='com/acme/AsciiDecoder' flags='1'/>
+<method id='8' holder='4' name='decode_avgt_jmhStub' bytes='50'/>
+<method id='2' holder='1' name='decode' bytes='20'/>
+<method id='9' holder='5' name='next' bytes='0'/>
+<method id='10' holder='1' name='slowPath' bytes='400'/>
+<parse method='8'>
+<bc code='182' bci='17'/>
+<call method='2' count='1000' prof_factor='1' inline='1'/>
+<inline_success reason='inline (hot)'/>
+<parse method='2'>
+<bc code='185' bci='4'/>
+<call method='9' count='1000' prof_factor='1' virtual='1' inline='1' receiver='6' receiver_count='500' receiver2='7' receiver2_count='400'/>
+<inline_fail reason='virtual call'/>
+<virtual_call bci='4'/>
+<bc code='182' bci='12'/>
+<call method='10' count='900' prof_factor='1' inline='1'/>
+<inline_fail reason='hot method too big'/>
+<direct_call bci='12'/>
+</parse>
+</parse>
+<task_done success='1'/>
+</task>
+</compilation_log>
+</hotspot_log>
+'''
+
+        when:
+        InliningTree tree = InliningTree.read(log, 'com.acme.Codec.decode')
+        String rendered = tree.render()
+
+        then:
+        tree.compileId == 12
+        rendered == '''com.acme.Codec::decode (20 bytes)
+  @ 4 com.acme.Decoder::next (0 bytes)  failed: virtual call  [megamorphic, profiled com.acme.Utf8Decoder (500), com.acme.AsciiDecoder (400)]
+  @ 12 com.acme.Codec::slowPath (400 bytes)  failed: hot method too big
+'''
+        InliningReports.highlightOf(rendered.readLines()[1]) == 'megamorphic'
+        InliningReports.highlightOf(rendered.readLines()[2]) == 'failed'
+
+        cleanup:
+        log.delete()
+    }
+
+    def "inlining trees are compared with the previous run"() {
+        given:
+        String previous = '''com.acme.Codec::decode (20 bytes)
+  @ 4 com.acme.Codec::header (30 bytes)  inline (hot)
+    @ 2 com.acme.Codec::check (10 bytes)  inline (hot)
+  @ 9 com.acme.Decoder::next (0 bytes)  failed: virtual call  [megamorphic, profiled com.acme.Utf8Decoder (500)]
+'''
+        String current = '''com.acme.Codec::decode (22 bytes)
+  @ 4 com.acme.Codec::header (340 bytes)  failed: hot method too big
+  @ 11 com.acme.Decoder::next (0 bytes)  failed: virtual call  [megamorphic, profiled com.acme.Utf8Decoder (480)]
+  @ 15 com.acme.Codec::trailer (12 bytes)  inline (hot)
+'''
+
+        expect:
+        InliningTree.diff(previous, current) == [
+                '~ com.acme.Codec::header  (30 bytes)  inline (hot) -> (340 bytes)  failed: hot method too big',
+                '+ com.acme.Codec::trailer  (12 bytes)  inline (hot)'
+        ]
+        InliningTree.diff(current, current).empty
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class InterleavedComparisonTest extends Specification {
+    def "interleaved rounds give the ratio of the scores with a confidence interval"() {
+        given:
+        def round = { double score ->
+            def s = new BenchmarkScores.Score('a', 'avgt', [:], 'ns/op', score, 0d, [score] as double[])
+            [(s.key): s]
+        }
+        def baseline = [round(10d), round(12d), round(11d), round(10d)]
+        def current = [round(9d), round(10.7d), round(10d), round(9.1d)]
+
+        when:
+        def ratios = InterleavedComparison.of(baseline, current, 0.95d)
+
+        then:
+        ratios.size() == 1
+        ratios[0].rounds == 4
+        Math.abs(ratios[0].ratio - 0.9) < 0.01
+        ratios[0].lower < ratios[0].ratio
+        ratios[0].upper > ratios[0].ratio
+        ratios[0].upper < 1d
+        ratios[0].verdict == BenchmarkComparison.Verdict.IMPROVED
+    }
+
+    def "interleaved rounds compare scores in the unit of the current version"() {
+        given:
+        def round = { String name, String unit, double score ->
+            def s = new BenchmarkScores.Score(name, 'avgt', [:], unit, score, 0d, [score] as double[])
+            [(s.key): s]
+        }
+        def baseline = (1..3).collect { round('a', 'us/op', 1d) + round('b', 'B/op', 10d) }
+        def current = [0.9d, 0.91d, 0.89d].collect { round('a', 'ns/op', it * 1000) + round('b', 'ns/op', 10d) }
+
+        when:
+        def ratios = InterleavedComparison.of(baseline, current, 0.95d).collectEntries { [it.key, it] }
+
+        then:
+        Math.abs(ratios['a avgt'].ratio - 0.9) < 0.01
+        ratios['a avgt'].verdict == BenchmarkComparison.Verdict.IMPROVED
+        ratios['b avgt'].verdict == BenchmarkComparison.Verdict.NOT_COMPARABLE
+        ratios['b avgt'].toString().contains("B/op can't be converted to ns/op")
+    }
+}
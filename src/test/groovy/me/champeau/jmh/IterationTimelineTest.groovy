@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class IterationTimelineTest extends Specification {
+    def "iterations which overlap events of the JVM are flagged"() {
+        given:
+        IterationTimeline timeline = new IterationTimeline()
+        timeline.addIteration('2@host', 1, 3_000, 4_000, 12.0, 'ns/op')
+        timeline.addIteration('1@host', 1, 0, 1_000, 10.0, 'ns/op')
+        timeline.addIteration('1@host', 2, 1_000, 2_000, 20.0, 'ns/op')
+        timeline.addIteration('1@host', 3, 2_000, 2_900, 11.0, 'ns/op')
+        timeline.addEvent(IterationTimeline.Kind.COMPILATION, 1_200, 1_300, 100, 'C2 compilation of com.acme.Codec.decode')
+        timeline.addEvent(IterationTimeline.Kind.SAFEPOINT, 100, 105, 5, 'safepoint')
+        timeline.addEvent(IterationTimeline.Kind.SAFEPOINT, 2_880, 2_950, 70, 'safepoint')
+        timeline.addEvent(IterationTimeline.Kind.GC, 3_500, 3_600, 50, 'G1 Young Generation (G1 Evacuation Pause)')
+
+        when:
+        def rows = timeline.rows()
+        String html = timeline.html('com.acme.Codec.decode-avgt iterations')
+
+        then:
+        rows.collect { [it.fork, it.iteration, it.flagged] } == [[1, 1, false], [1, 2, true], [1, 3, true], [2, 1, true]]
+        rows[1].count(IterationTimeline.Kind.COMPILATION) == 1
+        rows[2].count(IterationTimeline.Kind.SAFEPOINT) == 1
+        html.contains('3 of 4 measurement iterations')
+        html.contains('C2 compilation of com.acme.Codec.decode')
+        html.contains('+73.91%')
+        html.contains('safepoints during 2.2% of the iteration')
+    }
+}
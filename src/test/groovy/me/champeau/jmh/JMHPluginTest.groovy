@@ -19,6 +19,7 @@ import com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar
 import org.gradle.api.Project
 import org.gradle.api.file.DuplicatesStrategy
 import org.gradle.api.tasks.bundling.Jar
+import org.gradle.api.tasks.bundling.ZipEntryCompression
 import org.gradle.testfixtures.ProjectBuilder
 import spock.lang.Specification
 
@@ -87,6 +88,44 @@ class JMHPluginTest extends Specification {
 
     }
 
+    def "jmhJar entries are compressed using #compression compression"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh.jarCompression.set(compression)
+
+        then:
+        Jar task = project.tasks.findByName('jmhJar')
+        task.entryCompression == entryCompression
+
+        where:
+        compression | entryCompression
+        'deflated'  | ZipEntryCompression.DEFLATED
+        'stored'    | ZipEntryCompression.STORED
+        'parallel'  | ZipEntryCompression.STORED
+    }
+
+    def "jmhJar is reproducible"() {
+        when:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        then:
+        Jar task = project.tasks.findByName('jmhJar')
+        !task.preserveFileTimestamps
+        task.reproducibleFileOrder
+    }
+
     def "all JMH tasks belong to the JMH group"() {
         when:
         Project project = ProjectBuilder.builder().build()
@@ -123,6 +162,369 @@ class JMHPluginTest extends Specification {
         ]
     }
 
+    def "jmh task runs from the jar by default"() {
+        when:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        then:
+        JMHTask task = project.tasks.findByName('jmh')
+        task.jarArchive.present
+        task.benchmarkClasspath.empty
+    }
+
+    def "jmh task doesn't use the jar with an exploded classpath"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh.explodedClasspath.set(true)
+
+        then:
+        JMHTask task = project.tasks.findByName('jmh')
+        !task.jarArchive.present
+        task.benchmarkClasspath.files.contains(project.file('build/jmh-generated-resources'))
+    }
+
+    def "affected benchmarks are computed from the generated classes too"() {
+        when:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        then:
+        project.tasks.findByName('jmhAffected') instanceof JMHTask
+        JmhAffectedBenchmarksTask task = project.tasks.findByName('jmhAffectedBenchmarks')
+        task.classesDirs.files.contains(project.file('build/jmh-generated-classes'))
+    }
+
+    def "affected benchmarks are restricted to the includes of the jmh block"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            includes = ['Codec']
+            excludes = ['Slow']
+        }
+        JmhAffectedBenchmarksTask task = project.tasks.findByName('jmhAffectedBenchmarks')
+        Set<String> benchmarks = JmhAffectedBenchmarksTask.selectedBenchmarksOf(
+                ['com.acme.CodecBenchmark', 'com.acme.Outer$Inner'] as Set,
+                ['com.acme.CodecBenchmark.encode', 'com.acme.Outer.Inner.bar', 'com.acme.CodecBenchmarkOther.foo'] as Set)
+
+        then:
+        task.includes.get() == ['Codec']
+        task.excludes.get() == ['Slow']
+        task.benchmarkList.get().asFile == project.file('build/jmh-generated-resources/META-INF/BenchmarkList')
+        benchmarks == ['com.acme.CodecBenchmark.encode', 'com.acme.Outer.Inner.bar'] as Set
+    }
+
+    def "shards only run concurrently when they are pinned to disjoint CPUs"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            shards = 4
+        }
+
+        then:
+        project.jmh.maxParallelShards.get() == 1
+
+        when:
+        project.jmh {
+            pinCores = true
+        }
+
+        then:
+        project.jmh.maxParallelShards.get() == 4
+    }
+
+    def "shards running one after the other share the time budget"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            shards = 4
+            timeBudget = '1h'
+        }
+        project.evaluate()
+        JMHTask shard = project.tasks.findByName('jmhShard1')
+
+        then:
+        TimeBudget.parseDuration(shard.timeBudget.get()) == 900_000
+        TimeBudget.parseDuration(TimeBudget.shareOf('1h', 4, 2)) == 1_800_000
+        TimeBudget.parseDuration(TimeBudget.shareOf('1h', 4, 8)) == 3_600_000
+        TimeBudget.shareOf('soon', 4, 1) == 'soon'
+    }
+
+    def "shards are planned with the settings of the jmh block"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            shards = 2
+            excludes = ['Slow']
+            fork = 2
+        }
+        project.evaluate()
+        JmhShardPlanTask task = project.tasks.findByName('jmhShardPlan')
+
+        then:
+        task.shards.get() == 2
+        task.jmhArguments.get() == ['-e', 'Slow', '-f', '2']
+    }
+
+    def "interleaved rounds run with the settings of the jmh block"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            includes = ['Parser']
+            iterations = 10
+            resultFormat = 'JSON'
+        }
+        JmhInterleavedTask task = project.tasks.findByName('jmhInterleaved')
+
+        then:
+        task.jmhArguments.get() == ['Parser', '-i', '10']
+    }
+
+    def "bisect runs fewer iterations than the jmh task"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            iterations = 10
+            timeUnit = 'ms'
+        }
+        JmhBisectTask task = project.tasks.findByName('jmhBisect')
+
+        then:
+        task.iterations.get() == 3
+        task.warmupIterations.get() == 2
+        task.fork.get() == 1
+        task.jmhArguments.get() == ['-i', '10', '-tu', 'ms']
+        task.badRevision.get() == 'HEAD'
+    }
+
+    def "performance budgets are declared in the DSL and checked in any unit"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            budgets {
+                'com.acme.Codec.decode' {
+                    maxScore = '120 ns/op'
+                    maxAllocBytesPerOp = 0
+                }
+                'com.acme.Codec.encode.*' {
+                    minScore = '10 ops/us'
+                }
+            }
+        }
+        JMHTask task = project.tasks.findByName('jmh')
+        def scores = [
+                new BenchmarkScores.Score('com.acme.Codec.decode', 'thrpt', [:], 'ops/ms', 10000d, 0d, [] as double[],
+                        ['gc.alloc.rate.norm': 16d]),
+                new BenchmarkScores.Score('com.acme.Codec.encodeFast', 'avgt', [:], 'us/op', 0.2d, 0d, [] as double[]),
+        ].collectEntries { [it.key, it] }
+        def rows = BudgetCheck.check(task.budgets, scores)
+
+        then:
+        task.budgets.names == ['com.acme.Codec.decode', 'com.acme.Codec.encode.*'] as SortedSet
+        rows*.passed == [true, false, false]
+        BudgetCheck.table(rows).readLines()[1].split(/\s{2,}/) == ['com.acme.Codec.decode thrpt', 'score', '100.000 ns/op', '<= 120.000 ns/op', 'OK']
+        BudgetCheck.Quantity.parse('2 ms/op').convert(BudgetCheck.Quantity.of(500, 'ops/s')) == 2d
+    }
+
+    def "JFR recording is configured in the DSL"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            jfr {
+                enabled = true
+                settings = 'default'
+            }
+        }
+        JMHTask task = project.tasks.findByName('jmh')
+        JmhJfrReportTask report = project.tasks.findByName('jmhJfrReport')
+
+        then:
+        task.jfr.enabled.get()
+        task.jfr.settings.get() == 'default'
+        task.jfr.jvmEvents.get()
+        task.jfrRecordingsDir.get().asFile == project.file('build/results/jmh/jfr')
+        report.recordings.files == [project.file('build/results/jmh/jfr')] as Set
+        report.topMethods.get() == 20
+    }
+
+    def "allocations are written next to the results"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            profileAllocations = true
+            resultFormat = 'JSON'
+        }
+        JMHTask task = project.tasks.findByName('jmh')
+
+        then:
+        task.profileAllocations.get()
+        !task.jfr.enabled.get()
+        task.allocationsFile.get().asFile == project.file('build/results/jmh/results.allocations.json')
+    }
+
+    def "inlining diagnostics are configured in the DSL"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            inliningDiagnostics = true
+            profileContention = true
+        }
+        JMHTask task = project.tasks.findByName('jmh')
+        JmhInliningReportTask report = project.tasks.findByName('jmhInliningReport')
+
+        then:
+        task.inliningDiagnostics.get()
+        task.profileContention.get()
+        task.compilationLogsDir.get().asFile == project.file('build/results/jmh/compilation')
+        report.compilationLogs.files == [project.file('build/results/jmh/compilation')] as Set
+        report.reportDir.get().asFile == project.file('build/reports/jmh/inlining')
+    }
+
+    def "execution parameters don't select benchmarks nor tell where to write results"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            includes = ['Foo']
+            excludes = ['Bar']
+            fork = 2
+            humanOutputFile = project.file('build/human.txt')
+        }
+        JMHTask task = project.tasks.findByName('jmh')
+        List<String> all = []
+        List<String> execution = []
+        ParameterConverter.collectParameters(task, all)
+        ParameterConverter.collectExecutionParameters(task, execution)
+
+        then:
+        all.containsAll(['Foo', '-e', 'Bar', '-o', '-rf', '-rff', '-f', '2'])
+        execution == ['-f', '2', '-foe', '0', '-gc', '0']
+    }
+
+    def "parameters are collected as typed options to run JMH in a worker"() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.repositories {
+            mavenCentral()
+        }
+        project.apply plugin: 'java'
+        project.apply plugin: 'me.champeau.jmh'
+
+        when:
+        project.jmh {
+            includes = ['Foo']
+            fork = 2
+            jvmArgsAppend = ['-Xmx1g', '-Dfoo=a b']
+            benchmarkParameters = [size: project.objects.listProperty(String).value(['1', '10'])]
+            runInWorker = true
+        }
+        JMHTask task = project.tasks.findByName('jmh')
+        Map<String, Object> options = [:]
+        ParameterConverter.collectOptions(task, options)
+        JMHTask.pinForks(options, new File('pinned-java'), new CpuTopology([0: [2, 3]]).split(1)[0])
+
+        then:
+        task.runInWorker.get()
+        options[''] == ['Foo']
+        options.f == 2
+        options.foe == false
+        options.p == [size: ['1', '10']]
+        options.jvm == new File('pinned-java').absolutePath
+        options.jvmArgsAppend == ['-Xmx1g', '-Dfoo=a b', '-XX:ActiveProcessorCount=2']
+        options.rff == task.resultsFile.get().asFile.absolutePath
+    }
+
     void "default duplicates strategy is to include"() {
         when:
         Project project = ProjectBuilder.builder().build()
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JMHTaskTest extends Specification {
+    def "benchmark forks are pinned using a launcher"() {
+        given:
+        CpuTopology.CpuSet cpus = new CpuTopology([0: [2, 3]]).split(1)[0]
+        File launcher = new File('pinned-java')
+        List<String> args = ['-f', '1', '-jvmArgsAppend', '-Xmx1g']
+
+        when:
+        JMHTask.pinForks(args, launcher, cpus)
+
+        then:
+        args == ['-f', '1', '-jvmArgsAppend', '-Xmx1g', '-jvmArgsAppend', '-XX:ActiveProcessorCount=2', '-jvm', launcher.absolutePath]
+    }
+
+    def "JVM arguments are appended to the forks after the configured ones"() {
+        given:
+        List<String> args = ['-jvmArgsAppend', '-Xmx1g']
+
+        when:
+        JMHTask.appendJvmArgs(args, ['-XX:+UnlockDiagnosticVMOptions', '-XX:+LogCompilation'])
+
+        then:
+        args == ['-jvmArgsAppend', '-Xmx1g', '-jvmArgsAppend', '-XX:+UnlockDiagnosticVMOptions', '-jvmArgsAppend', '-XX:+LogCompilation']
+    }
+
+    def "JVM arguments appended to the forks may contain spaces"() {
+        given:
+        List<String> configured = ['-jvmArgsAppend', '-Xmx1g "-Dfoo=a b"', '-f', '1']
+        List<String> single = []
+
+        when:
+        JMHTask.appendJvmArgs(configured, ['-XX:LogFile=/tmp/my logs/compilation.log'])
+        JMHTask.appendJvmArgs(single, ['-XX:LogFile=/tmp/my logs/compilation.log'])
+
+        then:
+        configured == ['-jvmArgsAppend', '-Xmx1g', '-jvmArgsAppend', '-Dfoo=a b', '-jvmArgsAppend', '-XX:LogFile=/tmp/my logs/compilation.log', '-f', '1']
+        single == ['-jvmArgsAppend', '"-XX:LogFile=/tmp/my logs/compilation.log"']
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JfrReportsTest extends Specification {
+    def "stack traces which allocate the most are listed first"() {
+        when:
+        String table = JfrReports.topStacks([
+                'byte[]\ncom.acme.Codec.decode:42\ncom.acme.Bench.run:10': 300L,
+                'java.lang.String\ncom.acme.Codec.name:7': 100L,
+                'java.lang.Object[]\ncom.acme.Codec.grow:12': 600L
+        ], 2)
+
+        then:
+        table.indexOf('java.lang.Object[]') < table.indexOf('byte[]')
+        !table.contains('java.lang.String')
+        table.contains('<td>byte[]</td><td>300</td><td>30.00%</td>')
+        table.contains('com.acme.Codec.decode:42<br>com.acme.Bench.run:10')
+        JfrReports.typeName('[B') == 'byte[]'
+        JfrReports.typeName('[[Ljava.lang.String;') == 'java.lang.String[][]'
+        JfrReports.typeName('java.lang.String') == 'java.lang.String'
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JmhAffectedBenchmarksTaskTest extends Specification {
+    def "affected benchmarks are converted to includes"() {
+        given:
+        File file = File.createTempFile('affected', '.txt')
+        file.text = 'com.acme.FooBenchmark.foo\ncom.acme.Outer.Inner.bar\n'
+
+        when:
+        List<String> includes = JmhAffectedBenchmarksTask.includesOf(file)
+
+        then:
+        includes.size() == 2
+        'com.acme.FooBenchmark.foo' =~ includes[0]
+        !('com.acme.FooBenchmark.fooBar' =~ includes[0])
+        'com.acme.Outer.Inner.bar' =~ includes[1]
+
+        cleanup:
+        file.delete()
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JmhBisectTaskTest extends Specification {
+    def "bisect steps are only good or bad when the difference is significant"() {
+        given:
+        def scores = { List<Double> values ->
+            def score = new BenchmarkScores.Score('a', 'avgt', [:], 'ns/op', values.sum() / values.size(), 0d, values as double[])
+            [(score.key): score]
+        }
+        def good = scores([100d, 101d, 99d])
+        def bad = scores([150d, 151d, 149d])
+        def regressions = JmhBisectTask.regressions(good, bad, 5d, 0.05d)
+
+        expect:
+        regressions == ['a avgt'] as Set
+        JmhBisectTask.verdict(regressions, good, bad, scores([100d, 100.5d, 99.5d]), 5d, 0.05d) == 'good'
+        JmhBisectTask.verdict(regressions, good, bad, scores([150d, 150.5d, 149.5d]), 5d, 0.05d) == 'bad'
+        // a single noisy iteration doesn't make the step bad
+        JmhBisectTask.verdict(regressions, good, bad, scores([100d, 250d, 99d]), 5d, 0.05d) == 'skip'
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JmhCompareTaskTest extends Specification {
+    def "differences between the hosts and JVMs of two runs are reported"() {
+        given:
+        Properties baseline = new Properties()
+        baseline.putAll(['host.cpu.model': 'Xeon', 'host.id': 'a', 'jvm.version': '17.0.9', 'jvm.home': '/a', 'cpu.pinned': 'false'])
+        Properties results = new Properties()
+        results.putAll(['host.cpu.model': 'EPYC', 'host.id': 'b', 'jvm.version': '17.0.9', 'jvm.home': '/b', 'jvm.flags': '-Xmx1g'])
+
+        expect:
+        JmhCompareTask.fingerprintDifferences(baseline, results) == [
+                '  host.cpu.model: Xeon (baseline) vs EPYC (results)',
+                '  jvm.flags: unknown (baseline) vs -Xmx1g (results)'
+        ]
+        JmhCompareTask.fingerprintDifferences(baseline, baseline).empty
+    }
+}
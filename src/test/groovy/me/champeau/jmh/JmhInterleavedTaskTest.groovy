@@ -0,0 +1,25 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JmhInterleavedTaskTest extends Specification {
+    def "interleaved rounds alternate which version runs first"() {
+        expect:
+        (1..6).collect { JmhInterleavedTask.baselineFirst(it) ? 'AB' : 'BA' }.join() == 'ABBAABBAABBA'
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class JmhTrendTaskTest extends Specification {
+    def "history entries are converted to the unit of the most recent one"() {
+        given:
+        def entry = { double score, String unit ->
+            new BenchmarkHistory.Entry('1', 1000L, 'abc', 'jvm', 'host', score, 0.1d, unit)
+        }
+
+        when:
+        def entries = JmhTrendTask.inLatestUnit([entry(2d, 'us/op'), entry(5d, 'B/op'), entry(2100d, 'ns/op')])
+
+        then:
+        entries*.unit == ['ns/op', 'ns/op']
+        entries*.score == [2000d, 2100d]
+    }
+}
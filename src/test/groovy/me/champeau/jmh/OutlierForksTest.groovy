@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class OutlierForksTest extends Specification {
+    def "forks far from the others or much noisier are outliers"() {
+        given:
+        double[] fork = [100, 101, 99]
+        double[] slowFork = [55, 56, 54]
+        double[] bimodalFork = [60, 140, 60, 140]
+
+        expect:
+        OutlierForks.detect([fork, fork, slowFork, fork]).keySet() == [2] as Set
+        OutlierForks.detect([fork, fork, slowFork, fork])[2].contains('45.0% below the median')
+        OutlierForks.detect([fork, bimodalFork, fork]).keySet() == [1] as Set
+        OutlierForks.detect([fork, [102, 100, 101] as double[], [98, 97, 99] as double[]]).isEmpty()
+        // outliers can't be detected with less than 3 forks
+        OutlierForks.detect([fork, slowFork]).isEmpty()
+    }
+}
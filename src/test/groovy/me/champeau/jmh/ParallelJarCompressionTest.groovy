@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream
+import org.apache.commons.compress.archivers.zip.ZipFile
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+
+class ParallelJarCompressionTest extends Specification {
+    @TempDir
+    File temporaryDir
+
+    def "entries of a stored jar are deflated in their original order"() {
+        given:
+        def contents = [
+                'META-INF/MANIFEST.MF': 'Manifest-Version: 1.0\n',
+                'b/B.class'           : 'B' * 1000,
+                'a/A.class'           : 'A' * 5000,
+                'z.txt'               : 'some text',
+        ]
+        def jar = new File(temporaryDir, 'benchmarks.jar')
+        new ZipArchiveOutputStream(jar).withCloseable { out ->
+            out.putArchiveEntry(storedDirectory('META-INF/'))
+            out.closeArchiveEntry()
+            contents.each { name, text ->
+                out.putArchiveEntry(storedEntry(name, text.bytes))
+                out.write(text.bytes)
+                out.closeArchiveEntry()
+            }
+        }
+
+        when:
+        ParallelJarCompression.compress(jar, false, 2)
+
+        then:
+        ZipFile.builder().setFile(jar).get().withCloseable { zip ->
+            def entries = Collections.list(zip.entries)
+            assert entries*.name == ['META-INF/'] + contents.keySet()
+            assert entries[0].method == ZipEntry.STORED
+            entries.drop(1).each { entry ->
+                def bytes = zip.getInputStream(entry).bytes
+                assert entry.method == ZipEntry.DEFLATED
+                assert new String(bytes) == contents[entry.name]
+                assert entry.crc == crcOf(bytes)
+                assert entry.unixMode == 0100644
+            }
+            assert entries.find { it.name == 'a/A.class' }.compressedSize < 5000
+            true
+        }
+    }
+
+    private static ZipArchiveEntry storedDirectory(String name) {
+        def entry = new ZipArchiveEntry(name)
+        entry.method = ZipEntry.STORED
+        entry.size = 0
+        entry.crc = 0
+        entry.unixMode = 040755
+        entry
+    }
+
+    private static ZipArchiveEntry storedEntry(String name, byte[] content) {
+        def entry = new ZipArchiveEntry(name)
+        entry.method = ZipEntry.STORED
+        entry.size = content.length
+        entry.crc = crcOf(content)
+        entry.unixMode = 0100644
+        entry
+    }
+
+    private static long crcOf(byte[] content) {
+        def crc = new CRC32()
+        crc.update(content)
+        crc.value
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class ShardPlanTest extends Specification {
+    def "benchmarks are split into shards of similar duration"() {
+        when:
+        ShardPlan plan = ShardPlan.of([a: 10L, b: 7L, c: 5L, d: 4L, e: 2L, f: 2L], 2)
+
+        then:
+        plan.size() == 2
+        plan.getBenchmarks(0) == ['a', 'd', 'f']
+        plan.getBenchmarks(1) == ['b', 'c', 'e']
+        plan.getEstimatedDuration(0) == 16L
+        plan.getEstimatedDuration(1) == 14L
+    }
+}
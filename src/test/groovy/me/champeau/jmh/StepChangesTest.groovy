@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class StepChangesTest extends Specification {
+    def "step changes of a series of scores are detected"() {
+        given:
+        double[] scores = [10, 10.2, 9.9, 10.1, 10, 9.8, 10.1, 12, 12.1, 11.9, 12.2, 12, 12.1, 11.8] as double[]
+
+        expect:
+        StepChanges.detect(scores, 4, 5d, 0.05d) == [7]
+        StepChanges.detect(scores[0..6] as double[], 3, 5d, 0.05d).empty
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.champeau.jmh
+
+import spock.lang.Specification
+
+class TimeBudgetTest extends Specification {
+    def "benchmarks are scaled down, then left out by weight, to fit a time budget"() {
+        given:
+        // 5 forks of 5 warmup and 5 measurement iterations of 10s, with 1 and 2 parameter combinations
+        Map<String, List<long[]>> shapes = [
+                'com.acme.A.run': [[1, 5, 0, 5, 5, 10000, 10000] as long[]],
+                'com.acme.B.run': [[2, 5, 0, 5, 5, 10000, 10000] as long[]]
+        ]
+        Map<String, Number> weights = ['B': 2]
+
+        when:
+        def unchanged = TimeBudget.plan(shapes, weights, TimeBudget.parseDuration('30m'))
+        def scaled = TimeBudget.plan(shapes, weights, TimeBudget.parseDuration('10m'))
+        def dropped = TimeBudget.plan(shapes, weights, TimeBudget.parseDuration('45s'))
+        List<String> args = ['Foo', '-e', 'Bar', '-f', '5']
+        JMHTask.applyPlan(args, dropped)
+
+        then:
+        TimeBudget.parseDuration('1h30m') == 5_400_000
+        !unchanged.scaled
+        unchanged.plannedMillis == 1_515_000
+        [scaled.forks, scaled.warmupIterations, scaled.iterations] == [3, 3, 3]
+        scaled.scaledBenchmarks.collectEntries { k, v -> [k, v as List] } == ['com.acme.A.run': [3, 3, 3], 'com.acme.B.run': [3, 3, 3]]
+        scaled.plannedMillis <= 600_000
+        dropped.dropped == ['com.acme.A.run']
+        dropped.durations == ['com.acme.B.run': 42_000L]
+        args == ['Foo', '-e', 'Bar,^\\Qcom.acme.A.run\\E$', '-f', '5']
+    }
+
+    def "a time budget never increases the forks and iterations of a benchmark"() {
+        given:
+        // A runs 5 forks of 5 warmup and 5 measurement iterations, B a single fork of 1 warmup and 2 measurement iterations
+        Map<String, List<long[]>> shapes = [
+                'com.acme.A.run': [[1, 5, 0, 5, 5, 10000, 10000] as long[]],
+                'com.acme.B.run': [[1, 1, 0, 1, 2, 10000, 10000] as long[]]
+        ]
+
+        when:
+        def plan = TimeBudget.plan(shapes, [:], TimeBudget.parseDuration('6m'))
+        def runs = TimeBudget.runsOf(['com.acme.A.run', 'com.acme.B.run', 'com.acme.C.run'], plan.scaledBenchmarks)
+
+        then:
+        plan.forks > 1
+        plan.scaledBenchmarks.keySet() == ['com.acme.A.run'] as Set
+        plan.durations['com.acme.B.run'] == 31_000L
+        plan.plannedMillis <= 360_000
+        runs == [
+                ([]): ['com.acme.B.run', 'com.acme.C.run'],
+                (plan.scaledBenchmarks['com.acme.A.run'] as List): ['com.acme.A.run']
+        ]
+    }
+}